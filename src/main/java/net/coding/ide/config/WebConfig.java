@@ -71,7 +71,7 @@ public class WebConfig extends WebMvcConfigurerAdapter {
     public void addCorsMappings(CorsRegistry registry) {
         registry.addMapping("/**")
                 .allowedOrigins(allowedOrigins)
-                .allowedMethods("POST", "GET", "PUT", "OPTIONS", "DELETE")
+                .allowedMethods("POST", "GET", "PUT", "PATCH", "OPTIONS", "DELETE")
                 .maxAge(3600)
                 .allowedHeaders("X-Requested-With", "X-Credentials", "X-Sharding-Group", "X-Space-Key", "content-type")
                 .exposedHeaders("Requests-Auth", "Requests-Auth-Url", "Requests-Auth-Return-Url")
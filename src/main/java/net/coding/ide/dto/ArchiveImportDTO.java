@@ -0,0 +1,36 @@
+/*
+ * Copyright (c) 2014-2016 CODING.
+ */
+
+package net.coding.ide.dto;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+
+import java.util.List;
+
+/**
+ * What an archive import has written.
+ */
+@Data
+@AllArgsConstructor(staticName = "of")
+public class ArchiveImportDTO {
+
+    /**
+     * the directory the archive is extracted into
+     */
+    private String path;
+
+    private int files;
+
+    /**
+     * the number of entries left out: links, entries out of the directory or into .git, and
+     * entries that could not be written
+     */
+    private int skipped;
+
+    /**
+     * the names of the first entries left out
+     */
+    private List<String> skippedNames;
+}
@@ -27,6 +27,18 @@ public class FileDTO {
 
     private String encoding;
 
+    private Long size;
+
+    /**
+     * the SHA-1 of the content, in hex
+     */
+    private String hash;
+
+    /**
+     * the content is only the head of a file too large to be read whole
+     */
+    private Boolean truncated;
+
     private FileDTO(String path, String content, String encoding, Boolean base64, Long lastModified) {
         this.path = path;
         this.content = content;
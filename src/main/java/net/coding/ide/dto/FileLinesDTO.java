@@ -0,0 +1,33 @@
+/*
+ * Copyright (c) 2014-2016 CODING.
+ */
+
+package net.coding.ide.dto;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+
+import java.util.List;
+
+/**
+ * A window of the lines of a file.
+ */
+@Data
+@AllArgsConstructor(staticName = "of")
+public class FileLinesDTO {
+
+    private String path;
+
+    /**
+     * the number of the first line, from 1
+     */
+    private int from;
+
+    private List<String> lines;
+
+    private int totalLines;
+
+    private Long lastModified;
+
+    private String encoding;
+}
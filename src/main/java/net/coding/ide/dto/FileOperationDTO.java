@@ -0,0 +1,44 @@
+/*
+ * Copyright (c) 2014-2016 CODING.
+ */
+
+package net.coding.ide.dto;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+/**
+ * An operation of a batch of file operations.
+ */
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class FileOperationDTO {
+
+    private Type type;
+
+    private String path;
+
+    /**
+     * where the file is moved or copied to
+     */
+    private String to;
+
+    /**
+     * whether a directory is deleted with what it holds
+     */
+    private boolean recursive;
+
+    /**
+     * whether an existing file is replaced by a move or a copy
+     */
+    private boolean force;
+
+    public enum Type {
+        DELETE,
+        MOVE,
+        COPY,
+        MKDIR
+    }
+}
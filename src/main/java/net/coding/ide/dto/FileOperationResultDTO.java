@@ -0,0 +1,27 @@
+/*
+ * Copyright (c) 2014-2016 CODING.
+ */
+
+package net.coding.ide.dto;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+
+/**
+ * The result of an operation of a batch, at the same index as the operation.
+ */
+@Data
+@AllArgsConstructor(staticName = "of")
+public class FileOperationResultDTO {
+
+    private FileOperationDTO.Type type;
+
+    private String path;
+
+    private boolean ok;
+
+    /**
+     * why the operation failed, {@code null} if it did not
+     */
+    private String error;
+}
@@ -0,0 +1,28 @@
+/*
+ * Copyright (c) 2014-2016 CODING.
+ */
+
+package net.coding.ide.dto;
+
+import lombok.Data;
+import net.coding.ide.model.TextEdit;
+
+import java.util.List;
+
+/**
+ * The edits of a save, against the version of the file with the base hash.
+ */
+@Data
+public class FilePatchDTO {
+
+    private String path;
+
+    private String encoding;
+
+    /**
+     * the hash of the version the edits were made against, as returned by a read or a save
+     */
+    private String baseHash;
+
+    private List<TextEdit> edits;
+}
@@ -0,0 +1,32 @@
+/*
+ * Copyright (c) 2014-2016 CODING.
+ */
+
+package net.coding.ide.dto;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+
+import java.util.List;
+
+/**
+ * The state of a chunked upload.
+ */
+@Data
+@AllArgsConstructor(staticName = "of")
+public class UploadDTO {
+
+    private String id;
+
+    /**
+     * where the file goes once the upload is complete
+     */
+    private String path;
+
+    private long size;
+
+    /**
+     * the byte ranges received so far, each as [start, end), the others are to be sent
+     */
+    private List<long[]> received;
+}
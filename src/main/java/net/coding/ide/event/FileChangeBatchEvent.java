@@ -0,0 +1,22 @@
+/*
+ * Copyright (c) 2014-2016 CODING.
+ */
+
+package net.coding.ide.event;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+
+import java.util.List;
+
+/**
+ * The changes of a workspace published together, in the order they happened.
+ */
+@Data
+@AllArgsConstructor
+public class FileChangeBatchEvent {
+
+    private String spaceKey;
+
+    private List<FileChangeEvent> changes;
+}
@@ -0,0 +1,27 @@
+/*
+ * Copyright (c) 2014-2016 CODING.
+ */
+
+package net.coding.ide.event;
+
+import lombok.Data;
+import lombok.EqualsAndHashCode;
+import net.coding.ide.model.FileInfo;
+
+/**
+ * A file renamed or moved within the workspace, published instead of a delete and a create.
+ */
+@Data
+@EqualsAndHashCode(callSuper = true)
+public class FileMoveEvent extends FileChangeEvent {
+
+    /**
+     * the path of the file before the move
+     */
+    private String oldPath;
+
+    public FileMoveEvent(String spaceKey, FileInfo fileInfo, String oldPath) {
+        super(spaceKey, fileInfo);
+        this.oldPath = oldPath;
+    }
+}
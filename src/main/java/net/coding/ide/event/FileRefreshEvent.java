@@ -0,0 +1,28 @@
+/*
+ * Copyright (c) 2014-2016 CODING.
+ */
+
+package net.coding.ide.event;
+
+import lombok.Data;
+import lombok.EqualsAndHashCode;
+import net.coding.ide.model.FileInfo;
+
+/**
+ * Many files under a directory changed at once, published instead of an event for each of
+ * them. What is under the directory has to be read again.
+ */
+@Data
+@EqualsAndHashCode(callSuper = true)
+public class FileRefreshEvent extends FileChangeEvent {
+
+    /**
+     * the number of files changed, -1 if it is not known
+     */
+    private int changes;
+
+    public FileRefreshEvent(String spaceKey, FileInfo fileInfo, int changes) {
+        super(spaceKey, fileInfo);
+        this.changes = changes;
+    }
+}
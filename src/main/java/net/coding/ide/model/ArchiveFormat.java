@@ -0,0 +1,35 @@
+/*
+ * Copyright (c) 2014-2016 CODING.
+ */
+
+package net.coding.ide.model;
+
+import net.coding.ide.model.exception.WorkspaceIOException;
+
+/**
+ * The formats of the archives a workspace can import.
+ */
+public enum ArchiveFormat {
+    ZIP,
+
+    TAR,
+
+    /**
+     * a gzipped tar, .tar.gz or .tgz
+     */
+    TAR_GZ;
+
+    public static ArchiveFormat of(String name) {
+        switch (name.toLowerCase()) {
+            case "zip":
+                return ZIP;
+            case "tar":
+                return TAR;
+            case "tar.gz":
+            case "tgz":
+                return TAR_GZ;
+            default:
+                throw new WorkspaceIOException("unsupported archive format: " + name);
+        }
+    }
+}
@@ -0,0 +1,43 @@
+/*
+ * Copyright (c) 2014-2016 CODING.
+ */
+
+package net.coding.ide.model;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.util.List;
+
+/**
+ * The files of a workspace changed since a commit or a time, for an incremental export.
+ */
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class ChangedFiles {
+
+    /**
+     * the last entry of an export, the changes it holds as json
+     */
+    public static final String MANIFEST_NAME = ".export-manifest.json";
+
+    /**
+     * the commit id or the time in milliseconds the changes are since
+     */
+    private String since;
+
+    /**
+     * the files added or modified, relative to the working dir
+     */
+    private List<String> changed;
+
+    private List<String> deleted;
+
+    /**
+     * {@code false} when files may have been deleted without being listed, e.g. before the
+     * workspace was watched, the whole workspace has to be exported again then
+     */
+    private boolean complete;
+}
@@ -0,0 +1,27 @@
+/*
+ * Copyright (c) 2014-2016 CODING.
+ */
+
+package net.coding.ide.model;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+
+/**
+ * A match of a content search, line and column start from 1.
+ */
+@Data
+@AllArgsConstructor
+public class ContentSearchResultEntry {
+
+    private String path;
+
+    private int line;
+
+    private int column;
+
+    /**
+     * the line the match is on
+     */
+    private String text;
+}
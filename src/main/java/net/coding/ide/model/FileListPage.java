@@ -0,0 +1,25 @@
+/*
+ * Copyright (c) 2014-2016 CODING.
+ */
+
+package net.coding.ide.model;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+
+import java.util.List;
+
+/**
+ * One page of a directory listing.
+ */
+@Data
+@AllArgsConstructor
+public class FileListPage {
+
+    private List<FileInfo> files;
+
+    /**
+     * the opaque cursor of the next page, {@code null} on the last page
+     */
+    private String nextCursor;
+}
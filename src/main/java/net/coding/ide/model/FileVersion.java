@@ -0,0 +1,31 @@
+/*
+ * Copyright (c) 2014-2016 CODING.
+ */
+
+package net.coding.ide.model;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import net.coding.ide.utils.FileUtil;
+
+/**
+ * The version of a file as it was written.
+ */
+@Data
+@AllArgsConstructor
+public class FileVersion {
+
+    private long lastModified;
+
+    private long size;
+
+    /**
+     * the SHA-1 of the content, in hex
+     */
+    private String hash;
+
+    /**
+     * the validator of the file, to tell if it is still this version, see {@link FileUtil#etagOf}
+     */
+    private String etag;
+}
@@ -0,0 +1,25 @@
+/*
+ * Copyright (c) 2014-2016 CODING.
+ */
+
+package net.coding.ide.model;
+
+/**
+ * When a saved file is forced to the disk, before it is renamed into place.
+ */
+public enum FsyncPolicy {
+    /**
+     * Leave it to the system, a crash may lose the last saves.
+     */
+    NONE,
+
+    /**
+     * Force the content of the file.
+     */
+    FILE,
+
+    /**
+     * Force the content of the file, and its directory once it is renamed.
+     */
+    FULL
+}
@@ -0,0 +1,152 @@
+/*
+ * Copyright (c) 2014-2016 CODING.
+ */
+
+package net.coding.ide.model;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Sets;
+import org.eclipse.jgit.api.Status;
+
+import java.util.List;
+import java.util.NavigableMap;
+import java.util.Set;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.function.Predicate;
+
+/**
+ * The git status of many paths computed by a single {@code StatusCommand},
+ * so that a whole directory can be resolved without one status call per file.
+ *
+ * Paths are relative to the working dir and use '/' as separator, as jgit does.
+ * A snapshot can be patched with {@link #replace(String, Status)} while it is being read.
+ */
+public class GitStatusSnapshot {
+
+    /**
+     * the statuses that make a directory dirty, in the precedence of GitManager#status
+     */
+    private static final List<GitStatus> DIRTY_STATUSES = ImmutableList.of(
+            GitStatus.CONFLICTION,
+            GitStatus.UNTRACKED,
+            GitStatus.MODIFIED,
+            GitStatus.MISSING,
+            GitStatus.ADDED,
+            GitStatus.CHANGED,
+            GitStatus.REMOVED);
+
+    /**
+     * sorted, so that the paths under a directory are a range
+     */
+    private final NavigableMap<String, GitStatus> statuses = new ConcurrentSkipListMap<>();
+
+    private final Set<String> untrackedFolders = Sets.newConcurrentHashSet();
+
+    private final Set<String> ignoredFolders = Sets.newConcurrentHashSet();
+
+    public GitStatusSnapshot(Status status) {
+        putAll(status);
+    }
+
+    /**
+     * Forget everything known about the path and its descendants, and take them from
+     * a status that is scoped to the path.
+     */
+    public void replace(String path, Status status) {
+        Predicate<String> isUnder = p -> p.equals(path) || p.startsWith(path + "/");
+
+        statuses.keySet().removeIf(isUnder);
+        untrackedFolders.removeIf(isUnder);
+        ignoredFolders.removeIf(isUnder);
+
+        putAll(status);
+    }
+
+    private void putAll(Status status) {
+        // keep the same precedence as GitManager#status: the first status put wins
+        putAll(status.getConflicting(), GitStatus.CONFLICTION);
+        putAll(status.getUntracked(), GitStatus.UNTRACKED);
+        putAll(status.getModified(), GitStatus.MODIFIED);
+        putAll(status.getMissing(), GitStatus.MISSING);
+        putAll(status.getAdded(), GitStatus.ADDED);
+        putAll(status.getChanged(), GitStatus.CHANGED);
+        putAll(status.getRemoved(), GitStatus.REMOVED);
+        putAll(status.getIgnoredNotInIndex(), GitStatus.IGNORED);
+
+        untrackedFolders.addAll(status.getUntrackedFolders());
+        ignoredFolders.addAll(status.getIgnoredNotInIndex());
+    }
+
+    private void putAll(Set<String> paths, GitStatus gitStatus) {
+        for (String path : paths) {
+            statuses.putIfAbsent(path, gitStatus);
+        }
+    }
+
+    /**
+     * @param path the relative path of a file
+     * @return the git status of the file, {@link GitStatus#CLEAN} if nothing is reported for it
+     */
+    public GitStatus get(String path) {
+        GitStatus gitStatus = statuses.get(path);
+
+        if (gitStatus != null) {
+            return gitStatus;
+        }
+
+        gitStatus = folderStatus(path.substring(0, Math.max(path.lastIndexOf('/'), 0)));
+
+        return gitStatus != null ? gitStatus : GitStatus.CLEAN;
+    }
+
+    /**
+     * @param dir the relative path of a directory, empty for the working dir
+     * @return the most significant status among the files under the directory,
+     * {@link GitStatus#CLEAN} if none of them is changed
+     */
+    public GitStatus aggregate(String dir) {
+        GitStatus gitStatus = folderStatus(dir);
+
+        if (gitStatus != null) {
+            return gitStatus;
+        }
+
+        NavigableMap<String, GitStatus> under = dir.isEmpty() ? statuses
+                : statuses.subMap(dir + "/", true, dir + "/\uffff", false);
+        int found = DIRTY_STATUSES.size();
+
+        for (GitStatus status : under.values()) {
+            int index = DIRTY_STATUSES.indexOf(status);
+
+            if (index != -1 && index < found) {
+                found = index;
+
+                if (found == 0) {
+                    break;
+                }
+            }
+        }
+
+        return found < DIRTY_STATUSES.size() ? DIRTY_STATUSES.get(found) : GitStatus.CLEAN;
+    }
+
+    /**
+     * untracked and ignored directories are reported as a whole
+     *
+     * @return the status of the directory itself or of its nearest reported ancestor,
+     * {@code null} if none of them is reported
+     */
+    private GitStatus folderStatus(String dir) {
+        for (int i = dir.length(); i > 0; i = dir.lastIndexOf('/', i - 1)) {
+            String folder = dir.substring(0, i);
+
+            if (untrackedFolders.contains(folder)) {
+                return GitStatus.UNTRACKED;
+            } else if (ignoredFolders.contains(folder)) {
+                return GitStatus.IGNORED;
+            }
+        }
+
+        return null;
+    }
+}
@@ -0,0 +1,167 @@
+/*
+ * Copyright (c) 2014-2016 CODING.
+ */
+
+package net.coding.ide.model;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.collect.Maps;
+import org.eclipse.jgit.ignore.IgnoreNode;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Path;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * The .gitignore rules of a working dir, safe to share between threads.
+ *
+ * A path is ignored if one of its parent directories is ignored, otherwise the nearest
+ * .gitignore with a rule for the path decides, the same as git. The rules of every
+ * .gitignore and the decision for every directory are cached until a .gitignore changes,
+ * see {@link #invalidate(String)}.
+ *
+ * There is one instance per working dir, shared by all the {@link Workspace} objects of the
+ * same workspace, so that an invalidation reaches all of them.
+ *
+ * Paths are relative to the working dir and use '/' as separator, "" is the working dir.
+ */
+public class IgnoreRules {
+
+    private static final Cache<Path, IgnoreRules> instances = CacheBuilder
+            .newBuilder()
+            .weakValues()
+            .build();
+
+    public static final String GITIGNORE = ".gitignore";
+
+    private final File workingDir;
+
+    /**
+     * the rules of the .gitignore of every directory, empty if there is none
+     */
+    private final Map<String, IgnoreNode> nodes = Maps.newConcurrentMap();
+
+    private final Map<String, Boolean> ignoredDirectories = Maps.newConcurrentMap();
+
+    /**
+     * moves on every invalidation, a decision taken across an invalidation is not cached
+     */
+    private final AtomicInteger generation = new AtomicInteger();
+
+    private IgnoreRules(File workingDir) {
+        this.workingDir = workingDir;
+    }
+
+    public static IgnoreRules of(Path workingDir) {
+        try {
+            return instances.get(workingDir, () -> new IgnoreRules(workingDir.toFile()));
+        } catch (ExecutionException e) {
+            return new IgnoreRules(workingDir.toFile());
+        }
+    }
+
+    /**
+     * @param path        the relative path of a file or directory
+     * @param isDirectory whether the path is a directory, some rules only apply to directories
+     */
+    public boolean isIgnored(String path, boolean isDirectory) {
+        if (path.isEmpty()) {
+            return false;
+        }
+
+        int slash = path.lastIndexOf('/');
+
+        if (slash != -1 && isIgnoredDirectory(path.substring(0, slash))) {
+            return true;
+        }
+
+        return matches(path, isDirectory);
+    }
+
+    /**
+     * A .gitignore has been created, changed or deleted.
+     *
+     * @param path the relative path of the .gitignore
+     */
+    public void invalidate(String path) {
+        int slash = path.lastIndexOf('/');
+
+        generation.incrementAndGet();
+        nodes.remove(slash == -1 ? "" : path.substring(0, slash));
+        ignoredDirectories.clear();
+    }
+
+    public static boolean isGitIgnore(String path) {
+        return path.equals(GITIGNORE) || path.endsWith("/" + GITIGNORE);
+    }
+
+    private boolean isIgnoredDirectory(String dir) {
+        Boolean ignored = ignoredDirectories.get(dir);
+
+        if (ignored == null) {
+            int current = generation.get();
+
+            ignored = isIgnored(dir, true);
+
+            if (generation.get() == current) {
+                ignoredDirectories.put(dir, ignored);
+            }
+        }
+
+        return ignored;
+    }
+
+    /**
+     * Ask the .gitignore files from the one next to the path up to the one of the working dir,
+     * the first one with a rule for the path decides.
+     */
+    private boolean matches(String path, boolean isDirectory) {
+        int slash = path.lastIndexOf('/');
+
+        while (true) {
+            String dir = slash == -1 ? "" : path.substring(0, slash);
+            String rest = path.substring(slash + 1);
+
+            switch (node(dir).isIgnored(rest, isDirectory)) {
+                case IGNORED:
+                    return true;
+                case NOT_IGNORED:
+                    return false;
+                default:
+                    break;
+            }
+
+            if (slash == -1) {
+                return false;
+            }
+
+            slash = path.lastIndexOf('/', slash - 1);
+        }
+    }
+
+    private IgnoreNode node(String dir) {
+        return nodes.computeIfAbsent(dir, this::load);
+    }
+
+    private IgnoreNode load(String dir) {
+        IgnoreNode ignoreNode = new IgnoreNode();
+        File gitignoreFile = new File(dir.isEmpty() ? workingDir : new File(workingDir, dir), GITIGNORE);
+
+        if (gitignoreFile.isFile()) {
+            try (InputStream in = new FileInputStream(gitignoreFile)) {
+                ignoreNode.parse(in);
+            } catch (IOException e) {
+                // unreadable, nothing is ignored by it
+                return new IgnoreNode();
+            }
+        }
+
+        return ignoreNode;
+    }
+}
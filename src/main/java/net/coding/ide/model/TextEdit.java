@@ -0,0 +1,25 @@
+/*
+ * Copyright (c) 2014-2016 CODING.
+ */
+
+package net.coding.ide.model;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+/**
+ * Replace a range of the text of a file. Offsets count chars (UTF-16 code units) of the
+ * version the edit was made against, the same as the editor does.
+ */
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class TextEdit {
+
+    private int offset;
+
+    private int length;
+
+    private String text;
+}
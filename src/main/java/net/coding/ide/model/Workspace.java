@@ -5,31 +5,53 @@
 package net.coding.ide.model;
 
 import com.google.common.collect.Lists;
-import com.google.common.collect.Maps;
+import com.google.common.hash.Hashing;
+import com.google.common.hash.HashingInputStream;
+import com.google.common.hash.HashingOutputStream;
 import com.google.common.io.BaseEncoding;
+import com.google.common.io.ByteStreams;
 import lombok.Getter;
 import lombok.Setter;
 import net.coding.ide.entity.ProjectEntity;
 import net.coding.ide.entity.WorkspaceEntity;
+import net.coding.ide.model.exception.FileConflictException;
 import net.coding.ide.model.exception.WorkspaceCreationException;
 import net.coding.ide.model.exception.WorkspaceDeletingException;
 import net.coding.ide.model.exception.WorkspaceIOException;
+import net.coding.ide.utils.FileUtil;
+import net.coding.ide.utils.ParallelGzipOutputStream;
+import net.coding.ide.utils.TemporaryFileFilter;
 import net.coding.ide.utils.WildcardMatcher;
 import org.apache.commons.compress.archivers.tar.TarArchiveEntry;
 import org.apache.commons.compress.archivers.tar.TarArchiveOutputStream;
-import org.apache.commons.compress.compressors.gzip.GzipCompressorOutputStream;
 import org.apache.commons.io.FileUtils;
 import org.apache.commons.io.IOUtils;
-import org.eclipse.jgit.ignore.IgnoreNode;
 
 import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.CharacterCodingException;
 import java.nio.charset.Charset;
 import java.nio.file.*;
 import java.nio.file.attribute.BasicFileAttributes;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
 import java.util.List;
-import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.regex.Pattern;
 
+import static com.google.common.io.Files.asByteSource;
 import static com.google.common.io.Files.toByteArray;
+import static java.lang.String.format;
+import static java.nio.file.StandardCopyOption.ATOMIC_MOVE;
+import static java.nio.file.StandardOpenOption.CREATE_NEW;
+import static java.nio.file.StandardOpenOption.READ;
+import static java.nio.file.StandardOpenOption.WRITE;
 import static org.apache.commons.lang.StringUtils.isNotBlank;
 
 /**
@@ -59,11 +81,17 @@ public class Workspace {
      */
     private static final int LIMIT_NESTED_SYMLINK = 30;
 
+    /**
+     * the suffix of the temporary file a file is saved through, see {@link TemporaryFileFilter}
+     */
+    public static final String SAVING_SUFFIX = ".saving";
+
     @Getter
     @Setter
     private String encoding;
 
-    private Map<String, IgnoreNode> ignoreNodes = Maps.newHashMap();
+    @Getter
+    private IgnoreRules ignoreRules;
 
     public Workspace(WorkspaceEntity wsEntity, File baseDir) {
         // the default character encoding is utf-8;
@@ -75,6 +103,7 @@ public class Workspace {
         this.baseDir = baseDir.toPath();
         this.workingDir = new File(baseDir, "working-dir").toPath().normalize().toAbsolutePath();
         this.keyDir = new File(baseDir, "ssh-key").toPath();
+        this.ignoreRules = IgnoreRules.of(this.workingDir);
 
         try {
             Files.createDirectories(this.keyDir);
@@ -129,6 +158,50 @@ public class Workspace {
 
     }
 
+    /**
+     * Read the head of a file, for a file too large to be read whole. The text is cut after
+     * the last line break of the head, where the encoding allows.
+     *
+     * @param length the maximum number of bytes to read
+     */
+    public String readHead(String path, String encodingParam, boolean base64, int length) throws IOException {
+        Path p = this.getPath(path);
+
+        if (Files.isSymbolicLink(p) && !linkTargetExist(p)) {
+            throw new WorkspaceIOException("It's a illegal link: target file not exist.");
+        }
+
+        ByteBuffer head = ByteBuffer.allocate(length);
+
+        try (FileChannel channel = FileChannel.open(p, READ)) {
+            while (head.hasRemaining() && channel.read(head) != -1) {
+                // read until the head is full
+            }
+        } catch (NoSuchFileException e) {
+            throw new WorkspaceIOException(path + " not found", e);
+        }
+
+        byte[] bytes = head.array();
+        int end = head.position();
+
+        if (base64) {
+            return BaseEncoding.base64().encode(bytes, 0, end);
+        }
+
+        Charset charset = Charset.forName(isNotBlank(encodingParam) ? encodingParam : encoding);
+
+        if (FileUtil.isAsciiCompatible(charset)) {
+            for (int i = end - 1; i >= 0; i--) {
+                if (bytes[i] == '\n') {
+                    end = i + 1;
+                    break;
+                }
+            }
+        }
+
+        return new String(bytes, 0, end, charset);
+    }
+
     public InputStream getInputStream(String path) throws AccessDeniedException {
         Path p = this.getPath(path);
 
@@ -140,34 +213,52 @@ public class Workspace {
     }
 
     public void pack(String path, OutputStream out) throws AccessDeniedException {
+        pack(path, out, false);
+    }
+
+    /**
+     * Write the files under the path as a gzipped tar, compressed on several cores.
+     *
+     * @param excludeIgnored whether to leave out .git and the files ignored by a .gitignore
+     */
+    public void pack(String path, OutputStream out, boolean excludeIgnored) throws AccessDeniedException {
         Path p = this.getPath(path);
+        Path gitDir = workingDir.resolve(".git");
 
         try (TarArchiveOutputStream tarOut = new TarArchiveOutputStream(
-                new GzipCompressorOutputStream(
+                new ParallelGzipOutputStream(
                         new BufferedOutputStream(out)))) {
             tarOut.setLongFileMode(TarArchiveOutputStream.LONGFILE_GNU);
 
-            Files.walk(p)
-                    .filter(pp -> !Files.isDirectory(pp))
-                    .forEach(pp -> {
-                        try {
-
-                            Path rp = workingDir.relativize(pp.normalize());
+            Files.walkFileTree(p, new SimpleFileVisitor<Path>() {
+                @Override
+                public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs) throws IOException {
+                    if (excludeIgnored && (dir.equals(gitDir)
+                            || ignoreRules.isIgnored(workingDir.relativize(dir).toString(), true))) {
+                        return FileVisitResult.SKIP_SUBTREE;
+                    }
 
-                            TarArchiveEntry entry = new TarArchiveEntry(pp.toFile(), rp.toString());
+                    return FileVisitResult.CONTINUE;
+                }
 
-                            tarOut.putArchiveEntry(entry);
+                @Override
+                public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) throws IOException {
+                    Path rp = workingDir.relativize(file.normalize());
 
-                            IOUtils.copy(new FileInputStream(pp.toFile()), tarOut);
+                    // a link is packed as the file it points to, a link to a directory is left out
+                    if (Files.isDirectory(file)
+                            || (excludeIgnored && ignoreRules.isIgnored(rp.toString(), false))) {
+                        return FileVisitResult.CONTINUE;
+                    }
 
-                            tarOut.closeArchiveEntry();
+                    tarOut.putArchiveEntry(new TarArchiveEntry(file.toFile(), rp.toString()));
+                    Files.copy(file, tarOut);
+                    tarOut.closeArchiveEntry();
 
-                        } catch (IOException e) {
-                            throw new WorkspaceIOException("pack " + path + " error", e);
-                        }
-                    });
+                    return FileVisitResult.CONTINUE;
+                }
+            });
 
-            tarOut.flush();
             tarOut.finish();
         } catch (IOException e) {
             throw new WorkspaceIOException("pack " + path + " error", e);
@@ -245,12 +336,33 @@ public class Workspace {
         return keyDir.toFile();
     }
 
+    /**
+     * where uploads are staged until they are complete, next to the working dir so that a
+     * complete upload is renamed into it, and out of it so that it is not watched
+     */
+    public File getUploadDir() {
+        return baseDir.resolve("uploads").toFile();
+    }
+
 
     public void write(String path, String content, boolean base64, boolean override, boolean createParent) throws IOException {
         write(path, content, encoding, base64, override, createParent);
     }
 
     public void write(String path, String content, String encodingParam, boolean base64, boolean override, boolean createParent) throws IOException {
+        write(path, content, encodingParam, base64, override, createParent, FsyncPolicy.NONE);
+    }
+
+    /**
+     * Write the file through a temporary file next to it, renamed over it once complete,
+     * so that the file is never seen half written. Base64 content is decoded as it is
+     * written, and the content is hashed on the way.
+     *
+     * @param override whether to replace the content of the file or to append to it
+     * @return the version written
+     */
+    public FileVersion write(String path, String content, String encodingParam, boolean base64,
+                             boolean override, boolean createParent, FsyncPolicy fsync) throws IOException {
         Path p = this.getPath(path);
 
         if (Files.isSymbolicLink(p) && !linkTargetExist(p)) {
@@ -262,35 +374,210 @@ public class Workspace {
             createDirectories(parent);
         }
 
-        String decodeContent = content;
+        // a link stays a link, its target is replaced
+        Path target = Files.isSymbolicLink(p) ? p.toRealPath() : p;
+        Path temp = savingPathOf(target);
 
-        if (base64) {
-            decodeContent = new String(BaseEncoding.base64().decode(content));
+        try {
+            String hash;
+
+            try (FileChannel channel = FileChannel.open(temp, CREATE_NEW, WRITE);
+                 HashingOutputStream out = new HashingOutputStream(Hashing.sha1(),
+                         new BufferedOutputStream(Channels.newOutputStream(channel)))) {
+
+                if (!override && Files.exists(target)) {
+                    Files.copy(target, out);
+                }
+
+                if (base64) {
+                    ByteStreams.copy(BaseEncoding.base64().decodingStream(new StringReader(content)), out);
+                } else {
+                    final String finalEncoding = isNotBlank(encodingParam) ? encodingParam : getEncoding();
+                    Writer writer = new OutputStreamWriter(out, Charset.forName(finalEncoding));
+
+                    writer.write(content);
+                    writer.flush();
+                }
+
+                out.flush();
+
+                if (fsync != FsyncPolicy.NONE) {
+                    channel.force(false);
+                }
+
+                hash = out.hash().toString();
+            }
+
+            return replace(target, temp, hash, fsync);
+        } catch (IOException | RuntimeException e) {
+            Files.deleteIfExists(temp);
+            throw e;
+        }
+    }
+
+    /**
+     * Apply text edits to a file, streamed from the file to a temporary file renamed over it,
+     * the same as {@link #write}. The file is hashed while it is read, and left as it is if
+     * it is no longer the version the edits were made against.
+     *
+     * @param baseHash the hash of the version the edits were made against
+     * @param edits    edits of that version, which do not overlap
+     * @return the version written
+     * @throws FileConflictException if the file is not the version with the base hash
+     */
+    public FileVersion patch(String path, String encodingParam, String baseHash,
+                             List<TextEdit> edits, FsyncPolicy fsync) throws IOException {
+        Path p = this.getPath(path);
+
+        if (Files.isSymbolicLink(p) && !linkTargetExist(p)) {
+            throw new WorkspaceIOException("It's a illegal link: target file not exist.");
         }
 
-        BufferedWriter bw = null;
+        List<TextEdit> sortedEdits = Lists.newArrayList(edits);
+        sortedEdits.sort(Comparator.comparingInt(TextEdit::getOffset));
 
-        try {
-            final String finalEncoding = isNotBlank(encodingParam) ? encodingParam : getEncoding();
-            bw = Files.newBufferedWriter(p, Charset.forName(finalEncoding));
+        int end = 0;
 
-            if (override) {
-                bw.write(decodeContent);
-            } else {
-                bw.append(decodeContent);
+        for (TextEdit edit : sortedEdits) {
+            if (edit.getOffset() < end || edit.getLength() < 0) {
+                throw new WorkspaceIOException(format("invalid edit at offset %d of %s.", edit.getOffset(), path));
             }
 
-        } finally {
-            if (bw != null) {
-                try {
-                    bw.close();
-                } catch (IOException e) {
-                    // Ignore
+            end = edit.getOffset() + edit.getLength();
+        }
+
+        final String finalEncoding = isNotBlank(encodingParam) ? encodingParam : getEncoding();
+        Charset charset = Charset.forName(finalEncoding);
+
+        Path target = Files.isSymbolicLink(p) ? p.toRealPath() : p;
+        Path temp = savingPathOf(target);
+
+        try {
+            String hash;
+
+            try (HashingInputStream in = new HashingInputStream(Hashing.sha1(),
+                         new BufferedInputStream(Files.newInputStream(target)));
+                 // the text must come back byte for byte, undecodable bytes are not replaced
+                 Reader reader = new InputStreamReader(in, charset.newDecoder());
+                 FileChannel channel = FileChannel.open(temp, CREATE_NEW, WRITE);
+                 HashingOutputStream out = new HashingOutputStream(Hashing.sha1(),
+                         new BufferedOutputStream(Channels.newOutputStream(channel)));
+                 Writer writer = new BufferedWriter(new OutputStreamWriter(out, charset))) {
+
+                char[] buffer = new char[8192];
+                long position = 0;
+                boolean pastEnd = false;
+
+                for (TextEdit edit : sortedEdits) {
+                    if (transfer(reader, writer, edit.getOffset() - position, buffer) < edit.getOffset() - position
+                            || transfer(reader, null, edit.getLength(), buffer) < edit.getLength()) {
+                        pastEnd = true;
+                        break;
+                    }
+
+                    if (edit.getText() != null) {
+                        writer.write(edit.getText());
+                    }
+
+                    position = edit.getOffset() + edit.getLength();
                 }
+
+                // the whole file is read, for its hash
+                transfer(reader, pastEnd ? null : writer, Long.MAX_VALUE, buffer);
+
+                if (!in.hash().toString().equals(baseHash)) {
+                    throw new FileConflictException(format("%s has changed since it was read.", path));
+                }
+
+                if (pastEnd) {
+                    throw new WorkspaceIOException(format("the edits go past the end of %s.", path));
+                }
+
+                writer.flush();
+
+                if (fsync != FsyncPolicy.NONE) {
+                    channel.force(false);
+                }
+
+                hash = out.hash().toString();
+            } catch (CharacterCodingException e) {
+                throw new WorkspaceIOException(format("%s is not %s text, it can not be edited.", path, finalEncoding), e);
+            }
+
+            return replace(target, temp, hash, fsync);
+        } catch (IOException | RuntimeException e) {
+            Files.deleteIfExists(temp);
+            throw e;
+        }
+    }
+
+    /**
+     * Move count chars from the reader to the writer, or skip them if there is no writer.
+     *
+     * @return the number of chars moved, less than count at the end of the reader
+     */
+    private static long transfer(Reader reader, Writer writer, long count, char[] buffer) throws IOException {
+        long moved = 0;
+
+        while (moved < count) {
+            int read = reader.read(buffer, 0, (int) Math.min(buffer.length, count - moved));
+
+            if (read == -1) {
+                break;
+            }
+
+            if (writer != null) {
+                writer.write(buffer, 0, read);
+            }
+
+            moved += read;
+        }
+
+        return moved;
+    }
+
+    private static Path savingPathOf(Path target) {
+        return target.resolveSibling(format(".%s.%08x%s",
+                target.getFileName(), ThreadLocalRandom.current().nextInt(), SAVING_SUFFIX));
+    }
+
+    /**
+     * Rename a complete temporary file over the file it was written for.
+     */
+    private static FileVersion replace(Path target, Path temp, String hash, FsyncPolicy fsync) throws IOException {
+        if (Files.exists(target)) {
+            copyPermissions(target, temp);
+        }
+
+        // the rename keeps the inode, size and modified time
+        BasicFileAttributes attrs = Files.readAttributes(temp, BasicFileAttributes.class);
+
+        Files.move(temp, target, ATOMIC_MOVE);
+
+        if (fsync == FsyncPolicy.FULL) {
+            try (FileChannel dir = FileChannel.open(target.getParent(), READ)) {
+                dir.force(true);
+            } catch (IOException e) {
+                // not every system can force a directory
             }
         }
 
+        return new FileVersion(attrs.lastModifiedTime().toMillis(), attrs.size(), hash, FileUtil.etagOf(attrs));
+    }
 
+    private static void copyPermissions(Path from, Path to) throws IOException {
+        try {
+            Files.setPosixFilePermissions(to, Files.getPosixFilePermissions(from));
+        } catch (UnsupportedOperationException e) {
+            // not a posix file system, the default permissions do
+        }
+    }
+
+    /**
+     * @return the SHA-1 of the content of the file, in hex
+     */
+    public String hash(String path) throws IOException {
+        return asByteSource(getPath(path).toFile()).hash(Hashing.sha1()).toString();
     }
 
     public void create(String path) throws IOException {
@@ -490,69 +777,168 @@ public class Workspace {
         throw new WorkspaceIOException("It's a illegal link: too many nested symlinks.");
     }
 
-    public List<String> search(final String keyword, final boolean includeNonProjectItems) throws IOException {
-        final List<String> result = Lists.newArrayList();
+    /**
+     * Search the files by name, the subdirectories are walked in parallel.
+     *
+     * @param limit the number of files kept, the first ones in the order of their paths
+     * @param pool  the pool the subdirectories are walked on
+     * @return the paths of the files found, sorted
+     */
+    public List<String> search(String keyword, boolean includeNonProjectItems, int limit, ForkJoinPool pool) {
+        SearchQuery query = new SearchQuery(WildcardMatcher.compile(keyword), includeNonProjectItems, limit);
 
-        final Path gitDir = workingDir.resolve(".git");
+        pool.invoke(new SearchTask(workingDir, query));
 
-        Files.walkFileTree(workingDir, new SimpleFileVisitor<Path>() {
-            @Override
-            public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) throws IOException {
-                if (file.startsWith(gitDir)) {
-                    return FileVisitResult.CONTINUE;
-                }
+        return query.getHits();
+    }
 
-                if (!attrs.isRegularFile()) {
-                    return FileVisitResult.CONTINUE;
-                }
+    /**
+     * The same as {@link #search(String, boolean, int, ForkJoinPool)}, but among files that
+     * are already known instead of walking the working dir.
+     *
+     * @param files the relative paths of the regular files of the working dir
+     */
+    public List<String> search(String keyword, boolean includeNonProjectItems, Collection<String> files, int limit,
+                               ForkJoinPool pool) {
+        SearchQuery query = new SearchQuery(WildcardMatcher.compile(keyword), includeNonProjectItems, limit);
 
-                if (!includeNonProjectItems && isIgnored(file)) {
-                    return FileVisitResult.CONTINUE;
-                }
+        pool.submit(() -> files.parallelStream().forEach(path -> {
+            if (!path.equals(".git") && !path.startsWith(".git/")) {
+                collect(query, path.substring(path.lastIndexOf('/') + 1), path);
+            }
+        })).join();
 
-                String name = file.getName(file.getNameCount() - 1).toString();
-                if (WildcardMatcher.match(name, keyword)) {
-                    result.add("/" + workingDir.relativize(file).toString());
-                }
+        return query.getHits();
+    }
+
+    private void collect(SearchQuery query, String name, String relativePath) {
+        if (!WildcardMatcher.match(name, query.pattern)) {
+            return;
+        }
+
+        if (!query.includeNonProjectItems && ignoreRules.isIgnored(relativePath, false)) {
+            return;
+        }
+
+        query.offer("/" + relativePath);
+    }
 
-                return FileVisitResult.CONTINUE;
+    /**
+     * The hits of a search. Only the first {@code limit} paths in order are kept, in a heap
+     * whose head is the last of them, so the result does not depend on which thread found
+     * what first. Once the heap is full, a directory whose paths all come after its head
+     * has nothing left to find.
+     */
+    private static class SearchQuery {
+
+        private final Pattern pattern;
+
+        private final boolean includeNonProjectItems;
+
+        private final int limit;
+
+        private final PriorityQueue<String> hits = new PriorityQueue<>(Comparator.reverseOrder());
+
+        SearchQuery(Pattern pattern, boolean includeNonProjectItems, int limit) {
+            this.pattern = pattern;
+            this.includeNonProjectItems = includeNonProjectItems;
+            this.limit = limit;
+        }
+
+        synchronized void offer(String path) {
+            if (hits.size() < limit) {
+                hits.add(path);
+            } else if (path.compareTo(hits.peek()) < 0) {
+                hits.poll();
+                hits.add(path);
             }
-        });
+        }
+
+        /**
+         * @param dirPath the path of a directory, ending with '/'
+         * @return {@code true} if no path under the directory can be a hit any more
+         */
+        synchronized boolean isPastLast(String dirPath) {
+            return hits.size() >= limit && dirPath.compareTo(hits.peek()) > 0;
+        }
+
+        synchronized List<String> getHits() {
+            List<String> result = Lists.newArrayList(hits);
+            Collections.sort(result);
 
-        return result;
+            return result;
+        }
     }
 
-    private boolean isIgnored(Path file) throws IOException {
-        file = workingDir.relativize(file);
-        int count = file.getNameCount();
+    /**
+     * Search one directory, and fork a task for each of its subdirectories which may still
+     * hold a hit. Links are not followed and .git is skipped, the same as a walk of the file tree.
+     */
+    private class SearchTask extends RecursiveAction {
 
-        for (int i = count - 1; i >= 0; i--) {
-            Path parent = i > 0 ? file.subpath(0, i) : Paths.get("");
-            Path rest = file.subpath(i, count);
+        private final Path dir;
 
-            if (!ignoreNodes.containsKey(parent.toString())) {
-                File gitignoreFile = workingDir.resolve(Paths.get(parent.toString(), ".gitignore")).toFile();
+        private final SearchQuery query;
 
-                if (gitignoreFile.exists()) {
-                    try (FileInputStream in = new FileInputStream(gitignoreFile)) {
-                        IgnoreNode ignoreNode = new IgnoreNode();
-                        ignoreNode.parse(in);
-                        ignoreNodes.put(parent.toString(), ignoreNode);
-                    }
-                } else {
-                    ignoreNodes.put(parent.toString(), new IgnoreNode());
-                }
+        SearchTask(Path dir, SearchQuery query) {
+            this.dir = dir;
+            this.query = query;
+        }
 
+        @Override
+        protected void compute() {
+            // the hits found meanwhile by the other tasks may already rule it out
+            if (query.isPastLast(dirPath(dir))) {
+                return;
             }
 
-            IgnoreNode ignoreNode = ignoreNodes.get(parent.toString());
-            if (ignoreNode.isIgnored(rest.toString(), false) == IgnoreNode.MatchResult.IGNORED) {
-                return true;
+            List<SearchTask> subtasks = Lists.newArrayList();
+            Path gitDir = workingDir.resolve(".git");
+
+            try (DirectoryStream<Path> directoryStream = Files.newDirectoryStream(dir)) {
+                for (Path p : directoryStream) {
+                    BasicFileAttributes attrs;
+
+                    try {
+                        attrs = Files.readAttributes(p, BasicFileAttributes.class, LinkOption.NOFOLLOW_LINKS);
+                    } catch (IOException e) {
+                        continue;
+                    }
+
+                    if (attrs.isDirectory()) {
+                        // an ignored directory is skipped as a whole, e.g. node_modules
+                        if (!p.equals(gitDir) && !query.isPastLast(dirPath(p)) && (query.includeNonProjectItems
+                                || !ignoreRules.isIgnored(workingDir.relativize(p).toString(), true))) {
+                            subtasks.add(new SearchTask(p, query));
+                        }
+                    } else if (attrs.isRegularFile()) {
+                        collect(query, p.getFileName().toString(), workingDir.relativize(p).toString());
+                    }
+                }
+            } catch (IOException | DirectoryIteratorException e) {
+                // an unreadable directory has nothing to find
+                return;
             }
 
+            invokeAll(subtasks);
         }
 
-        return false;
+        /**
+         * @return the path of the directory as the hits under it start, e.g. "/src/"
+         */
+        private String dirPath(Path p) {
+            String relativePath = workingDir.relativize(p).toString();
+
+            return relativePath.isEmpty() ? "/" : "/" + relativePath + "/";
+        }
+    }
+
+    /**
+     * @param file the absolute path of a file of the working dir
+     * @return {@code true} if the file is ignored by a .gitignore of the working dir
+     */
+    public boolean isIgnored(Path file) {
+        return ignoreRules.isIgnored(workingDir.relativize(file).toString(), false);
     }
 
 }
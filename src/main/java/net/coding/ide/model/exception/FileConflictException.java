@@ -0,0 +1,14 @@
+/*
+ * Copyright (c) 2014-2016 CODING.
+ */
+
+package net.coding.ide.model.exception;
+
+/**
+ * A file has changed since the version a change was made against.
+ */
+public class FileConflictException extends RuntimeException {
+    public FileConflictException(String message) {
+        super(message);
+    }
+}
@@ -0,0 +1,314 @@
+/*
+ * Copyright (c) 2014-2016 CODING.
+ */
+
+package net.coding.ide.service;
+
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import net.coding.ide.model.ArchiveFormat;
+import net.coding.ide.model.Workspace;
+import net.coding.ide.model.exception.WorkspaceIOException;
+import org.apache.commons.compress.archivers.ArchiveEntry;
+import org.apache.commons.compress.archivers.ArchiveInputStream;
+import org.apache.commons.compress.archivers.tar.TarArchiveEntry;
+import org.apache.commons.compress.archivers.tar.TarArchiveInputStream;
+import org.apache.commons.compress.archivers.zip.ZipArchiveEntry;
+import org.apache.commons.compress.archivers.zip.ZipArchiveInputStream;
+import org.apache.commons.compress.compressors.gzip.GzipCompressorInputStream;
+
+import java.io.BufferedInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.InvalidPathException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.attribute.FileTime;
+import java.nio.file.attribute.PosixFilePermission;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import static java.nio.file.LinkOption.NOFOLLOW_LINKS;
+import static java.nio.file.StandardOpenOption.CREATE;
+import static java.nio.file.StandardOpenOption.TRUNCATE_EXISTING;
+import static java.nio.file.StandardOpenOption.WRITE;
+
+/**
+ * Extract an archive into a directory of a workspace as it is read, entry by entry, through
+ * a single buffer.
+ *
+ * Nothing is written out of the directory or into .git: entries with an absolute path or
+ * going up out of the directory are left out, and so are links, the directories an entry is
+ * written into are checked for where they really are, and files are never written through
+ * a link.
+ *
+ * A zip is read without its central directory, which holds the unix modes of the entries:
+ * the links and the executable files of a zip are extracted as plain files.
+ */
+public class ArchiveExtractor {
+
+    private static final int COPY_BUFFER = 64 * 1024;
+
+    private static final int MAX_SKIPPED_NAMES = 100;
+
+    private final Path dir;
+
+    private final Path gitDir;
+
+    private final byte[] buffer = new byte[COPY_BUFFER];
+
+    /**
+     * the directories entries have been written into, and whether they may be
+     */
+    private final Map<Path, Boolean> checkedDirs = Maps.newHashMap();
+
+    private Path realDir;
+
+    private Path realGitDir;
+
+    private int files = 0;
+
+    private int skipped = 0;
+
+    private final List<String> skippedNames = Lists.newArrayList();
+
+    /**
+     * @param dir the directory to extract into, under the working dir
+     */
+    public ArchiveExtractor(Workspace ws, Path dir) {
+        this.dir = dir;
+        this.gitDir = ws.getWorkingDir().toPath().resolve(".git");
+    }
+
+    public void extract(InputStream in, ArchiveFormat format) throws IOException {
+        if (dir.startsWith(gitDir)) {
+            throw new WorkspaceIOException("can not extract into .git.");
+        }
+
+        Path realWorkingDir = gitDir.getParent().toRealPath();
+        Path existing = dir;
+
+        while (!Files.exists(existing)) {
+            existing = existing.getParent();
+        }
+
+        // the directory may be reached through a link
+        if (!existing.toRealPath().startsWith(realWorkingDir)) {
+            throw new WorkspaceIOException("can not extract out of the workspace.");
+        }
+
+        // a link to a directory is fine as long as where it leads is, which is checked next
+        if (!Files.isDirectory(dir)) {
+            Files.createDirectories(dir);
+        }
+
+        realDir = dir.toRealPath();
+        realGitDir = realWorkingDir.resolve(".git");
+
+        if (!realDir.startsWith(realWorkingDir) || realDir.startsWith(realGitDir)) {
+            throw new WorkspaceIOException("can not extract out of the workspace or into .git.");
+        }
+
+        try (ArchiveInputStream archive = open(new BufferedInputStream(in, COPY_BUFFER), format)) {
+            ArchiveEntry entry;
+
+            while ((entry = archive.getNextEntry()) != null) {
+                Path p = resolve(entry.getName());
+
+                if (dir.equals(p)) {
+                    // e.g. ./ at the top of a tar
+                    continue;
+                }
+
+                if (p == null || isLink(entry) || !archive.canReadEntryData(entry)) {
+                    skip(entry.getName());
+                    continue;
+                }
+
+                if (entry.isDirectory()) {
+                    if (!checkDir(p)) {
+                        skip(entry.getName());
+                    }
+                    continue;
+                }
+
+                if (!checkDir(p.getParent())) {
+                    skip(entry.getName());
+                    continue;
+                }
+
+                OutputStream out;
+
+                try {
+                    out = Files.newOutputStream(p, CREATE, TRUNCATE_EXISTING, WRITE, NOFOLLOW_LINKS);
+                } catch (IOException e) {
+                    // a directory or a link in the way
+                    skip(entry.getName());
+                    continue;
+                }
+
+                try (OutputStream o = out) {
+                    int read;
+
+                    while ((read = archive.read(buffer)) != -1) {
+                        o.write(buffer, 0, read);
+                    }
+                }
+
+                setAttributes(p, entry);
+                files++;
+            }
+        }
+    }
+
+    public int getFiles() {
+        return files;
+    }
+
+    public int getSkipped() {
+        return skipped;
+    }
+
+    public List<String> getSkippedNames() {
+        return skippedNames;
+    }
+
+    private static ArchiveInputStream open(InputStream in, ArchiveFormat format) throws IOException {
+        switch (format) {
+            case ZIP:
+                // entries are read as they come, without the central directory at the end
+                return new ZipArchiveInputStream(in, "UTF-8", true, true);
+            case TAR:
+                return new TarArchiveInputStream(in);
+            default:
+                return new TarArchiveInputStream(new GzipCompressorInputStream(in, true));
+        }
+    }
+
+    /**
+     * @return where the entry goes, {@code null} if it must not be written
+     */
+    private Path resolve(String name) {
+        Path relative;
+
+        try {
+            relative = Paths.get(name.replace('\\', '/'));
+        } catch (InvalidPathException e) {
+            return null;
+        }
+
+        if (relative.isAbsolute()) {
+            return null;
+        }
+
+        Path p = dir.resolve(relative).normalize();
+
+        if (!p.startsWith(dir) || p.startsWith(gitDir)) {
+            return null;
+        }
+
+        return p;
+    }
+
+    /**
+     * Make sure the directory is really in the directory extracted into, not through a link
+     * already there, and create it if needed. Where a missing directory would go is checked
+     * through its nearest existing parent before anything is created.
+     */
+    private boolean checkDir(Path p) throws IOException {
+        Boolean allowed = checkedDirs.get(p);
+
+        if (allowed != null) {
+            return allowed;
+        }
+
+        try {
+            Path existing = p;
+
+            while (!Files.exists(existing)) {
+                existing = existing.getParent();
+            }
+
+            allowed = isInDir(existing.toRealPath());
+
+            if (allowed && !existing.equals(p)) {
+                Files.createDirectories(p);
+
+                allowed = isInDir(p.toRealPath());
+            }
+        } catch (IOException e) {
+            // a file in the way
+            allowed = false;
+        }
+
+        checkedDirs.put(p, allowed);
+
+        return allowed;
+    }
+
+    private boolean isInDir(Path real) {
+        return real.startsWith(realDir) && !real.startsWith(realGitDir);
+    }
+
+    private static boolean isLink(ArchiveEntry entry) {
+        if (entry instanceof TarArchiveEntry) {
+            TarArchiveEntry tarEntry = (TarArchiveEntry) entry;
+
+            return tarEntry.isSymbolicLink() || tarEntry.isLink();
+        }
+
+        return entry instanceof ZipArchiveEntry && ((ZipArchiveEntry) entry).isUnixSymlink();
+    }
+
+    /**
+     * Keep the modification time of the entry, and whether it is executable.
+     */
+    private static void setAttributes(Path p, ArchiveEntry entry) {
+        int mode = 0;
+
+        if (entry instanceof TarArchiveEntry) {
+            mode = ((TarArchiveEntry) entry).getMode();
+        } else if (entry instanceof ZipArchiveEntry) {
+            mode = ((ZipArchiveEntry) entry).getUnixMode();
+        }
+
+        try {
+            Date lastModified = entry.getLastModifiedDate();
+
+            if (lastModified != null && lastModified.getTime() > 0) {
+                Files.setLastModifiedTime(p, FileTime.fromMillis(lastModified.getTime()));
+            }
+
+            if ((mode & 0100) != 0) {
+                Set<PosixFilePermission> permissions = Files.getPosixFilePermissions(p, NOFOLLOW_LINKS);
+
+                // executable by whoever can read it
+                permissions.add(PosixFilePermission.OWNER_EXECUTE);
+
+                if (permissions.contains(PosixFilePermission.GROUP_READ)) {
+                    permissions.add(PosixFilePermission.GROUP_EXECUTE);
+                }
+
+                if (permissions.contains(PosixFilePermission.OTHERS_READ)) {
+                    permissions.add(PosixFilePermission.OTHERS_EXECUTE);
+                }
+
+                Files.setPosixFilePermissions(p, permissions);
+            }
+        } catch (IOException | UnsupportedOperationException e) {
+            // the content is what matters
+        }
+    }
+
+    private void skip(String name) {
+        if (skippedNames.size() < MAX_SKIPPED_NAMES) {
+            skippedNames.add(name);
+        }
+
+        skipped++;
+    }
+}
@@ -0,0 +1,69 @@
+/*
+ * Copyright (c) 2014-2016 CODING.
+ */
+
+package net.coding.ide.service;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.jmx.export.annotation.ManagedAttribute;
+import org.springframework.jmx.export.annotation.ManagedResource;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The threads the operations of the file batches run on, see {@link FileBatch}.
+ */
+@Slf4j
+@Component
+@ManagedResource(objectName = "net.coding.ide:type=BatchPool", description = "the pool of the file batch operations")
+public class BatchPool {
+
+    private static final int THREADS = 8;
+
+    private ThreadPoolExecutor pool;
+
+    @PostConstruct
+    public void init() {
+        pool = new ThreadPoolExecutor(THREADS, THREADS, 0L, TimeUnit.MILLISECONDS,
+                new LinkedBlockingQueue<>(),
+                new ThreadFactoryBuilder()
+                        .setNameFormat("FileBatch-%d")
+                        .setDaemon(true)
+                        .build());
+    }
+
+    @PreDestroy
+    public void destroy() throws InterruptedException {
+        pool.shutdownNow();
+
+        if (!pool.awaitTermination(5, TimeUnit.SECONDS)) {
+            log.warn("batch pool did not terminate in time");
+        }
+    }
+
+    public ExecutorService get() {
+        return pool;
+    }
+
+    @ManagedAttribute(description = "the number of threads busy with an operation")
+    public int getActiveThreads() {
+        return pool.getActiveCount();
+    }
+
+    @ManagedAttribute(description = "the number of operations waiting for a thread")
+    public int getQueuedOperations() {
+        return pool.getQueue().size();
+    }
+
+    @ManagedAttribute(description = "the number of operations run since startup")
+    public long getCompletedOperations() {
+        return pool.getCompletedTaskCount();
+    }
+}
@@ -0,0 +1,376 @@
+/*
+ * Copyright (c) 2014-2016 CODING.
+ */
+
+package net.coding.ide.service;
+
+import com.google.common.collect.Lists;
+import net.coding.ide.model.ContentSearchResultEntry;
+import net.coding.ide.model.IgnoreRules;
+import net.coding.ide.model.Workspace;
+import net.coding.ide.utils.Callback;
+import net.coding.ide.utils.FileUtil;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.CharacterCodingException;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CodingErrorAction;
+import java.nio.file.*;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import static java.nio.file.LinkOption.NOFOLLOW_LINKS;
+import static java.nio.file.StandardOpenOption.READ;
+
+/**
+ * A regex search of the content of the text files of a workspace, straight from the disk,
+ * for the searches the {@link ContentIndex} can not narrow down.
+ *
+ * Directories are walked in parallel, ignored directories and .git are skipped as a whole.
+ * Files are never read whole onto the heap: small files go through a buffer of each thread,
+ * larger ones are mapped window by window, each window unmapped as soon as it is searched,
+ * and only the lines are decoded, one at a time, with the encoding of the workspace. A file with a NUL byte among its first bytes is binary
+ * and skipped.
+ *
+ * Matches are handed to the callback as they are found, one at a time. The first exception
+ * of the callback, e.g. the client went away, stops the whole search and is thrown by
+ * {@link #run(Path)}.
+ */
+public class ContentGrep {
+
+    /**
+     * smaller files are read into the buffer of the thread, larger ones are mapped
+     */
+    private static final int MAP_THRESHOLD = 64 * 1024;
+
+    /**
+     * a mapped window, a line longer than that is only searched up to the end of the window
+     */
+    private static final long MAP_WINDOW = 64 * 1024 * 1024;
+
+    /**
+     * a file with a NUL byte among its first bytes is binary, the same heuristic as git's
+     */
+    private static final int BINARY_SNIFF_LENGTH = 8000;
+
+    private static final int MAX_LINE_TEXT = 256;
+
+    private static final ThreadLocal<ByteBuffer> BUFFERS = ThreadLocal.withInitial(() -> ByteBuffer.allocate(MAP_THRESHOLD));
+
+    private final Path workingDir;
+
+    private final IgnoreRules ignoreRules;
+
+    private final Charset charset;
+
+    /**
+     * whether lines can be split before they are decoded
+     */
+    private final boolean asciiCompatible;
+
+    private final Pattern pattern;
+
+    private final int maxPerFile;
+
+    private final AtomicInteger remaining;
+
+    private final Callback<ContentSearchResultEntry> callback;
+
+    private final ForkJoinPool pool;
+
+    /**
+     * the exception of the callback, the search stops once it is set
+     */
+    private volatile RuntimeException failure;
+
+    /**
+     * @param maxPerFile the maximum number of matches of a file
+     * @param maxTotal   the search stops as soon as this many matches are found
+     * @param callback   called with each match, never by two threads at once
+     * @param pool       the pool the directories are walked on
+     */
+    public ContentGrep(Workspace ws, Pattern pattern, int maxPerFile, int maxTotal,
+                       Callback<ContentSearchResultEntry> callback, ForkJoinPool pool) {
+        this.workingDir = ws.getWorkingDir().toPath();
+        this.ignoreRules = ws.getIgnoreRules();
+        this.charset = Charset.forName(ws.getEncoding());
+        this.asciiCompatible = FileUtil.isAsciiCompatible(charset);
+        this.pattern = pattern;
+        this.maxPerFile = Math.max(maxPerFile, 1);
+        this.remaining = new AtomicInteger(Math.max(maxTotal, 1));
+        this.callback = callback;
+        this.pool = pool;
+    }
+
+    /**
+     * @param dir the directory to search, under the working dir
+     */
+    public void run(Path dir) {
+        pool.invoke(new GrepTask(dir));
+
+        if (failure != null) {
+            throw failure;
+        }
+    }
+
+    private boolean isDone() {
+        return failure != null || remaining.get() <= 0;
+    }
+
+    /**
+     * Search the files of one directory, and fork a task for each of its subdirectories.
+     */
+    private class GrepTask extends RecursiveAction {
+
+        private final Path dir;
+
+        GrepTask(Path dir) {
+            this.dir = dir;
+        }
+
+        @Override
+        protected void compute() {
+            List<GrepTask> subtasks = Lists.newArrayList();
+            Path gitDir = workingDir.resolve(".git");
+
+            try (DirectoryStream<Path> directoryStream = Files.newDirectoryStream(dir)) {
+                for (Path p : directoryStream) {
+                    if (isDone()) {
+                        return;
+                    }
+
+                    BasicFileAttributes attrs;
+
+                    try {
+                        attrs = Files.readAttributes(p, BasicFileAttributes.class, NOFOLLOW_LINKS);
+                    } catch (IOException e) {
+                        continue;
+                    }
+
+                    String path = workingDir.relativize(p).toString();
+
+                    if (attrs.isDirectory()) {
+                        if (!p.equals(gitDir) && !ignoreRules.isIgnored(path, true)) {
+                            subtasks.add(new GrepTask(p));
+                        }
+                    } else if (attrs.isRegularFile() && attrs.size() > 0 && !ignoreRules.isIgnored(path, false)) {
+                        try {
+                            grep(path, p, attrs.size());
+                        } catch (NoSuchFileException e) {
+                            // deleted while searching
+                        } catch (IOException e) {
+                            // an unreadable file has nothing to find
+                        }
+                    }
+                }
+            } catch (IOException | DirectoryIteratorException e) {
+                // an unreadable directory has nothing to find
+                return;
+            }
+
+            invokeAll(subtasks);
+        }
+    }
+
+    private void grep(String path, Path p, long size) throws IOException {
+        try (FileChannel channel = FileChannel.open(p, READ)) {
+            if (!asciiCompatible) {
+                grepDecoded(path, channel);
+                return;
+            }
+
+            CharsetDecoder decoder = charset.newDecoder()
+                    .onMalformedInput(CodingErrorAction.REPLACE)
+                    .onUnmappableCharacter(CodingErrorAction.REPLACE);
+            Matcher matcher = pattern.matcher("");
+            int[] found = new int[1];
+            int lineNumber = 1;
+            long position = 0;
+            boolean skipToNewline = false;
+
+            while (position < size && found[0] < maxPerFile && !isDone()) {
+                ByteBuffer window = window(channel, position, size);
+
+                try {
+                    if (position == 0 && isBinary(window)) {
+                        return;
+                    }
+
+                    boolean last = position + window.limit() >= size;
+                    int start = 0;
+
+                    for (int i = 0; i < window.limit(); i++) {
+                        if (window.get(i) != '\n') {
+                            continue;
+                        }
+
+                        if (!skipToNewline && !grepLine(path, lineNumber, window, start, i, decoder, matcher, found)) {
+                            return;
+                        }
+
+                        skipToNewline = false;
+                        lineNumber++;
+                        start = i + 1;
+                    }
+
+                    if (last) {
+                        if (start < window.limit() && !skipToNewline) {
+                            grepLine(path, lineNumber, window, start, window.limit(), decoder, matcher, found);
+                        }
+
+                        return;
+                    }
+
+                    if (start == 0) {
+                        // a line as long as the window, the rest of it is not searched
+                        if (!skipToNewline && !grepLine(path, lineNumber, window, 0, window.limit(), decoder, matcher, found)) {
+                            return;
+                        }
+
+                        skipToNewline = true;
+                        position += window.limit();
+                    } else {
+                        position += start;
+                    }
+                } finally {
+                    // lines are decoded into their own buffers, nothing refers to the window
+                    FileUtil.unmap(window);
+                }
+            }
+        }
+    }
+
+    /**
+     * @return the bytes of the file from the position on, as many as fit in a window
+     */
+    private static ByteBuffer window(FileChannel channel, long position, long size) throws IOException {
+        if (size <= MAP_THRESHOLD) {
+            ByteBuffer buffer = BUFFERS.get();
+
+            buffer.clear();
+
+            while (buffer.hasRemaining() && channel.read(buffer, position + buffer.position()) > 0) {
+                // read until the end of the file
+            }
+
+            buffer.flip();
+
+            return buffer;
+        }
+
+        return channel.map(FileChannel.MapMode.READ_ONLY, position, Math.min(size - position, MAP_WINDOW));
+    }
+
+    /**
+     * @return {@code false} once no more matches are wanted
+     */
+    private boolean grepLine(String path, int lineNumber, ByteBuffer window, int start, int end,
+                             CharsetDecoder decoder, Matcher matcher, int[] found) throws CharacterCodingException {
+        if (end > start && window.get(end - 1) == '\r') {
+            end--;
+        }
+
+        ByteBuffer bytes = window.duplicate();
+
+        bytes.limit(end).position(start);
+
+        CharBuffer line = decoder.reset().decode(bytes);
+
+        return grepLine(path, lineNumber, line, matcher, found);
+    }
+
+    private boolean grepLine(String path, int lineNumber, CharSequence line, Matcher matcher, int[] found) {
+        matcher.reset(line);
+
+        while (matcher.find()) {
+            if (!deliver(path, lineNumber, matcher.start() + 1, line)) {
+                return false;
+            }
+
+            if (++found[0] >= maxPerFile) {
+                return false;
+            }
+        }
+
+        return true;
+    }
+
+    /**
+     * For encodings such as UTF-16, where lines can not be split before they are decoded.
+     */
+    private void grepDecoded(String path, FileChannel channel) throws IOException {
+        CharsetDecoder decoder = charset.newDecoder()
+                .onMalformedInput(CodingErrorAction.REPLACE)
+                .onUnmappableCharacter(CodingErrorAction.REPLACE);
+        Matcher matcher = pattern.matcher("");
+        int[] found = new int[1];
+
+        try (BufferedReader reader = new BufferedReader(Channels.newReader(channel, decoder, -1))) {
+            String line;
+            int lineNumber = 0;
+
+            while ((line = reader.readLine()) != null) {
+                lineNumber++;
+
+                if (lineNumber == 1 && line.indexOf('\0') != -1) {
+                    return;
+                }
+
+                if (!grepLine(path, lineNumber, line, matcher, found)) {
+                    return;
+                }
+            }
+        }
+    }
+
+    /**
+     * @return {@code false} once the search is done
+     */
+    private boolean deliver(String path, int lineNumber, int column, CharSequence line) {
+        if (remaining.getAndDecrement() <= 0) {
+            return false;
+        }
+
+        CharSequence text = line.length() > MAX_LINE_TEXT ? line.subSequence(0, MAX_LINE_TEXT) : line;
+        ContentSearchResultEntry entry = new ContentSearchResultEntry("/" + path, lineNumber, column, text.toString());
+
+        synchronized (callback) {
+            if (failure != null) {
+                return false;
+            }
+
+            try {
+                callback.call(entry);
+            } catch (RuntimeException e) {
+                failure = e;
+
+                return false;
+            }
+        }
+
+        return true;
+    }
+
+    private static boolean isBinary(ByteBuffer window) {
+        int length = Math.min(window.limit(), BINARY_SNIFF_LENGTH);
+
+        for (int i = 0; i < length; i++) {
+            if (window.get(i) == 0) {
+                return true;
+            }
+        }
+
+        return false;
+    }
+}
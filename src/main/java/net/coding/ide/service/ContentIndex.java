@@ -0,0 +1,758 @@
+/*
+ * Copyright (c) 2014-2016 CODING.
+ */
+
+package net.coding.ide.service;
+
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
+import lombok.extern.slf4j.Slf4j;
+import net.coding.ide.model.ContentSearchResultEntry;
+import net.coding.ide.model.IgnoreRules;
+import net.coding.ide.model.Workspace;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.InterruptedIOException;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetEncoder;
+import java.nio.file.*;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.*;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import static java.nio.file.LinkOption.NOFOLLOW_LINKS;
+
+/**
+ * A trigram index of the content of the text files of a workspace, for content search.
+ *
+ * Every indexed file gets an id, and each trigram of its content (ASCII case folded, not
+ * spanning lines) keeps the ids of the files it appears in as a delta encoded posting list.
+ * A query is turned into the trigrams any match must contain, their posting lists are
+ * intersected, and only the remaining candidates are read to find the matches, a few at a
+ * time in parallel and in the order of their paths, until enough matches are found. A query
+ * without any such trigram is left to a {@link ContentGrep} of the working dir.
+ *
+ * Ids only grow: a changed file gets a new id and its old id is left dead in the posting
+ * lists until the index is built again, see {@link #isFragmented()}.
+ *
+ * The directories which are not watched are checked by their modified time on a search, see
+ * {@link DirectoryTimes}, so a file written in place in such a directory keeps the trigrams it
+ * was indexed with until the directory is watched and the file changes again.
+ */
+@Slf4j
+public class ContentIndex implements WorkspaceIndex {
+
+    /**
+     * larger files are most likely generated or data, they are not indexed
+     */
+    private static final long MAX_FILE_SIZE = 1024 * 1024;
+
+    /**
+     * a file with a NUL byte among its first bytes is binary, the same heuristic as git's
+     */
+    private static final int BINARY_SNIFF_LENGTH = 8000;
+
+    private static final int MAX_LINE_TEXT = 256;
+
+    private static final int MIN_DEAD_TO_COMPACT = 10000;
+
+    private final Workspace ws;
+
+    private final Path workingDir;
+
+    private final Executor executor;
+
+    private final Map<Integer, Postings> postings = Maps.newHashMap();
+
+    /**
+     * the path of every id, {@code null} once the id is dead
+     */
+    private final List<String> paths = Lists.newArrayList();
+
+    /**
+     * sorted, so that the paths under a directory are a range
+     */
+    private final NavigableMap<String, Integer> ids = Maps.newTreeMap();
+
+    private int deadCount = 0;
+
+    private volatile boolean ready = false;
+
+    private final Set<String> dirtyPaths = Sets.newConcurrentHashSet();
+
+    private final AtomicBoolean scheduled = new AtomicBoolean();
+
+    /**
+     * files are indexed by one thread at a time
+     */
+    private final Object indexLock = new Object();
+
+    private final DirectoryTimes directoryTimes;
+
+    public ContentIndex(Workspace ws, Executor executor) {
+        this.ws = ws;
+        this.workingDir = ws.getWorkingDir().toPath();
+        this.executor = executor;
+        this.directoryTimes = new DirectoryTimes(workingDir);
+    }
+
+    @Override
+    public boolean isReady() {
+        return ready;
+    }
+
+    /**
+     * @return {@code true} if dead ids outnumber the live ones and the index should be built again
+     */
+    public synchronized boolean isFragmented() {
+        return deadCount > MIN_DEAD_TO_COMPACT && deadCount > ids.size();
+    }
+
+    @Override
+    public void build() throws IOException {
+        long start = System.currentTimeMillis();
+
+        synchronized (indexLock) {
+            indexTree(workingDir);
+            ready = true;
+        }
+
+        synchronized (this) {
+            log.info("built content index of workspace {} with {} files and {} trigrams in {} ms",
+                    ws.getSpaceKey(), ids.size(), postings.size(), System.currentTimeMillis() - start);
+        }
+
+        drain();
+    }
+
+    /**
+     * Index a path again after it has been reported as changed, in the background.
+     */
+    @Override
+    public void update(String path) {
+        if (path.equals(".git") || path.startsWith(".git/")) {
+            return;
+        }
+
+        // files may have become ignored or not, the whole directory is indexed again
+        if (IgnoreRules.isGitIgnore(path)) {
+            int slash = path.lastIndexOf('/');
+            path = slash == -1 ? "" : path.substring(0, slash);
+        }
+
+        dirtyPaths.add(path);
+
+        if (ready && scheduled.compareAndSet(false, true)) {
+            executor.execute(this::drain);
+        }
+    }
+
+    /**
+     * A directory starts or stops being watched, one which changed while it was not is indexed
+     * again.
+     */
+    @Override
+    public void watched(String dir, boolean isWatched) {
+        if (directoryTimes.watched(dir, isWatched)) {
+            update(dir);
+        }
+    }
+
+    /**
+     * Take the same directories as watched as the index built before this one.
+     */
+    void watchedAs(ContentIndex previous) {
+        directoryTimes.watchedAs(previous.directoryTimes);
+    }
+
+    /**
+     * @param pattern  what to look for on each line
+     * @param literals strings every match contains, which narrow down the files to read
+     * @param limit    the maximum number of matches
+     * @param pool     the pool the files are read on
+     */
+    public List<ContentSearchResultEntry> search(Pattern pattern, Collection<String> literals, int limit,
+                                                 ForkJoinPool pool) throws IOException {
+        Charset charset = Charset.forName(ws.getEncoding());
+        int[] required = requiredTrigrams(literals, charset);
+
+        List<ContentSearchResultEntry> result = Lists.newArrayList();
+
+        if (required.length == 0) {
+            // every file would be a candidate, walking the disk in parallel is as good
+            new ContentGrep(ws, pattern, limit, limit, result::add, pool).run(workingDir);
+
+            return result;
+        }
+
+        reindexUnwatched();
+
+        List<String> candidates;
+
+        synchronized (this) {
+            candidates = candidates(required);
+        }
+
+        Collections.sort(candidates);
+
+        // the files of a round are read in parallel, their matches are kept in order
+        int round = pool.getParallelism() * 2;
+
+        for (int from = 0; from < candidates.size() && result.size() < limit; from += round) {
+            List<Callable<List<ContentSearchResultEntry>>> greps = Lists.newArrayList();
+
+            for (String path : candidates.subList(from, Math.min(from + round, candidates.size()))) {
+                greps.add(() -> grep(path, pattern, charset, limit));
+            }
+
+            for (Future<List<ContentSearchResultEntry>> matches : pool.invokeAll(greps)) {
+                result.addAll(join(matches));
+            }
+        }
+
+        return result.size() > limit ? Lists.newArrayList(result.subList(0, limit)) : result;
+    }
+
+    private static List<ContentSearchResultEntry> join(Future<List<ContentSearchResultEntry>> matches) throws IOException {
+        try {
+            return matches.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("search interrupted");
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException) {
+                throw (IOException) e.getCause();
+            }
+
+            throw new IOException(e.getCause());
+        }
+    }
+
+    /**
+     * Index again, right away, the directories which are not watched and changed since they
+     * were indexed.
+     */
+    private void reindexUnwatched() {
+        List<String> changed = directoryTimes.changed();
+
+        if (!ready || changed.isEmpty()) {
+            return;
+        }
+
+        synchronized (indexLock) {
+            for (String dir : changed) {
+                try {
+                    reindex(dir);
+                } catch (IOException e) {
+                    log.debug("could not index {} of workspace {}: {}", dir, ws.getSpaceKey(), e.getMessage());
+                }
+            }
+        }
+    }
+
+    private void drain() {
+        scheduled.set(false);
+
+        synchronized (indexLock) {
+            for (String path : dirtyPaths) {
+                dirtyPaths.remove(path);
+
+                try {
+                    reindex(path);
+                } catch (IOException e) {
+                    log.debug("could not index {} of workspace {}: {}", path, ws.getSpaceKey(), e.getMessage());
+                }
+            }
+        }
+    }
+
+    private void reindex(String path) throws IOException {
+        remove(path);
+
+        Path p = workingDir.resolve(path);
+        BasicFileAttributes attrs;
+
+        try {
+            attrs = Files.readAttributes(p, BasicFileAttributes.class, NOFOLLOW_LINKS);
+        } catch (NoSuchFileException e) {
+            return;
+        }
+
+        if (attrs.isDirectory()) {
+            indexTree(p);
+        } else if (attrs.isRegularFile()) {
+            index(path, p, attrs.size());
+        }
+    }
+
+    private void indexTree(Path dir) throws IOException {
+        Path gitDir = workingDir.resolve(".git");
+        IgnoreRules ignoreRules = ws.getIgnoreRules();
+
+        Files.walkFileTree(dir, new SimpleFileVisitor<Path>() {
+            @Override
+            public FileVisitResult preVisitDirectory(Path p, BasicFileAttributes attrs) throws IOException {
+                String path = workingDir.relativize(p).toString();
+
+                // ignored directories are skipped as a whole, e.g. node_modules
+                if (p.equals(gitDir) || ignoreRules.isIgnored(path, true)) {
+                    return FileVisitResult.SKIP_SUBTREE;
+                }
+
+                directoryTimes.read(path, attrs.lastModifiedTime().toMillis());
+
+                return FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult visitFile(Path p, BasicFileAttributes attrs) throws IOException {
+                if (attrs.isRegularFile()) {
+                    try {
+                        index(workingDir.relativize(p).toString(), p, attrs.size());
+                    } catch (IOException e) {
+                        log.debug("could not index {}: {}", p, e.getMessage());
+                    }
+                }
+
+                return FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult visitFileFailed(Path p, IOException e) throws IOException {
+                return FileVisitResult.CONTINUE;
+            }
+        });
+    }
+
+    private void index(String path, Path p, long size) throws IOException {
+        if (size > MAX_FILE_SIZE || ws.getIgnoreRules().isIgnored(path, false)) {
+            return;
+        }
+
+        byte[] content = Files.readAllBytes(p);
+
+        if (isBinary(content)) {
+            return;
+        }
+
+        int[] trigrams = trigramsOf(content);
+
+        synchronized (this) {
+            int id = paths.size();
+
+            paths.add(path);
+            ids.put(path, id);
+
+            for (int trigram : trigrams) {
+                postings.computeIfAbsent(trigram, k -> new Postings()).add(id);
+            }
+        }
+    }
+
+    /**
+     * Kill the id of the path and of everything under it.
+     */
+    private synchronized void remove(String path) {
+        if (path.isEmpty()) {
+            deadCount += ids.size();
+            Collections.fill(paths, null);
+            ids.clear();
+            return;
+        }
+
+        Integer id = ids.remove(path);
+
+        if (id != null) {
+            paths.set(id, null);
+            deadCount++;
+            return;
+        }
+
+        Map<String, Integer> under = ids.subMap(path + "/", true, path + "/\uffff", false);
+
+        for (int dead : under.values()) {
+            paths.set(dead, null);
+            deadCount++;
+        }
+
+        under.clear();
+    }
+
+    /**
+     * @return the live paths whose content has all the trigrams
+     */
+    private List<String> candidates(int[] required) {
+        if (required.length == 0) {
+            return Lists.newArrayList(ids.keySet());
+        }
+
+        List<Postings> lists = Lists.newArrayList();
+
+        for (int trigram : required) {
+            Postings list = postings.get(trigram);
+
+            if (list == null) {
+                return Lists.newArrayList();
+            }
+
+            lists.add(list);
+        }
+
+        // the shortest list first, it bounds the size of every intersection
+        lists.sort(Comparator.comparingInt(list -> list.count));
+
+        int[] candidates = lists.get(0).decode();
+        int count = candidates.length;
+
+        for (int i = 1; i < lists.size() && count > 0; i++) {
+            count = intersect(candidates, count, lists.get(i).decode());
+        }
+
+        List<String> result = Lists.newArrayListWithCapacity(count);
+
+        for (int i = 0; i < count; i++) {
+            String path = paths.get(candidates[i]);
+
+            if (path != null) {
+                result.add(path);
+            }
+        }
+
+        return result;
+    }
+
+    /**
+     * Keep in {@code a} the ids that are also in {@code b}, both are sorted.
+     *
+     * @return the number of ids kept
+     */
+    private static int intersect(int[] a, int count, int[] b) {
+        int i = 0;
+        int j = 0;
+        int k = 0;
+
+        while (i < count && j < b.length) {
+            if (a[i] < b[j]) {
+                i++;
+            } else if (a[i] > b[j]) {
+                j++;
+            } else {
+                a[k++] = a[i++];
+                j++;
+            }
+        }
+
+        return k;
+    }
+
+    /**
+     * @return the first matches of the file, at most {@code limit} of them
+     */
+    private List<ContentSearchResultEntry> grep(String path, Pattern pattern, Charset charset, int limit)
+            throws IOException {
+        List<ContentSearchResultEntry> result = Lists.newArrayList();
+        Path p = workingDir.resolve(path);
+
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(Files.newInputStream(p), charset))) {
+            String line;
+            int lineNumber = 0;
+            Matcher matcher = pattern.matcher("");
+
+            while ((line = reader.readLine()) != null) {
+                lineNumber++;
+                matcher.reset(line);
+
+                while (matcher.find()) {
+                    String text = line.length() > MAX_LINE_TEXT ? line.substring(0, MAX_LINE_TEXT) : line;
+
+                    result.add(new ContentSearchResultEntry("/" + path, lineNumber, matcher.start() + 1, text));
+
+                    if (result.size() >= limit) {
+                        return result;
+                    }
+                }
+            }
+        } catch (NoSuchFileException e) {
+            // deleted since it was indexed
+        }
+
+        return result;
+    }
+
+    private static boolean isBinary(byte[] content) {
+        int length = Math.min(content.length, BINARY_SNIFF_LENGTH);
+
+        for (int i = 0; i < length; i++) {
+            if (content[i] == 0) {
+                return true;
+            }
+        }
+
+        return false;
+    }
+
+    /**
+     * @return the distinct trigrams of the content, sorted
+     */
+    private static int[] trigramsOf(byte[] content) {
+        if (content.length < 3) {
+            return new int[0];
+        }
+
+        int[] trigrams = new int[content.length - 2];
+        int count = 0;
+
+        for (int i = 0; i + 2 < content.length; i++) {
+            byte b0 = content[i];
+            byte b1 = content[i + 1];
+            byte b2 = content[i + 2];
+
+            if (b0 == '\n' || b1 == '\n' || b2 == '\n' || b0 == '\r' || b1 == '\r' || b2 == '\r') {
+                continue;
+            }
+
+            trigrams[count++] = trigram(b0, b1, b2);
+        }
+
+        Arrays.sort(trigrams, 0, count);
+
+        int distinct = 0;
+
+        for (int i = 0; i < count; i++) {
+            if (distinct == 0 || trigrams[i] != trigrams[distinct - 1]) {
+                trigrams[distinct++] = trigrams[i];
+            }
+        }
+
+        return Arrays.copyOf(trigrams, distinct);
+    }
+
+    /**
+     * The trigrams of the literals, as they are encoded in the files. A character whose
+     * case can not be folded byte by byte, or which can not be encoded, is left out so
+     * that case insensitive queries never miss a file.
+     */
+    private static int[] requiredTrigrams(Collection<String> literals, Charset charset) {
+        CharsetEncoder encoder = charset.newEncoder();
+        Set<Integer> required = Sets.newHashSet();
+
+        for (String literal : literals) {
+            byte[] bytes = new byte[literal.length() * 4];
+            boolean[] safe = new boolean[bytes.length];
+            int length = 0;
+
+            for (int i = 0; i < literal.length(); ) {
+                int codePoint = literal.codePointAt(i);
+                String c = new String(Character.toChars(codePoint));
+                byte[] encoded = c.getBytes(charset);
+                boolean foldable = codePoint < 128
+                        || Character.toLowerCase(codePoint) == Character.toUpperCase(codePoint);
+                boolean isSafe = foldable && encoder.canEncode(c);
+
+                for (byte b : encoded) {
+                    if (length == bytes.length) {
+                        bytes = Arrays.copyOf(bytes, length * 2);
+                        safe = Arrays.copyOf(safe, length * 2);
+                    }
+
+                    bytes[length] = b;
+                    safe[length++] = isSafe;
+                }
+
+                i += Character.charCount(codePoint);
+            }
+
+            for (int i = 0; i + 2 < length; i++) {
+                if (safe[i] && safe[i + 1] && safe[i + 2]) {
+                    required.add(trigram(bytes[i], bytes[i + 1], bytes[i + 2]));
+                }
+            }
+        }
+
+        return required.stream().mapToInt(Integer::intValue).toArray();
+    }
+
+    private static int trigram(byte b0, byte b1, byte b2) {
+        return fold(b0) << 16 | fold(b1) << 8 | fold(b2);
+    }
+
+    private static int fold(byte b) {
+        return b >= 'A' && b <= 'Z' ? b + ('a' - 'A') : b & 0xff;
+    }
+
+    /**
+     * The literal strings that every match of the regex contains. Anything the regex does
+     * not require for sure, e.g. in a group, before a quantifier or in an alternation, is
+     * left out, and a regex which can not be read that way gives no literal at all.
+     */
+    static List<String> requiredLiterals(String regex) {
+        List<String> literals = Lists.newArrayList();
+        StringBuilder run = new StringBuilder();
+        int depth = 0;
+
+        for (int i = 0; i < regex.length(); i++) {
+            char c = regex.charAt(i);
+
+            switch (c) {
+                case '|':
+                    return Lists.newArrayList();
+                case '(':
+                    depth++;
+                    endRun(run, literals);
+                    break;
+                case ')':
+                    depth--;
+                    endRun(run, literals);
+                    break;
+                case '?':
+                case '*':
+                case '{':
+                    // the previous character is optional
+                    if (run.length() > 0) {
+                        run.setLength(run.length() - 1);
+                    }
+                    endRun(run, literals);
+
+                    if (c == '{') {
+                        int close = regex.indexOf('}', i);
+                        i = close == -1 ? regex.length() : close;
+                    }
+                    break;
+                case '+':
+                    endRun(run, literals);
+                    break;
+                case '[':
+                    endRun(run, literals);
+                    i = skipClass(regex, i);
+                    break;
+                case '.':
+                case '^':
+                case '$':
+                    endRun(run, literals);
+                    break;
+                case '\\':
+                    if (i + 1 == regex.length()) {
+                        return Lists.newArrayList();
+                    }
+
+                    char escaped = regex.charAt(++i);
+
+                    if (Character.isLetterOrDigit(escaped)) {
+                        if ("dDwWsSbBhHvVRX".indexOf(escaped) == -1) {
+                            // \x41, \Q...\E, \p{..} and the like, not worth reading
+                            return Lists.newArrayList();
+                        }
+                        endRun(run, literals);
+                    } else if (depth == 0) {
+                        run.append(escaped);
+                    }
+                    break;
+                default:
+                    if (depth == 0) {
+                        run.append(c);
+                    }
+            }
+        }
+
+        endRun(run, literals);
+
+        return literals;
+    }
+
+    private static void endRun(StringBuilder run, List<String> literals) {
+        if (run.length() >= 3) {
+            literals.add(run.toString());
+        }
+
+        run.setLength(0);
+    }
+
+    private static int skipClass(String regex, int start) {
+        int i = start + 1;
+
+        // a ']' right after the opening is a literal one
+        if (i < regex.length() && regex.charAt(i) == '^') {
+            i++;
+        }
+        if (i < regex.length() && regex.charAt(i) == ']') {
+            i++;
+        }
+
+        for (; i < regex.length(); i++) {
+            char c = regex.charAt(i);
+
+            if (c == '\\') {
+                i++;
+            } else if (c == ']') {
+                return i;
+            }
+        }
+
+        return regex.length();
+    }
+
+    /**
+     * The ids of the files containing a trigram, as varint encoded deltas.
+     */
+    private static class Postings {
+
+        private byte[] data = new byte[4];
+
+        private int length = 0;
+
+        private int last = -1;
+
+        private int count = 0;
+
+        void add(int id) {
+            int delta = id - last;
+
+            last = id;
+            count++;
+
+            if (length + 5 > data.length) {
+                data = Arrays.copyOf(data, Math.max(length + 5, data.length * 2));
+            }
+
+            while ((delta & ~0x7F) != 0) {
+                data[length++] = (byte) ((delta & 0x7F) | 0x80);
+                delta >>>= 7;
+            }
+
+            data[length++] = (byte) delta;
+        }
+
+        int[] decode() {
+            int[] ids = new int[count];
+            int id = -1;
+            int pos = 0;
+
+            for (int i = 0; i < count; i++) {
+                int delta = 0;
+                int shift = 0;
+                byte b;
+
+                do {
+                    b = data[pos++];
+                    delta |= (b & 0x7F) << shift;
+                    shift += 7;
+                } while (b < 0);
+
+                id += delta;
+                ids[i] = id;
+            }
+
+            return ids;
+        }
+    }
+}
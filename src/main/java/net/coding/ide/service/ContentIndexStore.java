@@ -0,0 +1,98 @@
+/*
+ * Copyright (c) 2014-2016 CODING.
+ */
+
+package net.coding.ide.service;
+
+import com.google.common.collect.Maps;
+import lombok.extern.slf4j.Slf4j;
+import net.coding.ide.model.Workspace;
+import org.springframework.stereotype.Component;
+
+import java.util.Map;
+import java.util.concurrent.Executor;
+
+/**
+ * The {@link ContentIndex} of every watched workspace. A fragmented index is built again on
+ * the side, see {@link ContentIndex#isFragmented}.
+ */
+@Slf4j
+@Component
+public class ContentIndexStore extends WorkspaceIndexStore<ContentIndex> {
+
+    /**
+     * indexes being built again, the previous ones keep serving until they are ready
+     */
+    private final Map<String, ContentIndex> rebuilding = Maps.newConcurrentMap();
+
+    public ContentIndexStore() {
+        super("content index");
+    }
+
+    @Override
+    protected ContentIndex create(Workspace ws, Executor executor) {
+        return new ContentIndex(ws, executor);
+    }
+
+    @Override
+    public void close(String spaceKey) {
+        super.close(spaceKey);
+        rebuilding.remove(spaceKey);
+    }
+
+    @Override
+    public void update(Workspace ws, String path) {
+        String spaceKey = ws.getSpaceKey();
+        ContentIndex index = indexes.get(spaceKey);
+
+        if (index == null) {
+            return;
+        }
+
+        index.update(path);
+
+        ContentIndex next = rebuilding.get(spaceKey);
+
+        if (next != null) {
+            next.update(path);
+        } else if (index.isReady() && index.isFragmented()) {
+            rebuild(ws, index);
+        }
+    }
+
+    @Override
+    public void watched(Workspace ws, String dir, boolean watched) {
+        super.watched(ws, dir, watched);
+
+        ContentIndex next = rebuilding.get(ws.getSpaceKey());
+
+        if (next != null) {
+            next.watched(dir, watched);
+        }
+    }
+
+    /**
+     * Build a new index in place of a fragmented one.
+     */
+    private void rebuild(Workspace ws, ContentIndex previous) {
+        String spaceKey = ws.getSpaceKey();
+        ContentIndex index = create(ws, getExecutor());
+
+        if (rebuilding.putIfAbsent(spaceKey, index) != null) {
+            return;
+        }
+
+        index.watchedAs(previous);
+
+        getExecutor().execute(() -> {
+            try {
+                index.build();
+                indexes.replace(spaceKey, previous, index);
+            } catch (Exception e) {
+                log.warn("could not rebuild content index of workspace {}: {}", spaceKey, e.getMessage());
+            } finally {
+                rebuilding.remove(spaceKey, index);
+            }
+        });
+    }
+}
@@ -0,0 +1,52 @@
+/*
+ * Copyright (c) 2014-2016 CODING.
+ */
+
+package net.coding.ide.service;
+
+import com.google.common.cache.CacheStats;
+import net.coding.ide.utils.FileUtil;
+import org.springframework.jmx.export.annotation.ManagedAttribute;
+import org.springframework.jmx.export.annotation.ManagedResource;
+import org.springframework.stereotype.Component;
+
+/**
+ * The hit rates of the content type caches of {@link FileUtil}, to tell whether their sizes
+ * fit the workspaces.
+ */
+@Component
+@ManagedResource(objectName = "net.coding.ide:type=ContentTypeCacheStats", description = "content type detection caches")
+public class ContentTypeCacheStats {
+
+    @ManagedAttribute(description = "the hit rate of the mime type map memo, by file extension")
+    public double getExtensionHitRate() {
+        return FileUtil.getExtensionCacheStats().hitRate();
+    }
+
+    @ManagedAttribute(description = "the number of lookups of the mime type map memo")
+    public long getExtensionRequests() {
+        return FileUtil.getExtensionCacheStats().requestCount();
+    }
+
+    @ManagedAttribute(description = "the hit rate of the content detection cache")
+    public double getDetectionHitRate() {
+        return FileUtil.getDetectionCacheStats().hitRate();
+    }
+
+    @ManagedAttribute(description = "the number of lookups of the content detection cache")
+    public long getDetectionRequests() {
+        return FileUtil.getDetectionCacheStats().requestCount();
+    }
+
+    @ManagedAttribute(description = "the number of detections evicted for lack of room")
+    public long getDetectionEvictions() {
+        return FileUtil.getDetectionCacheStats().evictionCount();
+    }
+
+    @ManagedAttribute(description = "the average time of a detection, a read of the file header, in ms")
+    public double getDetectionAverageLoadMillis() {
+        CacheStats stats = FileUtil.getDetectionCacheStats();
+
+        return stats.averageLoadPenalty() / 1000000;
+    }
+}
@@ -0,0 +1,116 @@
+/*
+ * Copyright (c) 2014-2016 CODING.
+ */
+
+package net.coding.ide.service;
+
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import net.coding.ide.model.Workspace;
+import org.springframework.stereotype.Component;
+
+import java.nio.file.Files;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import static java.nio.file.LinkOption.NOFOLLOW_LINKS;
+
+/**
+ * The paths deleted in every watched workspace and when, the deletions an export since a
+ * time can not find on the disk. Only the latest {@value #MAX_DELETIONS} deletions of a
+ * workspace are kept, and only those in the directories watched, see
+ * {@link WorkspaceWatcher#isWatchedSince}.
+ */
+@Component
+public class DeletedPathStore implements WorkspaceChangeListener {
+
+    private static final int MAX_DELETIONS = 100000;
+
+    private final Map<String, DeletionLog> logs = Maps.newConcurrentMap();
+
+    @Override
+    public void open(Workspace ws) {
+        logs.putIfAbsent(ws.getSpaceKey(), new DeletionLog(System.currentTimeMillis()));
+    }
+
+    @Override
+    public void close(String spaceKey) {
+        logs.remove(spaceKey);
+    }
+
+    @Override
+    public void update(Workspace ws, String path) {
+        DeletionLog log = logs.get(ws.getSpaceKey());
+
+        if (log == null || path.equals(".git") || path.startsWith(".git/")) {
+            return;
+        }
+
+        boolean exists = Files.exists(ws.getWorkingDir().toPath().resolve(path), NOFOLLOW_LINKS);
+
+        log.update(path, exists, System.currentTimeMillis());
+    }
+
+    /**
+     * @param since the time in milliseconds
+     * @return the paths deleted after the time and not created again since, relative to the
+     * working dir, {@code null} when the deletions of that time are not all known
+     */
+    public List<String> deletedSince(String spaceKey, long since) {
+        DeletionLog log = logs.get(spaceKey);
+
+        return log == null ? null : log.deletedSince(since);
+    }
+
+    private static class DeletionLog {
+
+        /**
+         * the deleted paths and the time they were deleted, the oldest first
+         */
+        private final LinkedHashMap<String, Long> deletions = new LinkedHashMap<>();
+
+        /**
+         * the deletions are known from this time on
+         */
+        private long knownSince;
+
+        DeletionLog(long knownSince) {
+            this.knownSince = knownSince;
+        }
+
+        synchronized void update(String path, boolean exists, long now) {
+            deletions.remove(path);
+
+            if (exists) {
+                return;
+            }
+
+            deletions.put(path, now);
+
+            if (deletions.size() > MAX_DELETIONS) {
+                Iterator<Long> eldest = deletions.values().iterator();
+
+                knownSince = eldest.next();
+                eldest.remove();
+            }
+        }
+
+        synchronized List<String> deletedSince(long since) {
+            if (since < knownSince) {
+                return null;
+            }
+
+            List<String> deleted = Lists.newArrayList();
+
+            for (Map.Entry<String, Long> deletion : deletions.entrySet()) {
+                if (deletion.getValue() > since) {
+                    deleted.add(deletion.getKey());
+                }
+            }
+
+            return deleted;
+        }
+    }
+}
@@ -0,0 +1,191 @@
+/*
+ * Copyright (c) 2014-2016 CODING.
+ */
+
+package net.coding.ide.service;
+
+import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
+
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.WatchEvent;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.Map;
+import java.util.Set;
+
+import static java.nio.file.LinkOption.NOFOLLOW_LINKS;
+import static java.nio.file.StandardWatchEventKinds.*;
+
+/**
+ * What a watched directory holds, the name, last modified time and size of each entry, to
+ * find out what changed in it once its changes have been dropped. It is kept up to date with
+ * the changes of the directory as they come.
+ *
+ * A directory of more than {@value #MAX_ENTRIES} entries is not kept, it is too costly to
+ * scan again, and what changed in it is not known.
+ */
+class DirectorySnapshot {
+
+    static final int MAX_ENTRIES = 5000;
+
+    private final Path dir;
+
+    private final Map<String, Entry> entries = Maps.newHashMap();
+
+    /**
+     * the names changed since the scan in progress started, which the scan may have missed
+     */
+    private final Set<String> touched = Sets.newHashSet();
+
+    /**
+     * whether the directory has been scanned, and is small enough to be kept
+     */
+    private boolean complete = false;
+
+    DirectorySnapshot(Path dir) {
+        this.dir = dir;
+    }
+
+    /**
+     * Take the entry of the name again, after a change of it.
+     */
+    void update(String name) {
+        Entry entry = read(dir.resolve(name));
+
+        synchronized (this) {
+            touched.add(name);
+
+            if (entry == null) {
+                entries.remove(name);
+            } else if (complete && !entries.containsKey(name) && entries.size() >= MAX_ENTRIES) {
+                complete = false;
+                entries.clear();
+            } else if (complete) {
+                entries.put(name, entry);
+            }
+        }
+    }
+
+    /**
+     * Scan the directory again.
+     *
+     * @return the changes since the directory was last scanned or updated, the kind of
+     * change of each name, {@code null} if they are not known
+     */
+    Map<String, WatchEvent.Kind<Path>> rescan() throws IOException {
+        synchronized (this) {
+            touched.clear();
+        }
+
+        Map<String, Entry> current = scan();
+
+        synchronized (this) {
+            boolean known = complete;
+
+            complete = current != null;
+
+            if (current == null) {
+                entries.clear();
+                return null;
+            }
+
+            Map<String, WatchEvent.Kind<Path>> changes = Maps.newLinkedHashMap();
+
+            // names changed during the scan are newer than it, they are left as they are
+            for (String name : Sets.newHashSet(entries.keySet())) {
+                if (!current.containsKey(name) && !touched.contains(name)) {
+                    entries.remove(name);
+                    changes.put(name, ENTRY_DELETE);
+                }
+            }
+
+            for (Map.Entry<String, Entry> entry : current.entrySet()) {
+                String name = entry.getKey();
+
+                if (touched.contains(name)) {
+                    continue;
+                }
+
+                Entry previous = entries.put(name, entry.getValue());
+
+                if (previous == null) {
+                    changes.put(name, ENTRY_CREATE);
+                } else if (!previous.isSame(entry.getValue())) {
+                    changes.put(name, ENTRY_MODIFY);
+                }
+            }
+
+            return known ? changes : null;
+        }
+    }
+
+    /**
+     * @return the entries of the directory, {@code null} if it has too many of them
+     */
+    private Map<String, Entry> scan() throws IOException {
+        Map<String, Entry> current = Maps.newHashMap();
+
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(dir)) {
+            for (Path p : stream) {
+                if (current.size() == MAX_ENTRIES) {
+                    return null;
+                }
+
+                Entry entry = read(p);
+
+                if (entry != null) {
+                    current.put(p.getFileName().toString(), entry);
+                }
+            }
+        }
+
+        return current;
+    }
+
+    /**
+     * @return the entry of the path, {@code null} if it does not exist
+     */
+    private static Entry read(Path p) {
+        try {
+            BasicFileAttributes attrs = Files.readAttributes(p, BasicFileAttributes.class, NOFOLLOW_LINKS);
+
+            return new Entry(attrs.lastModifiedTime().toMillis(), attrs.size(), attrs.isDirectory());
+        } catch (NoSuchFileException e) {
+            return null;
+        } catch (IOException e) {
+            // unreadable, but there
+            return new Entry(0, 0, false);
+        }
+    }
+
+    private static class Entry {
+
+        private final long lastModified;
+
+        private final long size;
+
+        private final boolean directory;
+
+        Entry(long lastModified, long size, boolean directory) {
+            this.lastModified = lastModified;
+            this.size = size;
+            this.directory = directory;
+        }
+
+        /**
+         * A directory changes with what is in it, which is watched on its own, only its type
+         * counts.
+         */
+        boolean isSame(Entry other) {
+            if (directory || other.directory) {
+                return directory == other.directory;
+            }
+
+            return lastModified == other.lastModified && size == other.size;
+        }
+    }
+}
@@ -0,0 +1,153 @@
+/*
+ * Copyright (c) 2014-2016 CODING.
+ */
+
+package net.coding.ide.service;
+
+import com.google.common.collect.Lists;
+import com.google.common.collect.Sets;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import static java.nio.file.LinkOption.NOFOLLOW_LINKS;
+
+/**
+ * The modified time of the directories an index has read while they are not watched. Their
+ * changes are not told to the index, so it checks them when it is queried: a directory whose
+ * modified time is not the one read had entries created, deleted or renamed since, and is read
+ * again. A file written in place leaves the time of its directory alone, that is not seen
+ * until the directory is watched and the file changes again.
+ *
+ * A directory read is taken as not watched until the watcher tells otherwise, see
+ * {@link #watched}. Directories are relative to the working dir, "" is the working dir.
+ */
+class DirectoryTimes {
+
+    /**
+     * how long after a check the directories are not checked again, a burst of queries stats
+     * them once
+     */
+    private static final long CHECK_INTERVAL = 1000;
+
+    /**
+     * the timestamps of some file systems are only precise to the second
+     */
+    private static final long RACY_INTERVAL = 2000;
+
+    /**
+     * the time of a directory read too close to its modification, which never matches
+     */
+    private static final long RACY = -1;
+
+    private final Path workingDir;
+
+    private final Map<String, Long> lastModifieds = new ConcurrentHashMap<>();
+
+    private final Set<String> watched = Sets.newConcurrentHashSet();
+
+    private volatile long checkedAt = 0;
+
+    DirectoryTimes(Path workingDir) {
+        this.workingDir = workingDir;
+    }
+
+    /**
+     * The directory has been read, as it was at the modified time.
+     */
+    void read(String dir, long lastModified) {
+        if (watched.contains(dir)) {
+            return;
+        }
+
+        lastModifieds.put(dir, lastModified >= System.currentTimeMillis() - RACY_INTERVAL ? RACY : lastModified);
+    }
+
+    /**
+     * The directory starts or stops being watched.
+     *
+     * @return {@code true} if it starts being watched and changed since it was read, it has to
+     * be read again
+     */
+    boolean watched(String dir, boolean isWatched) {
+        if (!isWatched) {
+            // its changes so far have been told
+            if (watched.remove(dir)) {
+                long lastModified = lastModifiedOf(dir);
+
+                if (lastModified != RACY) {
+                    read(dir, lastModified);
+                }
+            }
+            return false;
+        }
+
+        watched.add(dir);
+
+        Long lastModified = lastModifieds.remove(dir);
+
+        return lastModified != null && (lastModified == RACY || lastModified != lastModifiedOf(dir));
+    }
+
+    /**
+     * Take the same directories as watched as another index of the workspace does.
+     */
+    void watchedAs(DirectoryTimes other) {
+        for (String dir : other.watched) {
+            watched(dir, true);
+        }
+    }
+
+    /**
+     * @return the directories which are not watched and changed or are gone since they were
+     * read, sorted, none if they have been checked less than {@value #CHECK_INTERVAL} ms ago
+     */
+    List<String> changed() {
+        long now = System.currentTimeMillis();
+
+        if (now - checkedAt < CHECK_INTERVAL) {
+            return Collections.emptyList();
+        }
+
+        checkedAt = now;
+
+        List<String> changed = Lists.newArrayList();
+
+        for (Map.Entry<String, Long> entry : lastModifieds.entrySet()) {
+            long read = entry.getValue();
+
+            if (read != RACY && read == lastModifiedOf(entry.getKey())) {
+                continue;
+            }
+
+            // read again, or gone for good
+            lastModifieds.remove(entry.getKey(), entry.getValue());
+            changed.add(entry.getKey());
+        }
+
+        Collections.sort(changed);
+
+        return changed;
+    }
+
+    /**
+     * @return the modified time of the directory, {@value #RACY} if it is gone
+     */
+    private long lastModifiedOf(String dir) {
+        try {
+            Path p = dir.isEmpty() ? workingDir : workingDir.resolve(dir);
+            BasicFileAttributes attrs = Files.readAttributes(p, BasicFileAttributes.class, NOFOLLOW_LINKS);
+
+            return attrs.isDirectory() ? attrs.lastModifiedTime().toMillis() : RACY;
+        } catch (IOException e) {
+            return RACY;
+        }
+    }
+}
@@ -0,0 +1,215 @@
+/*
+ * Copyright (c) 2014-2016 CODING.
+ */
+
+package net.coding.ide.service;
+
+import com.google.common.collect.Lists;
+import net.coding.ide.dto.FileOperationDTO;
+import net.coding.ide.dto.FileOperationResultDTO;
+import net.coding.ide.model.Workspace;
+import net.coding.ide.model.exception.WorkspaceIOException;
+
+import java.io.IOException;
+import java.nio.file.FileSystemException;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+
+import static java.lang.String.format;
+
+/**
+ * A batch of file operations of a workspace. Operations run in parallel, except that an
+ * operation waits for the operations before it on the same paths, or on paths above or below
+ * them.
+ *
+ * Every operation gets a result, at its index: an operation which can not be run, or fails,
+ * fails alone and does not hold back the others.
+ */
+public class FileBatch {
+
+    private final Workspace ws;
+
+    private final List<FileOperationDTO> operations;
+
+    /**
+     * the paths of each operation
+     */
+    private final List<List<Path>> paths = Lists.newArrayList();
+
+    private final FileOperationResultDTO[] results;
+
+    /**
+     * the deepest directory holding every path of the batch
+     */
+    private Path dir;
+
+    public FileBatch(Workspace ws, List<FileOperationDTO> operations) {
+        this.ws = ws;
+        this.operations = operations;
+        this.results = new FileOperationResultDTO[operations.size()];
+
+        Path workingDir = ws.getWorkingDir().toPath();
+
+        for (int i = 0; i < operations.size(); i++) {
+            FileOperationDTO operation = operations.get(i);
+            List<Path> operationPaths = Lists.newArrayList();
+
+            try {
+                operationPaths = pathsOf(ws, operation);
+            } catch (Exception e) {
+                results[i] = failed(operation, e);
+            }
+
+            for (Path p : operationPaths) {
+                // the directory holding the path is changed as well
+                Path parent = p.equals(workingDir) ? p : p.getParent();
+
+                while (dir != null && !parent.startsWith(dir)) {
+                    dir = dir.getParent();
+                }
+
+                dir = dir == null ? parent : dir;
+            }
+
+            paths.add(operationPaths);
+        }
+
+        if (dir == null || !dir.startsWith(workingDir)) {
+            dir = workingDir;
+        }
+    }
+
+    /**
+     * @return the deepest directory holding every path of the batch, in the working dir
+     */
+    public Path getDir() {
+        return dir;
+    }
+
+    /**
+     * Run the operations and wait for all of them.
+     *
+     * @return the result of each operation, at its index
+     */
+    public List<FileOperationResultDTO> run(Executor executor) {
+        int size = operations.size();
+        CompletableFuture<?>[] done = new CompletableFuture<?>[size];
+
+        for (int i = 0; i < size; i++) {
+            if (results[i] != null) {
+                done[i] = CompletableFuture.completedFuture(null);
+                continue;
+            }
+
+            List<CompletableFuture<?>> before = Lists.newArrayList();
+
+            for (int j = 0; j < i; j++) {
+                if (overlap(paths.get(i), paths.get(j))) {
+                    before.add(done[j]);
+                }
+            }
+
+            int index = i;
+            FileOperationDTO operation = operations.get(i);
+
+            // never completed exceptionally, even if the executor refuses the operation,
+            // so that the operations after it still run and the wait below returns
+            done[i] = CompletableFuture.allOf(before.toArray(new CompletableFuture<?>[before.size()]))
+                    .thenRunAsync(() -> results[index] = apply(ws, operation), executor)
+                    .exceptionally(e -> {
+                        results[index] = failed(operation, e instanceof CompletionException && e.getCause() != null
+                                ? e.getCause() : e);
+                        return null;
+                    });
+        }
+
+        CompletableFuture.allOf(done).join();
+
+        return Lists.newArrayList(results);
+    }
+
+    /**
+     * @return the number of operations which succeeded so far
+     */
+    public int getChanges() {
+        int changes = 0;
+
+        for (FileOperationResultDTO result : results) {
+            if (result != null && result.isOk()) {
+                changes++;
+            }
+        }
+
+        return changes;
+    }
+
+    private static List<Path> pathsOf(Workspace ws, FileOperationDTO operation) throws IOException {
+        if (operation.getType() == null || operation.getPath() == null) {
+            throw new WorkspaceIOException("an operation needs a type and a path.");
+        }
+
+        List<Path> paths = Lists.newArrayList();
+
+        paths.add(ws.getPath(operation.getPath()));
+
+        if (operation.getType() == FileOperationDTO.Type.MOVE || operation.getType() == FileOperationDTO.Type.COPY) {
+            if (operation.getTo() == null) {
+                throw new WorkspaceIOException(format("%s of %s needs a target.",
+                        operation.getType().name().toLowerCase(), operation.getPath()));
+            }
+
+            paths.add(ws.getPath(operation.getTo()));
+        }
+
+        return paths;
+    }
+
+    private static boolean overlap(List<Path> paths, List<Path> others) {
+        for (Path p : paths) {
+            for (Path other : others) {
+                if (p.startsWith(other) || other.startsWith(p)) {
+                    return true;
+                }
+            }
+        }
+
+        return false;
+    }
+
+    private static FileOperationResultDTO apply(Workspace ws, FileOperationDTO operation) {
+        try {
+            switch (operation.getType()) {
+                case DELETE:
+                    ws.remove(operation.getPath(), operation.isRecursive());
+                    break;
+                case MOVE:
+                    ws.move(operation.getPath(), operation.getTo(), operation.isForce());
+                    break;
+                case COPY:
+                    ws.copy(operation.getPath(), operation.getTo(), operation.isForce());
+                    break;
+                case MKDIR:
+                    ws.mkdir(operation.getPath());
+                    break;
+            }
+        } catch (Exception e) {
+            return failed(operation, e);
+        }
+
+        return FileOperationResultDTO.of(operation.getType(), operation.getPath(), true, null);
+    }
+
+    private static FileOperationResultDTO failed(FileOperationDTO operation, Throwable e) {
+        String error = e.getMessage() == null ? e.getClass().getSimpleName() : e.getMessage();
+
+        if (e instanceof FileSystemException) {
+            // the message of these is just the path
+            error = e.getClass().getSimpleName() + ": " + error;
+        }
+
+        return FileOperationResultDTO.of(operation.getType(), operation.getPath(), false, error);
+    }
+}
@@ -0,0 +1,305 @@
+/*
+ * Copyright (c) 2014-2016 CODING.
+ */
+
+package net.coding.ide.service;
+
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import lombok.extern.slf4j.Slf4j;
+import net.coding.ide.event.FileChangeBatchEvent;
+import net.coding.ide.event.FileChangeEvent;
+import net.coding.ide.event.FileCreateEvent;
+import net.coding.ide.event.FileDeleteEvent;
+import net.coding.ide.event.FileModifyEvent;
+import net.coding.ide.event.FileMoveEvent;
+import net.coding.ide.model.FileInfo;
+import net.coding.ide.model.Workspace;
+import org.springframework.context.ApplicationEventPublisher;
+
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The changes of a workspace, published in batches. The changes are collected as they come,
+ * without reading anything, and coalesced by path: a file created then modified is created,
+ * created then deleted is left out. Once the workspace has been quiet for
+ * {@value #QUIET_PERIOD} ms, {@value #MAX_DELAY} ms after the first change at the latest, or
+ * once {@value #MAX_BATCH_SIZE} paths are waiting, the file info of what is left is read in
+ * one go on a worker pool, and the batch is published as a single
+ * {@link FileChangeBatchEvent}. Batches are published in order.
+ */
+@Slf4j
+class FileChangeBatcher {
+
+    private static final int QUIET_PERIOD = 100;
+
+    private static final int MAX_DELAY = 1000;
+
+    private static final int MAX_BATCH_SIZE = 1000;
+
+    private enum Kind {
+        CREATE, MODIFY, DELETE, MOVE
+    }
+
+    private final Workspace ws;
+
+    private final WorkspaceManager wsMgr;
+
+    private final ApplicationEventPublisher publisher;
+
+    private final ScheduledExecutorService scheduler;
+
+    private final Executor enricher;
+
+    /**
+     * the changes waiting, by normalized path, in the order they came
+     */
+    private LinkedHashMap<String, Change> pending = Maps.newLinkedHashMap();
+
+    /**
+     * the changes waiting which need nothing read, e.g. a refresh
+     */
+    private List<FileChangeEvent> ready = Lists.newArrayList();
+
+    private long firstAt;
+
+    private long lastAt;
+
+    private ScheduledFuture<?> flushTask;
+
+    /**
+     * the batch being read or published, the next one is published after it
+     */
+    private CompletableFuture<Void> last = CompletableFuture.completedFuture(null);
+
+    private volatile boolean terminated = false;
+
+    FileChangeBatcher(Workspace ws, WorkspaceManager wsMgr, ApplicationEventPublisher publisher,
+                      ScheduledExecutorService scheduler, Executor enricher) {
+        this.ws = ws;
+        this.wsMgr = wsMgr;
+        this.publisher = publisher;
+        this.scheduler = scheduler;
+        this.enricher = enricher;
+    }
+
+    synchronized void created(String path) {
+        add(path, Kind.CREATE);
+    }
+
+    synchronized void modified(String path) {
+        add(path, Kind.MODIFY);
+    }
+
+    synchronized void deleted(String path) {
+        add(path, Kind.DELETE);
+    }
+
+    synchronized void moved(String oldPath, String path) {
+        Change previous = pending.remove(oldPath);
+
+        if (previous != null && previous.kind == Kind.CREATE) {
+            // created then moved, only the new path is told
+            pending.remove(path);
+            add(path, Kind.CREATE);
+            return;
+        }
+
+        String origin = previous != null && previous.kind == Kind.MOVE ? previous.oldPath : oldPath;
+
+        pending.remove(path);
+        pending.put(path, origin.equals(path) ? new Change(Kind.MODIFY, null) : new Change(Kind.MOVE, origin));
+
+        scheduleFlush();
+    }
+
+    /**
+     * @param event a change which needs nothing read
+     */
+    synchronized void add(FileChangeEvent event) {
+        ready.add(event);
+
+        scheduleFlush();
+    }
+
+    /**
+     * Drop the changes waiting, nothing is published any more.
+     */
+    synchronized void terminate() {
+        terminated = true;
+
+        if (flushTask != null) {
+            flushTask.cancel(false);
+        }
+
+        pending.clear();
+        ready.clear();
+    }
+
+    private void add(String path, Kind kind) {
+        Change previous = pending.get(path);
+        Change change = previous == null ? new Change(kind, null) : previous.then(kind);
+
+        if (change == null) {
+            pending.remove(path);
+        } else if (change.kind == Kind.DELETE && previous != null && previous.kind == Kind.MOVE) {
+            // moved then deleted, the file is gone from where it was
+            pending.remove(path);
+            add(previous.oldPath, Kind.DELETE);
+            return;
+        } else {
+            pending.put(path, change);
+        }
+
+        scheduleFlush();
+    }
+
+    private void scheduleFlush() {
+        if (terminated) {
+            return;
+        }
+
+        lastAt = System.currentTimeMillis();
+
+        if (pending.size() + ready.size() >= MAX_BATCH_SIZE) {
+            flush();
+        } else if (flushTask == null) {
+            firstAt = lastAt;
+            flushTask = scheduler.schedule(this::due, QUIET_PERIOD, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    private synchronized void due() {
+        flushTask = null;
+
+        long wait = Math.min(lastAt + QUIET_PERIOD, firstAt + MAX_DELAY) - System.currentTimeMillis();
+
+        if (wait > 0) {
+            flushTask = scheduler.schedule(this::due, wait, TimeUnit.MILLISECONDS);
+        } else {
+            flush();
+        }
+    }
+
+    private void flush() {
+        if (flushTask != null) {
+            flushTask.cancel(false);
+            flushTask = null;
+        }
+
+        if (terminated || (pending.isEmpty() && ready.isEmpty())) {
+            return;
+        }
+
+        Map<String, Change> changes = pending;
+        List<FileChangeEvent> events = ready;
+
+        pending = Maps.newLinkedHashMap();
+        ready = Lists.newArrayList();
+
+        last = last.thenRunAsync(() -> publish(changes, events), enricher);
+    }
+
+    /**
+     * Read the file info of the changes and publish them, by a thread of the worker pool.
+     */
+    private void publish(Map<String, Change> changes, List<FileChangeEvent> events) {
+        if (terminated) {
+            return;
+        }
+
+        try {
+            List<String> paths = Lists.newArrayList();
+
+            for (Map.Entry<String, Change> entry : changes.entrySet()) {
+                if (entry.getValue().kind != Kind.DELETE) {
+                    paths.add(entry.getKey());
+                }
+            }
+
+            Map<String, FileInfo> fileInfos = paths.isEmpty() ? Maps.newHashMap() : wsMgr.getFileInfos(ws, paths);
+            List<FileChangeEvent> batch = Lists.newArrayList();
+            String spaceKey = ws.getSpaceKey();
+
+            for (Map.Entry<String, Change> entry : changes.entrySet()) {
+                String path = entry.getKey();
+                Change change = entry.getValue();
+                FileInfo fileInfo = fileInfos.get(path);
+
+                if (change.kind == Kind.DELETE) {
+                    batch.add(new FileDeleteEvent(spaceKey, deletedFileInfo(path)));
+                } else if (change.kind == Kind.MOVE) {
+                    batch.add(fileInfo != null
+                            ? new FileMoveEvent(spaceKey, fileInfo, change.oldPath)
+                            : new FileDeleteEvent(spaceKey, deletedFileInfo(change.oldPath)));
+                } else if (fileInfo == null) {
+                    // gone meanwhile, its delete is coming
+                    log.debug("file {} not found.", path);
+                } else if (change.kind == Kind.CREATE) {
+                    batch.add(new FileCreateEvent(spaceKey, fileInfo));
+                } else {
+                    batch.add(new FileModifyEvent(spaceKey, fileInfo));
+                }
+            }
+
+            batch.addAll(events);
+
+            if (!batch.isEmpty() && !terminated) {
+                log.info("publish {} file changes of workspace {}", batch.size(), spaceKey);
+                publisher.publishEvent(new FileChangeBatchEvent(spaceKey, batch));
+            }
+        } catch (Exception e) {
+            // the next batches are published all the same
+            log.warn("could not publish file changes of workspace {}", ws.getSpaceKey(), e);
+        }
+    }
+
+    private static FileInfo deletedFileInfo(String path) {
+        FileInfo fileInfo = new FileInfo();
+
+        fileInfo.setName(path.substring(path.lastIndexOf('/') + 1));
+        fileInfo.setPath(path);
+
+        return fileInfo;
+    }
+
+    private static class Change {
+
+        private final Kind kind;
+
+        /**
+         * the path before a move
+         */
+        private final String oldPath;
+
+        Change(Kind kind, String oldPath) {
+            this.kind = kind;
+            this.oldPath = oldPath;
+        }
+
+        /**
+         * @return this change followed by another of the same path, {@code null} if nothing
+         * changed in the end
+         */
+        Change then(Kind next) {
+            switch (kind) {
+                case CREATE:
+                    return next == Kind.DELETE ? null : this;
+                case MODIFY:
+                    return next == Kind.DELETE ? new Change(Kind.DELETE, null) : this;
+                case DELETE:
+                    // deleted then created again, the file is replaced
+                    return next == Kind.DELETE ? this : new Change(Kind.MODIFY, null);
+                default:
+                    return next == Kind.DELETE ? new Change(Kind.DELETE, null) : this;
+            }
+        }
+    }
+}
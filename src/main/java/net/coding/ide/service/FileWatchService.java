@@ -0,0 +1,212 @@
+/*
+ * Copyright (c) 2014-2016 CODING.
+ */
+
+package net.coding.ide.service;
+
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.jmx.export.annotation.ManagedAttribute;
+import org.springframework.jmx.export.annotation.ManagedResource;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * The watch of the files of every online workspace, by a fixed number of poller threads
+ * whatever the number of workspaces. Each poller has an inotify instance of its own, either
+ * read through JNA or through the watch service of the JDK, shared by the workspaces given to
+ * it, and hands the changes of a workspace to its {@link WorkspaceWatcher}, so the changes of
+ * a workspace are handled one at a time, in order.
+ *
+ * The pollers only queue the changes. They are handled, and the directories of a workspace
+ * registered and scanned, by a shared pool of handler threads, one thread at a time for a
+ * workspace. The batching of every workspace is scheduled on a shared scheduler. Besides the git state, only the
+ * directories the client lists are watched, until they have been idle for
+ * {@code WATCH_IDLE_TIMEOUT} minutes.
+ */
+@Slf4j
+@Component
+@ManagedResource(objectName = "net.coding.ide:type=FileWatchService", description = "watch of the files of the online workspaces")
+public class FileWatchService {
+
+    private static final int SCHEDULER_THREADS = 2;
+
+    private static final int HANDLER_THREADS = 4;
+
+    private static final int ENRICHER_THREADS = 4;
+
+    private static final String MAX_USER_WATCHES = "/proc/sys/fs/inotify/max_user_watches";
+
+    private static final String INOTIFY = "inotify";
+
+    private static final String JDK = "jdk";
+
+    @Value("${WATCH_POLLERS}")
+    private int pollerCount;
+
+    @Value("${WATCH_BACKEND}")
+    private String backend;
+
+    @Value("${WATCH_BUFFER_SIZE}")
+    private int bufferSize;
+
+    @Value("${WATCH_IDLE_TIMEOUT}")
+    private int idleTimeout;
+
+    private final List<WatchPoller> pollers = Lists.newArrayList();
+
+    /**
+     * the number of workspaces given to each poller
+     */
+    private final Map<WatchPoller, AtomicInteger> workspaces = Maps.newIdentityHashMap();
+
+    private ScheduledExecutorService scheduler;
+
+    private ExecutorService handler;
+
+    private ExecutorService enricher;
+
+    @PostConstruct
+    public void start() throws IOException {
+        scheduler = Executors.newScheduledThreadPool(SCHEDULER_THREADS, new ThreadFactoryBuilder()
+                .setNameFormat("FileWatchScheduler-%d")
+                .setDaemon(true)
+                .build());
+
+        handler = Executors.newFixedThreadPool(HANDLER_THREADS, new ThreadFactoryBuilder()
+                .setNameFormat("FileWatchHandler-%d")
+                .setDaemon(true)
+                .build());
+
+        enricher = Executors.newFixedThreadPool(ENRICHER_THREADS, new ThreadFactoryBuilder()
+                .setNameFormat("FileChangeEnricher-%d")
+                .setDaemon(true)
+                .build());
+
+        for (int i = 0; i < Math.max(pollerCount, 1); i++) {
+            WatchPoller poller = newPoller();
+            Thread thread = new Thread(poller, "FileWatchPoller-" + i);
+
+            thread.setDaemon(true);
+            thread.start();
+
+            pollers.add(poller);
+            workspaces.put(poller, new AtomicInteger());
+        }
+    }
+
+    /**
+     * @return a poller of the backend configured, of the JDK if inotify can not be used
+     */
+    private WatchPoller newPoller() throws IOException {
+        if (INOTIFY.equalsIgnoreCase(backend)) {
+            try {
+                return new InotifyWatchPoller(bufferSize);
+            } catch (IOException | LinkageError e) {
+                log.warn("inotify can not be used, files are watched by the watch service of the JDK: {}", e.getMessage());
+                backend = JDK;
+            }
+        }
+
+        return new NioWatchPoller();
+    }
+
+    @PreDestroy
+    public void stop() {
+        for (WatchPoller poller : pollers) {
+            poller.close();
+        }
+
+        handler.shutdownNow();
+        enricher.shutdownNow();
+        scheduler.shutdownNow();
+    }
+
+    /**
+     * Give the watcher to the poller with the fewest workspaces, its directories are registered
+     * in the background.
+     */
+    public void watch(WorkspaceWatcher watcher) {
+        WatchPoller poller = pollers.stream()
+                .min(Comparator.comparingInt(p -> workspaces.get(p).get()))
+                .get();
+
+        workspaces.get(poller).incrementAndGet();
+        watcher.attach(poller, handler);
+
+        handler.execute(() -> {
+            try {
+                watcher.start(TimeUnit.MINUTES.toMillis(idleTimeout));
+            } catch (Exception e) {
+                log.warn("could not register the directories of workspace {}: {}", watcher.getSpaceKey(), e.getMessage());
+            }
+        });
+    }
+
+    public void unwatch(WorkspaceWatcher watcher) {
+        WatchPoller poller = watcher.stop();
+
+        if (poller != null) {
+            workspaces.get(poller).decrementAndGet();
+        }
+    }
+
+    /**
+     * the scheduler shared by the watchers, for batching and delayed work
+     */
+    public ScheduledExecutorService getScheduler() {
+        return scheduler;
+    }
+
+    /**
+     * the pool shared by the watchers, which reads the file info of the batches of changes
+     */
+    public ExecutorService getEnricher() {
+        return enricher;
+    }
+
+    @ManagedAttribute(description = "the number of threads watching and scheduling")
+    public int getThreads() {
+        return pollers.stream().mapToInt(WatchPoller::getThreadCount).sum() + SCHEDULER_THREADS + HANDLER_THREADS + ENRICHER_THREADS;
+    }
+
+    @ManagedAttribute(description = "the number of workspaces watched")
+    public int getWorkspaces() {
+        return workspaces.values().stream().mapToInt(AtomicInteger::get).sum();
+    }
+
+    @ManagedAttribute(description = "the number of directories watched, one inotify watch each")
+    public int getWatches() {
+        return pollers.stream().mapToInt(WatchPoller::getWatchCount).sum();
+    }
+
+    @ManagedAttribute(description = "the backend reading inotify, inotify through JNA or jdk")
+    public String getBackend() {
+        return backend;
+    }
+
+    @ManagedAttribute(description = "the maximum number of inotify watches of the user, -1 if unknown")
+    public int getMaxWatches() {
+        try {
+            return Integer.parseInt(new String(Files.readAllBytes(Paths.get(MAX_USER_WATCHES))).trim());
+        } catch (IOException | NumberFormatException e) {
+            return -1;
+        }
+    }
+}
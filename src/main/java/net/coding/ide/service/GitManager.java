@@ -24,6 +24,21 @@ public interface GitManager {
 
     GitStatus status(Workspace ws, Path path) throws Exception;
 
+    /**
+     * The git status of every file in the workspace, computed once and reused while
+     * the index and HEAD stay the same.
+     *
+     * @return the snapshot, which is up to date for the files directly under the directory,
+     * or {@code null} if the status could not be computed
+     */
+    GitStatusSnapshot statusSnapshot(Workspace ws, Path relativeDir) throws Exception;
+
+    /**
+     * @return the most significant status among the files under the directory,
+     * {@link GitStatus#CLEAN} if the directory contains no changed file
+     */
+    GitStatus aggregatedStatus(Workspace ws, Path relativeDir) throws Exception;
+
     boolean clone(Workspace ws) throws IOException, GitAPIException;
 
     void config(Workspace ws) throws IOException;
@@ -62,6 +77,12 @@ public interface GitManager {
 
     String diff(Workspace ws, String path, String oldRef, String newRef) throws IOException, GitAPIException;
 
+    /**
+     * The files of the working tree that differ from a commit, untracked files included and
+     * ignored ones left out.
+     */
+    ChangedFiles changesSince(Workspace ws, String ref) throws IOException;
+
     void sync(Workspace ws) throws GitAPIException;
 
     PushCommits getPushCommits(Workspace ws) throws IOException, GitAPIException, GitOperationException;
@@ -12,6 +12,10 @@ import com.google.common.io.BaseEncoding;
 import com.google.common.io.Files;
 import lombok.SneakyThrows;
 import lombok.extern.slf4j.Slf4j;
+import net.coding.ide.event.FileChangeBatchEvent;
+import net.coding.ide.event.FileChangeEvent;
+import net.coding.ide.event.FileMoveEvent;
+import net.coding.ide.event.FileRefreshEvent;
 import net.coding.ide.event.GitCheckoutEvent;
 import net.coding.ide.event.WorkspaceDeleteEvent;
 import net.coding.ide.event.WorkspaceOfflineEvent;
@@ -198,6 +202,8 @@ public class GitManagerImpl implements GitManager, ApplicationEventPublisherAwar
                 }
             });
 
+    private Map<String, GitStatusCache> statusCaches = Maps.newConcurrentMap();
+
     private static String toRemoteRefName(String ref) {
         return format("%s%s", R_REMOTES, ref);
     }
@@ -226,53 +232,83 @@ public class GitManagerImpl implements GitManager, ApplicationEventPublisherAwar
         repoCache.invalidate(spaceKey);
     }
 
+    private GitStatusCache getStatusCache(Workspace ws) {
+        return statusCaches.computeIfAbsent(ws.getSpaceKey(), spaceKey -> new GitStatusCache(ws.getWorkingDir(),
+                new GitStatusCache.Loader() {
+                    @Override
+                    public Status status(String path) throws Exception {
+                        return callStatus(ws, path);
+                    }
+
+                    @Override
+                    public ObjectId head() throws IOException {
+                        return getRepository(spaceKey).resolve(Constants.HEAD);
+                    }
+                }));
+    }
+
     @Override
     public GitStatus status(Workspace ws, Path relativePath) throws Exception {
         if (new File(ws.getWorkingDir(), relativePath.toString()).isDirectory()) {
             return GitStatus.NONE;
         }
-        String path = relativePath.toString();
-        if (path != null && path.startsWith(CURRENT_DIRECTORY)) {
-            path = relativePath.toString().substring(CURRENT_DIRECTORY.length());
+        String path = toGitPath(relativePath);
+
+        GitStatus gitStatus = getStatusCache(ws).get(path);
+
+        return gitStatus == null ? GitStatus.NONE : gitStatus;
+    }
+
+    @Override
+    public GitStatusSnapshot statusSnapshot(Workspace ws, Path relativeDir) throws Exception {
+        return getStatusCache(ws).snapshot(toGitPath(relativeDir));
+    }
+
+    @Override
+    public GitStatus aggregatedStatus(Workspace ws, Path relativeDir) throws Exception {
+        GitStatus gitStatus = getStatusCache(ws).aggregate(toGitPath(relativeDir));
+
+        return gitStatus == null ? GitStatus.NONE : gitStatus;
+    }
+
+    /**
+     * @return the path as jgit sees it, empty for the working dir
+     */
+    private String toGitPath(Path relativePath) {
+        String path = relativePath.normalize().toString();
+        if (path.startsWith(CURRENT_DIRECTORY)) {
+            path = path.substring(CURRENT_DIRECTORY.length());
         }
 
+        return path.equals(".") ? "" : path;
+    }
+
+    /**
+     * @param path the path to limit the status to, or {@code null} for the whole working dir
+     * @return the status, or {@code null} if it could not be computed
+     */
+    private Status callStatus(Workspace ws, String path) throws GitAPIException {
         Repository repository = getRepository(ws.getSpaceKey());
-        Status status;
 
         try (Git git = new Git(repository)) {
-            status = git.status().addPath(path).call();
+            StatusCommand statusCommand = git.status();
+
+            if (path != null) {
+                statusCommand.addPath(path);
+            }
+
+            return statusCommand.call();
         } catch (JGitInternalException e) {
             if (e.getCause() instanceof MissingObjectException
                     && e.getCause().getMessage().startsWith("Missing unknown")) {
                 log.error("", e.getCause());
-                return GitStatus.NONE;
+                return null;
             } else {
                 throw e;
             }
         } catch (PatternSyntaxException e) {
-            log.warn("error on pattern matching, relativePath: {}, pattern: {}: {}", relativePath, e.getPattern(), e.getMessage());
-            return GitStatus.NONE;
-        }
-
-
-        if (!status.getConflicting().isEmpty()) {
-            return GitStatus.CONFLICTION;
-        } else if (!status.getUntracked().isEmpty() || !status.getUntrackedFolders().isEmpty()) {
-            return GitStatus.UNTRACKED;
-        } else if (!status.getModified().isEmpty()) {
-            return GitStatus.MODIFIED;
-        } else if (!status.getMissing().isEmpty()) {
-            return GitStatus.MISSING;
-        } else if (!status.getAdded().isEmpty()) {
-            return GitStatus.ADDED;
-        } else if (!status.getChanged().isEmpty()) {
-            return GitStatus.CHANGED;
-        } else if (!status.getRemoved().isEmpty()) {
-            return GitStatus.REMOVED;
-        } else if (!status.getIgnoredNotInIndex().isEmpty()) {
-            return GitStatus.IGNORED;
-        } else {
-            return GitStatus.CLEAN;
+            log.warn("error on pattern matching, path: {}, pattern: {}: {}", path, e.getPattern(), e.getMessage());
+            return null;
         }
     }
 
@@ -1196,6 +1232,70 @@ public class GitManagerImpl implements GitManager, ApplicationEventPublisherAwar
         }
     }
 
+    /**
+     * The commit, the index and the working tree are walked side by side: the index lets the
+     * working tree reuse the id of a file whose stat has not changed instead of hashing it,
+     * and directories neither tracked nor wanted are not entered at all.
+     */
+    @Override
+    public ChangedFiles changesSince(Workspace ws, String ref) throws IOException {
+        Repository repository = getRepository(ws.getSpaceKey());
+
+        List<String> changed = Lists.newArrayList();
+        List<String> deleted = Lists.newArrayList();
+
+        try (RevWalk revWalk = new RevWalk(repository);
+             TreeWalk treeWalk = new TreeWalk(repository)) {
+            ObjectId commitId = repository.resolve(ref);
+
+            if (commitId == null) {
+                throw new GitInvalidRefException(format("invalid git ref %s", ref));
+            }
+
+            RevCommit commit = revWalk.parseCommit(commitId);
+
+            int commitTree = treeWalk.addTree(commit.getTree());
+            int indexTree = treeWalk.addTree(new DirCacheIterator(repository.readDirCache()));
+            FileTreeIterator workingTree = new FileTreeIterator(repository);
+            int fileTree = treeWalk.addTree(workingTree);
+            workingTree.setDirCacheIterator(treeWalk, indexTree);
+
+            while (treeWalk.next()) {
+                FileTreeIterator file = treeWalk.getTree(fileTree, FileTreeIterator.class);
+                boolean inCommit = treeWalk.getRawMode(commitTree) != 0;
+                boolean tracked = inCommit || treeWalk.getRawMode(indexTree) != 0;
+
+                if (file == null) {
+                    if (inCommit) {
+                        deleted.add(treeWalk.getPathString());
+                    }
+                    continue;
+                }
+
+                if (!tracked && file.isEntryIgnored()) {
+                    continue;
+                }
+
+                if (treeWalk.isSubtree()) {
+                    treeWalk.enterSubtree();
+                    continue;
+                }
+
+                if (treeWalk.getFileMode(fileTree) == FileMode.GITLINK) {
+                    continue;
+                }
+
+                if (!inCommit
+                        || treeWalk.getRawMode(commitTree) != treeWalk.getRawMode(fileTree)
+                        || !treeWalk.idEqual(commitTree, fileTree)) {
+                    changed.add(treeWalk.getPathString());
+                }
+            }
+
+            return new ChangedFiles(commit.getName(), changed, deleted, true);
+        }
+    }
+
     @Override
     public void sync(Workspace ws) throws GitAPIException {
         Repository repository = getRepository(ws.getSpaceKey());
@@ -1846,6 +1946,51 @@ public class GitManagerImpl implements GitManager, ApplicationEventPublisherAwar
         if (event instanceof WorkspaceOfflineEvent
                 || event instanceof WorkspaceDeleteEvent) {
             invalidateRepository(spaceKey);
+            statusCaches.remove(spaceKey);
+        }
+    }
+
+    @EventListener
+    public void handleFileChangeBatchEvent(FileChangeBatchEvent event) {
+        event.getChanges().forEach(this::handleFileChangeEvent);
+    }
+
+    @EventListener
+    public void handleFileChangeEvent(FileChangeEvent event) {
+        GitStatusCache statusCache = statusCaches.get(event.getSpaceKey());
+        String path = event.getFileInfo().getPath();
+
+        if (statusCache != null && event instanceof FileRefreshEvent) {
+            // the files changed one by one have not been published, only under the directory
+            String dir = path.endsWith("/") ? path.substring(0, path.length() - 1) : path;
+
+            if (dir.isEmpty()) {
+                statusCache.invalidateAll();
+            } else if (dir.equals("/.git") || dir.startsWith("/.git/")) {
+                // the index and HEAD are checked on every read, the refs may have moved
+                statusCache.invalidateHead();
+            } else {
+                statusCache.invalidate(dir.substring(1));
+            }
+            return;
+        }
+
+        if (statusCache != null && (path.equals("/.git/HEAD") || path.equals("/.git/packed-refs")
+                || path.startsWith("/.git/refs/"))) {
+            statusCache.invalidateHead();
+        }
+
+        // changes under .git move the index or HEAD, which renews the whole snapshot
+        if (statusCache != null && !path.startsWith("/.git/")) {
+            statusCache.invalidate(path.substring(1));
+        }
+
+        if (statusCache != null && event instanceof FileMoveEvent) {
+            String oldPath = ((FileMoveEvent) event).getOldPath();
+
+            if (!oldPath.startsWith("/.git/")) {
+                statusCache.invalidate(oldPath.substring(1));
+            }
         }
     }
 }
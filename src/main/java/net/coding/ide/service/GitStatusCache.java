@@ -0,0 +1,366 @@
+/*
+ * Copyright (c) 2014-2016 CODING.
+ */
+
+package net.coding.ide.service;
+
+import com.google.common.collect.HashMultimap;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Multimap;
+import com.google.common.collect.Sets;
+import net.coding.ide.model.GitStatus;
+import net.coding.ide.model.GitStatusSnapshot;
+import org.eclipse.jgit.api.Status;
+import org.eclipse.jgit.lib.ObjectId;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+
+import static java.nio.file.LinkOption.NOFOLLOW_LINKS;
+
+/**
+ * The git status of a whole workspace, computed by one status call and kept
+ * until the index file or HEAD changes.
+ *
+ * Changes of the working tree are picked up path by path: paths reported by the
+ * watcher, and files whose change time is newer than the snapshot, are refreshed
+ * by a status call scoped to them, or to their directory when several of them
+ * share it. Past {@value #MAX_DIRTY_PATHS} reported paths the whole snapshot is
+ * taken again instead.
+ *
+ * HEAD is resolved again when the watcher reports a change of the refs, or at most
+ * every {@value #HEAD_RECHECK_INTERVAL} ms, not on every lookup of a listing.
+ */
+class GitStatusCache {
+
+    /**
+     * the timestamps of some file systems are only precise to the second
+     */
+    private static final long RACY_INTERVAL = 2000;
+
+    private static final long HEAD_RECHECK_INTERVAL = 1000;
+
+    /**
+     * the paths refreshed since the snapshot kept at most, the oldest are dropped and
+     * refreshed again if they change
+     */
+    private static final int MAX_REFRESHED_PATHS = 10000;
+
+    /**
+     * the reported paths kept at most, more of them are cheaper to get with one status of
+     * the whole working dir, e.g. after `npm install`
+     */
+    private static final int MAX_DIRTY_PATHS = 300;
+
+    private static final long MISSING = Long.MAX_VALUE;
+
+    interface Loader {
+
+        /**
+         * @param path the path to limit the status to, or {@code null} for the whole working dir
+         * @return the status, or {@code null} if it could not be computed
+         */
+        Status status(String path) throws Exception;
+
+        ObjectId head() throws IOException;
+    }
+
+    private final Path workingDir;
+
+    private final File indexFile;
+
+    private final Loader loader;
+
+    private GitStatusSnapshot snapshot;
+
+    private long takenAt;
+
+    private long indexLastModified;
+
+    private long indexLength;
+
+    private ObjectId head;
+
+    private long headCheckedAt;
+
+    private volatile boolean headChanged = true;
+
+    private final Map<String, Long> refreshedAt = new LinkedHashMap<String, Long>() {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, Long> eldest) {
+            return size() > MAX_REFRESHED_PATHS;
+        }
+    };
+
+    private final Set<String> dirtyPaths = Sets.newConcurrentHashSet();
+
+    /**
+     * more paths have been reported than kept in {@link #dirtyPaths}
+     */
+    private volatile boolean tooManyDirtyPaths = false;
+
+    GitStatusCache(File workingDir, Loader loader) {
+        this.workingDir = workingDir.toPath();
+        this.indexFile = new File(workingDir, ".git/index");
+        this.loader = loader;
+    }
+
+    /**
+     * @param path the relative path of a file
+     * @return the git status of the file, {@code null} if it could not be computed
+     */
+    synchronized GitStatus get(String path) throws Exception {
+        if (!validate()) {
+            return null;
+        }
+
+        if (isStale(path) && !refresh(path)) {
+            return null;
+        }
+
+        return snapshot.get(path);
+    }
+
+    /**
+     * @param dir the relative path of a directory, empty for the working dir
+     * @return a snapshot which is up to date for the files directly under the directory,
+     * {@code null} if it could not be computed
+     */
+    synchronized GitStatusSnapshot snapshot(String dir) throws Exception {
+        if (!validate()) {
+            return null;
+        }
+
+        List<String> stalePaths = Lists.newArrayList();
+
+        try (DirectoryStream<Path> directoryStream = Files.newDirectoryStream(workingDir.resolve(dir))) {
+            for (Path subPath : directoryStream) {
+                String path = workingDir.relativize(subPath).toString();
+
+                if (isStale(path)) {
+                    stalePaths.add(path);
+                }
+            }
+        }
+
+        if (stalePaths.size() == 1) {
+            return refresh(stalePaths.get(0)) ? snapshot : null;
+        } else if (stalePaths.size() > 1) {
+            // a single call for the whole directory, e.g. right after `npm install`
+            long startedAt = System.currentTimeMillis();
+
+            if (dir.isEmpty()) {
+                invalidateAll();
+                return validate() ? snapshot : null;
+            }
+
+            if (!refresh(dir)) {
+                return null;
+            }
+
+            for (String path : stalePaths) {
+                refreshedAt.put(path, startedAt);
+            }
+        }
+
+        return snapshot;
+    }
+
+    /**
+     * @param dir the relative path of a directory, empty for the working dir
+     * @return the most significant status among the files under the directory,
+     * {@code null} if it could not be computed
+     */
+    synchronized GitStatus aggregate(String dir) throws Exception {
+        if (!validate()) {
+            return null;
+        }
+
+        return snapshot.aggregate(dir);
+    }
+
+    /**
+     * Mark a path as changed, it will be refreshed before it is read again.
+     */
+    void invalidate(String path) {
+        if (tooManyDirtyPaths) {
+            return;
+        }
+
+        dirtyPaths.add(path);
+
+        if (dirtyPaths.size() > MAX_DIRTY_PATHS) {
+            tooManyDirtyPaths = true;
+            dirtyPaths.clear();
+        }
+    }
+
+    synchronized void invalidateAll() {
+        snapshot = null;
+    }
+
+    /**
+     * Mark HEAD as possibly moved, it is resolved again before the next read.
+     */
+    void invalidateHead() {
+        headChanged = true;
+    }
+
+    /**
+     * Take a new snapshot if the index or HEAD has changed or too many paths are dirty, then
+     * refresh the dirty paths, with one status call per directory.
+     *
+     * @return {@code false} if the status could not be computed
+     */
+    private boolean validate() throws Exception {
+        long lastModified = indexFile.lastModified();
+        long length = indexFile.length();
+        ObjectId currentHead = head;
+        long now = System.currentTimeMillis();
+
+        if (snapshot == null || headChanged || now - headCheckedAt >= HEAD_RECHECK_INTERVAL) {
+            headChanged = false;
+            headCheckedAt = now;
+            currentHead = loader.head();
+        }
+
+        if (snapshot == null
+                || tooManyDirtyPaths
+                || lastModified != indexLastModified
+                || length != indexLength
+                || !Objects.equals(currentHead, head)) {
+            return renew(lastModified, length, currentHead);
+        }
+
+        Multimap<String, String> byDir = HashMultimap.create();
+
+        for (String path : dirtyPaths) {
+            dirtyPaths.remove(path);
+            byDir.put(path.substring(0, Math.max(path.lastIndexOf('/'), 0)), path);
+        }
+
+        for (String dir : byDir.keySet()) {
+            Collection<String> paths = byDir.get(dir);
+
+            if (paths.size() == 1) {
+                if (!refresh(paths.iterator().next())) {
+                    return false;
+                }
+            } else if (dir.isEmpty()) {
+                return renew(indexLastModified, indexLength, head);
+            } else {
+                long startedAt = System.currentTimeMillis();
+
+                if (!refresh(dir)) {
+                    return false;
+                }
+
+                for (String path : paths) {
+                    refreshedAt.put(path, startedAt);
+                }
+            }
+        }
+
+        return true;
+    }
+
+    /**
+     * Take a new snapshot of the whole working dir.
+     *
+     * @return {@code false} if the status could not be computed
+     */
+    private boolean renew(long lastModified, long length, ObjectId currentHead) throws Exception {
+        tooManyDirtyPaths = false;
+        dirtyPaths.clear();
+        refreshedAt.clear();
+
+        takenAt = System.currentTimeMillis();
+        Status status = loader.status(null);
+
+        if (status == null) {
+            snapshot = null;
+            return false;
+        }
+
+        snapshot = new GitStatusSnapshot(status);
+        indexLastModified = lastModified;
+        indexLength = length;
+        head = currentHead;
+
+        return true;
+    }
+
+    private boolean refresh(String path) throws Exception {
+        long startedAt = System.currentTimeMillis();
+        Status status = loader.status(path);
+
+        if (status == null) {
+            return false;
+        }
+
+        snapshot.replace(path, status);
+        refreshedAt.put(path, startedAt);
+
+        return true;
+    }
+
+    /**
+     * @return {@code true} if the path may have changed since its status was computed
+     */
+    private boolean isStale(String path) {
+        long since = refreshedAt.getOrDefault(path, takenAt);
+        Path p = workingDir.resolve(path);
+        long changedAt = changedAt(p);
+
+        if (changedAt == MISSING) {
+            // a path can only come back through its directory, which changes with it
+            changedAt = directoryChangedAt(p.getParent());
+        }
+
+        return changedAt >= since - RACY_INTERVAL;
+    }
+
+    /**
+     * The change time moves on writes, renames and copies that keep the modified time.
+     * Directories have no git status of their own and are never stale.
+     */
+    private static long changedAt(Path p) {
+        try {
+            Map<String, Object> attrs = Files.readAttributes(p, "unix:ctime,isDirectory", NOFOLLOW_LINKS);
+
+            return (Boolean) attrs.get("isDirectory") ? Long.MIN_VALUE : ((FileTime) attrs.get("ctime")).toMillis();
+        } catch (UnsupportedOperationException | IllegalArgumentException e) {
+            File file = p.toFile();
+
+            return file.isDirectory() ? Long.MIN_VALUE : file.lastModified();
+        } catch (IOException e) {
+            return MISSING;
+        }
+    }
+
+    /**
+     * @return when the entries of the directory, or of the closest one left above it,
+     * last changed
+     */
+    private long directoryChangedAt(Path dir) {
+        for (Path p = dir; p != null && p.startsWith(workingDir); p = p.getParent()) {
+            try {
+                return Files.getLastModifiedTime(p, NOFOLLOW_LINKS).toMillis();
+            } catch (IOException e) {
+                // gone as well
+            }
+        }
+
+        return MISSING;
+    }
+}
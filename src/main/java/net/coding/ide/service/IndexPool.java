@@ -0,0 +1,70 @@
+/*
+ * Copyright (c) 2014-2016 CODING.
+ */
+
+package net.coding.ide.service;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.jmx.export.annotation.ManagedAttribute;
+import org.springframework.jmx.export.annotation.ManagedResource;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The threads the in-memory indexes of the workspaces are built and kept up to date on, see
+ * {@link WorkspaceIndexStore}.
+ */
+@Slf4j
+@Component
+@ManagedResource(objectName = "net.coding.ide:type=IndexPool", description = "the pool of the workspace indexes")
+public class IndexPool {
+
+    private static final int THREADS = 4;
+
+    private ThreadPoolExecutor pool;
+
+    @PostConstruct
+    public void init() {
+        pool = new ThreadPoolExecutor(THREADS, THREADS, 0L, TimeUnit.MILLISECONDS,
+                new LinkedBlockingQueue<>(),
+                new ThreadFactoryBuilder()
+                        .setNameFormat("WorkspaceIndex-%d")
+                        .setDaemon(true)
+                        .build());
+    }
+
+    @PreDestroy
+    public void destroy() throws InterruptedException {
+        pool.shutdownNow();
+
+        if (!pool.awaitTermination(5, TimeUnit.SECONDS)) {
+            log.warn("index pool did not terminate in time");
+        }
+    }
+
+    public ExecutorService get() {
+        return pool;
+    }
+
+    @ManagedAttribute(description = "the number of threads busy building or updating an index")
+    public int getActiveThreads() {
+        return pool.getActiveCount();
+    }
+
+    @ManagedAttribute(description = "the number of builds and updates waiting for a thread")
+    public int getQueuedTasks() {
+        return pool.getQueue().size();
+    }
+
+    @ManagedAttribute(description = "the number of builds and updates run since startup")
+    public long getCompletedTasks() {
+        return pool.getCompletedTaskCount();
+    }
+}
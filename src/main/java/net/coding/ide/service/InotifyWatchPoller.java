@@ -0,0 +1,357 @@
+/*
+ * Copyright (c) 2014-2016 CODING.
+ */
+
+package net.coding.ide.service;
+
+import com.google.common.collect.Sets;
+import com.sun.jna.Library;
+import com.sun.jna.Memory;
+import com.sun.jna.Native;
+import com.sun.jna.NativeLong;
+import com.sun.jna.Pointer;
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.Charset;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import static java.nio.file.StandardWatchEventKinds.*;
+
+/**
+ * A poller reading inotify itself, through JNA, with a read buffer as large as wanted.
+ *
+ * A move out of a directory and the move in with the same cookie right after it are a
+ * rename, handed over as a move instead of a delete and a create. A move out left alone
+ * for {@value #MOVE_PAIRING_TIMEOUT} ms is a delete, the file went out of the watched
+ * directories.
+ */
+@Slf4j
+public class InotifyWatchPoller implements WatchPoller {
+
+    private static final int IN_MODIFY = 0x00000002;
+    private static final int IN_ATTRIB = 0x00000004;
+    private static final int IN_MOVED_FROM = 0x00000040;
+    private static final int IN_MOVED_TO = 0x00000080;
+    private static final int IN_CREATE = 0x00000100;
+    private static final int IN_DELETE = 0x00000200;
+    private static final int IN_Q_OVERFLOW = 0x00004000;
+    private static final int IN_IGNORED = 0x00008000;
+    private static final int IN_ONLYDIR = 0x01000000;
+    private static final int IN_DONT_FOLLOW = 0x02000000;
+    private static final int IN_EXCL_UNLINK = 0x04000000;
+    private static final int IN_ISDIR = 0x40000000;
+    private static final int IN_CLOEXEC = 0x00080000;
+
+    private static final int WATCH_MASK = IN_MODIFY | IN_ATTRIB | IN_MOVED_FROM | IN_MOVED_TO | IN_CREATE | IN_DELETE
+            | IN_ONLYDIR | IN_DONT_FOLLOW | IN_EXCL_UNLINK;
+
+    private static final short POLLIN = 0x0001;
+
+    private static final int ENOENT = 2;
+    private static final int ENOSPC = 28;
+
+    /**
+     * the header of an event, followed by the name
+     */
+    private static final int EVENT_SIZE = 16;
+
+    /**
+     * an event with the longest name
+     */
+    private static final int MIN_BUFFER_SIZE = EVENT_SIZE + 256;
+
+    /**
+     * how long the poller waits for changes before it checks whether it is closed
+     */
+    private static final int POLL_TIMEOUT = 1000;
+
+    private static final int MOVE_PAIRING_TIMEOUT = 10;
+
+    private static final Charset FILE_NAME_CHARSET = Charset.forName(System.getProperty("sun.jnu.encoding",
+            Charset.defaultCharset().name()));
+
+    interface LibC extends Library {
+
+        int inotify_init1(int flags);
+
+        int inotify_add_watch(int fd, String pathname, int mask);
+
+        int inotify_rm_watch(int fd, int wd);
+
+        NativeLong read(int fd, Pointer buf, NativeLong count);
+
+        int poll(Pointer fds, NativeLong nfds, int timeout);
+
+        int close(int fd);
+    }
+
+    private final LibC libc;
+
+    private final int fd;
+
+    private final Memory buffer;
+
+    /**
+     * a struct pollfd
+     */
+    private final Memory pollFd = new Memory(8);
+
+    private final Map<Integer, WorkspaceWatcher> owners = new ConcurrentHashMap<>();
+
+    private volatile boolean closed = false;
+
+    /**
+     * @param bufferSize the size of the buffer events are read into
+     * @throws IOException if inotify can not be used
+     */
+    public InotifyWatchPoller(int bufferSize) throws IOException {
+        try {
+            libc = (LibC) Native.loadLibrary("c", LibC.class);
+        } catch (LinkageError e) {
+            throw new IOException("could not load libc: " + e.getMessage(), e);
+        }
+
+        fd = libc.inotify_init1(IN_CLOEXEC);
+
+        if (fd < 0) {
+            throw new IOException("could not init inotify, errno " + Native.getLastError());
+        }
+
+        buffer = new Memory(Math.max(bufferSize, MIN_BUFFER_SIZE));
+    }
+
+    @Override
+    public Object register(Path dir, WorkspaceWatcher owner) throws IOException {
+        int wd = libc.inotify_add_watch(fd, dir.toString(), WATCH_MASK);
+
+        if (wd < 0) {
+            int errno = Native.getLastError();
+
+            if (errno == ENOENT) {
+                throw new NoSuchFileException(dir.toString());
+            } else if (errno == ENOSPC) {
+                throw new IOException("no inotify watch left for " + dir + ", see fs.inotify.max_user_watches");
+            }
+
+            throw new IOException("could not watch " + dir + ", errno " + errno);
+        }
+
+        owners.put(wd, owner);
+
+        return wd;
+    }
+
+    @Override
+    public void cancel(Object key) {
+        if (owners.remove(key) != null) {
+            libc.inotify_rm_watch(fd, (Integer) key);
+        }
+    }
+
+    @Override
+    public int getWatchCount() {
+        return owners.size();
+    }
+
+    @Override
+    public int getThreadCount() {
+        return 1;
+    }
+
+    @Override
+    public void close() {
+        closed = true;
+    }
+
+    @Override
+    public void run() {
+        ByteBuffer events = buffer.getByteBuffer(0, buffer.size()).order(ByteOrder.nativeOrder());
+        Move move = null;
+
+        try {
+            while (!closed && !Thread.currentThread().isInterrupted()) {
+                if (poll(move == null ? POLL_TIMEOUT : MOVE_PAIRING_TIMEOUT) <= 0) {
+                    if (move != null) {
+                        try {
+                            move.moveOut();
+                        } catch (Exception e) {
+                            log.warn("could not handle inotify event of {}", move.name, e);
+                        }
+                        move = null;
+                    }
+                    continue;
+                }
+
+                long read = libc.read(fd, buffer, new NativeLong(buffer.size())).longValue();
+
+                for (int offset = 0; offset < read; ) {
+                    int wd = events.getInt(offset);
+                    int mask = events.getInt(offset + 4);
+                    int cookie = events.getInt(offset + 8);
+                    int length = events.getInt(offset + 12);
+
+                    String name = name(events, offset + EVENT_SIZE, length);
+
+                    offset += EVENT_SIZE + length;
+
+                    try {
+                        move = handle(wd, mask, cookie, name, move);
+                    } catch (Exception e) {
+                        log.warn("could not handle inotify event of {}", name, e);
+                    }
+                }
+            }
+        } finally {
+            owners.clear();
+            libc.close(fd);
+        }
+    }
+
+    /**
+     * @param move the move out waiting for its move in
+     * @return the move out waiting for its move in after the event
+     */
+    private Move handle(int wd, int mask, int cookie, String name, Move move) throws Exception {
+        if ((mask & IN_Q_OVERFLOW) != 0) {
+            if (move != null) {
+                move.moveOut();
+            }
+
+            // events of any directory may have been dropped
+            Set<WorkspaceWatcher> overflowed = Sets.newIdentityHashSet();
+
+            overflowed.addAll(owners.values());
+
+            for (WorkspaceWatcher owner : overflowed) {
+                owner.overflow(null);
+            }
+
+            return null;
+        }
+
+        if ((mask & IN_IGNORED) != 0) {
+            // the directory is gone, or no longer watched
+            WorkspaceWatcher owner = owners.remove(wd);
+
+            if (owner != null) {
+                owner.invalidate(wd);
+            }
+
+            return move;
+        }
+
+        WorkspaceWatcher owner = owners.get(wd);
+
+        if (owner == null || name == null) {
+            return move;
+        }
+
+        if (move != null && ((mask & IN_MOVED_TO) == 0 || cookie != move.cookie)) {
+            move.moveOut();
+            move = null;
+        }
+
+        if ((mask & IN_MOVED_FROM) != 0) {
+            return new Move(wd, owner, cookie, name, (mask & IN_ISDIR) != 0);
+        }
+
+        if ((mask & IN_MOVED_TO) != 0) {
+            if (move == null) {
+                // moved in from out of the watched directories
+                owner.changed(wd, ENTRY_CREATE, Paths.get(name));
+            } else if (move.owner == owner) {
+                owner.moved(move.wd, Paths.get(move.name), wd, Paths.get(name));
+            } else {
+                move.moveOut();
+                owner.changed(wd, ENTRY_CREATE, Paths.get(name));
+            }
+
+            return null;
+        }
+
+        if ((mask & IN_CREATE) != 0) {
+            owner.changed(wd, ENTRY_CREATE, Paths.get(name));
+        } else if ((mask & IN_DELETE) != 0) {
+            owner.changed(wd, ENTRY_DELETE, Paths.get(name));
+        } else if ((mask & (IN_MODIFY | IN_ATTRIB)) != 0) {
+            owner.changed(wd, ENTRY_MODIFY, Paths.get(name));
+        }
+
+        return null;
+    }
+
+    private int poll(int timeout) {
+        pollFd.setInt(0, fd);
+        pollFd.setShort(4, POLLIN);
+        pollFd.setShort(6, (short) 0);
+
+        return libc.poll(pollFd, new NativeLong(1), timeout);
+    }
+
+    /**
+     * @return the name, without the NUL bytes padding it, {@code null} for an event of the
+     * directory itself
+     */
+    private static String name(ByteBuffer events, int offset, int length) {
+        int end = offset;
+
+        while (end < offset + length && events.get(end) != 0) {
+            end++;
+        }
+
+        if (end == offset) {
+            return null;
+        }
+
+        byte[] bytes = new byte[end - offset];
+
+        for (int i = 0; i < bytes.length; i++) {
+            bytes[i] = events.get(offset + i);
+        }
+
+        return new String(bytes, FILE_NAME_CHARSET);
+    }
+
+    /**
+     * A move out of a directory, waiting for the move in with the same cookie.
+     */
+    private static class Move {
+
+        private final int wd;
+
+        private final WorkspaceWatcher owner;
+
+        private final int cookie;
+
+        private final String name;
+
+        private final boolean directory;
+
+        Move(int wd, WorkspaceWatcher owner, int cookie, String name, boolean directory) {
+            this.wd = wd;
+            this.owner = owner;
+            this.cookie = cookie;
+            this.name = name;
+            this.directory = directory;
+        }
+
+        /**
+         * No move in came, the file is gone.
+         */
+        void moveOut() throws Exception {
+            if (directory) {
+                owner.movedOut(wd, Paths.get(name));
+            }
+
+            owner.changed(wd, ENTRY_DELETE, Paths.get(name));
+        }
+    }
+}
@@ -0,0 +1,174 @@
+/*
+ * Copyright (c) 2014-2016 CODING.
+ */
+
+package net.coding.ide.service;
+
+import com.google.common.collect.Lists;
+import net.coding.ide.utils.FileUtil;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.List;
+
+import static java.nio.file.StandardOpenOption.READ;
+
+/**
+ * Where the lines of a file start, to read a window of lines of a file too large to be
+ * read whole. Only the start of every {@value #SAMPLE}th line is kept, a window is read
+ * from the closest of them with positioned reads.
+ *
+ * Lines are split at '\n' bytes, the file must be in an ASCII compatible encoding.
+ * An index is only valid for the version of the file it was built from.
+ */
+public class LineIndex {
+
+    private static final int SAMPLE = 64;
+
+    private static final long MAP_WINDOW = 64 * 1024 * 1024;
+
+    private static final int READ_BUFFER = 64 * 1024;
+
+    /**
+     * the rest of a longer line is left out
+     */
+    private static final int MAX_LINE_LENGTH = 1024 * 1024;
+
+    private final Path file;
+
+    /**
+     * the offset of the lines 0, SAMPLE, 2 * SAMPLE...
+     */
+    private final long[] samples;
+
+    private final int lineCount;
+
+    private LineIndex(Path file, long[] samples, int lineCount) {
+        this.file = file;
+        this.samples = samples;
+        this.lineCount = lineCount;
+    }
+
+    /**
+     * Scan the file for its line starts, window by mapped window.
+     */
+    public static LineIndex build(Path file) throws IOException {
+        long[] samples = new long[16];
+        int sampleCount = 1;
+        int lines = 0;
+        long lineStart = 0;
+
+        try (FileChannel channel = FileChannel.open(file, READ)) {
+            long size = channel.size();
+
+            for (long position = 0; position < size; position += MAP_WINDOW) {
+                MappedByteBuffer window = channel.map(FileChannel.MapMode.READ_ONLY, position,
+                        Math.min(MAP_WINDOW, size - position));
+
+                try {
+                    for (int i = 0; i < window.limit(); i++) {
+                        if (window.get(i) != '\n') {
+                            continue;
+                        }
+
+                        lines++;
+                        lineStart = position + i + 1;
+
+                        if (lines % SAMPLE == 0) {
+                            if (sampleCount == samples.length) {
+                                samples = Arrays.copyOf(samples, sampleCount * 2);
+                            }
+
+                            samples[sampleCount++] = lineStart;
+                        }
+                    }
+                } finally {
+                    FileUtil.unmap(window);
+                }
+            }
+
+            // the last line may not end with a newline
+            if (lineStart < size) {
+                lines++;
+            }
+        }
+
+        return new LineIndex(file, Arrays.copyOf(samples, sampleCount), lines);
+    }
+
+    public int getLineCount() {
+        return lineCount;
+    }
+
+    /**
+     * @param from  the first line, from 0
+     * @param count the maximum number of lines
+     * @return the lines, without their line breaks
+     */
+    public List<String> read(int from, int count, Charset charset) throws IOException {
+        List<String> lines = Lists.newArrayList();
+
+        if (from >= lineCount || count <= 0) {
+            return lines;
+        }
+
+        int line = from / SAMPLE * SAMPLE;
+        long position = samples[from / SAMPLE];
+
+        ByteBuffer buffer = ByteBuffer.allocate(READ_BUFFER);
+        ByteArrayOutputStream current = new ByteArrayOutputStream();
+
+        try (FileChannel channel = FileChannel.open(file, READ)) {
+            while (lines.size() < count) {
+                buffer.clear();
+
+                int read = channel.read(buffer, position);
+
+                if (read == -1) {
+                    break;
+                }
+
+                position += read;
+
+                for (int i = 0; i < read && lines.size() < count; i++) {
+                    byte b = buffer.get(i);
+
+                    if (b == '\n') {
+                        if (line >= from) {
+                            lines.add(decode(current, charset));
+                        }
+
+                        current.reset();
+                        line++;
+                    } else if (line >= from && current.size() < MAX_LINE_LENGTH) {
+                        current.write(b);
+                    }
+                }
+            }
+        }
+
+        // the last line, without a newline at its end
+        if (lines.size() < count && line >= from && line < lineCount) {
+            lines.add(decode(current, charset));
+        }
+
+        return lines;
+    }
+
+    private static String decode(ByteArrayOutputStream line, Charset charset) {
+        byte[] bytes = line.toByteArray();
+        int length = bytes.length;
+
+        if (length > 0 && bytes[length - 1] == '\r') {
+            length--;
+        }
+
+        return new String(bytes, 0, length, charset);
+    }
+}
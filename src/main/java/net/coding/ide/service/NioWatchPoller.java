@@ -0,0 +1,110 @@
+/*
+ * Copyright (c) 2014-2016 CODING.
+ */
+
+package net.coding.ide.service;
+
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.Path;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import static java.nio.file.StandardWatchEventKinds.*;
+
+/**
+ * A poller on a watch service of the JDK. A rename comes as a delete and a create.
+ */
+@Slf4j
+public class NioWatchPoller implements WatchPoller {
+
+    private final WatchService watchService;
+
+    private final Map<WatchKey, WorkspaceWatcher> owners = new ConcurrentHashMap<>();
+
+    public NioWatchPoller() throws IOException {
+        this.watchService = FileSystems.getDefault().newWatchService();
+    }
+
+    @Override
+    public Object register(Path dir, WorkspaceWatcher owner) throws IOException {
+        WatchKey key = dir.register(watchService, ENTRY_CREATE, ENTRY_DELETE, ENTRY_MODIFY);
+
+        owners.put(key, owner);
+
+        return key;
+    }
+
+    @Override
+    public void cancel(Object key) {
+        ((WatchKey) key).cancel();
+        owners.remove(key);
+    }
+
+    @Override
+    public int getWatchCount() {
+        return owners.size();
+    }
+
+    /**
+     * the watch service of the JDK reads inotify with a thread of its own
+     */
+    @Override
+    public int getThreadCount() {
+        return 2;
+    }
+
+    @Override
+    public void close() {
+        try {
+            watchService.close();
+        } catch (IOException e) {
+            log.warn("could not close watch service: {}", e.getMessage());
+        }
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public void run() {
+        while (!Thread.currentThread().isInterrupted()) {
+            WatchKey key;
+
+            try {
+                key = watchService.take();
+            } catch (InterruptedException | ClosedWatchServiceException e) {
+                return;
+            }
+
+            WorkspaceWatcher owner = owners.get(key);
+
+            if (owner == null) {
+                // cancelled while its changes were queued
+                continue;
+            }
+
+            try {
+                for (WatchEvent<?> event : key.pollEvents()) {
+                    if (event.kind() == OVERFLOW) {
+                        owner.overflow(key);
+                    } else {
+                        owner.changed(key, (WatchEvent.Kind<Path>) event.kind(), (Path) event.context());
+                    }
+                }
+            } catch (Exception e) {
+                log.warn("could not handle changes of workspace {}", owner.getSpaceKey(), e);
+            }
+
+            if (!key.reset()) {
+                // the directory is gone
+                owners.remove(key);
+                owner.invalidate(key);
+            }
+        }
+    }
+}
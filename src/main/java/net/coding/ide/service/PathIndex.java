@@ -0,0 +1,558 @@
+/*
+ * Copyright (c) 2014-2016 CODING.
+ */
+
+package net.coding.ide.service;
+
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
+import lombok.extern.slf4j.Slf4j;
+import net.coding.ide.model.IgnoreRules;
+import net.coding.ide.model.Workspace;
+
+import java.io.IOException;
+import java.nio.file.*;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.*;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static java.nio.file.LinkOption.NOFOLLOW_LINKS;
+
+/**
+ * The paths of the regular files of a workspace, for "go to file".
+ *
+ * A query matches a path if its characters appear in the path in order, ignoring case.
+ * Matches are ranked by how the characters fall: consecutive characters, characters at
+ * the start of a word (after a separator or at a camel case hump) and characters in the
+ * file name score higher. A bit mask of the characters of every path rules out most paths
+ * before they are scored.
+ *
+ * Paths are relative to the working dir and use '/' as separator. Changed paths are
+ * walked again in the background, by the executor of the index. The directories which are
+ * not watched are checked by their modified time on a find, see {@link DirectoryTimes}.
+ */
+@Slf4j
+public class PathIndex implements WorkspaceIndex {
+
+    private static final int SCORE_MATCH = 16;
+
+    private static final int BONUS_CONSECUTIVE = 24;
+
+    private static final int BONUS_BOUNDARY = 30;
+
+    private static final int BONUS_FIRST_CHAR = 12;
+
+    private static final int BONUS_EXACT_CASE = 2;
+
+    private static final int BONUS_BASENAME = 40;
+
+    private static final int PENALTY_GAP = 3;
+
+    private static final int MAX_GAP_PENALTY = 30;
+
+    /**
+     * the most paths a find returns, they are kept in a heap while the index is scanned
+     */
+    public static final int MAX_LIMIT = 1000;
+
+    private final Workspace ws;
+
+    private final Path workingDir;
+
+    private final Executor executor;
+
+    private String[] paths = new String[1024];
+
+    private long[] masks = new long[1024];
+
+    private int count = 0;
+
+    private final BitSet ignored = new BitSet();
+
+    /**
+     * sorted, so that the paths under a directory are a range
+     */
+    private final NavigableMap<String, Integer> slots = Maps.newTreeMap();
+
+    private int[] freeSlots = new int[16];
+
+    private int freeCount = 0;
+
+    private volatile boolean ready = false;
+
+    private final Set<String> dirtyPaths = Sets.newConcurrentHashSet();
+
+    private final AtomicBoolean scheduled = new AtomicBoolean();
+
+    /**
+     * the disk is walked by one thread at a time
+     */
+    private final Object walkLock = new Object();
+
+    private final DirectoryTimes directoryTimes;
+
+    public PathIndex(Workspace ws, Executor executor) {
+        this.ws = ws;
+        this.workingDir = ws.getWorkingDir().toPath();
+        this.executor = executor;
+        this.directoryTimes = new DirectoryTimes(workingDir);
+    }
+
+    @Override
+    public boolean isReady() {
+        return ready;
+    }
+
+    @Override
+    public void build() throws IOException {
+        long start = System.currentTimeMillis();
+
+        synchronized (walkLock) {
+            addTree(workingDir);
+            ready = true;
+        }
+
+        synchronized (this) {
+            log.info("built path index of workspace {} with {} paths in {} ms",
+                    ws.getSpaceKey(), slots.size(), System.currentTimeMillis() - start);
+        }
+
+        drain();
+    }
+
+    /**
+     * Bring a path up to date with the disk after it has been reported as changed, in the
+     * background.
+     */
+    @Override
+    public void update(String path) {
+        if (path.equals(".git") || path.startsWith(".git/")) {
+            return;
+        }
+
+        dirtyPaths.add(path);
+
+        if (ready && scheduled.compareAndSet(false, true)) {
+            executor.execute(this::drain);
+        }
+    }
+
+    /**
+     * A directory starts or stops being watched, one which changed while it was not is walked
+     * again.
+     */
+    @Override
+    public void watched(String dir, boolean isWatched) {
+        if (directoryTimes.watched(dir, isWatched)) {
+            update(dir);
+        }
+    }
+
+    /**
+     * Decide again which paths are ignored, after a .gitignore has changed.
+     *
+     * @param dir the relative path of the directory of the .gitignore
+     */
+    private void refreshIgnored(String dir) {
+        IgnoreRules ignoreRules = ws.getIgnoreRules();
+        Map<String, Integer> under = dir.isEmpty() ? slots : slots.subMap(dir + "/", true, dir + "/\uffff", false);
+
+        for (Map.Entry<String, Integer> entry : under.entrySet()) {
+            ignored.set(entry.getValue(), ignoreRules.isIgnored(entry.getKey(), false));
+        }
+    }
+
+    /**
+     * @param query the characters to look for, in order
+     * @param limit the maximum number of paths, at most {@value #MAX_LIMIT}
+     * @return the best matching paths, the best first
+     */
+    public List<String> find(String query, boolean includeNonProjectItems, int limit) {
+        limit = Math.min(Math.max(limit, 1), MAX_LIMIT);
+
+        refreshUnwatched();
+
+        char[] chars = query.replace(" ", "").toCharArray();
+        long queryMask = maskOf(query);
+
+        // the worst of the best paths found so far is on top
+        PriorityQueue<Match> best = new PriorityQueue<>(limit + 1, Comparator.reverseOrder());
+
+        synchronized (this) {
+            for (int slot = 0; slot < count; slot++) {
+                String path = paths[slot];
+
+                if (path == null || (masks[slot] & queryMask) != queryMask) {
+                    continue;
+                }
+
+                if (!includeNonProjectItems && ignored.get(slot)) {
+                    continue;
+                }
+
+                int score = score(path, chars);
+
+                if (score == Integer.MIN_VALUE) {
+                    continue;
+                }
+
+                if (best.size() < limit) {
+                    best.add(new Match(path, score));
+                } else {
+                    Match match = new Match(path, score);
+
+                    if (best.peek().compareTo(match) > 0) {
+                        best.poll();
+                        best.add(match);
+                    }
+                }
+            }
+        }
+
+        List<Match> matches = Lists.newArrayList(best);
+        Collections.sort(matches);
+
+        List<String> result = Lists.newArrayListWithCapacity(matches.size());
+
+        for (Match match : matches) {
+            result.add(match.path);
+        }
+
+        return result;
+    }
+
+    /**
+     * Walk again, right away, the directories which are not watched and changed since they
+     * were walked.
+     */
+    private void refreshUnwatched() {
+        List<String> changed = directoryTimes.changed();
+
+        if (!ready || changed.isEmpty()) {
+            return;
+        }
+
+        synchronized (walkLock) {
+            for (String dir : changed) {
+                refresh(dir);
+            }
+        }
+    }
+
+    private void drain() {
+        scheduled.set(false);
+
+        synchronized (walkLock) {
+            for (String path : dirtyPaths) {
+                dirtyPaths.remove(path);
+                refresh(path);
+            }
+        }
+    }
+
+    /**
+     * The finds only wait for the paths to be dropped, the disk is walked outside the lock.
+     */
+    private void refresh(String path) {
+        synchronized (this) {
+            if (IgnoreRules.isGitIgnore(path)) {
+                int slash = path.lastIndexOf('/');
+                refreshIgnored(slash == -1 ? "" : path.substring(0, slash));
+            }
+
+            remove(path);
+        }
+
+        Path p = workingDir.resolve(path);
+        BasicFileAttributes attrs;
+
+        try {
+            attrs = Files.readAttributes(p, BasicFileAttributes.class, NOFOLLOW_LINKS);
+        } catch (IOException e) {
+            return;
+        }
+
+        if (attrs.isDirectory()) {
+            try {
+                addTree(p);
+            } catch (IOException e) {
+                log.debug("could not index {}: {}", p, e.getMessage());
+            }
+        } else if (attrs.isRegularFile()) {
+            add(path, ws.getIgnoreRules().isIgnored(path, false));
+        }
+    }
+
+    private void addTree(Path dir) throws IOException {
+        Path gitDir = workingDir.resolve(".git");
+        IgnoreRules ignoreRules = ws.getIgnoreRules();
+
+        // whether each directory being walked is ignored, everything under an ignored one is
+        Deque<Boolean> ignoredDirs = new ArrayDeque<>();
+
+        Files.walkFileTree(dir, new SimpleFileVisitor<Path>() {
+            @Override
+            public FileVisitResult preVisitDirectory(Path p, BasicFileAttributes attrs) throws IOException {
+                if (p.equals(gitDir)) {
+                    return FileVisitResult.SKIP_SUBTREE;
+                }
+
+                String path = workingDir.relativize(p).toString();
+
+                directoryTimes.read(path, attrs.lastModifiedTime().toMillis());
+
+                boolean isIgnored = ignoredDirs.isEmpty()
+                        ? ignoreRules.isIgnored(path, true)
+                        : ignoredDirs.peek() || ignoreRules.isIgnored(path, true);
+
+                ignoredDirs.push(isIgnored);
+
+                return FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult visitFile(Path p, BasicFileAttributes attrs) throws IOException {
+                if (attrs.isRegularFile()) {
+                    String path = workingDir.relativize(p).toString();
+
+                    add(path, ignoredDirs.peek() || ignoreRules.isIgnored(path, false));
+                }
+
+                return FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult postVisitDirectory(Path p, IOException e) throws IOException {
+                ignoredDirs.pop();
+
+                return FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult visitFileFailed(Path p, IOException e) throws IOException {
+                return FileVisitResult.CONTINUE;
+            }
+        });
+    }
+
+    private void add(String path, boolean isIgnored) {
+        synchronized (this) {
+            if (slots.containsKey(path)) {
+                return;
+            }
+
+            int slot = allocate();
+
+            paths[slot] = path;
+            masks[slot] = maskOf(path);
+            ignored.set(slot, isIgnored);
+            slots.put(path, slot);
+        }
+    }
+
+    /**
+     * Remove the path and everything under it.
+     */
+    private void remove(String path) {
+        if (path.isEmpty()) {
+            for (int s : slots.values()) {
+                free(s);
+            }
+
+            slots.clear();
+            return;
+        }
+
+        Integer slot = slots.remove(path);
+
+        if (slot != null) {
+            free(slot);
+            return;
+        }
+
+        Map<String, Integer> under = slots.subMap(path + "/", true, path + "/\uffff", false);
+
+        for (int s : under.values()) {
+            free(s);
+        }
+
+        under.clear();
+    }
+
+    private int allocate() {
+        if (freeCount > 0) {
+            return freeSlots[--freeCount];
+        }
+
+        if (count == paths.length) {
+            paths = Arrays.copyOf(paths, count * 2);
+            masks = Arrays.copyOf(masks, count * 2);
+        }
+
+        return count++;
+    }
+
+    private void free(int slot) {
+        paths[slot] = null;
+        ignored.clear(slot);
+
+        if (freeCount == freeSlots.length) {
+            freeSlots = Arrays.copyOf(freeSlots, freeCount * 2);
+        }
+
+        freeSlots[freeCount++] = slot;
+    }
+
+    /**
+     * One bit per letter and digit, case folded, the other characters share the remaining bits.
+     */
+    private static long maskOf(String s) {
+        long mask = 0;
+
+        for (int i = 0; i < s.length(); i++) {
+            char c = Character.toLowerCase(s.charAt(i));
+
+            if (c >= 'a' && c <= 'z') {
+                mask |= 1L << (c - 'a');
+            } else if (c >= '0' && c <= '9') {
+                mask |= 1L << (26 + c - '0');
+            } else if (c != ' ') {
+                mask |= 1L << (36 + c % 28);
+            }
+        }
+
+        return mask;
+    }
+
+    /**
+     * Score the query against the file name first, and against the whole path if the
+     * file name alone does not match.
+     *
+     * @return the score, {@link Integer#MIN_VALUE} if the path does not match
+     */
+    private static int score(String path, char[] query) {
+        int nameStart = path.lastIndexOf('/') + 1;
+        int score = score(path, nameStart, query);
+
+        if (score != Integer.MIN_VALUE) {
+            return score + BONUS_BASENAME - path.length() / 8;
+        }
+
+        score = score(path, 0, query);
+
+        return score == Integer.MIN_VALUE ? score : score - path.length() / 8;
+    }
+
+    /**
+     * Find the shortest window of the text, from the given start, which has the query as a
+     * subsequence: the first match going forward, tightened going backward. Then score the
+     * characters of the query in that window.
+     */
+    private static int score(String text, int from, char[] query) {
+        if (query.length == 0) {
+            return 0;
+        }
+
+        int q = 0;
+        int end = -1;
+
+        for (int i = from; i < text.length(); i++) {
+            if (equalsIgnoreCase(text.charAt(i), query[q]) && ++q == query.length) {
+                end = i;
+                break;
+            }
+        }
+
+        if (end == -1) {
+            return Integer.MIN_VALUE;
+        }
+
+        int start = end;
+
+        for (q = query.length - 1; start >= from; start--) {
+            if (equalsIgnoreCase(text.charAt(start), query[q]) && --q < 0) {
+                break;
+            }
+        }
+
+        int score = 0;
+        int last = -2;
+        q = 0;
+
+        for (int i = start; i <= end && q < query.length; i++) {
+            char c = text.charAt(i);
+
+            if (!equalsIgnoreCase(c, query[q])) {
+                continue;
+            }
+
+            score += SCORE_MATCH;
+
+            if (c == query[q]) {
+                score += BONUS_EXACT_CASE;
+            }
+
+            if (last == i - 1) {
+                score += BONUS_CONSECUTIVE;
+            } else if (last >= 0) {
+                score -= Math.min((i - last - 1) * PENALTY_GAP, MAX_GAP_PENALTY);
+            }
+
+            if (isBoundary(text, i)) {
+                score += q == 0 ? BONUS_BOUNDARY + BONUS_FIRST_CHAR : BONUS_BOUNDARY;
+            }
+
+            last = i;
+            q++;
+        }
+
+        return score;
+    }
+
+    private static boolean isBoundary(String text, int i) {
+        if (i == 0) {
+            return true;
+        }
+
+        char previous = text.charAt(i - 1);
+        char c = text.charAt(i);
+
+        return previous == '/' || previous == '_' || previous == '-' || previous == '.' || previous == ' '
+                || (Character.isLowerCase(previous) && Character.isUpperCase(c))
+                || (!Character.isDigit(previous) && Character.isDigit(c));
+    }
+
+    private static boolean equalsIgnoreCase(char a, char b) {
+        return a == b || Character.toLowerCase(a) == Character.toLowerCase(b);
+    }
+
+    /**
+     * Matches order the best first, ties go to the shorter then the smaller path.
+     */
+    private static class Match implements Comparable<Match> {
+
+        private final String path;
+
+        private final int score;
+
+        Match(String path, int score) {
+            this.path = path;
+            this.score = score;
+        }
+
+        @Override
+        public int compareTo(Match o) {
+            if (score != o.score) {
+                return Integer.compare(o.score, score);
+            }
+
+            if (path.length() != o.path.length()) {
+                return Integer.compare(path.length(), o.path.length());
+            }
+
+            return path.compareTo(o.path);
+        }
+    }
+}
@@ -0,0 +1,27 @@
+/*
+ * Copyright (c) 2014-2016 CODING.
+ */
+
+package net.coding.ide.service;
+
+import net.coding.ide.model.Workspace;
+import org.springframework.stereotype.Component;
+
+import java.util.concurrent.Executor;
+
+/**
+ * The {@link PathIndex} of every watched workspace. The changed paths are walked again on the
+ * {@link IndexPool} too.
+ */
+@Component
+public class PathIndexStore extends WorkspaceIndexStore<PathIndex> {
+
+    public PathIndexStore() {
+        super("path index");
+    }
+
+    @Override
+    protected PathIndex create(Workspace ws, Executor executor) {
+        return new PathIndex(ws, executor);
+    }
+}
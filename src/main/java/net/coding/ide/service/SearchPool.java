@@ -0,0 +1,68 @@
+/*
+ * Copyright (c) 2014-2016 CODING.
+ */
+
+package net.coding.ide.service;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.jmx.export.annotation.ManagedAttribute;
+import org.springframework.jmx.export.annotation.ManagedResource;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinWorkerThread;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The fork/join pool the searches of the workspaces run on. Searches mostly wait on the
+ * disk, so the pool has more threads than there are processors.
+ */
+@Slf4j
+@Component
+@ManagedResource(objectName = "net.coding.ide:type=SearchPool", description = "the pool of the workspace searches")
+public class SearchPool {
+
+    private ForkJoinPool pool;
+
+    @PostConstruct
+    public void init() {
+        pool = new ForkJoinPool(Math.max(4, Runtime.getRuntime().availableProcessors() * 2),
+                p -> {
+                    ForkJoinWorkerThread thread = ForkJoinPool.defaultForkJoinWorkerThreadFactory.newThread(p);
+                    thread.setName("SearchPool-" + thread.getPoolIndex());
+                    return thread;
+                },
+                null,
+                false);
+    }
+
+    @PreDestroy
+    public void destroy() throws InterruptedException {
+        pool.shutdownNow();
+
+        if (!pool.awaitTermination(5, TimeUnit.SECONDS)) {
+            log.warn("search pool did not terminate in time");
+        }
+    }
+
+    public ForkJoinPool get() {
+        return pool;
+    }
+
+    @ManagedAttribute(description = "the number of threads of the pool")
+    public int getParallelism() {
+        return pool.getParallelism();
+    }
+
+    @ManagedAttribute(description = "the number of threads busy searching")
+    public int getActiveThreads() {
+        return pool.getActiveThreadCount();
+    }
+
+    @ManagedAttribute(description = "the number of directories and files waiting to be searched")
+    public long getQueuedTasks() {
+        return pool.getQueuedTaskCount() + pool.getQueuedSubmissionCount();
+    }
+}
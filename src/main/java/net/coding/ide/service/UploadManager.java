@@ -0,0 +1,42 @@
+/*
+ * Copyright (c) 2014-2016 CODING.
+ */
+
+package net.coding.ide.service;
+
+import net.coding.ide.dto.UploadDTO;
+import net.coding.ide.model.FileInfo;
+import net.coding.ide.model.Workspace;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Uploads sent in chunks, in any order and in parallel, which can be resumed by sending
+ * the chunks not received yet. A file is staged until all of it is received and its
+ * checksum verified, then renamed into place.
+ */
+public interface UploadManager {
+
+    /**
+     * @param path where the file goes once the upload is complete
+     * @param size the size of the file, in bytes
+     */
+    UploadDTO init(Workspace ws, String path, long size) throws IOException;
+
+    UploadDTO get(Workspace ws, String id);
+
+    /**
+     * Write a chunk at its offset of the file. Whatever is received of a chunk cut short
+     * is kept.
+     */
+    UploadDTO writeChunk(Workspace ws, String id, long offset, InputStream in) throws IOException;
+
+    /**
+     * @param sha1 the SHA-1 of the whole file, in hex
+     * @return the uploaded file
+     */
+    FileInfo complete(Workspace ws, String id, String sha1) throws Exception;
+
+    void abort(Workspace ws, String id) throws IOException;
+}
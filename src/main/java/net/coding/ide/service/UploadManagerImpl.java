@@ -0,0 +1,329 @@
+/*
+ * Copyright (c) 2014-2016 CODING.
+ */
+
+package net.coding.ide.service;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.RemovalCause;
+import com.google.common.cache.RemovalListener;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Range;
+import com.google.common.collect.RangeSet;
+import com.google.common.collect.Sets;
+import com.google.common.collect.TreeRangeSet;
+import com.google.common.hash.Hashing;
+import lombok.extern.slf4j.Slf4j;
+import net.coding.ide.dto.UploadDTO;
+import net.coding.ide.model.FileInfo;
+import net.coding.ide.model.Workspace;
+import net.coding.ide.model.exception.NotFoundException;
+import net.coding.ide.model.exception.WorkspaceIOException;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Service;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+import static com.google.common.io.Files.asByteSource;
+import static java.lang.String.format;
+import static java.nio.file.StandardCopyOption.ATOMIC_MOVE;
+import static java.nio.file.StandardOpenOption.WRITE;
+
+/**
+ * Uploads are staged in the upload dir of their workspace, each chunk is written at its
+ * offset of the staged file. An upload left alone for a day is dropped.
+ *
+ * Uploads only live in memory, so the staged files of the uploads of a previous run are
+ * swept from the upload dir of a workspace on its first upload.
+ */
+@Slf4j
+@Service
+public class UploadManagerImpl implements UploadManager {
+
+    private static final int CHUNK_BUFFER = 64 * 1024;
+
+    private final Cache<String, Upload> uploads = CacheBuilder
+            .newBuilder()
+            .expireAfterAccess(1, TimeUnit.DAYS)
+            .removalListener((RemovalListener<String, Upload>) notification -> {
+                if (notification.getCause() != RemovalCause.EXPLICIT) {
+                    notification.getValue().discard();
+                }
+            })
+            .build();
+
+    /**
+     * the workspaces whose upload dir has been swept since startup
+     */
+    private final Set<String> swept = Sets.newConcurrentHashSet();
+
+    @Autowired
+    private WorkspaceManager wsMgr;
+
+    @Override
+    public UploadDTO init(Workspace ws, String path, long size) throws IOException {
+        if (size < 0) {
+            throw new WorkspaceIOException("invalid upload size: " + size);
+        }
+
+        if (Files.isDirectory(ws.getPath(path))) {
+            throw new WorkspaceIOException(format("%s is a directory.", path));
+        }
+
+        String id = UUID.randomUUID().toString().replace("-", "");
+        Path uploadDir = ws.getUploadDir().toPath();
+
+        Files.createDirectories(uploadDir);
+
+        if (swept.add(ws.getSpaceKey())) {
+            sweep(uploadDir);
+        }
+
+        Upload upload = new Upload(id, ws.getSpaceKey(), path, size, uploadDir.resolve(id));
+
+        // known before its staged file exists, so that a sweep never takes it for an orphan
+        uploads.put(id, upload);
+
+        try {
+            Files.createFile(upload.staging);
+        } catch (IOException e) {
+            uploads.invalidate(id);
+            throw e;
+        }
+
+        return upload.toDTO();
+    }
+
+    @Override
+    public UploadDTO get(Workspace ws, String id) {
+        return upload(ws, id).toDTO();
+    }
+
+    @Override
+    public UploadDTO writeChunk(Workspace ws, String id, long offset, InputStream in) throws IOException {
+        Upload upload = upload(ws, id);
+
+        if (offset < 0 || offset > upload.size) {
+            throw new WorkspaceIOException(format("offset %d is out of the upload of %d bytes.", offset, upload.size));
+        }
+
+        upload.lock.readLock().lock();
+
+        long position = offset;
+
+        try {
+            // completed or aborted under the write lock, the staged file may be gone
+            if (upload.completed) {
+                throw new NotFoundException(format("upload %s not found.", id));
+            }
+
+            try (FileChannel channel = FileChannel.open(upload.staging, WRITE)) {
+                ByteBuffer buffer = ByteBuffer.allocate(CHUNK_BUFFER);
+                int read;
+
+                while ((read = in.read(buffer.array())) != -1) {
+                    if (position + read > upload.size) {
+                        throw new WorkspaceIOException(format("chunk at offset %d goes past the end of the upload.", offset));
+                    }
+
+                    buffer.position(0).limit(read);
+
+                    while (buffer.hasRemaining()) {
+                        position += channel.write(buffer, position);
+                    }
+                }
+            }
+        } finally {
+            // what has been written is kept, the rest of the chunk can be sent again
+            if (position > offset) {
+                upload.received(offset, position);
+            }
+
+            upload.lock.readLock().unlock();
+        }
+
+        return upload.toDTO();
+    }
+
+    @Override
+    public FileInfo complete(Workspace ws, String id, String sha1) throws Exception {
+        Upload upload = upload(ws, id);
+
+        upload.lock.writeLock().lock();
+
+        try {
+            if (upload.completed) {
+                throw new NotFoundException(format("upload %s not found.", id));
+            }
+
+            List<long[]> missing = upload.missing();
+
+            if (!missing.isEmpty()) {
+                throw new WorkspaceIOException(format("upload %s is missing %d byte ranges, from offset %d.",
+                        id, missing.size(), missing.get(0)[0]));
+            }
+
+            String hash = asByteSource(upload.staging.toFile()).hash(Hashing.sha1()).toString();
+
+            if (!hash.equalsIgnoreCase(sha1)) {
+                uploads.invalidate(id);
+                upload.discard();
+
+                throw new WorkspaceIOException(format("checksum of upload %s does not match, it is dropped.", id));
+            }
+
+            Path p = ws.getPath(upload.path);
+
+            if (Files.isSymbolicLink(p) && !Files.exists(p)) {
+                throw new WorkspaceIOException("It's a illegal link: target file not exist.");
+            }
+
+            if (p.getParent() != null) {
+                Files.createDirectories(p.getParent());
+            }
+
+            // a link stays a link, its target is replaced, the same as a save
+            Path target = Files.isSymbolicLink(p) ? p.toRealPath() : p;
+
+            Files.move(upload.staging, target, ATOMIC_MOVE);
+
+            upload.completed = true;
+            uploads.invalidate(id);
+        } finally {
+            upload.lock.writeLock().unlock();
+        }
+
+        return wsMgr.getFileInfo(ws, upload.path);
+    }
+
+    @Override
+    public void abort(Workspace ws, String id) throws IOException {
+        Upload upload = upload(ws, id);
+
+        // once no chunk is being written, and none is written after
+        upload.lock.writeLock().lock();
+
+        try {
+            if (upload.completed) {
+                throw new NotFoundException(format("upload %s not found.", id));
+            }
+
+            upload.completed = true;
+            uploads.invalidate(id);
+            upload.discard();
+        } finally {
+            upload.lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Delete the staged files of the upload dir no upload knows of.
+     */
+    private void sweep(Path uploadDir) {
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(uploadDir)) {
+            for (Path staging : stream) {
+                if (uploads.getIfPresent(staging.getFileName().toString()) != null) {
+                    continue;
+                }
+
+                try {
+                    Files.deleteIfExists(staging);
+                    log.info("deleted orphaned staged upload {}", staging);
+                } catch (IOException e) {
+                    log.warn("could not delete orphaned staged upload {}: {}", staging, e.getMessage());
+                }
+            }
+        } catch (IOException e) {
+            log.warn("could not sweep upload dir {}: {}", uploadDir, e.getMessage());
+        }
+    }
+
+    private Upload upload(Workspace ws, String id) {
+        Upload upload = uploads.getIfPresent(id);
+
+        if (upload == null || !upload.spaceKey.equals(ws.getSpaceKey())) {
+            throw new NotFoundException(format("upload %s not found.", id));
+        }
+
+        return upload;
+    }
+
+    private static class Upload {
+
+        private final String id;
+
+        private final String spaceKey;
+
+        private final String path;
+
+        private final long size;
+
+        private final Path staging;
+
+        /**
+         * chunks are written under the read lock, in parallel, and the upload is completed
+         * under the write lock, once no chunk is being written
+         */
+        private final ReadWriteLock lock = new ReentrantReadWriteLock();
+
+        private final RangeSet<Long> received = TreeRangeSet.create();
+
+        /**
+         * completed or aborted, no more chunks are taken
+         */
+        private volatile boolean completed = false;
+
+        Upload(String id, String spaceKey, String path, long size, Path staging) {
+            this.id = id;
+            this.spaceKey = spaceKey;
+            this.path = path;
+            this.size = size;
+            this.staging = staging;
+        }
+
+        synchronized void received(long start, long end) {
+            received.add(Range.closedOpen(start, end));
+        }
+
+        synchronized List<long[]> missing() {
+            List<long[]> missing = Lists.newArrayList();
+
+            for (Range<Long> range : received.complement().subRangeSet(Range.closedOpen(0L, size)).asRanges()) {
+                missing.add(new long[]{range.lowerEndpoint(), range.upperEndpoint()});
+            }
+
+            return missing;
+        }
+
+        synchronized UploadDTO toDTO() {
+            List<long[]> ranges = Lists.newArrayList();
+
+            for (Range<Long> range : received.asRanges()) {
+                ranges.add(new long[]{range.lowerEndpoint(), range.upperEndpoint()});
+            }
+
+            return UploadDTO.of(id, path, size, ranges);
+        }
+
+        void discard() {
+            try {
+                Files.deleteIfExists(staging);
+            } catch (IOException e) {
+                log.warn("could not delete staged upload {}: {}", staging, e.getMessage());
+            }
+        }
+    }
+}
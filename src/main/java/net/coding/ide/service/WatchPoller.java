@@ -0,0 +1,34 @@
+/*
+ * Copyright (c) 2014-2016 CODING.
+ */
+
+package net.coding.ide.service;
+
+import java.io.IOException;
+import java.nio.file.Path;
+
+/**
+ * A thread watching directories for the workspaces given to it, which hands the changes of
+ * each directory to the {@link WorkspaceWatcher} that registered it.
+ */
+public interface WatchPoller extends Runnable {
+
+    /**
+     * @return the key of the directory, the same the changes of the directory come with
+     */
+    Object register(Path dir, WorkspaceWatcher owner) throws IOException;
+
+    void cancel(Object key);
+
+    /**
+     * @return the number of directories registered
+     */
+    int getWatchCount();
+
+    /**
+     * @return the number of threads the poller runs on
+     */
+    int getThreadCount();
+
+    void close();
+}
@@ -0,0 +1,51 @@
+/*
+ * Copyright (c) 2014-2016 CODING.
+ */
+
+package net.coding.ide.service;
+
+import net.coding.ide.model.Workspace;
+
+/**
+ * Something kept in line with the files of the watched workspaces. It is told about every
+ * change the watcher sees in the directories it watches, before any filtering, off the thread
+ * polling the workspace, one change at a time, or by the thread scanning a directory again
+ * once its changes have been dropped.
+ */
+public interface WorkspaceChangeListener {
+
+    /**
+     * The workspace starts being watched.
+     */
+    void open(Workspace ws);
+
+    /**
+     * The workspace stops being watched.
+     */
+    void close(String spaceKey);
+
+    /**
+     * @param path the changed path, relative to the working dir
+     */
+    void update(Workspace ws, String path);
+
+    /**
+     * The changes under a directory may have been missed, e.g. its changes were dropped and
+     * what changed in it can not be told any more. Called by the thread scanning it again.
+     *
+     * @param dir the directory, relative to the working dir
+     */
+    default void resync(Workspace ws, String dir) {
+        update(ws, dir);
+    }
+
+    /**
+     * A directory starts or stops being watched. The changes of a directory which is not
+     * watched are not told, what is kept of it is checked against the disk when it is queried,
+     * see {@link DirectoryTimes}. Called by the thread registering or releasing the directory.
+     *
+     * @param dir the directory, relative to the working dir
+     */
+    default void watched(Workspace ws, String dir, boolean watched) {
+    }
+}
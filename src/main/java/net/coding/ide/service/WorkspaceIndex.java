@@ -0,0 +1,32 @@
+/*
+ * Copyright (c) 2014-2016 CODING.
+ */
+
+package net.coding.ide.service;
+
+/**
+ * What is kept in memory of a workspace, built once and then kept up to date with the changes
+ * the watcher tells, see {@link WorkspaceIndexStore}.
+ */
+public interface WorkspaceIndex {
+
+    /**
+     * @return whether the index has been built and can be read
+     */
+    boolean isReady();
+
+    /**
+     * Read the whole workspace.
+     */
+    void build() throws Exception;
+
+    /**
+     * Bring a path up to date with the disk after it has been reported as changed.
+     */
+    void update(String path);
+
+    /**
+     * A directory starts or stops being watched.
+     */
+    void watched(String dir, boolean isWatched);
+}
@@ -0,0 +1,97 @@
+/*
+ * Copyright (c) 2014-2016 CODING.
+ */
+
+package net.coding.ide.service;
+
+import com.google.common.collect.Maps;
+import lombok.extern.slf4j.Slf4j;
+import net.coding.ide.model.Workspace;
+import org.springframework.beans.factory.annotation.Autowired;
+
+import java.util.Map;
+import java.util.concurrent.Executor;
+
+/**
+ * An index of every watched workspace, built on the {@link IndexPool} when the workspace
+ * starts being watched and dropped when it stops. The changes of the workspace are passed on
+ * to its index.
+ */
+@Slf4j
+public abstract class WorkspaceIndexStore<T extends WorkspaceIndex> implements WorkspaceChangeListener {
+
+    protected final Map<String, T> indexes = Maps.newConcurrentMap();
+
+    @Autowired
+    private IndexPool indexPool;
+
+    /**
+     * what the index is, for the logs
+     */
+    private final String name;
+
+    protected WorkspaceIndexStore(String name) {
+        this.name = name;
+    }
+
+    /**
+     * @param executor where the index runs its work in the background
+     * @return a new index of the workspace, not built yet
+     */
+    protected abstract T create(Workspace ws, Executor executor);
+
+    @Override
+    public void open(Workspace ws) {
+        String spaceKey = ws.getSpaceKey();
+        T index = create(ws, getExecutor());
+
+        if (indexes.putIfAbsent(spaceKey, index) != null) {
+            return;
+        }
+
+        getExecutor().execute(() -> {
+            try {
+                index.build();
+            } catch (Exception e) {
+                log.warn("could not build {} of workspace {}: {}", name, spaceKey, e.getMessage());
+                indexes.remove(spaceKey, index);
+            }
+        });
+    }
+
+    @Override
+    public void close(String spaceKey) {
+        indexes.remove(spaceKey);
+    }
+
+    /**
+     * @return the index of the workspace, {@code null} if it is not built yet
+     */
+    public T get(String spaceKey) {
+        T index = indexes.get(spaceKey);
+
+        return index != null && index.isReady() ? index : null;
+    }
+
+    @Override
+    public void update(Workspace ws, String path) {
+        T index = indexes.get(ws.getSpaceKey());
+
+        if (index != null) {
+            index.update(path);
+        }
+    }
+
+    @Override
+    public void watched(Workspace ws, String dir, boolean watched) {
+        T index = indexes.get(ws.getSpaceKey());
+
+        if (index != null) {
+            index.watched(dir, watched);
+        }
+    }
+
+    protected Executor getExecutor() {
+        return indexPool.get();
+    }
+}
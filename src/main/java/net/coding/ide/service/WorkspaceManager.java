@@ -4,18 +4,32 @@
 
 package net.coding.ide.service;
 
+import net.coding.ide.dto.ArchiveImportDTO;
 import net.coding.ide.dto.FileDTO;
+import net.coding.ide.dto.FileLinesDTO;
+import net.coding.ide.dto.FileOperationDTO;
+import net.coding.ide.dto.FileOperationResultDTO;
 import net.coding.ide.entity.WorkspaceEntity;
+import net.coding.ide.model.ArchiveFormat;
+import net.coding.ide.model.ChangedFiles;
+import net.coding.ide.model.ContentSearchResultEntry;
 import net.coding.ide.model.FileInfo;
+import net.coding.ide.model.FileListPage;
 import net.coding.ide.model.FileSearchResultEntry;
+import net.coding.ide.model.TextEdit;
 import net.coding.ide.model.Workspace;
 import net.coding.ide.model.exception.GitCloneAuthFailException;
+import net.coding.ide.utils.Callback;
 import org.eclipse.jgit.api.errors.GitAPIException;
 import org.springframework.data.domain.Page;
 import org.springframework.data.domain.Pageable;
 
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Collection;
 import java.util.List;
+import java.util.Map;
 
 /**
  * Created by vangie on 14/11/11.
@@ -36,11 +50,144 @@ public interface WorkspaceManager {
 
     FileDTO readFile(Workspace ws, String path, String encoding, boolean base64) throws IOException, GitAPIException, Exception;
 
+    /**
+     * Read a window of the lines of a file, for a file too large to be read whole.
+     *
+     * @param from  the number of the first line, from 1
+     * @param count the maximum number of lines
+     */
+    FileLinesDTO readLines(Workspace ws, String path, String encoding, int from, int count) throws IOException;
+
+    /**
+     * A strong validator of a file as {@link #readFile} sends it, from a single stat of it.
+     * A file read after the validator is taken is at least as new as the validator tells.
+     * The same file read with another encoding, or as base64, has another validator.
+     *
+     * @return the validator, quoted as an ETag
+     */
+    String getFileETag(Workspace ws, String path, String encoding, boolean base64) throws IOException;
+
+    /**
+     * Write a file atomically, synced to the disk as configured.
+     *
+     * A file too large to be read whole is only ever read as a truncated preview without a
+     * hash, so it is only replaced with the hash of the version replaced, or when forced.
+     *
+     * @param baseHash the hash of the version replaced, as returned by {@link #readFile} or a
+     *                 save, checked when it is given
+     * @param force    replace a file too large to be read whole without a base hash
+     * @return the new modified time, size and hash of the file, without its content
+     * @throws net.coding.ide.model.exception.FileConflictException if the file has changed
+     */
+    FileDTO writeFile(Workspace ws, String path, String content, String encoding, boolean base64,
+                      boolean override, boolean createParent, String baseHash, boolean force) throws IOException;
+
+    /**
+     * Save a file by applying text edits to it, as long as it is still the version the edits
+     * were made against.
+     *
+     * @param baseHash the hash of that version, as returned by {@link #readFile} or a save
+     * @return the new modified time, size and hash of the file, without its content
+     * @throws net.coding.ide.model.exception.FileConflictException if the file has changed
+     */
+    FileDTO patchFile(Workspace ws, String path, String encoding, String baseHash, List<TextEdit> edits) throws IOException;
+
     FileInfo getFileInfo(Workspace ws, String path) throws Exception;
 
+    /**
+     * The file info of many paths at once, with one git status per directory instead of one
+     * per file. A path whose git status can not be read comes without it, a path which can
+     * not be read at all is left out, the others are read all the same.
+     *
+     * @param paths relative to the working dir
+     * @return the file info of each path which exists, by path
+     */
+    Map<String, FileInfo> getFileInfos(Workspace ws, Collection<String> paths) throws Exception;
+
     List<FileInfo> listFiles(Workspace ws, String path, boolean order, boolean group) throws Exception;
 
-    List<FileSearchResultEntry> search(Workspace ws, String keyword, boolean includeNonProjectItems) throws IOException;
+    /**
+     * List a directory without holding the whole listing: every entry is passed to the
+     * callback once it is resolved. Only the names are held to sort the listing.
+     */
+    void listFiles(Workspace ws, String path, boolean order, boolean group, Callback<FileInfo> callback) throws Exception;
+
+    /**
+     * List one page of a directory, in a total order that keeps the order and group semantics.
+     *
+     * @param cursor the cursor returned with the previous page, {@code null} for the first page
+     */
+    FileListPage listFiles(Workspace ws, String path, boolean order, boolean group, String cursor, int limit) throws Exception;
+
+    /**
+     * Search the files by name.
+     *
+     * @param limit the number of files returned, the first ones in the order of their paths
+     */
+    List<FileSearchResultEntry> search(Workspace ws, String keyword, boolean includeNonProjectItems, int limit) throws IOException;
+
+    /**
+     * Find files by the characters of their path, in order but not necessarily adjacent,
+     * through the path index.
+     *
+     * @param limit the maximum number of files, at most {@link PathIndex#MAX_LIMIT}
+     * @return the best matching files, the best first
+     */
+    List<FileSearchResultEntry> find(Workspace ws, String query, boolean includeNonProjectItems, int limit) throws IOException;
+
+    /**
+     * Search the content of the text files that are not ignored, through the content index.
+     *
+     * @param regex whether the query is a regex or a literal string
+     * @param limit the maximum number of matches
+     */
+    List<ContentSearchResultEntry> searchContent(Workspace ws, String query, boolean regex, boolean caseSensitive, int limit) throws IOException;
+
+    /**
+     * Search the content of the text files under a directory with a regex, straight from the
+     * disk, for the searches the content index can not narrow down. Ignored files are skipped.
+     *
+     * @param maxPerFile the maximum number of matches of a file
+     * @param maxTotal   the search stops as soon as this many matches are found
+     * @param callback   called with each match as soon as it is found
+     */
+    void grep(Workspace ws, String path, String regex, boolean caseSensitive, int maxPerFile, int maxTotal,
+              Callback<ContentSearchResultEntry> callback) throws IOException;
+
+    /**
+     * The files changed since a time, found by their modification and status change times,
+     * and the files deleted since, as far as the watcher has seen. Ignored files and .git
+     * are left out.
+     *
+     * @param since the time in milliseconds
+     */
+    ChangedFiles changesSince(Workspace ws, long since) throws IOException;
+
+    /**
+     * Write the changed files as a tar, followed by {@link ChangedFiles#MANIFEST_NAME}, the
+     * files the tar holds and the deleted ones. A file deleted before it could be written is
+     * listed as deleted.
+     *
+     * @param gzip whether to gzip the tar
+     */
+    void export(Workspace ws, ChangedFiles changes, OutputStream out, boolean gzip) throws IOException;
+
+    /**
+     * Extract an archive into a directory as it is read. The changes are not published one by
+     * one but as a single {@link net.coding.ide.event.FileRefreshEvent} of the directory once
+     * the archive is extracted.
+     *
+     * @param path the directory to extract into, created if it does not exist
+     */
+    ArchiveImportDTO importArchive(Workspace ws, String path, ArchiveFormat format, InputStream in) throws Exception;
+
+    /**
+     * Run a batch of file operations, a few at a time. The changes are published as a single
+     * {@link net.coding.ide.event.FileRefreshEvent} of the directory holding them all.
+     *
+     * @return the result of each operation, in the order of the operations
+     */
+    List<FileOperationResultDTO> batch(Workspace ws, List<FileOperationDTO> operations) throws Exception;
 
     boolean isOnline(String spaceKey);
 
@@ -5,28 +5,54 @@
 package net.coding.ide.service;
 
 import com.google.common.cache.Cache;
+import com.google.common.base.Throwables;
 import com.google.common.cache.CacheBuilder;
+import com.google.common.collect.LinkedHashMultimap;
 import com.google.common.collect.Lists;
 import com.google.common.collect.Maps;
+import com.google.common.collect.Multimap;
+import com.google.common.io.ByteStreams;
+import com.google.common.io.BaseEncoding;
+import com.google.common.util.concurrent.Striped;
+import com.google.gson.Gson;
 import com.jcraft.jsch.JSchException;
+import lombok.Data;
 import lombok.extern.slf4j.Slf4j;
+import net.coding.ide.dto.ArchiveImportDTO;
 import net.coding.ide.dto.FileDTO;
+import net.coding.ide.dto.FileLinesDTO;
+import net.coding.ide.dto.FileOperationDTO;
+import net.coding.ide.dto.FileOperationResultDTO;
 import net.coding.ide.entity.ProjectEntity;
 import net.coding.ide.entity.WorkspaceEntity;
+import net.coding.ide.event.FileRefreshEvent;
 import net.coding.ide.event.WorkspaceDeleteEvent;
 import net.coding.ide.event.WorkspaceOfflineEvent;
 import net.coding.ide.event.WorkspaceOnlineEvent;
 import net.coding.ide.event.WorkspaceStatusEvent;
+import net.coding.ide.model.ArchiveFormat;
+import net.coding.ide.model.ChangedFiles;
+import net.coding.ide.model.ContentSearchResultEntry;
 import net.coding.ide.model.FileInfo;
+import net.coding.ide.model.FileListPage;
 import net.coding.ide.model.FileSearchResultEntry;
+import net.coding.ide.model.FileVersion;
+import net.coding.ide.model.FsyncPolicy;
+import net.coding.ide.model.GitStatusSnapshot;
+import net.coding.ide.model.IgnoreRules;
+import net.coding.ide.model.TextEdit;
 import net.coding.ide.model.Workspace;
 import net.coding.ide.model.exception.*;
 import net.coding.ide.repository.ProjectRepository;
 import net.coding.ide.repository.WorkspaceRepository;
+import net.coding.ide.utils.Callback;
 import net.coding.ide.utils.FileUtil;
+import net.coding.ide.utils.ParallelGzipOutputStream;
 import net.coding.ide.utils.ProjectUtil;
 import net.coding.ide.utils.RandomGenerator;
 import net.coding.ide.utils.TemporaryFileFilter;
+import org.apache.commons.compress.archivers.tar.TarArchiveEntry;
+import org.apache.commons.compress.archivers.tar.TarArchiveOutputStream;
 import org.eclipse.jgit.api.errors.GitAPIException;
 import org.joda.time.DateTime;
 import org.joda.time.DateTimeZone;
@@ -45,19 +71,35 @@ import org.springframework.core.annotation.Order;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
 
+import java.io.BufferedOutputStream;
 import java.io.File;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UnsupportedEncodingException;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
 import java.nio.file.*;
 import java.nio.file.attribute.BasicFileAttributes;
-import java.util.Collections;
+import java.nio.file.attribute.FileTime;
+import java.util.Collection;
 import java.util.Comparator;
 import java.util.List;
 import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.concurrent.ExecutionException;
 import java.util.concurrent.TimeUnit;
-import java.util.function.Predicate;
-import java.util.stream.Stream;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.locks.Lock;
+import java.util.function.Consumer;
+import java.util.regex.Pattern;
+import java.util.regex.PatternSyntaxException;
 
 import static java.lang.String.format;
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static java.nio.file.LinkOption.NOFOLLOW_LINKS;
+import static java.nio.file.StandardOpenOption.READ;
 import static net.coding.ide.entity.WorkspaceEntity.WsWorkingStatus.*;
 import static org.apache.commons.lang3.StringUtils.isBlank;
 
@@ -82,6 +124,30 @@ public class WorkspaceManagerImpl extends BaseService implements WorkspaceManage
     @Autowired
     private WatchedPathStore watchedPathStore;
 
+    @Autowired
+    private WorkspaceTreeStore treeStore;
+
+    @Autowired
+    private ContentIndexStore contentIndexStore;
+
+    @Autowired
+    private PathIndexStore pathIndexStore;
+
+    @Autowired
+    private DeletedPathStore deletedPathStore;
+
+    @Autowired
+    private FileWatchService fileWatchService;
+
+    @Autowired
+    private SearchPool searchPool;
+
+    @Autowired
+    private BatchPool batchPool;
+
+    @Autowired
+    private List<WorkspaceChangeListener> changeListeners;
+
     @Autowired
     private KeyManager keyMgr;
 
@@ -94,8 +160,48 @@ public class WorkspaceManagerImpl extends BaseService implements WorkspaceManage
     @Value("${USERNAME}")
     private String username;
 
+    @Value("${FSYNC_POLICY}")
+    private FsyncPolicy fsyncPolicy;
+
     private Map<String, WorkspaceWatcher> watcherMap = Maps.newHashMap();
 
+    /**
+     * a larger file is not read whole, only its head is, the rest is read by lines
+     */
+    private static final long MAX_READ_SIZE = 16 * 1024 * 1024;
+
+    private static final int PREVIEW_SIZE = 1024 * 1024;
+
+    private static final int MAX_LINES_READ = 10000;
+
+    private static final int EXPORT_BUFFER = 64 * 1024;
+
+    private static final Gson EXPORT_GSON = new Gson();
+
+    private static final int MAX_BATCH_SIZE = 1000;
+
+    /**
+     * the line index of each version of a file read by lines, by absolute path and ETag
+     */
+    private final Cache<String, LineIndex> lineIndexes = CacheBuilder
+            .newBuilder()
+            .maximumSize(32)
+            .expireAfterAccess(10, TimeUnit.MINUTES)
+            .build();
+
+    /**
+     * saves of the same file are applied one at a time
+     */
+    private final Striped<Lock> saveLocks = Striped.lock(64);
+
+    /**
+     * the last version read or saved of each file, by absolute path
+     */
+    private final Cache<String, FileVersion> knownVersions = CacheBuilder
+            .newBuilder()
+            .maximumSize(10000)
+            .build();
+
     private Cache<String, Workspace> wsCache = CacheBuilder
             .newBuilder()
             .expireAfterAccess(10, TimeUnit.MINUTES)
@@ -369,9 +475,11 @@ public class WorkspaceManagerImpl extends BaseService implements WorkspaceManage
             log.info("Starting Workspace:{} Watcher", spaceKey);
 
             if (!watcherMap.containsKey(spaceKey)) {
+                Workspace ws = getWorkspace(spaceKey);
+                changeListeners.forEach(listener -> listener.open(ws));
+
                 WorkspaceWatcher watcher = createNewWatcher(spaceKey);
-                watcher.start();
-                watcher.setName("FileWatcherThread_" + spaceKey);
+                fileWatchService.watch(watcher);
                 watcherMap.put(spaceKey, watcher);
             }
         }
@@ -383,14 +491,16 @@ public class WorkspaceManagerImpl extends BaseService implements WorkspaceManage
 
             if (watcherMap.containsKey(spaceKey)) {
                 WorkspaceWatcher watcher = watcherMap.remove(spaceKey);
-                watcher.stopWatching();
+                fileWatchService.unwatch(watcher);
+                changeListeners.forEach(listener -> listener.close(spaceKey));
             }
         }
     }
 
     private WorkspaceWatcher createNewWatcher(String spaceKey) {
         Workspace ws = getWorkspace(spaceKey);
-        return new WorkspaceWatcher(this, ws, watchedPathStore, publisher);
+        return new WorkspaceWatcher(this, ws, watchedPathStore, changeListeners, publisher,
+                fileWatchService.getScheduler(), fileWatchService.getEnricher());
     }
 
     /**
@@ -417,6 +527,17 @@ public class WorkspaceManagerImpl extends BaseService implements WorkspaceManage
     public FileInfo getFileInfo(Workspace ws, String path) throws Exception {
         Path p = ws.getPath(path); // 文件相对地址
 
+        // served from the tree when it is built, links and the working dir itself are resolved from disk
+        WorkspaceTree tree = treeStore.get(ws.getSpaceKey());
+
+        if (tree != null) {
+            WorkspaceTree.Entry entry = tree.get(ws.getRelativePath(path).normalize().toString());
+
+            if (entry != null && !entry.isSymbolicLink() && !entry.getName().isEmpty()) {
+                return toFileInfo(ws, path, p, entry, null);
+            }
+        }
+
         FileInfo fileInfo = new FileInfo();
 
         // set isSymbolicLink
@@ -445,14 +566,15 @@ public class WorkspaceManagerImpl extends BaseService implements WorkspaceManage
         boolean isDirectory = Files.isDirectory(p); // file not exist will be false
 
         if (isDirectory) {
-            fileInfo.setDirectoriesCount(count(p, f -> f.isDirectory()));
-            fileInfo.setFilesCount(count(p, f -> f.isFile()));
+            updateCounts(fileInfo, p);
         }
 
         fileInfo.setDir(isDirectory);
         fileInfo.setPath(nPath);
         fileInfo.setContentType(FileUtil.getContentType(p.toFile()));
-        fileInfo.setGitStatus(gitMgr.status(ws, ws.getRelativePath(path)));
+        fileInfo.setGitStatus(isDirectory && !isSymbolicLink
+                ? gitMgr.aggregatedStatus(ws, ws.getRelativePath(path))
+                : gitMgr.status(ws, ws.getRelativePath(path)));
 
         // update file time, readable, writable
         if (!isSymbolicLink
@@ -472,6 +594,143 @@ public class WorkspaceManagerImpl extends BaseService implements WorkspaceManage
         return fileInfo;
     }
 
+    @Override
+    public Map<String, FileInfo> getFileInfos(Workspace ws, Collection<String> paths) throws Exception {
+        Map<String, FileInfo> fileInfos = Maps.newHashMap();
+        Path workingDir = ws.getWorkingDir().toPath();
+
+        // the paths of each directory share its git status
+        Multimap<Path, String> byDir = LinkedHashMultimap.create();
+
+        for (String path : paths) {
+            Path p;
+
+            try {
+                p = ws.getPath(path);
+            } catch (AccessDeniedException e) {
+                log.debug("file {} not in the workspace.", path);
+                continue;
+            }
+
+            if (!p.equals(workingDir)) {
+                byDir.put(p.getParent(), path);
+            }
+        }
+
+        for (Path dir : byDir.keySet()) {
+            GitStatusSnapshot gitStatuses = null;
+            boolean noStatus = false;
+
+            try {
+                gitStatuses = getStatusSnapshot(ws, dir);
+            } catch (Exception e) {
+                // looking each file up alone would fail the same way
+                log.debug("could not get git status of {}: {}", dir, e.getMessage());
+                noStatus = true;
+            }
+
+            for (String path : byDir.get(dir)) {
+                Path p = ws.getPath(path);
+
+                try {
+                    BasicFileAttributes attr = Files.readAttributes(p, BasicFileAttributes.class, NOFOLLOW_LINKS);
+
+                    if (noStatus) {
+                        fileInfos.put(path, toFileInfoWithoutStatus(ws, path, p, attr));
+                    } else {
+                        // links are rare, resolve them one by one
+                        fileInfos.put(path, gitStatuses == null || attr.isSymbolicLink()
+                                ? getFileInfo(ws, path)
+                                : toFileInfo(ws, path, p, attr, gitStatuses));
+                    }
+                } catch (NoSuchFileException e) {
+                    log.debug("file {} not found.", path);
+                } catch (Exception e) {
+                    log.debug("could not get file info of {}: {}", path, e.getMessage());
+
+                    // the change is told all the same
+                    try {
+                        BasicFileAttributes attr = Files.readAttributes(p, BasicFileAttributes.class, NOFOLLOW_LINKS);
+
+                        fileInfos.put(path, toFileInfoWithoutStatus(ws, path, p, attr));
+                    } catch (IOException ex) {
+                        log.debug("file {} not readable: {}", path, ex.getMessage());
+                    }
+                }
+            }
+        }
+
+        return fileInfos;
+    }
+
+    /**
+     * The file info of an entry whose git status can not be read, without the git status and
+     * the counts of a directory.
+     */
+    private FileInfo toFileInfoWithoutStatus(Workspace ws, String path, Path p, BasicFileAttributes attr)
+            throws IOException {
+        FileInfo fileInfo = new FileInfo();
+
+        fileInfo.setName(p.getFileName().toString());
+        fileInfo.setDir(attr.isDirectory());
+        fileInfo.setSymbolicLink(attr.isSymbolicLink());
+        fileInfo.setPath(ws.getNormalizePath(path).toString());
+
+        if (!attr.isDirectory()) {
+            fileInfo.setContentType(FileUtil.getContentType(p.toFile()));
+        }
+
+        updateFileTime(fileInfo, attr);
+        updateReadableAndWritable(fileInfo, p);
+
+        return fileInfo;
+    }
+
+    /**
+     * The same as {@link #getFileInfo(Workspace, String)}, but for an entry which is not a link
+     * and whose attributes are already known, from a directory listing or from the tree.
+     *
+     * @param gitStatuses the git status of the entry's directory, {@code null} to look the entry up alone
+     */
+    private FileInfo toFileInfo(Workspace ws, String path, Path p, BasicFileAttributes attr,
+                                GitStatusSnapshot gitStatuses) throws Exception {
+        FileInfo fileInfo = new FileInfo();
+
+        boolean isDirectory = attr.isDirectory();
+
+        fileInfo.setName(p.getFileName().toString());
+
+        if (isDirectory) {
+            WorkspaceTree.Entry entry = attr instanceof WorkspaceTree.Entry ? (WorkspaceTree.Entry) attr : null;
+
+            if (entry != null && entry.getDirectoriesCount() != null) {
+                fileInfo.setDirectoriesCount(entry.getDirectoriesCount());
+                fileInfo.setFilesCount(entry.getFilesCount());
+            } else {
+                updateCounts(fileInfo, p);
+            }
+        }
+
+        fileInfo.setDir(isDirectory);
+        fileInfo.setPath(ws.getNormalizePath(path).toString());
+
+        if (isDirectory) {
+            fileInfo.setGitStatus(gitStatuses != null
+                    ? gitStatuses.aggregate(ws.getRelativePath(path).toString())
+                    : gitMgr.aggregatedStatus(ws, ws.getRelativePath(path)));
+        } else {
+            fileInfo.setContentType(FileUtil.getContentType(p.toFile()));
+            fileInfo.setGitStatus(gitStatuses != null
+                    ? gitStatuses.get(ws.getRelativePath(path).toString())
+                    : gitMgr.status(ws, ws.getRelativePath(path)));
+        }
+
+        updateFileTime(fileInfo, attr);
+        updateReadableAndWritable(fileInfo, p);
+
+        return fileInfo;
+    }
+
     private void updateReadableAndWritable(FileInfo fileInfo, Path p) {
         // set readable, writable
 
@@ -483,15 +742,195 @@ public class WorkspaceManagerImpl extends BaseService implements WorkspaceManage
 
     @Override
     public FileDTO readFile(Workspace ws, String path, String encodingParam, boolean base64) throws Exception {
-        FileInfo fileInfo = getFileInfo(ws, path);
+        // only the modified time is needed, the rest of the file info is left alone
+        BasicFileAttributes attrs = readFileAttributes(ws, path);
 
         final String encoding = isBlank(encodingParam) ?  ws.getEncoding() : encodingParam;
 
-        return FileDTO.of(path,
+        if (attrs.size() > MAX_READ_SIZE) {
+            FileDTO fileDTO = FileDTO.of(path,
+                    ws.readHead(path, encoding, base64, PREVIEW_SIZE),
+                    encoding,
+                    base64,
+                    attrs.lastModifiedTime().toMillis());
+
+            fileDTO.setSize(attrs.size());
+            fileDTO.setTruncated(true);
+
+            return fileDTO;
+        }
+
+        FileDTO fileDTO = FileDTO.of(path,
                 ws.read(path, encoding, base64),
                 encoding,
                 base64,
-                fileInfo.getLastModified().getMillis());
+                attrs.lastModifiedTime().toMillis());
+
+        fileDTO.setSize(attrs.size());
+        fileDTO.setHash(hashOf(ws, path, attrs));
+
+        return fileDTO;
+    }
+
+    @Override
+    public FileLinesDTO readLines(Workspace ws, String path, String encodingParam, int from, int count) throws IOException {
+        final String encoding = isBlank(encodingParam) ? ws.getEncoding() : encodingParam;
+        Charset charset = Charset.forName(encoding);
+
+        if (!FileUtil.isAsciiCompatible(charset)) {
+            throw new WorkspaceIOException(format("%s text can not be read by lines.", encoding));
+        }
+
+        BasicFileAttributes attrs = readFileAttributes(ws, path);
+        Path p = ws.getPath(path);
+        LineIndex index;
+
+        try {
+            index = lineIndexes.get(p + "@" + FileUtil.etagOf(attrs), () -> LineIndex.build(p));
+        } catch (ExecutionException e) {
+            Throwables.propagateIfInstanceOf(e.getCause(), IOException.class);
+            throw Throwables.propagate(e.getCause());
+        }
+
+        from = Math.max(from, 1);
+
+        List<String> lines = index.read(from - 1, Math.min(count, MAX_LINES_READ), charset);
+
+        return FileLinesDTO.of(path, from, lines, index.getLineCount(), attrs.lastModifiedTime().toMillis(), encoding);
+    }
+
+    @Override
+    public FileDTO writeFile(Workspace ws, String path, String content, String encodingParam, boolean base64,
+                             boolean override, boolean createParent, String baseHash, boolean force) throws IOException {
+        final String encoding = isBlank(encodingParam) ? ws.getEncoding() : encodingParam;
+        String key = ws.getPath(path).toString();
+        Lock lock = saveLocks.get(key);
+        FileVersion version;
+
+        lock.lock();
+
+        try {
+            checkWriteBase(ws, path, baseHash, force);
+
+            version = ws.write(path, content, encoding, base64, override, createParent, fsyncPolicy);
+            knownVersions.put(key, version);
+        } finally {
+            lock.unlock();
+        }
+
+        return toFileDTO(path, encoding, base64, version);
+    }
+
+    @Override
+    public FileDTO patchFile(Workspace ws, String path, String encodingParam, String baseHash,
+                             List<TextEdit> edits) throws IOException {
+        if (isBlank(baseHash)) {
+            throw new WorkspaceIOException("the base hash of the edits is required.");
+        }
+
+        final String encoding = isBlank(encodingParam) ? ws.getEncoding() : encodingParam;
+        String key = ws.getPath(path).toString();
+        Lock lock = saveLocks.get(key);
+        FileVersion version;
+
+        lock.lock();
+
+        try {
+            BasicFileAttributes attrs = readFileAttributes(ws, path);
+            FileVersion known = knownVersions.getIfPresent(key);
+
+            // the file is still the version last saved, no need to read it to tell it has moved on
+            if (known != null && known.getEtag().equals(FileUtil.etagOf(attrs)) && !known.getHash().equals(baseHash)) {
+                throw new FileConflictException(format("%s has changed since it was read.", path));
+            }
+
+            version = ws.patch(path, encoding, baseHash, edits == null ? Lists.newArrayList() : edits, fsyncPolicy);
+            knownVersions.put(key, version);
+        } finally {
+            lock.unlock();
+        }
+
+        return toFileDTO(path, encoding, false, version);
+    }
+
+    /**
+     * A full write must not be made from a truncated read, which is all a client gets of a
+     * file larger than {@link #MAX_READ_SIZE}: the rest of the file would be lost.
+     */
+    private void checkWriteBase(Workspace ws, String path, String baseHash, boolean force) throws IOException {
+        BasicFileAttributes attrs;
+
+        try {
+            attrs = Files.readAttributes(ws.getPath(path), BasicFileAttributes.class);
+        } catch (NoSuchFileException e) {
+            return;
+        }
+
+        if (!attrs.isRegularFile()) {
+            return;
+        }
+
+        if (!isBlank(baseHash)) {
+            if (!hashOf(ws, path, attrs).equals(baseHash)) {
+                throw new FileConflictException(format("%s has changed since it was read.", path));
+            }
+        } else if (attrs.size() > MAX_READ_SIZE && !force) {
+            throw new WorkspaceIOException(format("%s is too large to have been read whole, "
+                    + "the hash of the version it replaces is required.", path));
+        }
+    }
+
+    private FileDTO toFileDTO(String path, String encoding, boolean base64, FileVersion version) {
+        FileDTO fileDTO = FileDTO.of(path, null, encoding, base64, version.getLastModified());
+
+        fileDTO.setSize(version.getSize());
+        fileDTO.setHash(version.getHash());
+
+        return fileDTO;
+    }
+
+    /**
+     * @return the hash of the file, from the last save if the file has not changed since
+     */
+    private String hashOf(Workspace ws, String path, BasicFileAttributes attrs) throws IOException {
+        String key = ws.getPath(path).toString();
+        String etag = FileUtil.etagOf(attrs);
+        FileVersion known = knownVersions.getIfPresent(key);
+
+        if (known != null && known.getEtag().equals(etag)) {
+            return known.getHash();
+        }
+
+        String hash = ws.hash(path);
+
+        knownVersions.put(key, new FileVersion(attrs.lastModifiedTime().toMillis(), attrs.size(), hash, etag));
+
+        return hash;
+    }
+
+    @Override
+    public String getFileETag(Workspace ws, String path, String encodingParam, boolean base64) throws IOException {
+        final String encoding = isBlank(encodingParam) ? ws.getEncoding() : encodingParam;
+        Charset charset;
+
+        try {
+            charset = Charset.forName(encoding);
+        } catch (IllegalArgumentException e) {
+            throw new UnsupportedEncodingException(encoding);
+        }
+
+        return FileUtil.etagOf(readFileAttributes(ws, path), charset.name() + (base64 ? ";base64" : ""));
+    }
+
+    /**
+     * @return the attributes of the file, or of the target of a link
+     */
+    private BasicFileAttributes readFileAttributes(Workspace ws, String path) throws IOException {
+        try {
+            return Files.readAttributes(ws.getPath(path), BasicFileAttributes.class);
+        } catch (NoSuchFileException e) {
+            throw new WorkspaceIOException(path + " not found", e);
+        }
     }
 
     private void updateFileTime(FileInfo fileInfo, Path p) throws IOException {
@@ -507,6 +946,10 @@ public class WorkspaceManagerImpl extends BaseService implements WorkspaceManage
             attr = Files.readAttributes(p, BasicFileAttributes.class, linkOption);
         }
 
+        updateFileTime(fileInfo, attr);
+    }
+
+    private void updateFileTime(FileInfo fileInfo, BasicFileAttributes attr) {
         // file size, lastModiled and lastAccessed
 
         fileInfo.setSize(attr.size());
@@ -518,94 +961,612 @@ public class WorkspaceManagerImpl extends BaseService implements WorkspaceManage
     }
 
     /**
-     * 统计目录下指定类型文件的数目
+     * 统计目录下的子目录和文件数目, 只遍历一次目录
      * <p>
-     * When following links, and the attributes of the target cannot
-     * be read, then this method attempts to get the {@code BasicFileAttributes}
-     * of the link
+     * Links are followed, a link whose target cannot be read is
+     * counted neither as a directory nor as a file
      *
      * @throws IOException
      */
-    private int count(Path p, Predicate<File> filter) throws IOException {
-        try (Stream<Path> pathStream = Files.walk(p, 1, FileVisitOption.FOLLOW_LINKS)) {
-            return (int) pathStream
-                    .filter(f -> !f.equals(p)) // walk method will start from p
-                    .map(Path::toFile)
-                    .filter(filter)
-                    .count();
+    private void updateCounts(FileInfo fileInfo, Path p) throws IOException {
+        int directoriesCount = 0;
+        int filesCount = 0;
+
+        try (DirectoryStream<Path> directoryStream = Files.newDirectoryStream(p)) {
+            for (Path subPath : directoryStream) {
+                BasicFileAttributes attr;
+
+                try {
+                    attr = Files.readAttributes(subPath, BasicFileAttributes.class);
+                } catch (IOException e) {
+                    continue;
+                }
+
+                if (attr.isDirectory()) {
+                    directoriesCount++;
+                } else if (attr.isRegularFile()) {
+                    filesCount++;
+                }
+            }
         }
+
+        fileInfo.setDirectoriesCount(directoriesCount);
+        fileInfo.setFilesCount(filesCount);
     }
 
     @Override
     public List<FileInfo> listFiles(Workspace ws, String path, boolean order, boolean group) throws Exception {
-        List<FileInfo> result = Lists.newLinkedList();
+        List<FileInfo> result = Lists.newArrayList();
+
+        listFiles(ws, path, order, group, result::add);
+
+        return result;
+    }
+
+    @Override
+    public void listFiles(Workspace ws, String path, boolean order, boolean group, Callback<FileInfo> callback) throws Exception {
+        Path p = getListablePath(ws, path);
+
+        if (p == null) {
+            return;
+        }
+
+        watchDir(ws, p);
+
+        GitStatusSnapshot gitStatuses = getStatusSnapshot(ws, p);
+        Comparator<ListingKey> comparator = listingOrder(order, group, false);
+
+        if (comparator == null) {
+            // nothing to sort, every entry goes out as soon as it is read
+            scanListingKeys(ws, p, false, key -> resolveListingEntry(ws, path, p, key, gitStatuses, callback));
+        } else {
+            // sort the bare names first, entries are resolved one by one afterwards
+            List<ListingKey> keys = Lists.newArrayList();
+
+            scanListingKeys(ws, p, group, keys::add);
+            keys.sort(comparator);
+
+            for (ListingKey key : keys) {
+                resolveListingEntry(ws, path, p, key, gitStatuses, callback);
+            }
+        }
+
+        watchedPathStore.add(ws.getSpaceKey(), path.endsWith("/") ? path : path + "/");
+    }
+
+    @Override
+    public FileListPage listFiles(Workspace ws, String path, boolean order, boolean group, String cursor, int limit) throws Exception {
+        List<FileInfo> files = Lists.newArrayList();
+
+        Path p = getListablePath(ws, path);
+
+        if (p == null) {
+            return new FileListPage(files, null);
+        }
+
+        limit = Math.max(limit, 1);
 
+        watchDir(ws, p);
+
+        // the order must be total, so that a page always starts right after the previous one
+        Comparator<ListingKey> comparator = listingOrder(order, group, true);
+        ListingKey after = cursor == null ? null : ListingKey.decode(cursor);
+
+        // keep the first limit + 1 entries after the cursor, the extra one tells whether there is a next page
+        PriorityQueue<ListingKey> firstKeys = new PriorityQueue<>(limit + 1, comparator.reversed());
+        int capacity = limit + 1;
+
+        scanListingKeys(ws, p, group, key -> {
+            if (after == null || comparator.compare(key, after) > 0) {
+                firstKeys.add(key);
+
+                if (firstKeys.size() > capacity) {
+                    firstKeys.poll();
+                }
+            }
+        });
+
+        List<ListingKey> keys = Lists.newArrayList(firstKeys);
+        keys.sort(comparator);
+
+        String nextCursor = null;
+
+        if (keys.size() > limit) {
+            keys = keys.subList(0, limit);
+            nextCursor = keys.get(limit - 1).encode();
+        }
+
+        GitStatusSnapshot gitStatuses = getStatusSnapshot(ws, p);
+
+        for (ListingKey key : keys) {
+            resolveListingEntry(ws, path, p, key, gitStatuses, files::add);
+        }
+
+        watchedPathStore.add(ws.getSpaceKey(), path.endsWith("/") ? path : path + "/");
+
+        return new FileListPage(files, nextCursor);
+    }
+
+    /**
+     * Watch the directory being listed before it is read, so no change made after the listing
+     * is missed.
+     */
+    private void watchDir(Workspace ws, Path dir) {
+        WorkspaceWatcher watcher = getWatcher(ws);
+
+        if (watcher == null) {
+            return;
+        }
+
+        try {
+            watcher.view(dir);
+        } catch (IOException e) {
+            log.warn("could not watch {} of workspace {}: {}", dir, ws.getSpaceKey(), e.getMessage());
+        }
+    }
+
+    /**
+     * @return the directory to list, or {@code null} if the path is not a directory
+     */
+    private Path getListablePath(Workspace ws, String path) throws IOException {
         Path p = ws.getPath(path);
 
         if (!Files.isDirectory(p)) {
-            return Lists.newLinkedList();
+            return null;
         }
 
         if (Files.isSymbolicLink(p) && !ws.linkTargetExist(p)) {
             throw new WorkspaceIOException("It's a illegal link: target file not exist.");
         }
 
-        DirectoryStream<Path> directoryStream = Files.newDirectoryStream(p);
+        return p;
+    }
 
-        for (Path subPath : directoryStream) {
-            String s = ws.getWorkingDir().toPath().relativize(subPath).toString();
+    private GitStatusSnapshot getStatusSnapshot(Workspace ws, Path p) throws Exception {
+        Path workingDir = ws.getWorkingDir().toPath();
 
-            try {
-                FileInfo fileInfo = getFileInfo(ws, s);
+        // a directory reached through a link is not where git sees it
+        if (p.toRealPath().equals(workingDir.toRealPath().resolve(workingDir.relativize(p)).normalize())) {
+            return gitMgr.statusSnapshot(ws, workingDir.relativize(p));
+        } else {
+            return null;
+        }
+    }
 
-                result.add(fileInfo);
-            } catch (Exception e) {
-                log.error("could not get file info for => {} " +
-                        "when listing for workspace => {}, path => {}, order => {}, group => {}, exception is => {}",
-                        s, ws.getSpaceKey(), path, order, group, e.getMessage());
+    private void resolveListingEntry(Workspace ws, String path, Path p, ListingKey key,
+                                     GitStatusSnapshot gitStatuses, Callback<FileInfo> callback) {
+        Path subPath = p.resolve(key.getName());
+        String s = ws.getWorkingDir().toPath().relativize(subPath).toString();
+        FileInfo fileInfo;
+
+        try {
+            BasicFileAttributes attr = key.getAttr() != null
+                    ? key.getAttr()
+                    : Files.readAttributes(subPath, BasicFileAttributes.class, NOFOLLOW_LINKS);
+
+            // links are rare, resolve them one by one
+            if (gitStatuses == null || attr.isSymbolicLink()) {
+                fileInfo = getFileInfo(ws, s);
+            } else {
+                fileInfo = toFileInfo(ws, s, subPath, attr, gitStatuses);
             }
+        } catch (Exception e) {
+            log.error("could not get file info for => {} " +
+                            "when listing for workspace => {}, path => {}, exception is => {}",
+                    s, ws.getSpaceKey(), path, e.getMessage());
+            return;
         }
-        directoryStream.close();
 
-        if (order) {
-            Collections.sort(result, (o1, o2) -> o1.getName().compareToIgnoreCase(o2.getName()));
+        callback.call(fileInfo);
+    }
+
+    /**
+     * Read the names of a directory, without the temporary files. They come with their
+     * attributes when the directory is in the tree, otherwise whether an entry is a
+     * directory is only looked up when the listing is grouped.
+     */
+    private void scanListingKeys(Workspace ws, Path p, boolean group, Consumer<ListingKey> consumer) throws IOException {
+        WorkspaceTree tree = treeStore.get(ws.getSpaceKey());
+        List<WorkspaceTree.Entry> entries = tree == null ? null
+                : tree.list(ws.getWorkingDir().toPath().relativize(p).toString());
+
+        if (entries != null) {
+            for (WorkspaceTree.Entry entry : entries) {
+                if (!TemporaryFileFilter.isTemporary(entry.getName())) {
+                    consumer.accept(new ListingKey(entry.getName(), group && entry.resolvesToDirectory(), entry));
+                }
+            }
+            return;
         }
 
-        if (group) {
-            Collections.sort(result, (o1, o2) -> {
-
-                if (o1.isDir() == o2.isDir()) {
-                    return 0;
-                } else if (o1.isDir()) {
-                    return -1;
-                } else {
-                    return 1;
+        try (DirectoryStream<Path> directoryStream = Files.newDirectoryStream(p)) {
+            for (Path subPath : directoryStream) {
+                String name = subPath.getFileName().toString();
+
+                if (!TemporaryFileFilter.isTemporary(name)) {
+                    consumer.accept(new ListingKey(name, group && Files.isDirectory(subPath), null));
                 }
-            });
+            }
         }
+    }
 
-        // filter out the temporary files
-        result = TemporaryFileFilter.filter(result);
+    /**
+     * The order of a listing: directories first if grouped, then by name ignoring case if ordered.
+     *
+     * @param total break the remaining ties by the exact name
+     * @return the comparator, {@code null} if the listing is neither ordered nor grouped
+     */
+    private static Comparator<ListingKey> listingOrder(boolean order, boolean group, boolean total) {
+        Comparator<ListingKey> comparator = null;
 
-        watchedPathStore.add(ws.getSpaceKey(), path.endsWith("/") ? path : path + "/");
-        return result;
+        if (group) {
+            comparator = Comparator.comparing((ListingKey key) -> !key.isDir());
+        }
+
+        if (order) {
+            Comparator<ListingKey> byName = Comparator.comparing(ListingKey::getName, String.CASE_INSENSITIVE_ORDER);
+            comparator = comparator == null ? byName : comparator.thenComparing(byName);
+        }
+
+        if (total) {
+            Comparator<ListingKey> byExactName = Comparator.comparing(ListingKey::getName);
+            comparator = comparator == null ? byExactName : comparator.thenComparing(byExactName);
+        }
+
+        return comparator;
+    }
+
+    /**
+     * The sort key of a directory entry, which is also what a cursor points to.
+     */
+    @Data
+    private static class ListingKey {
+
+        private final String name;
+
+        private final boolean dir;
+
+        /**
+         * the attributes of the entry when they are already known, not part of a cursor
+         */
+        private final BasicFileAttributes attr;
+
+        String encode() {
+            return BaseEncoding.base64Url().encode(((dir ? "d" : "f") + name).getBytes(UTF_8));
+        }
+
+        static ListingKey decode(String cursor) {
+            String key;
+
+            try {
+                key = new String(BaseEncoding.base64Url().decode(cursor), UTF_8);
+            } catch (IllegalArgumentException e) {
+                throw new WorkspaceIOException("invalid cursor: " + cursor, e);
+            }
+
+            if (key.isEmpty()) {
+                throw new WorkspaceIOException("invalid cursor: " + cursor);
+            }
+
+            return new ListingKey(key.substring(1), key.charAt(0) == 'd', null);
+        }
     }
 
     @Override
-    public List<FileSearchResultEntry> search(Workspace ws, String keyword, boolean includeNonProjectItems) throws IOException {
+    public List<FileSearchResultEntry> search(Workspace ws, String keyword, boolean includeNonProjectItems, int limit) throws IOException {
         List<FileSearchResultEntry> result = Lists.newArrayList();
 
-        List<String> paths = ws.search(keyword, includeNonProjectItems);
+        limit = Math.max(limit, 1);
+
+        WorkspaceTree tree = treeStore.get(ws.getSpaceKey());
+        List<String> filePaths = tree == null ? null : tree.filePaths();
+
+        List<String> paths = filePaths != null
+                ? ws.search(keyword, includeNonProjectItems, filePaths, limit, searchPool.get())
+                : ws.search(keyword, includeNonProjectItems, limit, searchPool.get());
+
         for (String path : paths) {
-            Path p = ws.getPath(path);
-            String contentType = FileUtil.getContentType(p.toFile());
+            result.add(toSearchResultEntry(ws, path));
+        }
+
+        return result;
+    }
+
+    /**
+     * The content of a hit is only looked at when its name does not tell its type.
+     */
+    private FileSearchResultEntry toSearchResultEntry(Workspace ws, String path) throws IOException {
+        String name = path.substring(path.lastIndexOf('/') + 1);
+        String contentType = FileUtil.getContentTypeByName(name);
 
-            result.add(new FileSearchResultEntry(path, contentType));
+        if (contentType == null) {
+            contentType = FileUtil.getContentType(ws.getPath(path).toFile());
+        }
+
+        return new FileSearchResultEntry(path, contentType);
+    }
+
+    @Override
+    public List<FileSearchResultEntry> find(Workspace ws, String query, boolean includeNonProjectItems, int limit) throws IOException {
+        PathIndex index = pathIndexStore.get(ws.getSpaceKey());
+
+        if (index == null) {
+            throw new WorkspaceIOException(format("Path index of workspace %s is not ready yet.", ws.getSpaceKey()));
+        }
+
+        List<FileSearchResultEntry> result = Lists.newArrayList();
+
+        for (String path : index.find(query, includeNonProjectItems, limit)) {
+            result.add(toSearchResultEntry(ws, "/" + path));
         }
 
         return result;
     }
 
+    @Override
+    public List<ContentSearchResultEntry> searchContent(Workspace ws, String query, boolean regex,
+                                                        boolean caseSensitive, int limit) throws IOException {
+        ContentIndex index = contentIndexStore.get(ws.getSpaceKey());
+
+        if (index == null) {
+            throw new WorkspaceIOException(format("Content index of workspace %s is not ready yet.", ws.getSpaceKey()));
+        }
+
+        int flags = caseSensitive ? 0 : Pattern.CASE_INSENSITIVE | Pattern.UNICODE_CASE;
+        Pattern pattern;
+
+        try {
+            pattern = Pattern.compile(regex ? query : Pattern.quote(query), flags);
+        } catch (PatternSyntaxException e) {
+            throw new WorkspaceIOException("invalid regex: " + e.getDescription(), e);
+        }
+
+        List<String> literals = regex ? ContentIndex.requiredLiterals(query) : Lists.newArrayList(query);
+
+        return index.search(pattern, literals, Math.max(limit, 1), searchPool.get());
+    }
+
+    @Override
+    public void grep(Workspace ws, String path, String regex, boolean caseSensitive, int maxPerFile, int maxTotal,
+                     Callback<ContentSearchResultEntry> callback) throws IOException {
+        Path dir = ws.getPath(path);
+
+        if (!Files.isDirectory(dir, NOFOLLOW_LINKS)) {
+            throw new WorkspaceIOException(format("%s is not a directory.", path));
+        }
+
+        int flags = caseSensitive ? 0 : Pattern.CASE_INSENSITIVE | Pattern.UNICODE_CASE;
+        Pattern pattern;
+
+        try {
+            pattern = Pattern.compile(regex, flags);
+        } catch (PatternSyntaxException e) {
+            throw new WorkspaceIOException("invalid regex: " + e.getDescription(), e);
+        }
+
+        new ContentGrep(ws, pattern, maxPerFile, maxTotal, callback, searchPool.get()).run(dir);
+    }
+
+    @Override
+    public ChangedFiles changesSince(Workspace ws, long since) throws IOException {
+        Path workingDir = ws.getWorkingDir().toPath();
+        Path gitDir = workingDir.resolve(".git");
+        IgnoreRules ignoreRules = ws.getIgnoreRules();
+        WorkspaceWatcher watcher = getWatcher(ws);
+        List<String> changed = Lists.newArrayList();
+        AtomicBoolean complete = new AtomicBoolean(watcher != null);
+
+        Files.walkFileTree(workingDir, new SimpleFileVisitor<Path>() {
+            @Override
+            public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs) throws IOException {
+                if (dir.equals(gitDir)
+                        || (!dir.equals(workingDir) && ignoreRules.isIgnored(workingDir.relativize(dir).toString(), true))) {
+                    return FileVisitResult.SKIP_SUBTREE;
+                }
+
+                // entries deleted from a directory are only known while it is watched
+                if (complete.get() && attrs.lastModifiedTime().toMillis() > since
+                        && !watcher.isWatchedSince(dir, since)) {
+                    complete.set(false);
+                }
+
+                return FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) throws IOException {
+                String path = workingDir.relativize(file).toString();
+
+                if (attrs.isDirectory()
+                        || TemporaryFileFilter.isTemporary(file.getFileName().toString())
+                        || ignoreRules.isIgnored(path, false)) {
+                    return FileVisitResult.CONTINUE;
+                }
+
+                if (changedAt(file, attrs, since) > since) {
+                    changed.add(path);
+                }
+
+                return FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult visitFileFailed(Path file, IOException e) throws IOException {
+                // deleted while walking, or unreadable
+                return FileVisitResult.CONTINUE;
+            }
+        });
+
+        List<String> deleted = deletedPathStore.deletedSince(ws.getSpaceKey(), since);
+
+        if (deleted == null || !complete.get()) {
+            return new ChangedFiles(String.valueOf(since), changed, Lists.newArrayList(), false);
+        }
+
+        deleted.removeIf(path -> ignoreRules.isIgnored(path, false));
+
+        return new ChangedFiles(String.valueOf(since), changed, deleted, true);
+    }
+
+    /**
+     * @return the watcher of the workspace, {@code null} if it is not watched
+     */
+    private WorkspaceWatcher getWatcher(Workspace ws) {
+        synchronized (watcherMap) {
+            return watcherMap.get(ws.getSpaceKey());
+        }
+    }
+
+    /**
+     * A file moved or renamed keeps its modification time, its status change time is looked
+     * up as well when the modification time alone is not after the time.
+     */
+    private static long changedAt(Path file, BasicFileAttributes attrs, long since) {
+        long modified = attrs.lastModifiedTime().toMillis();
+
+        if (modified > since) {
+            return modified;
+        }
+
+        try {
+            FileTime changed = (FileTime) Files.getAttribute(file, "unix:ctime", NOFOLLOW_LINKS);
+
+            return Math.max(modified, changed.toMillis());
+        } catch (UnsupportedOperationException | IllegalArgumentException | IOException e) {
+            return modified;
+        }
+    }
+
+    @Override
+    public void export(Workspace ws, ChangedFiles changes, OutputStream out, boolean gzip) throws IOException {
+        Path workingDir = ws.getWorkingDir().toPath();
+        List<String> exported = Lists.newArrayList();
+        List<String> deleted = Lists.newArrayList(changes.getDeleted());
+
+        OutputStream stream = new BufferedOutputStream(gzip ? new ParallelGzipOutputStream(out) : out, EXPORT_BUFFER);
+
+        try (TarArchiveOutputStream tarOut = new TarArchiveOutputStream(stream)) {
+            tarOut.setLongFileMode(TarArchiveOutputStream.LONGFILE_GNU);
+
+            for (String path : changes.getChanged()) {
+                Path file = workingDir.resolve(path);
+
+                // a link is exported as the file it points to, a link to a directory is left out
+                try (FileChannel channel = FileChannel.open(file, READ)) {
+                    if (Files.isDirectory(file)) {
+                        continue;
+                    }
+
+                    long size = channel.size();
+                    TarArchiveEntry entry = new TarArchiveEntry(file.toFile(), path);
+
+                    entry.setSize(size);
+                    tarOut.putArchiveEntry(entry);
+
+                    // the entry has the size the file had when it was opened, whatever it is written to since
+                    long copied = ByteStreams.copy(ByteStreams.limit(Channels.newInputStream(channel), size), tarOut);
+
+                    for (; copied < size; copied++) {
+                        tarOut.write(0);
+                    }
+
+                    tarOut.closeArchiveEntry();
+                    exported.add(path);
+                } catch (NoSuchFileException e) {
+                    deleted.add(path);
+                }
+            }
+
+            byte[] manifest = EXPORT_GSON.toJson(new ChangedFiles(changes.getSince(), exported, deleted, changes.isComplete()))
+                    .getBytes(UTF_8);
+            TarArchiveEntry manifestEntry = new TarArchiveEntry(ChangedFiles.MANIFEST_NAME);
+
+            manifestEntry.setSize(manifest.length);
+            tarOut.putArchiveEntry(manifestEntry);
+            tarOut.write(manifest);
+            tarOut.closeArchiveEntry();
+
+            tarOut.finish();
+        }
+    }
+
+    @Override
+    public ArchiveImportDTO importArchive(Workspace ws, String path, ArchiveFormat format, InputStream in) throws Exception {
+        Path dir = ws.getPath(path);
+
+        if (Files.exists(dir) && !Files.isDirectory(dir)) {
+            throw new WorkspaceIOException(format("%s is not a directory.", path));
+        }
+
+        WorkspaceWatcher watcher = holdBackEvents(ws, dir);
+        ArchiveExtractor extractor = new ArchiveExtractor(ws, dir);
+
+        try {
+            extractor.extract(in, format);
+        } finally {
+            releaseEvents(ws, watcher, dir, extractor.getFiles());
+        }
+
+        return ArchiveImportDTO.of(ws.getNormalizePath(path).toString(), extractor.getFiles(),
+                extractor.getSkipped(), extractor.getSkippedNames());
+    }
+
+    /**
+     * Operations run in parallel, except that an operation waits for the operations before it
+     * on the same paths, or on paths above or below them, see {@link FileBatch}.
+     */
+    @Override
+    public List<FileOperationResultDTO> batch(Workspace ws, List<FileOperationDTO> operations) throws Exception {
+        if (operations.size() > MAX_BATCH_SIZE) {
+            throw new WorkspaceIOException(format("a batch holds at most %d operations.", MAX_BATCH_SIZE));
+        }
+
+        FileBatch batch = new FileBatch(ws, operations);
+        WorkspaceWatcher watcher = holdBackEvents(ws, batch.getDir());
+
+        try {
+            return batch.run(batchPool.get());
+        } finally {
+            releaseEvents(ws, watcher, batch.getDir(), batch.getChanges());
+        }
+    }
+
+    /**
+     * Stop publishing the changes under the directory one by one, while many files under it
+     * are changed at once.
+     *
+     * @return the watcher of the workspace, {@code null} if it is not watched
+     */
+    private WorkspaceWatcher holdBackEvents(Workspace ws, Path dir) {
+        WorkspaceWatcher watcher = getWatcher(ws);
+
+        if (watcher != null) {
+            watcher.holdBack(dir);
+        }
+
+        return watcher;
+    }
+
+    /**
+     * Publish a single {@link FileRefreshEvent} of the directory for the changes held back.
+     */
+    private void releaseEvents(Workspace ws, WorkspaceWatcher watcher, Path dir, int changes) throws AccessDeniedException {
+        Path workingDir = ws.getWorkingDir().toPath();
+
+        FileInfo fileInfo = new FileInfo();
+        fileInfo.setName(dir.equals(workingDir) ? "" : dir.getFileName().toString());
+        fileInfo.setPath(ws.getNormalizePath(workingDir.relativize(dir).toString()).toString());
+        fileInfo.setDir(true);
+
+        FileRefreshEvent summary = new FileRefreshEvent(ws.getSpaceKey(), fileInfo, changes);
+
+        if (watcher != null) {
+            watcher.release(dir, summary);
+        } else {
+            publisher.publishEvent(summary);
+        }
+    }
+
     @Override
     public boolean isOnline(String spaceKey) {
         return wsRepo.isOnline(spaceKey);
@@ -0,0 +1,1025 @@
+/*
+ * Copyright (c) 2014-2016 CODING.
+ */
+
+package net.coding.ide.service;
+
+import com.google.common.collect.Interner;
+import com.google.common.collect.Interners;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
+import lombok.Getter;
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.IOException;
+import java.nio.file.*;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
+import java.util.*;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+import static java.nio.file.LinkOption.NOFOLLOW_LINKS;
+
+/**
+ * An in-memory mirror of the metadata of a working dir: type, size, times, link target
+ * and children of every path, so that file tree calls do not have to go back to disk.
+ *
+ * Nodes are kept in parallel primitive arrays indexed by node id, children are sorted
+ * arrays of ids and names are interned segments, which keeps a 200k files tree within
+ * a few MB. The tree is kept current by the watcher through {@link #update(String)} for the
+ * directories it watches, and what is in them is served from memory. The directories which are
+ * not watched are validated by their modified time when they are read, and rescanned from disk
+ * when found to be stale. A write in place does not touch the modified time of the directory,
+ * so the entries of a listed directory which is not watched are read again one by one, and the
+ * directories which are not watched are checked before the file paths are collected, see
+ * {@link DirectoryTimes}.
+ *
+ * Reads share a read lock. What is read again from disk is read outside of the lock, and only
+ * put into the tree under the write lock.
+ *
+ * Paths are relative to the working dir and use '/' as separator, "" is the working dir.
+ */
+@Slf4j
+public class WorkspaceTree implements WorkspaceIndex {
+
+    public enum Type {
+        FILE, DIRECTORY, LINK, OTHER
+    }
+
+    private static final byte FREE = 0;
+    private static final byte FILE = 1;
+    private static final byte DIRECTORY = 2;
+    private static final byte LINK = 3;
+    private static final byte OTHER = 4;
+
+    private static final int ROOT = 0;
+
+    /**
+     * the timestamps of some file systems are only precise to the second
+     */
+    private static final long RACY_INTERVAL = 2000;
+
+    private static final Interner<String> NAMES = Interners.newWeakInterner();
+
+    private static final int[] NO_CHILDREN = new int[0];
+
+    @Getter
+    private final Path workingDir;
+
+    /**
+     * directories which are kept as a node, without their children
+     */
+    private final Set<String> unscannedDirs;
+
+    private int capacity = 1024;
+
+    private int count = 0;
+
+    private int[] parents = new int[capacity];
+
+    private String[] names = new String[capacity];
+
+    private byte[] types = new byte[capacity];
+
+    /**
+     * the type a link resolves to, FREE if the link is broken
+     */
+    private byte[] targetTypes = new byte[capacity];
+
+    private long[] sizes = new long[capacity];
+
+    private long[] lastModifieds = new long[capacity];
+
+    private long[] lastAccesseds = new long[capacity];
+
+    private int[][] children = new int[capacity][];
+
+    private int[] childCounts = new int[capacity];
+
+    private Map<Integer, String> targets = Maps.newHashMap();
+
+    private BitSet unscanned = new BitSet();
+
+    /**
+     * directories modified too close to their scan, their modified time can not tell whether they changed since
+     */
+    private BitSet racy = new BitSet();
+
+    private int[] freeIds = new int[16];
+
+    private int freeCount = 0;
+
+    private volatile boolean ready = false;
+
+    /**
+     * changes reported while the tree is being built, they are applied once it is ready
+     */
+    private final Queue<String> pending = new ConcurrentLinkedQueue<>();
+
+    /**
+     * the directories whose changes the watcher tells
+     */
+    private final Set<String> watchedDirs = Sets.newConcurrentHashSet();
+
+    private final DirectoryTimes directoryTimes;
+
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+
+    public WorkspaceTree(Path workingDir, Set<String> unscannedDirs) {
+        this.workingDir = workingDir;
+        this.unscannedDirs = unscannedDirs;
+        this.directoryTimes = new DirectoryTimes(workingDir);
+    }
+
+    @Override
+    public boolean isReady() {
+        return ready;
+    }
+
+    /**
+     * Walk the whole working dir, the tree can only be read after it has been built.
+     */
+    @Override
+    public void build() throws IOException {
+        long start = System.currentTimeMillis();
+
+        BasicFileAttributes attrs = Files.readAttributes(workingDir, BasicFileAttributes.class);
+        int root = allocate();
+        parents[root] = -1;
+        names[root] = "";
+        children[root] = NO_CHILDREN;
+        setAttributes(root, attrs, workingDir);
+
+        scan(root, workingDir);
+
+        lock.writeLock().lock();
+
+        try {
+            ready = true;
+            applyPending();
+        } finally {
+            lock.writeLock().unlock();
+        }
+
+        log.info("built tree of {} with {} nodes in {} ms", workingDir, count - freeCount, System.currentTimeMillis() - start);
+    }
+
+    /**
+     * Bring a path up to date with the disk after it has been reported as changed.
+     */
+    @Override
+    public void update(String path) {
+        if (!ready) {
+            pending.add(path);
+            return;
+        }
+
+        lock.writeLock().lock();
+
+        try {
+            applyPending();
+            refresh(path);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * A directory starts or stops being watched. The entries of one which starts being watched
+     * are read again once, they may have been written in place while it was not.
+     */
+    @Override
+    public void watched(String dir, boolean isWatched) {
+        if (isWatched) {
+            watchedDirs.add(dir);
+        } else {
+            watchedDirs.remove(dir);
+        }
+
+        directoryTimes.watched(dir, isWatched);
+
+        if (!isWatched || !ready) {
+            return;
+        }
+
+        lock.writeLock().lock();
+
+        try {
+            int id = resolve(dir);
+
+            if (id >= 0 && types[id] == DIRECTORY) {
+                racy.set(id);
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * @return the entry of the path, {@code null} if the path is not mirrored, e.g. under a link
+     * or an unscanned directory, or if it does not exist
+     */
+    public Entry get(String path) {
+        if (!ready) {
+            return null;
+        }
+
+        applyPending();
+
+        lock.readLock().lock();
+
+        try {
+            int id = resolve(path);
+
+            if (id < 0) {
+                return null;
+            } else if (isWatched(id, path)) {
+                return toEntry(id);
+            }
+        } finally {
+            lock.readLock().unlock();
+        }
+
+        Path p = toPath(path);
+        BasicFileAttributes attrs = readAttributes(p);
+
+        lock.writeLock().lock();
+
+        try {
+            int id = resolve(path);
+
+            if (id < 0) {
+                return null;
+            } else if (attrs == null) {
+                if (id != ROOT) {
+                    remove(id);
+                }
+                return null;
+            }
+
+            if (typeOf(attrs) != types[id]) {
+                refresh(path);
+                id = resolve(path);
+
+                if (id < 0) {
+                    return null;
+                }
+            } else if (types[id] == DIRECTORY) {
+                validate(id, p, attrs);
+            } else {
+                setAttributes(id, attrs, p);
+            }
+
+            return toEntry(id);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * @return the entries of the directory, {@code null} if the directory is not mirrored
+     */
+    public List<Entry> list(String path) {
+        if (!ready) {
+            return null;
+        }
+
+        applyPending();
+
+        List<String> childNames = Lists.newArrayList();
+
+        lock.readLock().lock();
+
+        try {
+            int id = resolve(path);
+
+            if (id < 0 || types[id] != DIRECTORY || unscanned.get(id)) {
+                return null;
+            } else if (isWatched(id, path)) {
+                return entriesOf(id);
+            }
+
+            // the watcher tells the writes in place of a watched directory
+            if (!watchedDirs.contains(path)) {
+                for (int i = 0; i < childCounts[id]; i++) {
+                    childNames.add(names[children[id][i]]);
+                }
+            }
+        } finally {
+            lock.readLock().unlock();
+        }
+
+        Path p = toPath(path);
+        BasicFileAttributes attrs = readAttributes(p);
+
+        if (attrs == null) {
+            return null;
+        }
+
+        Map<String, BasicFileAttributes> childAttrs = Maps.newHashMap();
+
+        for (String name : childNames) {
+            childAttrs.put(name, readAttributes(p.resolve(name)));
+        }
+
+        lock.writeLock().lock();
+
+        try {
+            int id = resolve(path);
+
+            if (id < 0 || types[id] != DIRECTORY || unscanned.get(id)) {
+                return null;
+            }
+
+            validate(id, p, attrs);
+
+            for (Map.Entry<String, BasicFileAttributes> child : childAttrs.entrySet()) {
+                String name = child.getKey();
+
+                // a child the rescan found gone is not read back from an older stat
+                if (findChild(id, name) >= 0) {
+                    refreshChild(id, name, p.resolve(name), child.getValue());
+                }
+            }
+
+            return entriesOf(id);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * @return the paths of all the regular files, {@code null} if the tree is not built yet
+     */
+    public List<String> filePaths() {
+        if (!ready) {
+            return null;
+        }
+
+        applyPending();
+
+        List<String> changed = directoryTimes.changed();
+
+        if (!changed.isEmpty()) {
+            lock.writeLock().lock();
+
+            try {
+                for (String dir : changed) {
+                    refresh(dir);
+                }
+            } finally {
+                lock.writeLock().unlock();
+            }
+        }
+
+        lock.readLock().lock();
+
+        try {
+            List<String> paths = Lists.newArrayList();
+            collectFilePaths(ROOT, new StringBuilder(), paths);
+
+            return paths;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * @return whether what the watcher tells keeps the node current, its directory or the
+     * directory holding it is watched, and was not modified too close to its scan
+     */
+    private boolean isWatched(int id, String path) {
+        int dir = types[id] == DIRECTORY ? id : parents[id];
+
+        if (dir < 0 || racy.get(dir)) {
+            return false;
+        }
+
+        int slash = path.lastIndexOf('/');
+        String dirPath = dir == id ? path : slash == -1 ? "" : path.substring(0, slash);
+
+        return watchedDirs.contains(dirPath.equals(".") ? "" : dirPath);
+    }
+
+    private List<Entry> entriesOf(int id) {
+        List<Entry> entries = Lists.newArrayListWithCapacity(childCounts[id]);
+
+        for (int i = 0; i < childCounts[id]; i++) {
+            entries.add(toEntry(children[id][i]));
+        }
+
+        return entries;
+    }
+
+    private void collectFilePaths(int id, StringBuilder prefix, List<String> paths) {
+        int length = prefix.length();
+
+        for (int i = 0; i < childCounts[id]; i++) {
+            int child = children[id][i];
+
+            prefix.append(names[child]);
+
+            if (types[child] == FILE) {
+                paths.add(prefix.toString());
+            } else if (types[child] == DIRECTORY) {
+                prefix.append('/');
+                collectFilePaths(child, prefix, paths);
+            }
+
+            prefix.setLength(length);
+        }
+    }
+
+    private void applyPending() {
+        if (pending.isEmpty()) {
+            return;
+        }
+
+        lock.writeLock().lock();
+
+        try {
+            String path;
+
+            while ((path = pending.poll()) != null) {
+                refresh(path);
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Rescan the children of a directory if its modified time tells they may have changed.
+     */
+    private void validate(int id, Path p, BasicFileAttributes attrs) {
+        boolean stale = racy.get(id) || attrs.lastModifiedTime().toMillis() != lastModifieds[id];
+
+        setAttributes(id, attrs, p);
+
+        if (stale) {
+            rescan(id, p);
+        } else {
+            directoryTimes.read(toRelativePath(p), lastModifieds[id]);
+        }
+    }
+
+    private void refresh(String path) {
+        if (path.isEmpty()) {
+            rescan(ROOT, workingDir);
+            return;
+        }
+
+        int slash = path.lastIndexOf('/');
+        String parentPath = slash == -1 ? "" : path.substring(0, slash);
+        String name = path.substring(slash + 1);
+
+        int parent = resolve(parentPath);
+
+        if (parent < 0) {
+            // the parent is new too, or it is not mirrored at all
+            if (isMirrored(parentPath) && Files.isDirectory(toPath(parentPath), NOFOLLOW_LINKS)) {
+                refresh(parentPath);
+            }
+            return;
+        }
+
+        if (types[parent] != DIRECTORY || unscanned.get(parent)) {
+            return;
+        }
+
+        refreshChild(parent, name, toPath(path));
+    }
+
+    /**
+     * Bring a child of a mirrored directory up to date with the disk.
+     */
+    private void refreshChild(int parent, String name, Path p) {
+        refreshChild(parent, name, p, readAttributes(p));
+    }
+
+    /**
+     * @param attrs the attributes read from the disk, {@code null} if the child is gone
+     */
+    private void refreshChild(int parent, String name, Path p, BasicFileAttributes attrs) {
+        int id = findChild(parent, name);
+
+        if (attrs == null) {
+            if (id >= 0) {
+                remove(id);
+            }
+            return;
+        }
+
+        if (id >= 0 && types[id] == typeOf(attrs)) {
+            if (types[id] == DIRECTORY) {
+                validate(id, p, attrs);
+            } else {
+                setAttributes(id, attrs, p);
+            }
+        } else {
+            if (id >= 0) {
+                remove(id);
+            }
+            add(parent, name, attrs, p);
+        }
+    }
+
+    /**
+     * Bring the children of a directory in line with the disk.
+     */
+    private void rescan(int id, Path dir) {
+        long start = System.currentTimeMillis();
+        Set<String> seen = Sets.newHashSet();
+
+        try (DirectoryStream<Path> directoryStream = Files.newDirectoryStream(dir)) {
+            for (Path p : directoryStream) {
+                String name = p.getFileName().toString();
+                BasicFileAttributes attrs;
+
+                try {
+                    attrs = Files.readAttributes(p, BasicFileAttributes.class, NOFOLLOW_LINKS);
+                } catch (IOException e) {
+                    continue;
+                }
+
+                seen.add(name);
+
+                int child = findChild(id, name);
+
+                if (child >= 0 && types[child] == typeOf(attrs)) {
+                    if (types[child] != DIRECTORY) {
+                        setAttributes(child, attrs, p);
+                    }
+                } else {
+                    if (child >= 0) {
+                        remove(child);
+                    }
+                    add(id, name, attrs, p);
+                }
+            }
+        } catch (IOException | DirectoryIteratorException e) {
+            log.warn("could not rescan {}: {}", dir, e.getMessage());
+            return;
+        }
+
+        for (int i = childCounts[id] - 1; i >= 0; i--) {
+            int child = children[id][i];
+
+            if (!seen.contains(names[child])) {
+                remove(child);
+            }
+        }
+
+        racy.set(id, lastModifieds[id] >= start - RACY_INTERVAL);
+        directoryTimes.read(toRelativePath(dir), lastModifieds[id]);
+    }
+
+    /**
+     * Add the whole tree under a directory whose node has no children yet.
+     */
+    private void scan(int id, Path dir) throws IOException {
+        Deque<Integer> stack = new ArrayDeque<>();
+        long start = System.currentTimeMillis();
+
+        Files.walkFileTree(dir, new SimpleFileVisitor<Path>() {
+            @Override
+            public FileVisitResult preVisitDirectory(Path p, BasicFileAttributes attrs) throws IOException {
+                if (p.equals(dir)) {
+                    stack.push(id);
+                    return FileVisitResult.CONTINUE;
+                }
+
+                int child = append(stack.peek(), p.getFileName().toString(), attrs, p);
+
+                if (unscanned.get(child)) {
+                    return FileVisitResult.SKIP_SUBTREE;
+                }
+
+                stack.push(child);
+
+                return FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult visitFile(Path p, BasicFileAttributes attrs) throws IOException {
+                append(stack.peek(), p.getFileName().toString(), attrs, p);
+
+                return FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult visitFileFailed(Path p, IOException e) throws IOException {
+                return FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult postVisitDirectory(Path p, IOException e) throws IOException {
+                int dirId = stack.pop();
+
+                sortChildren(dirId);
+                racy.set(dirId, lastModifieds[dirId] >= start - RACY_INTERVAL);
+                directoryTimes.read(toRelativePath(p), lastModifieds[dirId]);
+
+                return FileVisitResult.CONTINUE;
+            }
+        });
+    }
+
+    private int add(int parent, String name, BasicFileAttributes attrs, Path p) {
+        int id = allocate();
+
+        init(id, parent, name, attrs, p);
+        insertChild(parent, id);
+
+        if (types[id] == DIRECTORY && !unscanned.get(id)) {
+            try {
+                scan(id, p);
+            } catch (IOException e) {
+                log.warn("could not scan {}: {}", p, e.getMessage());
+            }
+        }
+
+        return id;
+    }
+
+    /**
+     * Add a child without keeping the children sorted, the directory is sorted once it is scanned.
+     */
+    private int append(int parent, String name, BasicFileAttributes attrs, Path p) {
+        int id = allocate();
+
+        init(id, parent, name, attrs, p);
+
+        int[] ids = children[parent];
+
+        if (childCounts[parent] == ids.length) {
+            ids = children[parent] = Arrays.copyOf(ids, Math.max(4, ids.length * 2));
+        }
+
+        ids[childCounts[parent]++] = id;
+
+        return id;
+    }
+
+    private void init(int id, int parent, String name, BasicFileAttributes attrs, Path p) {
+        parents[id] = parent;
+        names[id] = NAMES.intern(name);
+        children[id] = NO_CHILDREN;
+        childCounts[id] = 0;
+        setAttributes(id, attrs, p);
+
+        if (types[id] == DIRECTORY && unscannedDirs.contains(toRelativePath(p))) {
+            unscanned.set(id);
+        }
+    }
+
+    private void setAttributes(int id, BasicFileAttributes attrs, Path p) {
+        types[id] = typeOf(attrs);
+        sizes[id] = attrs.size();
+        lastModifieds[id] = attrs.lastModifiedTime().toMillis();
+        lastAccesseds[id] = attrs.lastAccessTime().toMillis();
+
+        if (types[id] == LINK) {
+            try {
+                targets.put(id, Files.readSymbolicLink(p).toString());
+                targetTypes[id] = typeOf(Files.readAttributes(p, BasicFileAttributes.class));
+            } catch (IOException e) {
+                targetTypes[id] = FREE;
+            }
+        } else {
+            targets.remove(id);
+        }
+    }
+
+    private void remove(int id) {
+        for (int i = childCounts[id] - 1; i >= 0; i--) {
+            remove(children[id][i]);
+        }
+
+        int parent = parents[id];
+
+        if (parent >= 0) {
+            removeChild(parent, id);
+        }
+
+        free(id);
+    }
+
+    /**
+     * @return the id of the path, -1 if it is not in the tree
+     */
+    private int resolve(String path) {
+        if (path.isEmpty() || path.equals(".")) {
+            return ROOT;
+        }
+
+        int id = ROOT;
+
+        for (String name : path.split("/")) {
+            if (name.isEmpty() || name.equals(".")) {
+                continue;
+            }
+
+            if (types[id] != DIRECTORY || unscanned.get(id)) {
+                return -1;
+            }
+
+            id = findChild(id, name);
+
+            if (id < 0) {
+                return -1;
+            }
+        }
+
+        return id;
+    }
+
+    private boolean isMirrored(String path) {
+        for (String dir : unscannedDirs) {
+            if (path.equals(dir) || path.startsWith(dir + "/")) {
+                return false;
+            }
+        }
+
+        return true;
+    }
+
+    private int findChild(int parent, String name) {
+        int low = 0;
+        int high = childCounts[parent] - 1;
+        int[] ids = children[parent];
+
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            int cmp = names[ids[mid]].compareTo(name);
+
+            if (cmp < 0) {
+                low = mid + 1;
+            } else if (cmp > 0) {
+                high = mid - 1;
+            } else {
+                return ids[mid];
+            }
+        }
+
+        return -(low + 1);
+    }
+
+    private void insertChild(int parent, int id) {
+        int index = -(findChild(parent, names[id]) + 1);
+        int[] ids = children[parent];
+
+        if (childCounts[parent] == ids.length) {
+            ids = children[parent] = Arrays.copyOf(ids, Math.max(4, ids.length * 2));
+        }
+
+        System.arraycopy(ids, index, ids, index + 1, childCounts[parent] - index);
+        ids[index] = id;
+        childCounts[parent]++;
+    }
+
+    private void removeChild(int parent, int id) {
+        int[] ids = children[parent];
+
+        for (int i = 0; i < childCounts[parent]; i++) {
+            if (ids[i] == id) {
+                System.arraycopy(ids, i + 1, ids, i, childCounts[parent] - i - 1);
+                childCounts[parent]--;
+                return;
+            }
+        }
+    }
+
+    private void sortChildren(int id) {
+        int n = childCounts[id];
+
+        if (n < 2) {
+            return;
+        }
+
+        Integer[] sorted = new Integer[n];
+
+        for (int i = 0; i < n; i++) {
+            sorted[i] = children[id][i];
+        }
+
+        Arrays.sort(sorted, (a, b) -> names[a].compareTo(names[b]));
+
+        for (int i = 0; i < n; i++) {
+            children[id][i] = sorted[i];
+        }
+    }
+
+    private int allocate() {
+        if (freeCount > 0) {
+            return freeIds[--freeCount];
+        }
+
+        if (count == capacity) {
+            capacity = capacity + (capacity >> 1);
+
+            parents = Arrays.copyOf(parents, capacity);
+            names = Arrays.copyOf(names, capacity);
+            types = Arrays.copyOf(types, capacity);
+            targetTypes = Arrays.copyOf(targetTypes, capacity);
+            sizes = Arrays.copyOf(sizes, capacity);
+            lastModifieds = Arrays.copyOf(lastModifieds, capacity);
+            lastAccesseds = Arrays.copyOf(lastAccesseds, capacity);
+            children = Arrays.copyOf(children, capacity);
+            childCounts = Arrays.copyOf(childCounts, capacity);
+        }
+
+        return count++;
+    }
+
+    private void free(int id) {
+        types[id] = FREE;
+        names[id] = null;
+        children[id] = null;
+        childCounts[id] = 0;
+        targets.remove(id);
+        unscanned.clear(id);
+        racy.clear(id);
+
+        if (freeCount == freeIds.length) {
+            freeIds = Arrays.copyOf(freeIds, freeCount * 2);
+        }
+
+        freeIds[freeCount++] = id;
+    }
+
+    /**
+     * @return the attributes of the path, {@code null} if it does not exist or can not be read
+     */
+    private static BasicFileAttributes readAttributes(Path p) {
+        try {
+            return Files.readAttributes(p, BasicFileAttributes.class, NOFOLLOW_LINKS);
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
+    private Path toPath(String path) {
+        return path.isEmpty() || path.equals(".") ? workingDir : workingDir.resolve(path);
+    }
+
+    private String toRelativePath(Path p) {
+        return workingDir.relativize(p).toString();
+    }
+
+    private static byte typeOf(BasicFileAttributes attrs) {
+        if (attrs.isSymbolicLink()) {
+            return LINK;
+        } else if (attrs.isDirectory()) {
+            return DIRECTORY;
+        } else if (attrs.isRegularFile()) {
+            return FILE;
+        } else {
+            return OTHER;
+        }
+    }
+
+    private static Type toType(byte type) {
+        switch (type) {
+            case FILE:
+                return Type.FILE;
+            case DIRECTORY:
+                return Type.DIRECTORY;
+            case LINK:
+                return Type.LINK;
+            default:
+                return Type.OTHER;
+        }
+    }
+
+    private Entry toEntry(int id) {
+        Integer directoriesCount = null;
+        Integer filesCount = null;
+
+        if (types[id] == DIRECTORY && !unscanned.get(id)) {
+            int directories = 0;
+            int files = 0;
+
+            // links are counted as what they resolve to
+            for (int i = 0; i < childCounts[id]; i++) {
+                int child = children[id][i];
+                byte type = types[child] == LINK ? targetTypes[child] : types[child];
+
+                if (type == DIRECTORY) {
+                    directories++;
+                } else if (type == FILE) {
+                    files++;
+                }
+            }
+
+            directoriesCount = directories;
+            filesCount = files;
+        }
+
+        return new Entry(names[id],
+                toType(types[id]),
+                types[id] == LINK && targetTypes[id] == DIRECTORY,
+                sizes[id],
+                lastModifieds[id],
+                lastAccesseds[id],
+                directoriesCount,
+                filesCount,
+                targets.get(id));
+    }
+
+    /**
+     * A copy of the metadata of a path, which also serves as its {@link BasicFileAttributes}.
+     */
+    @Getter
+    public static class Entry implements BasicFileAttributes {
+
+        private final String name;
+
+        private final Type type;
+
+        private final boolean linkToDirectory;
+
+        private final long size;
+
+        private final long lastModified;
+
+        private final long lastAccessed;
+
+        /**
+         * {@code null} unless the entry is a directory whose children are mirrored
+         */
+        private final Integer directoriesCount;
+
+        private final Integer filesCount;
+
+        private final String target;
+
+        Entry(String name, Type type, boolean linkToDirectory, long size, long lastModified, long lastAccessed,
+              Integer directoriesCount, Integer filesCount, String target) {
+            this.name = name;
+            this.type = type;
+            this.linkToDirectory = linkToDirectory;
+            this.size = size;
+            this.lastModified = lastModified;
+            this.lastAccessed = lastAccessed;
+            this.directoriesCount = directoriesCount;
+            this.filesCount = filesCount;
+            this.target = target;
+        }
+
+        /**
+         * @return {@code true} if the entry is a directory or a link to a directory
+         */
+        public boolean resolvesToDirectory() {
+            return type == Type.DIRECTORY || linkToDirectory;
+        }
+
+        @Override
+        public FileTime lastModifiedTime() {
+            return FileTime.fromMillis(lastModified);
+        }
+
+        @Override
+        public FileTime lastAccessTime() {
+            return FileTime.fromMillis(lastAccessed);
+        }
+
+        @Override
+        public FileTime creationTime() {
+            return lastModifiedTime();
+        }
+
+        @Override
+        public boolean isRegularFile() {
+            return type == Type.FILE;
+        }
+
+        @Override
+        public boolean isDirectory() {
+            return type == Type.DIRECTORY;
+        }
+
+        @Override
+        public boolean isSymbolicLink() {
+            return type == Type.LINK;
+        }
+
+        @Override
+        public boolean isOther() {
+            return type == Type.OTHER;
+        }
+
+        @Override
+        public long size() {
+            return size;
+        }
+
+        @Override
+        public Object fileKey() {
+            return null;
+        }
+    }
+}
@@ -0,0 +1,33 @@
+/*
+ * Copyright (c) 2014-2016 CODING.
+ */
+
+package net.coding.ide.service;
+
+import com.google.common.collect.ImmutableSet;
+import net.coding.ide.model.Workspace;
+import org.springframework.stereotype.Component;
+
+import java.util.Set;
+import java.util.concurrent.Executor;
+
+/**
+ * The {@link WorkspaceTree} of every watched workspace.
+ */
+@Component
+public class WorkspaceTreeStore extends WorkspaceIndexStore<WorkspaceTree> {
+
+    /**
+     * .git is large and only read through git, it is left to the disk
+     */
+    private static final Set<String> UNSCANNED_DIRS = ImmutableSet.of(".git");
+
+    public WorkspaceTreeStore() {
+        super("tree");
+    }
+
+    @Override
+    protected WorkspaceTree create(Workspace ws, Executor executor) {
+        return new WorkspaceTree(ws.getWorkingDir().toPath(), UNSCANNED_DIRS);
+    }
+}
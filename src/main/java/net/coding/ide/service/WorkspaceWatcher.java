@@ -5,22 +5,30 @@
 package net.coding.ide.service;
 
 import com.google.common.collect.Lists;
+import com.google.common.collect.Sets;
 import lombok.extern.slf4j.Slf4j;
 import net.coding.ide.event.FileChangeEvent;
-import net.coding.ide.event.FileCreateEvent;
-import net.coding.ide.event.FileDeleteEvent;
-import net.coding.ide.event.FileModifyEvent;
+import net.coding.ide.event.FileRefreshEvent;
 import net.coding.ide.model.FileInfo;
+import net.coding.ide.model.IgnoreRules;
 import net.coding.ide.model.Workspace;
-import net.coding.ide.utils.Debouncer;
+import net.coding.ide.utils.TemporaryFileFilter;
 import org.springframework.context.ApplicationEventPublisher;
 
 import java.io.IOException;
 import java.nio.file.*;
 import java.nio.file.attribute.BasicFileAttributes;
-import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 import static java.nio.file.Files.isDirectory;
 import static java.nio.file.LinkOption.NOFOLLOW_LINKS;
@@ -28,43 +36,128 @@ import static java.nio.file.StandardWatchEventKinds.*;
 
 /**
  * Created by phy on 2015/1/30.
+ *
+ * The watch of the files of a workspace. Its directories are registered with a poller of
+ * the {@link FileWatchService}, and the changes of each directory are handed back to
+ * {@link #changed}, {@link #moved} or {@link #overflow}, always by the thread of that poller.
+ * The poller only queues them: they are handled in order, one at a time, on the background
+ * pool, so that a workspace whose listeners are slow does not hold up the other workspaces of
+ * the poller.
+ *
+ * Only the working dir and the git state, .git and .git/refs/heads, are always watched. Any
+ * other directory is watched once the client lists it, see {@link #view}, and released once
+ * it has been neither listed nor changed for the idle timeout. The listeners are told which
+ * directories are watched, and check the others against the disk themselves, see
+ * {@link WorkspaceChangeListener#watched}.
+ *
+ * A {@link DirectorySnapshot} of each watched directory is kept, so that when changes are
+ * dropped, only the directories concerned are scanned again, in the background, and the
+ * changes found are handled as if they had come from the poller. When the changes of more than
+ * {@value #MAX_RESCAN_DIRS} directories are dropped at once, e.g. when the queue of the poller
+ * overflows, the workspace is read again as a whole instead.
  */
 @Slf4j
-public class WorkspaceWatcher extends Thread {
+public class WorkspaceWatcher {
     private volatile boolean stopWatching = false;
     private Workspace ws;
-    private WatchService watcher;
+    private WatchPoller poller;
     private Path workingDir;
-    private Map<WatchKey, Path> keys = new HashMap<>();
+    private Map<Object, Path> keys = new ConcurrentHashMap<>();
 
-    private Debouncer<FileChangeEvent> debouncer;
+    /**
+     * the key of each registered directory
+     */
+    private Map<Path, Object> dirs = new ConcurrentHashMap<>();
+
+    /**
+     * when each directory watched for the client was last listed or changed
+     */
+    private Map<Path, Long> lastViewed = new ConcurrentHashMap<>();
+
+    /**
+     * the time from which every change of each registered directory is known
+     */
+    private Map<Path, Long> watchedSince = new ConcurrentHashMap<>();
+
+    private Path gitDir;
+
+    private Path headsDir;
+
+    private ScheduledFuture<?> sweep;
+
+    /**
+     * the snapshot of each registered directory
+     */
+    private Map<Path, DirectorySnapshot> snapshots = new ConcurrentHashMap<>();
+
+    /**
+     * runs the scans and handles the changes, off the thread of the poller
+     */
+    private Executor background;
+
+    /**
+     * the changes handed over by the poller, waiting to be handled
+     */
+    private final Queue<Change> received = new ConcurrentLinkedQueue<>();
+
+    private final AtomicBoolean handling = new AtomicBoolean();
+
+    /**
+     * the directories whose changes have been dropped, waiting to be scanned again
+     */
+    private final Set<Path> overflowed = Sets.newHashSet();
+
+    private boolean recovering = false;
+
+    private FileChangeBatcher batcher;
 
     private static String[] ignoreDirs = new String[]{"/.git/objects/"};
 
     private WatchedPathStore watchedPathStore;
 
-    private WorkspaceManager wsMgr;
+    private List<WorkspaceChangeListener> changeListeners;
 
     private List<Path> ignorePaths = Lists.newArrayList();
 
-    {
-        try {
-            this.watcher = FileSystems.getDefault().newWatchService();
-        } catch (IOException e) {
-            e.printStackTrace();
-        }
-    }
-
-    public WorkspaceWatcher(WorkspaceManager wsMgr, Workspace ws, WatchedPathStore watchedPathStore, final ApplicationEventPublisher publisher) {
+    private ApplicationEventPublisher publisher;
+
+    private ScheduledExecutorService scheduler;
+
+    /**
+     * the directories whose changes are not published one by one, each with the number of
+     * times it is held back
+     */
+    private final Map<Path, Integer> heldBack = new ConcurrentHashMap<>();
+
+    /**
+     * how long after a directory is released its changes are still held back, for the
+     * changes made before the release to come through
+     */
+    private static final int RELEASE_DELAY = 500;
+
+    /**
+     * the most directories scanned again in one pass, past it the listeners read the whole
+     * workspace again and the client is told to refresh it
+     */
+    static final int MAX_RESCAN_DIRS = 100;
+
+    /**
+     * @param scheduler shared with the other watchers, for batching
+     * @param enricher  shared with the other watchers, reads the file info of the changes
+     */
+    public WorkspaceWatcher(WorkspaceManager wsMgr, Workspace ws, WatchedPathStore watchedPathStore,
+                            List<WorkspaceChangeListener> changeListeners, final ApplicationEventPublisher publisher,
+                            ScheduledExecutorService scheduler, Executor enricher) {
         this.ws = ws;
-        this.wsMgr = wsMgr;
+        this.changeListeners = changeListeners;
         this.workingDir = ws.getWorkingDir().toPath();
+        this.gitDir = workingDir.resolve(".git");
+        this.headsDir = gitDir.resolve("refs/heads");
         this.watchedPathStore = watchedPathStore;
+        this.publisher = publisher;
+        this.scheduler = scheduler;
 
-        this.debouncer = new Debouncer<>(event -> {
-            log.info("publish file change event: {}", event);
-            publisher.publishEvent(event);
-        }, 50);
+        this.batcher = new FileChangeBatcher(ws, wsMgr, publisher, scheduler, enricher);
 
         for (String dir : ignoreDirs) {
             try {
@@ -79,136 +172,658 @@ public class WorkspaceWatcher extends Thread {
         watchedPathStore.add(ws.getSpaceKey(), "/.git/"); // for .git/HEAD
     }
 
-    public void stopWatching() {
+    public String getSpaceKey() {
+        return ws.getSpaceKey();
+    }
+
+    /**
+     * @param background where the directories are scanned
+     */
+    void attach(WatchPoller poller, Executor background) {
+        this.poller = poller;
+        this.background = background;
+    }
+
+    /**
+     * Register the directories always watched.
+     *
+     * @param idleTimeout how long in milliseconds a directory watched for the client is kept
+     *                    once it is neither listed nor changed
+     */
+    void start(long idleTimeout) {
+        registerPinned(workingDir);
+
+        synchronized (this) {
+            if (!stopWatching) {
+                long period = Math.min(idleTimeout, TimeUnit.MINUTES.toMillis(1));
+
+                sweep = scheduler.scheduleWithFixedDelay(() -> releaseIdle(idleTimeout),
+                        period, period, TimeUnit.MILLISECONDS);
+            }
+        }
+    }
+
+    /**
+     * Watch a directory the client lists, or keep it watched.
+     */
+    synchronized void view(Path dir) throws IOException {
+        if (stopWatching || isPinned(dir)) {
+            return;
+        }
+
+        for (Path ignorePath : ignorePaths) {
+            if (dir.startsWith(ignorePath)) {
+                return;
+            }
+        }
+
+        register(dir);
+
+        lastViewed.put(dir, System.currentTimeMillis());
+    }
+
+    /**
+     * @param dir  the directory
+     * @param time the time in milliseconds
+     * @return whether every change of the directory since the time has been seen, which is only
+     * the case if it has been watched since then
+     */
+    public boolean isWatchedSince(Path dir, long time) {
+        Long since = watchedSince.get(dir);
+
+        return since != null && since <= time;
+    }
+
+    /**
+     * Cancel the registered directories, no change is published any more.
+     *
+     * @return the poller the workspace was given to
+     */
+    synchronized WatchPoller stop() {
         this.stopWatching = true;
-        try {
-            watcher.close();
-        } catch (IOException e) {
-            e.printStackTrace();
+
+        if (sweep != null) {
+            sweep.cancel(false);
+        }
+
+        for (Object key : keys.keySet()) {
+            poller.cancel(key);
+        }
+
+        keys.clear();
+        dirs.clear();
+        lastViewed.clear();
+        watchedSince.clear();
+        snapshots.clear();
+        batcher.terminate();
+
+        return poller;
+    }
+
+    /**
+     * @return the number of directories registered
+     */
+    public int getWatchCount() {
+        return keys.size();
+    }
+
+    /**
+     * Stop publishing the changes under the directory one by one, e.g. while many files are
+     * written into it at once. The changes are still mirrored by the listeners.
+     */
+    public void holdBack(Path dir) {
+        heldBack.merge(dir, 1, Integer::sum);
+    }
+
+    /**
+     * Publish the changes under the directory one by one again, and publish the summary of
+     * the changes held back instead of them.
+     */
+    public void release(Path dir, FileChangeEvent summary) {
+        scheduler.schedule(() -> {
+            heldBack.computeIfPresent(dir, (d, count) -> count == 1 ? null : count - 1);
+
+            batcher.add(summary);
+        }, RELEASE_DELAY, TimeUnit.MILLISECONDS);
+    }
+
+    private boolean isHeldBack(Path path) {
+        if (heldBack.isEmpty()) {
+            return false;
+        }
+
+        for (Path dir : heldBack.keySet()) {
+            if (path.startsWith(dir)) {
+                return true;
+            }
         }
+
+        return false;
     }
 
+    private synchronized void register(Path dir) throws IOException {
+        if (stopWatching || dirs.containsKey(dir)) {
+            return;
+        }
 
-    private void register(Path dir) throws IOException {
-        WatchKey key = dir.register(watcher, ENTRY_CREATE, ENTRY_DELETE, ENTRY_MODIFY);
+        Object key = poller.register(dir, this);
         keys.put(key, dir);
+        dirs.put(dir, key);
+        watchedSince.put(dir, System.currentTimeMillis());
+        snapshot(dir);
+        tellWatched(dir, true);
+    }
+
+    /**
+     * Take a snapshot of a directory in the background, the changes that come meanwhile are
+     * kept in it.
+     */
+    private void snapshot(Path dir) {
+        DirectorySnapshot snapshot = new DirectorySnapshot(dir);
+
+        snapshots.put(dir, snapshot);
+        background.execute(() -> {
+            try {
+                snapshot.rescan();
+            } catch (IOException e) {
+                log.debug("could not scan {}: {}", dir, e.getMessage());
+            }
+        });
+    }
+
+    private synchronized void unregister(Path dir) {
+        Object key = dirs.remove(dir);
+
+        lastViewed.remove(dir);
+        watchedSince.remove(dir);
+        snapshots.remove(dir);
+
+        if (key != null) {
+            keys.remove(key);
+            poller.cancel(key);
+            tellWatched(dir, false);
+        }
     }
 
-    private void registerAll(final Path start) {
-        // register directory and sub-directories
+    /**
+     * Tell the listeners a directory starts or stops being watched.
+     */
+    private void tellWatched(Path dir, boolean watched) {
+        String relativePath = workingDir.relativize(dir).toString();
+
+        for (WorkspaceChangeListener listener : changeListeners) {
+            listener.watched(ws, relativePath, watched);
+        }
+    }
+
+    /**
+     * @return whether the directory is always watched
+     */
+    private boolean isPinned(Path dir) {
+        return dir.equals(workingDir) || dir.equals(gitDir) || dir.startsWith(headsDir);
+    }
+
+    /**
+     * Register the directories always watched, from a directory created or the working dir.
+     */
+    private void registerPinned(final Path start) {
         try {
             Files.walkFileTree(start, new SimpleFileVisitor<Path>() {
                 @Override
                 public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs)
                         throws IOException {
-                    if (ignorePaths.contains(dir)) {
-                        return FileVisitResult.SKIP_SUBTREE;
-                    } else {
+                    if (stopWatching) {
+                        return FileVisitResult.TERMINATE;
+                    } else if (isPinned(dir)) {
                         register(dir);
                         return FileVisitResult.CONTINUE;
+                    } else if (headsDir.startsWith(dir)) {
+                        // on the way to .git/refs/heads
+                        return FileVisitResult.CONTINUE;
+                    } else {
+                        return FileVisitResult.SKIP_SUBTREE;
                     }
                 }
             });
         } catch (IOException e) {
-            // ignore to keep sample readable
+            log.warn("could not register the directories of {}: {}", start, e.getMessage());
         }
     }
 
-    public void run() {
+    /**
+     * Release the directories watched for the client which have been neither listed nor
+     * changed for the idle timeout. The client has to list them again to be told about their
+     * changes.
+     */
+    private void releaseIdle(long idleTimeout) {
+        long idleSince = System.currentTimeMillis() - idleTimeout;
+
+        for (Map.Entry<Path, Long> entry : lastViewed.entrySet()) {
+            if (entry.getValue() >= idleSince) {
+                continue;
+            }
 
-        registerAll(workingDir);
+            Path dir = entry.getKey();
 
-        while ( ! stopWatching && ! isInterrupted() ) {
+            unregister(dir);
 
             try {
-                WatchKey watchKey = watcher.take();
+                String path = ws.getNormalizePath(workingDir.relativize(dir).toString()).toString();
+                watchedPathStore.remove(ws.getSpaceKey(), path.endsWith("/") ? path : path + "/");
+            } catch (AccessDeniedException e) {
+                log.debug("could not release {}: {}", dir, e.getMessage());
+            }
+        }
+    }
 
-                Path dir = keys.get(watchKey);
+    /**
+     * Handle a change on the background pool, after those received before it.
+     */
+    private void receive(Change change) {
+        if (stopWatching) {
+            return;
+        }
 
-                if (dir == null) {
-                    continue;
-                }
+        received.add(change);
 
-                for (WatchEvent<?> event : watchKey.pollEvents()) {
+        if (handling.compareAndSet(false, true)) {
+            background.execute(this::handleReceived);
+        }
+    }
 
-                    WatchEvent<Path> ev = (WatchEvent<Path>) event;
-                    Path fileName = ev.context();
-                    Path filePath = dir.resolve(fileName);
+    private void handleReceived() {
+        do {
+            Change change;
 
-                    Path relativePath = workingDir.relativize(filePath);
-                    String path = ws.getNormalizePath(relativePath.toString()).toString();
+            while ((change = received.poll()) != null) {
+                try {
+                    change.handle();
+                } catch (Exception e) {
+                    log.warn("could not handle a change of workspace {}", ws.getSpaceKey(), e);
+                }
+            }
 
-                    if ( ! path.startsWith("/.git/refs/heads/")
-                            && ! watchedPathStore.hasWatched(ws.getSpaceKey(), path) ) {
-                        log.debug("not watched {} on workspace {}", path, ws.getSpaceKey());
-                        continue;
-                    }
+            handling.set(false);
+        } while (!received.isEmpty() && handling.compareAndSet(false, true));
+    }
 
-                    FileChangeEvent fileChangeEvent = null;
+    /**
+     * The directory of the key can not be watched any more.
+     */
+    void invalidate(Object key) {
+        receive(() -> forget(key));
+    }
 
-                    if (event.kind() == ENTRY_CREATE) {
+    private synchronized void forget(Object key) {
+        Path dir = keys.remove(key);
 
+        if (dir != null && dirs.remove(dir, key)) {
+            lastViewed.remove(dir);
+            watchedSince.remove(dir);
+            snapshots.remove(dir);
+            tellWatched(dir, false);
+        }
+    }
 
-                        if (isDirectory(filePath, NOFOLLOW_LINKS)) {
-                            registerAll(filePath);
-                        }
+    /**
+     * Cancel the directories under a directory moved out of the workspace, their watches
+     * follow the directory wherever it went.
+     */
+    void movedOut(Object key, Path dirName) {
+        receive(() -> cancelMovedOut(key, dirName));
+    }
 
-                        try {
-                            FileInfo fileInfo = wsMgr.getFileInfo(ws, relativePath.toString());
-                            fileChangeEvent = new FileCreateEvent(ws.getSpaceKey(), fileInfo);
+    private synchronized void cancelMovedOut(Object key, Path dirName) {
+        Path dir = keys.get(key);
 
-                        } catch (NoSuchFileException e) {
-                            log.debug("file " + fileName + " not found.", e);
-                        }
+        if (dir == null) {
+            return;
+        }
 
+        Path moved = dir.resolve(dirName);
 
-                    } else if (event.kind() == ENTRY_MODIFY) {
+        for (Path registered : Lists.newArrayList(dirs.keySet())) {
+            if (registered.startsWith(moved)) {
+                unregister(registered);
+            }
+        }
+    }
 
-                        try {
-                            FileInfo fileInfo = wsMgr.getFileInfo(ws, relativePath.toString());
-                            fileChangeEvent = new FileModifyEvent(ws.getSpaceKey(), fileInfo);
-                        } catch (NoSuchFileException e) {
-                            log.debug("file " + fileName + " not found.", e);
-                        }
+    /**
+     * Changes of the directory of the key have been dropped, the directory is scanned again in
+     * the background. Overflows while a scan is in progress are handled by one more scan.
+     *
+     * @param key {@code null} if changes of any directory may have been dropped
+     */
+    void overflow(Object key) {
+        if (stopWatching) {
+            return;
+        }
 
+        synchronized (overflowed) {
+            if (key == null) {
+                overflowed.addAll(dirs.keySet());
+            } else if (keys.containsKey(key)) {
+                overflowed.add(keys.get(key));
+            }
 
-                    } else if (event.kind() == ENTRY_DELETE) {
+            if (recovering || overflowed.isEmpty()) {
+                return;
+            }
 
-                        FileInfo fileInfo = new FileInfo();
-                        fileInfo.setName(fileName.toString());
-                        fileInfo.setPath(path);
-                        fileChangeEvent = new FileDeleteEvent(ws.getSpaceKey(), fileInfo);
+            recovering = true;
+        }
 
-                        watchedPathStore.remove(ws.getSpaceKey(), path);
+        background.execute(this::recover);
+    }
 
-                    }
+    private void recover() {
+        while (!stopWatching) {
+            List<Path> toScan;
 
-                    if (fileChangeEvent != null) {
-                        synchronized (debouncer) {
-                            debouncer.call(fileChangeEvent);
-                        }
-                    }
+            synchronized (overflowed) {
+                if (overflowed.isEmpty()) {
+                    recovering = false;
+                    return;
+                }
 
+                toScan = Lists.newArrayList(overflowed);
+                overflowed.clear();
+            }
 
+            if (toScan.size() > MAX_RESCAN_DIRS) {
+                try {
+                    resyncAll();
+                } catch (Exception e) {
+                    log.warn("could not read workspace {} again: {}", ws.getSpaceKey(), e.getMessage());
                 }
-                // reset key and remove from set if directory no longer accessible
-                boolean valid = watchKey.reset();
-                if (!valid) {
-                    keys.remove(watchKey);
-                    // all directories are inaccessible
-                    if (keys.isEmpty()) {
-                        // 此处有问题
-                        break;
-                    }
+                continue;
+            }
+
+            for (Path dir : toScan) {
+                try {
+                    rescan(dir);
+                } catch (Exception e) {
+                    log.warn("could not scan {} of workspace {} again: {}", dir, ws.getSpaceKey(), e.getMessage());
                 }
+            }
+        }
 
-            } catch (ClosedWatchServiceException e) {
-                // ignore
-            } catch (Exception e) {
-                e.printStackTrace();
+        synchronized (overflowed) {
+            recovering = false;
+        }
+    }
+
+    /**
+     * Scan a directory again, and handle what changed in it since its snapshot.
+     */
+    private void rescan(Path dir) throws Exception {
+        Object key = dirs.get(dir);
+        DirectorySnapshot snapshot = snapshots.get(dir);
+
+        if (key == null || snapshot == null) {
+            return;
+        }
+
+        Map<String, WatchEvent.Kind<Path>> changes = snapshot.rescan();
+
+        if (changes != null) {
+            for (Map.Entry<String, WatchEvent.Kind<Path>> change : changes.entrySet()) {
+                changed(key, change.getValue(), Paths.get(change.getKey()));
+            }
+            return;
+        }
+
+        // what changed in the directory is not known, it is read again as a whole
+        watchedSince.computeIfPresent(dir, (d, since) -> System.currentTimeMillis());
+
+        refresh(dir);
+    }
+
+    /**
+     * Read the whole workspace again, instead of scanning each directory. The snapshots are
+     * dropped without being taken again, a later overflow of a directory reads it again as a
+     * whole too.
+     */
+    private void resyncAll() throws AccessDeniedException {
+        log.info("changes of workspace {} dropped, reading it again", ws.getSpaceKey());
+
+        long now = System.currentTimeMillis();
+
+        for (Path dir : snapshots.keySet()) {
+            snapshots.computeIfPresent(dir, (d, snapshot) -> new DirectorySnapshot(d));
+        }
+
+        for (Path dir : watchedSince.keySet()) {
+            watchedSince.computeIfPresent(dir, (d, since) -> now);
+        }
+
+        refresh(workingDir);
+    }
+
+    /**
+     * Have the listeners read a directory again, and tell the client to refresh it.
+     */
+    private void refresh(Path dir) throws AccessDeniedException {
+        String relativePath = workingDir.relativize(dir).toString();
+        String path = ws.getNormalizePath(relativePath).toString();
+
+        for (WorkspaceChangeListener listener : changeListeners) {
+            listener.resync(ws, relativePath);
+        }
+
+        if (isHeldBack(dir) || !watchedPathStore.hasWatched(ws.getSpaceKey(), path.endsWith("/") ? path : path + "/")) {
+            return;
+        }
+
+        FileInfo fileInfo = new FileInfo();
+        fileInfo.setName(dir.equals(workingDir) ? "" : dir.getFileName().toString());
+        fileInfo.setPath(path);
+        fileInfo.setDir(true);
+
+        batcher.add(new FileRefreshEvent(ws.getSpaceKey(), fileInfo, -1));
+    }
+
+    /**
+     * Queue a change of a registered directory, by the thread of the poller.
+     */
+    void changed(Object key, WatchEvent.Kind<Path> kind, Path fileName) {
+        receive(() -> handleChanged(key, kind, fileName));
+    }
+
+    private void handleChanged(Object key, WatchEvent.Kind<Path> kind, Path fileName) throws Exception {
+        if (stopWatching) {
+            return;
+        }
+
+        Path dir = keys.get(key);
+
+        if (dir == null) {
+            return;
+        }
+
+        Path filePath = dir.resolve(fileName);
+
+        DirectorySnapshot snapshot = snapshots.get(dir);
+
+        if (snapshot != null) {
+            snapshot.update(fileName.toString());
+        }
+
+        Path relativePath = workingDir.relativize(filePath);
+        String path = ws.getNormalizePath(relativePath.toString()).toString();
+
+        if (IgnoreRules.isGitIgnore(relativePath.toString())) {
+            ws.getIgnoreRules().invalidate(relativePath.toString());
+        }
+
+        // every path is mirrored, before file info is read from the tree
+        for (WorkspaceChangeListener listener : changeListeners) {
+            listener.update(ws, relativePath.toString());
+        }
+
+        // swap files and files being saved come and go, they are never listed
+        if (TemporaryFileFilter.isTemporary(fileName.toString())) {
+            return;
+        }
+
+        if (isHeldBack(filePath)) {
+            // new git state is watched all the same, the rest is summed up on release
+            if (kind == ENTRY_CREATE && isDirectory(filePath, NOFOLLOW_LINKS)) {
+                registerPinned(filePath);
             }
+            return;
         }
-        this.debouncer.terminate();
 
+        if ( ! path.startsWith("/.git/refs/heads/")
+                && ! watchedPathStore.hasWatched(ws.getSpaceKey(), path) ) {
+            log.debug("not watched {} on workspace {}", path, ws.getSpaceKey());
+            return;
+        }
+
+        // the file info is read when the batch is published
+        if (kind == ENTRY_CREATE) {
+            // other new directories are watched once listed
+            if (isDirectory(filePath, NOFOLLOW_LINKS)) {
+                registerPinned(filePath);
+            }
+
+            batcher.created(path);
+        } else if (kind == ENTRY_MODIFY) {
+            batcher.modified(path);
+        } else if (kind == ENTRY_DELETE) {
+            batcher.deleted(path);
+
+            watchedPathStore.remove(ws.getSpaceKey(), path);
+        }
+
+        // a directory changing is kept watched like one listed
+        lastViewed.computeIfPresent(dir, (d, viewedAt) -> System.currentTimeMillis());
+    }
+
+    /**
+     * Queue a file renamed or moved from one registered directory to another, by the thread of
+     * the poller.
+     */
+    void moved(Object fromKey, Path fromName, Object toKey, Path toName) {
+        receive(() -> handleMoved(fromKey, fromName, toKey, toName));
+    }
+
+    /**
+     * A directory moved keeps its watches, only their paths change.
+     */
+    private void handleMoved(Object fromKey, Path fromName, Object toKey, Path toName) throws Exception {
+        if (stopWatching) {
+            return;
+        }
+
+        Path fromDir = keys.get(fromKey);
+        Path toDir = keys.get(toKey);
+
+        if (fromDir == null || toDir == null
+                || TemporaryFileFilter.isTemporary(fromName.toString())
+                || TemporaryFileFilter.isTemporary(toName.toString())) {
+            // e.g. a file saved by renaming its temporary file over it, only one side is listed
+            handleChanged(fromKey, ENTRY_DELETE, fromName);
+            handleChanged(toKey, ENTRY_CREATE, toName);
+            return;
+        }
+
+        Path from = fromDir.resolve(fromName);
+        Path to = toDir.resolve(toName);
+
+        String fromRelative = workingDir.relativize(from).toString();
+        String toRelative = workingDir.relativize(to).toString();
+        String oldPath = ws.getNormalizePath(fromRelative).toString();
+        String path = ws.getNormalizePath(toRelative).toString();
+
+        if (IgnoreRules.isGitIgnore(fromRelative)) {
+            ws.getIgnoreRules().invalidate(fromRelative);
+        }
+
+        if (IgnoreRules.isGitIgnore(toRelative)) {
+            ws.getIgnoreRules().invalidate(toRelative);
+        }
+
+        for (WorkspaceChangeListener listener : changeListeners) {
+            listener.update(ws, fromRelative);
+            listener.update(ws, toRelative);
+        }
+
+        DirectorySnapshot fromSnapshot = snapshots.get(fromDir);
+        DirectorySnapshot toSnapshot = snapshots.get(toDir);
+
+        if (fromSnapshot != null) {
+            fromSnapshot.update(fromName.toString());
+        }
+
+        if (toSnapshot != null) {
+            toSnapshot.update(toName.toString());
+        }
+
+        if (isDirectory(to, NOFOLLOW_LINKS)) {
+            remap(from, to);
+        }
+
+        watchedPathStore.remove(ws.getSpaceKey(), oldPath);
+
+        if (isHeldBack(from) || isHeldBack(to)) {
+            return;
+        }
+
+        if ( ! oldPath.startsWith("/.git/refs/heads/") && ! path.startsWith("/.git/refs/heads/")
+                && ! watchedPathStore.hasWatched(ws.getSpaceKey(), oldPath)
+                && ! watchedPathStore.hasWatched(ws.getSpaceKey(), path) ) {
+            log.debug("not watched {} on workspace {}", path, ws.getSpaceKey());
+            return;
+        }
+
+        batcher.moved(oldPath, path);
+
+        lastViewed.computeIfPresent(toDir, (d, viewedAt) -> System.currentTimeMillis());
+    }
+
+    /**
+     * Move the registered directories under a directory moved, they keep their watches.
+     */
+    private synchronized void remap(Path from, Path to) {
+        for (Map.Entry<Object, Path> entry : keys.entrySet()) {
+            Path dir = entry.getValue();
+
+            if (!dir.startsWith(from)) {
+                continue;
+            }
+
+            Path moved = to.resolve(from.relativize(dir));
+            Long viewedAt = lastViewed.remove(dir);
+            Long since = watchedSince.remove(dir);
+
+            entry.setValue(moved);
+            dirs.remove(dir, entry.getKey());
+            dirs.put(moved, entry.getKey());
+
+            if (viewedAt != null) {
+                lastViewed.put(moved, viewedAt);
+            }
+
+            if (since != null) {
+                watchedSince.put(moved, since);
+            }
+
+            // the snapshot is taken again from the new path
+            snapshots.remove(dir);
+            snapshot(moved);
+
+            tellWatched(dir, false);
+            tellWatched(moved, true);
+        }
+    }
+
+    /**
+     * A change handed over by the poller.
+     */
+    private interface Change {
+
+        void handle() throws Exception;
     }
 }
@@ -4,23 +4,66 @@
 
 package net.coding.ide.utils;
 
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheStats;
 import com.google.common.collect.Maps;
+import com.google.common.io.ByteStreams;
+import lombok.Data;
 import org.apache.tika.Tika;
 
 import javax.activation.MimetypesFileTypeMap;
 import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.reflect.Method;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.Arrays;
 import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import static java.lang.String.format;
 
 /**
  * Created by phy on 2015/1/27.
  */
 public abstract class FileUtil{
+    private static final String OCTET_STREAM = "application/octet-stream";
+
+    /**
+     * content detection never reads more than this many bytes of a file
+     */
+    private static final int HEADER_WINDOW = 64 * 1024;
+
     private static MimetypesFileTypeMap mfm = new MimetypesFileTypeMap();
 
     private static Map<String, String> contentTypeMap = Maps.newHashMap();
 
     private static Tika tika = new Tika();
 
+    /**
+     * the mime type map only looks at the extension, so it is memoized by extension
+     */
+    private static Cache<String, String> extensionCache = CacheBuilder
+            .newBuilder()
+            .maximumSize(4096)
+            .recordStats()
+            .build();
+
+    /**
+     * a cached detection is valid as long as the file keeps its size, modified time and inode
+     */
+    private static Cache<DetectionKey, String> detectionCache = CacheBuilder
+            .newBuilder()
+            .maximumSize(20000)
+            .recordStats()
+            .build();
+
     static {
         contentTypeMap.put(".gitignore", "text/plain");
         contentTypeMap.put(".bowerrc", "text/plain");
@@ -40,8 +83,8 @@ public abstract class FileUtil{
             if (contentTypeMap.containsKey(filename)) {
                 return contentTypeMap.get(filename);
             } else if (filename.indexOf('.') != -1){
-                String contentType =  mfm.getContentType(filename);
-                if (!contentType.equals("application/octet-stream")){
+                String contentType = getContentTypeByExtension(filename);
+                if (!contentType.equals(OCTET_STREAM)){
                     return contentType;
                 } else return detectContentTypeByContent(file);
             } else{
@@ -53,16 +96,160 @@ public abstract class FileUtil{
 
     }
 
+    /**
+     * The content type as told by the file name alone, without touching the file.
+     *
+     * @return the content type, {@code null} if the name does not tell
+     */
+    public static String getContentTypeByName(String filename) {
+        if (contentTypeMap.containsKey(filename)) {
+            return contentTypeMap.get(filename);
+        } else if (filename.indexOf('.') != -1) {
+            String contentType = getContentTypeByExtension(filename);
+
+            return contentType.equals(OCTET_STREAM) ? null : contentType;
+        } else {
+            return null;
+        }
+    }
+
+    /**
+     * A strong validator of the content of a file, from its inode, size and modified time:
+     * any write through a new file or in place changes at least one of them.
+     *
+     * @return the validator, quoted as an ETag
+     */
+    public static String etagOf(BasicFileAttributes attrs) {
+        Object fileKey = attrs.fileKey();
+
+        return format("\"%x-%x-%x\"",
+                fileKey == null ? 0 : fileKey.hashCode(),
+                attrs.size(),
+                attrs.lastModifiedTime().to(TimeUnit.NANOSECONDS));
+    }
+
+    /**
+     * The validator of one representation of the content of a file, e.g. the content decoded
+     * with some encoding, which must not be mistaken for another representation of it.
+     *
+     * @param variant what tells the representation apart, without any '"'
+     * @return the validator, quoted as an ETag
+     */
+    public static String etagOf(BasicFileAttributes attrs, String variant) {
+        String etag = etagOf(attrs);
+
+        return etag.substring(0, etag.length() - 1) + "-" + variant + "\"";
+    }
+
+    /**
+     * Whether the encoding keeps ASCII as is, and no other character contains an ASCII byte,
+     * e.g. UTF-8, GBK or ISO-8859-1 but not UTF-16. Text in such an encoding can be split
+     * at '\n' bytes before it is decoded.
+     */
+    public static boolean isAsciiCompatible(Charset charset) {
+        return Arrays.equals("\n".getBytes(charset), new byte[]{'\n'})
+                && Arrays.equals("a".getBytes(charset), new byte[]{'a'});
+    }
+
+    /**
+     * Release a mapped buffer now instead of when it is collected, so that large mappings do
+     * not pile up in the address space. The buffer must not be used afterwards, nor any of its
+     * duplicates or slices. Any other buffer is left alone.
+     */
+    public static void unmap(ByteBuffer buffer) {
+        if (!(buffer instanceof MappedByteBuffer) || !buffer.isDirect()) {
+            return;
+        }
+
+        try {
+            Method cleanerMethod = buffer.getClass().getMethod("cleaner");
+
+            cleanerMethod.setAccessible(true);
+
+            Object cleaner = cleanerMethod.invoke(buffer);
+
+            if (cleaner != null) {
+                cleaner.getClass().getMethod("clean").invoke(cleaner);
+            }
+        } catch (Exception e) {
+            // not a JDK 8 buffer, it is unmapped when it is collected
+        }
+    }
+
+    /**
+     * hit rate of the mime type map memo, by file extension
+     */
+    public static CacheStats getExtensionCacheStats() {
+        return extensionCache.stats();
+    }
+
+    /**
+     * hit rate of the content detection cache, every miss costs a read of the file header
+     */
+    public static CacheStats getDetectionCacheStats() {
+        return detectionCache.stats();
+    }
+
+    private static String getContentTypeByExtension(String filename) {
+        String extension = filename.substring(filename.lastIndexOf('.') + 1);
+
+        try {
+            return extensionCache.get(extension, () -> mfm.getContentType(filename));
+        } catch (ExecutionException e) {
+            return OCTET_STREAM;
+        }
+    }
+
     private static String detectContentTypeByContent(File file) {
-        if (file.length() == 0){
+        BasicFileAttributes attrs;
+
+        try {
+            attrs = Files.readAttributes(file.toPath(), BasicFileAttributes.class);
+        } catch (IOException e) {
+            // the file is gone or a broken link, which has no content at all
+            return "text/plain";
+        }
+
+        if (attrs.size() == 0){
             return "text/plain";
         } else {
+            DetectionKey key = new DetectionKey(file.getAbsolutePath(),
+                    attrs.size(),
+                    attrs.lastModifiedTime().toMillis(),
+                    attrs.fileKey());
+
             try {
-                return tika.detect(file);
+                return detectionCache.get(key, () -> detect(file));
             } catch (Exception e) {
-                return "application/octet-stream";
+                return OCTET_STREAM;
             }
         }
 
     }
+
+    private static String detect(File file) throws IOException {
+        byte[] header = new byte[HEADER_WINDOW];
+        int length;
+
+        try (InputStream in = Files.newInputStream(file.toPath())) {
+            length = ByteStreams.read(in, header, 0, header.length);
+        }
+
+        return tika.detect(length == header.length ? header : Arrays.copyOf(header, length), file.getName());
+    }
+
+    @Data
+    private static class DetectionKey {
+
+        private final String path;
+
+        private final long size;
+
+        private final long lastModified;
+
+        /**
+         * the inode on unix, {@code null} where the file system has no such key
+         */
+        private final Object fileKey;
+    }
 }
@@ -0,0 +1,229 @@
+/*
+ * Copyright (c) 2014-2016 CODING.
+ */
+
+package net.coding.ide.utils;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+
+/**
+ * A gzip stream compressed on several cores, the same way as pigz: the data is cut into
+ * blocks, each block is deflated on its own with the end of the previous block as its
+ * dictionary and ends on a byte boundary, so that the deflated blocks put one after the
+ * other are a single deflate stream which any gzip reader can read.
+ *
+ * Blocks are compressed by a shared pool, and written in order by the thread writing to
+ * this stream. A slow output only holds up that thread: once a few blocks are waiting to
+ * be written, the writer waits on them instead of compressing more.
+ */
+public class ParallelGzipOutputStream extends OutputStream {
+
+    private static final int BLOCK_SIZE = 128 * 1024;
+
+    private static final int DICTIONARY_SIZE = 32 * 1024;
+
+    private static final int THREADS = Runtime.getRuntime().availableProcessors();
+
+    private static final ExecutorService COMPRESSORS = Executors.newFixedThreadPool(THREADS, new ThreadFactoryBuilder()
+            .setNameFormat("GzipCompressor-%d")
+            .setDaemon(true)
+            .build());
+
+    private static final byte[] HEADER = {0x1f, (byte) 0x8b, Deflater.DEFLATED, 0, 0, 0, 0, 0, 0, 3};
+
+    private final OutputStream out;
+
+    /**
+     * the blocks being compressed or waiting to be written, in order
+     */
+    private final Deque<Future<byte[]>> pending = new ArrayDeque<>();
+
+    private final int maxPending = THREADS * 2;
+
+    private final CRC32 crc = new CRC32();
+
+    private long totalLength = 0;
+
+    private byte[] block = new byte[BLOCK_SIZE];
+
+    private int blockLength = 0;
+
+    /**
+     * the end of the previous block
+     */
+    private byte[] dictionary;
+
+    private boolean finished = false;
+
+    public ParallelGzipOutputStream(OutputStream out) throws IOException {
+        this.out = out;
+
+        out.write(HEADER);
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+        block[blockLength++] = (byte) b;
+
+        if (blockLength == BLOCK_SIZE) {
+            submit(false);
+        }
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+        while (len > 0) {
+            int n = Math.min(len, BLOCK_SIZE - blockLength);
+
+            System.arraycopy(b, off, block, blockLength, n);
+            blockLength += n;
+            off += n;
+            len -= n;
+
+            if (blockLength == BLOCK_SIZE) {
+                submit(false);
+            }
+        }
+    }
+
+    /**
+     * Write out the blocks compressed so far. A block is not cut short to be flushed, that
+     * would cost compression.
+     */
+    @Override
+    public void flush() throws IOException {
+        while (!pending.isEmpty() && pending.peek().isDone()) {
+            writeNext();
+        }
+
+        out.flush();
+    }
+
+    /**
+     * Compress the rest and write the gzip trailer, without closing the output.
+     */
+    public void finish() throws IOException {
+        if (finished) {
+            return;
+        }
+
+        // the last block ends the deflate stream, even if it is empty
+        submit(true);
+
+        while (!pending.isEmpty()) {
+            writeNext();
+        }
+
+        writeIntLE((int) crc.getValue());
+        writeIntLE((int) totalLength);
+
+        finished = true;
+    }
+
+    @Override
+    public void close() throws IOException {
+        try {
+            finish();
+        } finally {
+            for (Future<byte[]> future : pending) {
+                future.cancel(true);
+            }
+
+            out.close();
+        }
+    }
+
+    private void submit(boolean last) throws IOException {
+        byte[] input = block;
+        int length = blockLength;
+        byte[] previous = dictionary;
+
+        crc.update(input, 0, length);
+        totalLength += length;
+
+        if (length > 0) {
+            dictionary = Arrays.copyOfRange(input, Math.max(0, length - DICTIONARY_SIZE), length);
+        }
+
+        pending.add(COMPRESSORS.submit(() -> deflate(input, length, previous, last)));
+
+        block = new byte[BLOCK_SIZE];
+        blockLength = 0;
+
+        while (pending.size() > maxPending) {
+            writeNext();
+        }
+    }
+
+    private void writeNext() throws IOException {
+        Future<byte[]> future = pending.poll();
+
+        try {
+            out.write(future.get());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException();
+        } catch (ExecutionException e) {
+            throw new IOException("could not compress", e.getCause());
+        }
+    }
+
+    private void writeIntLE(int i) throws IOException {
+        out.write(i & 0xff);
+        out.write((i >>> 8) & 0xff);
+        out.write((i >>> 16) & 0xff);
+        out.write((i >>> 24) & 0xff);
+    }
+
+    /**
+     * Deflate a block on its own, ended on a byte boundary by a sync flush, or by the end of
+     * the stream for the last one.
+     */
+    private static byte[] deflate(byte[] input, int length, byte[] dictionary, boolean last) {
+        Deflater deflater = new Deflater(Deflater.DEFAULT_COMPRESSION, true);
+        ByteArrayOutputStream compressed = new ByteArrayOutputStream(length / 2 + 64);
+        byte[] buffer = new byte[16 * 1024];
+
+        try {
+            if (dictionary != null) {
+                deflater.setDictionary(dictionary);
+            }
+
+            deflater.setInput(input, 0, length);
+
+            if (last) {
+                deflater.finish();
+
+                while (!deflater.finished()) {
+                    int n = deflater.deflate(buffer);
+                    compressed.write(buffer, 0, n);
+                }
+            } else {
+                int n;
+
+                do {
+                    n = deflater.deflate(buffer, 0, buffer.length, Deflater.SYNC_FLUSH);
+                    compressed.write(buffer, 0, n);
+                } while (n == buffer.length);
+            }
+        } finally {
+            deflater.end();
+        }
+
+        return compressed.toByteArray();
+    }
+}
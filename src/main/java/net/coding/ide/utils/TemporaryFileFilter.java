@@ -18,7 +18,9 @@ import java.util.regex.Pattern;
 public class TemporaryFileFilter {
     private static final Pattern TEMPORARY_FILE_PATTERNS[] = {
             Pattern.compile("^\\..+\\.sw[a-z]$"),
-            Pattern.compile("^\\.sw[a-z]$")
+            Pattern.compile("^\\.sw[a-z]$"),
+            // a file being saved, see Workspace#write
+            Pattern.compile("^\\..+\\.[0-9a-f]{8}\\.saving$")
     };
 
     public static List<FileInfo> filter(List<FileInfo> fileInfos) {
@@ -26,15 +28,18 @@ public class TemporaryFileFilter {
 
             @Override
             public boolean apply(FileInfo fileInfo) {
-                String name = fileInfo.getName();
-                for (Pattern pattern : TEMPORARY_FILE_PATTERNS) {
-                    if (pattern.matcher(name).matches()) {
-                        return false;
-                    }
-                }
-                return true;
+                return !isTemporary(fileInfo.getName());
             }
 
         }));
     }
+
+    public static boolean isTemporary(String name) {
+        for (Pattern pattern : TEMPORARY_FILE_PATTERNS) {
+            if (pattern.matcher(name).matches()) {
+                return true;
+            }
+        }
+        return false;
+    }
 }
@@ -41,8 +41,18 @@ public class WildcardMatcher {
         return sb.toString();
     }
 
+    /**
+     * Compile the pattern once, to match many texts with {@link #match(String, Pattern)}.
+     */
+    public static Pattern compile(String wildcardPattern) {
+        return Pattern.compile(toRegexPattern(wildcardPattern), Pattern.CASE_INSENSITIVE | Pattern.UNICODE_CASE);
+    }
+
     public static boolean match(String text, String wildcardPattern) {
-        Pattern pattern = Pattern.compile(toRegexPattern(wildcardPattern), Pattern.CASE_INSENSITIVE | Pattern.UNICODE_CASE);
+        return match(text, compile(wildcardPattern));
+    }
+
+    public static boolean match(String text, Pattern pattern) {
         Matcher matcher = pattern.matcher(text);
         return matcher.find();
     }
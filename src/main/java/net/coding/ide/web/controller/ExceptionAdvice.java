@@ -15,6 +15,7 @@ import org.springframework.http.HttpStatus;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.HttpRequestMethodNotSupportedException;
 import org.springframework.web.bind.MissingServletRequestParameterException;
+import org.springframework.web.bind.UnsatisfiedServletRequestParameterException;
 import org.springframework.web.bind.annotation.ControllerAdvice;
 import org.springframework.web.bind.annotation.ExceptionHandler;
 import org.springframework.web.bind.annotation.ResponseBody;
@@ -150,6 +151,13 @@ public class ExceptionAdvice {
         return makeMsg(format("parameter '%s' required", e.getParameterName()));
     }
 
+    @ExceptionHandler(UnsatisfiedServletRequestParameterException.class)
+    @ResponseStatus(BAD_REQUEST)
+    @ResponseBody
+    public JsonObject unsatisfiedServletRequestParameterException(UnsatisfiedServletRequestParameterException e) {
+        return makeMsg(e.getMessage());
+    }
+
     @ExceptionHandler(GitInvalidDiffException.class)
     @ResponseStatus(BAD_REQUEST)
     @ResponseBody
@@ -164,6 +172,13 @@ public class ExceptionAdvice {
         return makeMsg(e);
     }
 
+    @ExceptionHandler(FileConflictException.class)
+    @ResponseStatus(CONFLICT)
+    @ResponseBody
+    public JsonObject fileConflictException(FileConflictException e) {
+        return makeMsg(e.getMessage());
+    }
+
     @ExceptionHandler(NotFoundException.class)
     @ResponseStatus(NOT_FOUND)
     @ResponseBody
@@ -4,40 +4,72 @@
 
 package net.coding.ide.web.controller;
 
+import com.fatboyindustrial.gsonjodatime.Converters;
 import com.google.common.collect.Lists;
+import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
+import com.google.gson.JsonIOException;
+import com.google.gson.stream.JsonWriter;
 import lombok.extern.slf4j.Slf4j;
+import net.coding.ide.dto.ArchiveImportDTO;
 import net.coding.ide.dto.DirDTO;
 import net.coding.ide.dto.FileDTO;
+import net.coding.ide.dto.FileLinesDTO;
+import net.coding.ide.dto.FileOperationDTO;
+import net.coding.ide.dto.FileOperationResultDTO;
+import net.coding.ide.dto.FilePatchDTO;
 import net.coding.ide.dto.FileSearchResultEntryDTO;
+import net.coding.ide.dto.UploadDTO;
 import net.coding.ide.dto.WorkspaceDTO;
 import net.coding.ide.entity.WorkspaceEntity;
+import net.coding.ide.model.ArchiveFormat;
+import net.coding.ide.model.ChangedFiles;
+import net.coding.ide.model.ContentSearchResultEntry;
 import net.coding.ide.model.FileInfo;
+import net.coding.ide.model.FileListPage;
 import net.coding.ide.model.FileSearchResultEntry;
 import net.coding.ide.model.Workspace;
+import net.coding.ide.model.exception.WorkspaceIOException;
 import net.coding.ide.model.exception.WorkspaceMissingException;
 import net.coding.ide.service.GitManager;
+import net.coding.ide.service.UploadManager;
 import net.coding.ide.service.WorkspaceManager;
+import net.coding.ide.utils.FileUtil;
 import org.apache.commons.lang3.StringUtils;
 import org.modelmapper.ModelMapper;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
-import org.springframework.core.io.InputStreamResource;
-import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpRange;
 import org.springframework.http.HttpStatus;
-import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
+import org.springframework.util.MimeTypeUtils;
+import org.springframework.web.bind.UnsatisfiedServletRequestParameterException;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.context.request.ServletWebRequest;
+import org.springframework.web.context.request.WebRequest;
 import org.springframework.web.multipart.MultipartFile;
 
+import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 import javax.servlet.http.HttpSession;
 import java.io.ByteArrayInputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.OutputStreamWriter;
 import java.io.UnsupportedEncodingException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
@@ -45,11 +77,11 @@ import java.util.stream.Collectors;
 
 import static java.lang.String.format;
 import static java.net.URLEncoder.encode;
+import static java.nio.charset.StandardCharsets.UTF_8;
 import static java.util.Collections.synchronizedList;
 import static net.coding.ide.model.HttpSessions.OPENED_WORKSPACE_LIST;
-import static org.apache.commons.lang3.StringUtils.isNotBlank;
-import static org.springframework.http.HttpHeaders.CONTENT_DISPOSITION;
-import static org.springframework.http.HttpHeaders.CONTENT_TYPE;
+import static org.springframework.http.HttpHeaders.*;
+import static org.springframework.http.MediaType.APPLICATION_JSON_UTF8_VALUE;
 import static org.springframework.http.MediaType.APPLICATION_JSON_VALUE;
 import static org.springframework.web.bind.annotation.RequestMethod.*;
 
@@ -60,6 +92,7 @@ import static org.springframework.web.bind.annotation.RequestMethod.*;
 @RestController
 @RequestMapping(produces = APPLICATION_JSON_VALUE)
 public class WorkspaceController {
+
     @Autowired
     private WorkspaceManager wsMgr;
 
@@ -69,8 +102,18 @@ public class WorkspaceController {
     @Autowired
     private GitManager gitMgr;
 
+    @Autowired
+    private UploadManager uploadMgr;
+
     private final static String SETTINGS_PATH = ".coding-ide/settings.json";
 
+    /**
+     * a Range header asking for more ranges is ignored and the whole file is sent
+     */
+    private final static int MAX_RANGES = 16;
+
+    private Gson gson = Converters.registerDateTime(new GsonBuilder()).create();
+
     @RequestMapping(value = "/workspaces", method = GET)
     public List<WorkspaceDTO> list() {
         List<WorkspaceEntity> workspaces = wsMgr.list();
@@ -180,17 +223,72 @@ public class WorkspaceController {
         return wsMgr.listFiles(ws, path, order, group);
     }
 
+    @RequestMapping(value = "/workspaces/{spaceKey}/files", method = GET, params = {"limit", "stream!=true"})
+    public FileListPage listPage(@PathVariable("spaceKey") Workspace ws,
+                                 @RequestParam(defaultValue = "/") String path,
+                                 @RequestParam(defaultValue = "true") boolean order,
+                                 @RequestParam(defaultValue = "true") boolean group,
+                                 @RequestParam(required = false) String cursor,
+                                 @RequestParam int limit) throws Exception {
+
+        return wsMgr.listFiles(ws, path, order, group, cursor, limit);
+    }
+
+    /**
+     * A page has a cursor to the next one, which a stream has no room for.
+     */
+    @RequestMapping(value = "/workspaces/{spaceKey}/files", method = GET, params = {"stream=true", "limit"})
+    public void streamListPage(HttpServletRequest req) throws Exception {
+        throw new UnsatisfiedServletRequestParameterException(new String[]{"stream=true", "!limit"},
+                req.getParameterMap());
+    }
+
+    @RequestMapping(value = "/workspaces/{spaceKey}/files", method = GET, params = {"stream=true", "!limit"})
+    public void streamList(@PathVariable("spaceKey") Workspace ws,
+                           @RequestParam(defaultValue = "/") String path,
+                           @RequestParam(defaultValue = "true") boolean order,
+                           @RequestParam(defaultValue = "true") boolean group,
+                           HttpServletResponse resp) throws Exception {
+
+        resp.setContentType(APPLICATION_JSON_UTF8_VALUE);
+
+        JsonWriter writer = new JsonWriter(new OutputStreamWriter(resp.getOutputStream(), UTF_8));
+
+        writer.beginArray();
+        wsMgr.listFiles(ws, path, order, group, fileInfo -> gson.toJson(fileInfo, FileInfo.class, writer));
+        writer.endArray();
+        writer.flush();
+    }
+
     @RequestMapping(value = "/workspaces/{spaceKey}/file/read", method = GET)
     public FileDTO read(@PathVariable("spaceKey") Workspace ws,
                         @RequestParam String path,
                         @RequestParam(required = false) String encoding,
-                        @RequestParam(defaultValue = "false") boolean base64) throws Exception {
+                        @RequestParam(defaultValue = "false") boolean base64,
+                        WebRequest request) throws Exception {
 
         final String finalEncoding = StringUtils.isBlank(encoding) ?  ws.getEncoding() : encoding;
 
+        // taken before the read, so that the content sent is never older than its ETag
+        String etag = wsMgr.getFileETag(ws, path, finalEncoding, base64);
+
+        if (request.checkNotModified(etag)) {
+            return null;
+        }
+
         return wsMgr.readFile(ws, path, finalEncoding, base64);
     }
 
+    @RequestMapping(value = "/workspaces/{spaceKey}/file/lines", method = GET)
+    public FileLinesDTO readLines(@PathVariable("spaceKey") Workspace ws,
+                                  @RequestParam String path,
+                                  @RequestParam(required = false) String encoding,
+                                  @RequestParam(defaultValue = "1") int from,
+                                  @RequestParam(defaultValue = "200") int count) throws Exception {
+
+        return wsMgr.readLines(ws, path, encoding, from, count);
+    }
+
     @RequestMapping(value = "/workspaces/{spaceKey}/files", method = PUT)
     public FileDTO write(@PathVariable("spaceKey") Workspace ws,
                          @RequestParam String path,
@@ -198,24 +296,19 @@ public class WorkspaceController {
                          @RequestParam(required = false) String encoding,
                          @RequestParam(defaultValue = "false") boolean base64,
                          @RequestParam(defaultValue = "true") boolean override,
-                         @RequestParam(defaultValue = "true") boolean createParent) throws Exception {
-
-        final String finalEncoding = isNotBlank(encoding) ? encoding : ws.getEncoding();
-
-        ws.write(path, content, finalEncoding, base64, override, createParent);
-
+                         @RequestParam(defaultValue = "true") boolean createParent,
+                         @RequestParam(required = false) String baseHash,
+                         @RequestParam(defaultValue = "false") boolean force) throws Exception {
 
-        FileDTO fileDTO =  FileDTO.of(path,
-                ws.read(path, finalEncoding, base64),
-                finalEncoding,
-                base64);
+        // the content is not read back, the client has it
+        return wsMgr.writeFile(ws, path, content, encoding, base64, override, createParent, baseHash, force);
+    }
 
-        if (ws.exists(path)) {
-            FileInfo fileInfo = wsMgr.getFileInfo(ws, path);
-            fileDTO.setLastModified(fileInfo.getLastModified().getMillis());
-        }
+    @RequestMapping(value = "/workspaces/{spaceKey}/files", method = PATCH)
+    public FileDTO patch(@PathVariable("spaceKey") Workspace ws,
+                         @RequestBody FilePatchDTO patch) throws Exception {
 
-        return fileDTO;
+        return wsMgr.patchFile(ws, patch.getPath(), patch.getEncoding(), patch.getBaseHash(), patch.getEdits());
     }
 
     @RequestMapping(value = "/workspaces/{spaceKey}/files", method = POST)
@@ -255,6 +348,12 @@ public class WorkspaceController {
         return wsMgr.getFileInfo(ws, to);
     }
 
+    @RequestMapping(value = "/workspaces/{spaceKey}/batch", method = POST)
+    public List<FileOperationResultDTO> batch(@PathVariable("spaceKey") Workspace ws,
+                                              @RequestBody List<FileOperationDTO> operations) throws Exception {
+        return wsMgr.batch(ws, operations);
+    }
+
     @RequestMapping(value = "/workspaces/{spaceKey}/upload", method = POST)
     public List<FileInfo> upload(@PathVariable("spaceKey") Workspace ws,
                                  @RequestParam String path,
@@ -277,6 +376,58 @@ public class WorkspaceController {
         return fileInfos;
     }
 
+    /**
+     * Extract the archive sent as the body of the request, e.g. as application/octet-stream,
+     * into a directory.
+     *
+     * @param format zip, tar, tar.gz or tgz
+     */
+    @RequestMapping(value = "/workspaces/{spaceKey}/import", method = POST)
+    public ArchiveImportDTO importArchive(@PathVariable("spaceKey") Workspace ws,
+                                          @RequestParam String path,
+                                          @RequestParam String format,
+                                          HttpServletRequest request) throws Exception {
+        return wsMgr.importArchive(ws, path, ArchiveFormat.of(format), request.getInputStream());
+    }
+
+    @RequestMapping(value = "/workspaces/{spaceKey}/uploads", method = POST)
+    public UploadDTO initUpload(@PathVariable("spaceKey") Workspace ws,
+                                @RequestParam String path,
+                                @RequestParam long size) throws IOException {
+        return uploadMgr.init(ws, path, size);
+    }
+
+    @RequestMapping(value = "/workspaces/{spaceKey}/uploads/{id}", method = GET)
+    public UploadDTO getUpload(@PathVariable("spaceKey") Workspace ws,
+                               @PathVariable String id) {
+        return uploadMgr.get(ws, id);
+    }
+
+    /**
+     * A chunk of an upload, the raw bytes as the body, sent as application/octet-stream.
+     */
+    @RequestMapping(value = "/workspaces/{spaceKey}/uploads/{id}", method = PUT)
+    public UploadDTO uploadChunk(@PathVariable("spaceKey") Workspace ws,
+                                 @PathVariable String id,
+                                 @RequestParam long offset,
+                                 HttpServletRequest req) throws IOException {
+        return uploadMgr.writeChunk(ws, id, offset, req.getInputStream());
+    }
+
+    @RequestMapping(value = "/workspaces/{spaceKey}/uploads/{id}/complete", method = POST)
+    public FileInfo completeUpload(@PathVariable("spaceKey") Workspace ws,
+                                   @PathVariable String id,
+                                   @RequestParam String sha1) throws Exception {
+        return uploadMgr.complete(ws, id, sha1);
+    }
+
+    @RequestMapping(value = "/workspaces/{spaceKey}/uploads/{id}", method = DELETE)
+    public ResponseEntity abortUpload(@PathVariable("spaceKey") Workspace ws,
+                                      @PathVariable String id) throws IOException {
+        uploadMgr.abort(ws, id);
+
+        return new ResponseEntity(HttpStatus.NO_CONTENT);
+    }
 
     @RequestMapping(value = "/workspaces/{spaceKey}/mkdir", method = POST)
     public DirDTO mkdir(@PathVariable("spaceKey") Workspace ws,
@@ -286,35 +437,177 @@ public class WorkspaceController {
         return DirDTO.of(ws.getSpaceKey(), path);
     }
 
-    @RequestMapping(value = "/workspaces/{spaceKey}/raw", method = GET)
-    public ResponseEntity<InputStreamResource> raw(@PathVariable("spaceKey") Workspace ws,
-                                                   @RequestParam String path,
-                                                   @RequestParam(defaultValue = "true") Boolean inline) throws Exception {
+    /**
+     * Send a file as is, or the byte ranges of it asked for by a Range header.
+     *
+     * The file is validated by its ETag and last modified time: a conditional request for
+     * an unchanged file gets a 304 without a body, and a range request whose If-Range no
+     * longer matches the file gets the whole file.
+     */
+    @RequestMapping(value = "/workspaces/{spaceKey}/raw", method = {GET, HEAD})
+    public void raw(@PathVariable("spaceKey") Workspace ws,
+                    @RequestParam String path,
+                    @RequestParam(defaultValue = "true") Boolean inline,
+                    HttpServletRequest req,
+                    HttpServletResponse resp) throws Exception {
+
+        Path p = ws.getPath(path);
+        BasicFileAttributes attrs;
+
+        // the attributes are all a conditional request needs, the rest waits for a real one
+        try {
+            attrs = Files.readAttributes(p, BasicFileAttributes.class);
+        } catch (NoSuchFileException e) {
+            throw new WorkspaceIOException(path + " not found", e);
+        }
 
+        String etag = FileUtil.etagOf(attrs);
+        long lastModified = attrs.lastModifiedTime().toMillis();
+        long length = attrs.size();
 
-        FileInfo fileInfo = wsMgr.getFileInfo(ws, path);
+        if (new ServletWebRequest(req, resp).checkNotModified(etag, lastModified)) {
+            return;
+        }
 
-        HttpHeaders headers = new HttpHeaders();
+        resp.setHeader(ETAG, etag);
+        resp.setDateHeader(LAST_MODIFIED, lastModified);
+        resp.setHeader(ACCEPT_RANGES, "bytes");
 
-        headers.setContentType(MediaType.valueOf(fileInfo.getContentType()));
-        headers.setContentLength(fileInfo.getSize());
+        String fileName = p.getFileName().toString();
+        String contentType = FileUtil.getContentType(p.toFile());
 
         if (inline) {
-            headers.add(CONTENT_DISPOSITION, format("inline; filename='%s'", encodeFileName(fileInfo.getName())));
+            resp.setHeader(CONTENT_DISPOSITION, format("inline; filename='%s'", encodeFileName(fileName)));
         } else {
-            headers.add(CONTENT_DISPOSITION, format("attachment; filename='%s'", encodeFileName(fileInfo.getName())));
+            resp.setHeader(CONTENT_DISPOSITION, format("attachment; filename='%s'", encodeFileName(fileName)));
         }
 
-        InputStreamResource inputStreamResource = new InputStreamResource(ws.getInputStream(path));
+        List<HttpRange> ranges = requestedRanges(req, etag, lastModified);
+        long[][] bounds = new long[ranges.size()][];
 
-        return ResponseEntity.ok()
-                .headers(headers)
-                .body(inputStreamResource);
+        for (int i = 0; i < ranges.size(); i++) {
+            try {
+                bounds[i] = new long[]{ranges.get(i).getRangeStart(length), ranges.get(i).getRangeEnd(length)};
+            } catch (IllegalArgumentException e) {
+                resp.setHeader(CONTENT_RANGE, "bytes */" + length);
+                resp.sendError(HttpStatus.REQUESTED_RANGE_NOT_SATISFIABLE.value());
+                return;
+            }
+        }
+
+        boolean head = HEAD.name().equals(req.getMethod());
+
+        try (FileChannel channel = FileChannel.open(p, StandardOpenOption.READ)) {
+            WritableByteChannel out = head ? null : Channels.newChannel(resp.getOutputStream());
+
+            if (bounds.length == 0) {
+                resp.setContentType(contentType);
+                resp.setContentLengthLong(length);
+
+                if (!head) {
+                    transfer(channel, 0, length, out);
+                }
+            } else if (bounds.length == 1) {
+                long start = bounds[0][0];
+                long end = bounds[0][1];
+
+                resp.setStatus(HttpStatus.PARTIAL_CONTENT.value());
+                resp.setContentType(contentType);
+                resp.setHeader(CONTENT_RANGE, format("bytes %d-%d/%d", start, end, length));
+                resp.setContentLengthLong(end - start + 1);
+
+                if (!head) {
+                    transfer(channel, start, end - start + 1, out);
+                }
+            } else {
+                String boundary = MimeTypeUtils.generateMultipartBoundaryString();
+                byte[][] partHeaders = new byte[bounds.length][];
+                byte[] closing = format("\r\n--%s--\r\n", boundary).getBytes(UTF_8);
+                long contentLength = closing.length;
+
+                for (int i = 0; i < bounds.length; i++) {
+                    partHeaders[i] = format("\r\n--%s\r\n%s: %s\r\n%s: bytes %d-%d/%d\r\n\r\n",
+                            boundary,
+                            CONTENT_TYPE, contentType,
+                            CONTENT_RANGE, bounds[i][0], bounds[i][1], length).getBytes(UTF_8);
+                    contentLength += partHeaders[i].length + bounds[i][1] - bounds[i][0] + 1;
+                }
+
+                resp.setStatus(HttpStatus.PARTIAL_CONTENT.value());
+                resp.setContentType("multipart/byteranges; boundary=" + boundary);
+                resp.setContentLengthLong(contentLength);
+
+                if (!head) {
+                    for (int i = 0; i < bounds.length; i++) {
+                        out.write(ByteBuffer.wrap(partHeaders[i]));
+                        transfer(channel, bounds[i][0], bounds[i][1] - bounds[i][0] + 1, out);
+                    }
+
+                    out.write(ByteBuffer.wrap(closing));
+                }
+            }
+        }
+    }
+
+    /**
+     * @return the ranges of the Range header, none if there is no such header, if it can not
+     * be parsed, if it asks for too many ranges or if If-Range tells the file has changed
+     */
+    private List<HttpRange> requestedRanges(HttpServletRequest req, String etag, long lastModified) {
+        String range = req.getHeader(RANGE);
+
+        if (range == null) {
+            return Collections.emptyList();
+        }
+
+        String ifRange = req.getHeader(IF_RANGE);
+
+        if (ifRange != null) {
+            if (ifRange.startsWith("\"") || ifRange.startsWith("W/")) {
+                if (!ifRange.equals(etag)) {
+                    return Collections.emptyList();
+                }
+            } else {
+                try {
+                    if (req.getDateHeader(IF_RANGE) / 1000 != lastModified / 1000) {
+                        return Collections.emptyList();
+                    }
+                } catch (IllegalArgumentException e) {
+                    return Collections.emptyList();
+                }
+            }
+        }
+
+        try {
+            List<HttpRange> ranges = HttpRange.parseRanges(range);
+
+            return ranges.size() > MAX_RANGES ? Collections.emptyList() : ranges;
+        } catch (IllegalArgumentException e) {
+            return Collections.emptyList();
+        }
+    }
+
+    /**
+     * Hand the bytes to the output with {@link FileChannel#transferTo}, which leaves the copy
+     * to the system where it can. A file cut short while it is sent ends the transfer.
+     */
+    private static void transfer(FileChannel channel, long position, long count, WritableByteChannel out) throws IOException {
+        while (count > 0) {
+            long transferred = channel.transferTo(position, count, out);
+
+            if (transferred <= 0) {
+                return;
+            }
+
+            position += transferred;
+            count -= transferred;
+        }
     }
 
     @RequestMapping(value = "/workspaces/{spaceKey}/pack", method = GET)
     public void pack(@PathVariable("spaceKey") Workspace ws,
                      @RequestParam String path,
+                     @RequestParam(defaultValue = "false") boolean excludeIgnored,
                      HttpServletResponse resp) throws Exception {
 
         FileInfo fileInfo = wsMgr.getFileInfo(ws, path);
@@ -322,7 +615,30 @@ public class WorkspaceController {
         resp.setHeader(CONTENT_TYPE, "application/x-gzip");
         resp.setHeader(CONTENT_DISPOSITION, "attachment; filename='" + encodeFileName(fileInfo.getName()) + ".tar.gz'");
 
-        ws.pack(path, resp.getOutputStream());
+        ws.pack(path, resp.getOutputStream(), excludeIgnored);
+    }
+
+    /**
+     * The files changed since a commit, or since a time in milliseconds, as a tar ending with
+     * the manifest of the export, which lists the deleted files as well.
+     */
+    @RequestMapping(value = "/workspaces/{spaceKey}/export", method = GET)
+    public void export(@PathVariable("spaceKey") Workspace ws,
+                       @RequestParam(required = false) String since,
+                       @RequestParam(required = false) Long sinceTime,
+                       @RequestParam(defaultValue = "false") boolean gzip,
+                       HttpServletResponse resp) throws Exception {
+
+        if ((since == null) == (sinceTime == null)) {
+            throw new WorkspaceIOException("either since or sinceTime is required.");
+        }
+
+        ChangedFiles changes = since != null ? gitMgr.changesSince(ws, since) : wsMgr.changesSince(ws, sinceTime);
+
+        resp.setHeader(CONTENT_TYPE, gzip ? "application/x-gzip" : "application/x-tar");
+        resp.setHeader(CONTENT_DISPOSITION, "attachment; filename='" + ws.getSpaceKey() + (gzip ? ".tar.gz'" : ".tar'"));
+
+        wsMgr.export(ws, changes, resp.getOutputStream(), gzip);
     }
 
     private String encodeFileName(String fileName) {
@@ -337,14 +653,65 @@ public class WorkspaceController {
     @RequestMapping(value = "/workspaces/{spaceKey}/search", method = POST)
     public List<FileSearchResultEntryDTO> search(@PathVariable("spaceKey") Workspace ws,
                              @RequestParam String keyword,
-                             @RequestParam(defaultValue = "false") boolean includeNonProjectItems) throws IOException {
-        List<FileSearchResultEntry> files = wsMgr.search(ws, keyword, includeNonProjectItems);
+                             @RequestParam(defaultValue = "false") boolean includeNonProjectItems,
+                             @RequestParam(required = false) Integer limit) throws IOException {
+        List<FileSearchResultEntry> files = wsMgr.search(ws, keyword, includeNonProjectItems,
+                limit == null ? Integer.MAX_VALUE : limit);
+
+        return files.stream()
+                .map(entry -> mapper.map(entry, FileSearchResultEntryDTO.class))
+                .collect(Collectors.toList());
+    }
+
+    @RequestMapping(value = "/workspaces/{spaceKey}/find", method = GET)
+    public List<FileSearchResultEntryDTO> find(@PathVariable("spaceKey") Workspace ws,
+                                               @RequestParam String query,
+                                               @RequestParam(defaultValue = "false") boolean includeNonProjectItems,
+                                               @RequestParam(defaultValue = "50") int limit) throws IOException {
+        List<FileSearchResultEntry> files = wsMgr.find(ws, query, includeNonProjectItems, limit);
 
         return files.stream()
                 .map(entry -> mapper.map(entry, FileSearchResultEntryDTO.class))
                 .collect(Collectors.toList());
     }
 
+    @RequestMapping(value = "/workspaces/{spaceKey}/search/content", method = POST)
+    public List<ContentSearchResultEntry> searchContent(@PathVariable("spaceKey") Workspace ws,
+                                                        @RequestParam String query,
+                                                        @RequestParam(defaultValue = "false") boolean regex,
+                                                        @RequestParam(defaultValue = "false") boolean caseSensitive,
+                                                        @RequestParam(defaultValue = "500") int limit) throws IOException {
+        return wsMgr.searchContent(ws, query, regex, caseSensitive, limit);
+    }
+
+    @RequestMapping(value = "/workspaces/{spaceKey}/grep", method = POST)
+    public void grep(@PathVariable("spaceKey") Workspace ws,
+                     @RequestParam String pattern,
+                     @RequestParam(defaultValue = "/") String path,
+                     @RequestParam(defaultValue = "false") boolean caseSensitive,
+                     @RequestParam(defaultValue = "100") int maxPerFile,
+                     @RequestParam(defaultValue = "1000") int maxTotal,
+                     HttpServletResponse resp) throws Exception {
+
+        resp.setContentType(APPLICATION_JSON_UTF8_VALUE);
+
+        JsonWriter writer = new JsonWriter(new OutputStreamWriter(resp.getOutputStream(), UTF_8));
+
+        writer.beginArray();
+        wsMgr.grep(ws, path, pattern, caseSensitive, maxPerFile, maxTotal, entry -> {
+            gson.toJson(entry, ContentSearchResultEntry.class, writer);
+
+            // each match goes out as soon as it is found
+            try {
+                writer.flush();
+            } catch (IOException e) {
+                throw new JsonIOException(e);
+            }
+        });
+        writer.endArray();
+        writer.flush();
+    }
+
     @RequestMapping(value = "/workspaces/{spaceKey}/encoding", method = PUT)
     public WorkspaceDTO setEncoding(@PathVariable("spaceKey") Workspace ws,
                                   @RequestParam(defaultValue = "UTF-8") String charset) {
@@ -7,6 +7,7 @@ package net.coding.ide.web.message;
 import com.fatboyindustrial.gsonjodatime.Converters;
 import com.google.gson.Gson;
 import com.google.gson.GsonBuilder;
+import com.google.gson.JsonArray;
 import com.google.gson.JsonObject;
 import lombok.extern.slf4j.Slf4j;
 import net.coding.ide.event.*;
@@ -90,9 +91,32 @@ public class EventExchange {
 
     }
 
+    /**
+     * A change published on its own goes out as a batch of one, every change frame holds an
+     * array of changes.
+     */
     @EventListener
     public void onFileChanged(FileChangeEvent event) {
-        String spaceKey = event.getSpaceKey();
+        JsonArray changes = new JsonArray();
+        changes.add(toJson(event));
+
+        log.debug("send file change event: {}", event);
+        simpMessagingTemplate.convertAndSend("/topic/ws/" + event.getSpaceKey() + "/change", changes);
+    }
+
+    @EventListener
+    public void onFileChangeBatch(FileChangeBatchEvent event) {
+        JsonArray changes = new JsonArray();
+
+        for (FileChangeEvent change : event.getChanges()) {
+            changes.add(toJson(change));
+        }
+
+        log.debug("send {} file change events of workspace {}", changes.size(), event.getSpaceKey());
+        simpMessagingTemplate.convertAndSend("/topic/ws/" + event.getSpaceKey() + "/change", changes);
+    }
+
+    private JsonObject toJson(FileChangeEvent event) {
         FileInfo fileInfo = event.getFileInfo();
 
         JsonObject jsonObj = new JsonObject();
@@ -104,14 +128,19 @@ public class EventExchange {
             jsonObj.addProperty("changeType", "modify");
         } else if (event instanceof FileDeleteEvent) {
             jsonObj.addProperty("changeType", "delete");
+        } else if (event instanceof FileRefreshEvent) {
+            jsonObj.addProperty("changeType", "refresh");
+            jsonObj.addProperty("changes", ((FileRefreshEvent) event).getChanges());
+        } else if (event instanceof FileMoveEvent) {
+            jsonObj.addProperty("changeType", "move");
+            jsonObj.addProperty("oldPath", ((FileMoveEvent) event).getOldPath());
         }
 
         if (fileInfo.getLastModified() != null) {
             jsonObj.addProperty("lastModified", fileInfo.getLastModified().getMillis());
         }
 
-        log.debug("send file change event: {}", event);
-        simpMessagingTemplate.convertAndSend("/topic/ws/" + spaceKey + "/change", jsonObj);
+        return jsonObj;
     }
 
     @EventListener
@@ -0,0 +1,151 @@
+/*
+ * Copyright (c) 2014-2016 CODING.
+ */
+
+package net.coding.ide.benchmark;
+
+import com.google.common.collect.Lists;
+import net.coding.ide.entity.ProjectEntity;
+import net.coding.ide.entity.WorkspaceEntity;
+import net.coding.ide.model.Workspace;
+import net.coding.ide.utils.WildcardMatcher;
+import org.apache.commons.io.FileUtils;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.*;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The file name search of a workspace of {@code dirs * filesPerDir} files, before and after
+ * the pattern is compiled once and the walk is parallel:
+ *
+ * <pre>
+ * mvn test-compile exec:java -Dexec.classpathScope=test -Dexec.mainClass=net.coding.ide.benchmark.FileSearchBenchmark
+ * </pre>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 10)
+@Fork(1)
+public class FileSearchBenchmark {
+
+    @Param({"200"})
+    private int dirs;
+
+    @Param({"50"})
+    private int filesPerDir;
+
+    @Param({"*Service*.java", "index"})
+    private String keyword;
+
+    private File baseDir;
+
+    private Workspace ws;
+
+    private List<String> filePaths;
+
+    private ForkJoinPool pool;
+
+    @Setup
+    public void setUp() throws IOException {
+        baseDir = Files.createTempDirectory("file-search-benchmark").toFile();
+
+        ProjectEntity project = new ProjectEntity();
+        project.setUrl("git@coding.net:benchmark/benchmark.git");
+
+        WorkspaceEntity wsEntity = new WorkspaceEntity();
+        wsEntity.setSpaceKey("benchmark");
+        wsEntity.setProject(project);
+
+        ws = new Workspace(wsEntity, baseDir);
+        filePaths = Lists.newArrayList();
+
+        Path workingDir = ws.getWorkingDir().toPath();
+
+        Files.write(workingDir.resolve(".gitignore"), "*.class\n".getBytes());
+
+        for (int d = 0; d < dirs; d++) {
+            String dir = "src/module" + d % 10 + "/package" + d;
+
+            Files.createDirectories(workingDir.resolve(dir));
+
+            for (int f = 0; f < filesPerDir; f++) {
+                String name = f % 3 == 0 ? "UserService" + f + ".java"
+                        : f % 3 == 1 ? "index" + f + ".js"
+                        : "Model" + f + ".class";
+
+                Files.write(workingDir.resolve(dir + "/" + name), new byte[0]);
+                filePaths.add(dir + "/" + name);
+            }
+        }
+
+        pool = new ForkJoinPool(Math.max(4, Runtime.getRuntime().availableProcessors() * 2));
+    }
+
+    @TearDown
+    public void tearDown() {
+        pool.shutdownNow();
+        FileUtils.deleteQuietly(baseDir);
+    }
+
+    /**
+     * the search as it was: one thread, and the pattern compiled for every file
+     */
+    @Benchmark
+    public List<String> baseline() throws IOException {
+        List<String> result = Lists.newArrayList();
+        Path workingDir = ws.getWorkingDir().toPath();
+        Path gitDir = workingDir.resolve(".git");
+
+        Files.walkFileTree(workingDir, new SimpleFileVisitor<Path>() {
+            @Override
+            public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) throws IOException {
+                if (file.startsWith(gitDir) || !attrs.isRegularFile() || ws.isIgnored(file)) {
+                    return FileVisitResult.CONTINUE;
+                }
+
+                if (WildcardMatcher.match(file.getFileName().toString(), keyword)) {
+                    result.add("/" + workingDir.relativize(file).toString());
+                }
+
+                return FileVisitResult.CONTINUE;
+            }
+        });
+
+        return result;
+    }
+
+    @Benchmark
+    public List<String> parallelWalk() {
+        return ws.search(keyword, false, Integer.MAX_VALUE, pool);
+    }
+
+    @Benchmark
+    public List<String> parallelWalkFirst50() {
+        return ws.search(keyword, false, 50, pool);
+    }
+
+    /**
+     * the search among the files of the tree of the workspace, when it is built
+     */
+    @Benchmark
+    public List<String> fileList() {
+        return ws.search(keyword, false, filePaths, Integer.MAX_VALUE, pool);
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        new Runner(new OptionsBuilder()
+                .include(FileSearchBenchmark.class.getSimpleName())
+                .build()).run();
+    }
+}
@@ -0,0 +1,149 @@
+/*
+ * Copyright (c) 2014-2016 CODING.
+ */
+
+package net.coding.ide.model;
+
+import net.coding.ide.utils.FilesUtils;
+import net.coding.ide.utils.RepositoryHelper;
+import org.eclipse.jgit.api.Git;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import static org.junit.Assert.assertEquals;
+
+public class GitStatusSnapshotTest {
+
+    private Path workingDir;
+
+    private Git git;
+
+    @Before
+    public void setUp() throws Exception {
+        File dir = FilesUtils.createTempDirectoryAndDeleteOnExit("git-status-snapshot");
+
+        workingDir = dir.toPath();
+        git = new Git(RepositoryHelper.createRepository(dir));
+
+        write("clean.txt");
+        write("modified.txt");
+        write("missing.txt");
+        write("lib/kept.txt");
+        write(".gitignore", "build/\n");
+
+        git.add().addFilepattern(".").call();
+        git.commit().setMessage("init").call();
+
+        write("modified.txt", "changed");
+        Files.delete(workingDir.resolve("missing.txt"));
+        write("untracked/deep/a.txt");
+        write("build/out.class");
+        write("added.txt");
+        git.add().addFilepattern("added.txt").call();
+    }
+
+    @After
+    public void tearDown() {
+        git.close();
+    }
+
+    @Test
+    public void testStatusOfFiles() throws Exception {
+        GitStatusSnapshot snapshot = new GitStatusSnapshot(git.status().call());
+
+        assertEquals(GitStatus.CLEAN, snapshot.get("clean.txt"));
+        assertEquals(GitStatus.MODIFIED, snapshot.get("modified.txt"));
+        assertEquals(GitStatus.MISSING, snapshot.get("missing.txt"));
+        assertEquals(GitStatus.ADDED, snapshot.get("added.txt"));
+        assertEquals(GitStatus.CLEAN, snapshot.get("lib/kept.txt"));
+    }
+
+    @Test
+    public void testFilesUnderReportedFoldersTakeTheirStatus() throws Exception {
+        GitStatusSnapshot snapshot = new GitStatusSnapshot(git.status().call());
+
+        assertEquals(GitStatus.UNTRACKED, snapshot.get("untracked/deep/a.txt"));
+        assertEquals(GitStatus.IGNORED, snapshot.get("build/out.class"));
+    }
+
+    @Test
+    public void testAggregateOfDirectories() throws Exception {
+        write("lib/sub/new.txt");
+
+        GitStatusSnapshot snapshot = new GitStatusSnapshot(git.status().call());
+
+        // untracked is above added in the precedence of the statuses
+        assertEquals(GitStatus.UNTRACKED, snapshot.aggregate(""));
+        assertEquals(GitStatus.UNTRACKED, snapshot.aggregate("lib"));
+        assertEquals(GitStatus.UNTRACKED, snapshot.aggregate("untracked/deep"));
+        assertEquals(GitStatus.IGNORED, snapshot.aggregate("build"));
+
+        Files.delete(workingDir.resolve("lib/sub/new.txt"));
+        snapshot.replace("lib", git.status().addPath("lib").call());
+
+        assertEquals(GitStatus.CLEAN, snapshot.aggregate("lib"));
+        // a sibling sharing the prefix is not under it
+        write("libs/x.txt");
+        snapshot.replace("libs", git.status().addPath("libs").call());
+
+        assertEquals(GitStatus.CLEAN, snapshot.aggregate("lib"));
+        assertEquals(GitStatus.UNTRACKED, snapshot.aggregate("libs"));
+    }
+
+    @Test
+    public void testReplaceForgetsTheSubtree() throws Exception {
+        GitStatusSnapshot snapshot = new GitStatusSnapshot(git.status().call());
+
+        Files.delete(workingDir.resolve("untracked/deep/a.txt"));
+        Files.delete(workingDir.resolve("untracked/deep"));
+        Files.delete(workingDir.resolve("untracked"));
+        write("lib/kept.txt", "changed");
+
+        snapshot.replace("untracked", git.status().addPath("untracked").call());
+        snapshot.replace("lib", git.status().addPath("lib").call());
+
+        assertEquals(GitStatus.CLEAN, snapshot.get("untracked/deep/a.txt"));
+        assertEquals(GitStatus.MODIFIED, snapshot.get("lib/kept.txt"));
+        // the rest is left as it was
+        assertEquals(GitStatus.MODIFIED, snapshot.get("modified.txt"));
+        assertEquals(GitStatus.IGNORED, snapshot.get("build/out.class"));
+    }
+
+    @Test
+    public void testConflictingTakesPrecedence() throws Exception {
+        String master = git.getRepository().getBranch();
+
+        git.checkout().setAllPaths(true).call();
+        git.rm().addFilepattern("added.txt").setCached(true).call();
+
+        git.checkout().setCreateBranch(true).setName("other").call();
+        write("clean.txt", "other");
+        git.commit().setAll(true).setMessage("other").call();
+
+        git.checkout().setName(master).call();
+        write("clean.txt", "master");
+        git.commit().setAll(true).setMessage("master").call();
+
+        git.merge().include(git.getRepository().resolve("other")).call();
+
+        GitStatusSnapshot snapshot = new GitStatusSnapshot(git.status().call());
+
+        assertEquals(GitStatus.CONFLICTION, snapshot.get("clean.txt"));
+    }
+
+    private void write(String path) throws Exception {
+        write(path, path);
+    }
+
+    private void write(String path, String content) throws Exception {
+        Path p = workingDir.resolve(path);
+
+        Files.createDirectories(p.getParent());
+        Files.write(p, content.getBytes());
+    }
+}
@@ -0,0 +1,141 @@
+/*
+ * Copyright (c) 2014-2016 CODING.
+ */
+
+package net.coding.ide.model;
+
+import net.coding.ide.utils.FilesUtils;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class IgnoreRulesTest {
+
+    private Path workingDir;
+
+    private IgnoreRules rules;
+
+    @Before
+    public void setUp() throws Exception {
+        workingDir = FilesUtils.createTempDirectoryAndDeleteOnExit("ignore-rules").toPath();
+        rules = IgnoreRules.of(workingDir);
+    }
+
+    @Test
+    public void testOneInstancePerWorkingDir() {
+        assertSame(rules, IgnoreRules.of(workingDir));
+    }
+
+    @Test
+    public void testRootRules() throws Exception {
+        write(".gitignore", "*.log\nbuild/\n");
+
+        assertTrue(rules.isIgnored("app.log", false));
+        assertTrue(rules.isIgnored("src/app.log", false));
+        assertFalse(rules.isIgnored("src/App.java", false));
+        assertFalse(rules.isIgnored("", true));
+    }
+
+    @Test
+    public void testDirectoryOnlyRules() throws Exception {
+        write(".gitignore", "build/\n");
+
+        assertTrue(rules.isIgnored("build", true));
+        assertFalse(rules.isIgnored("build", false));
+    }
+
+    @Test
+    public void testEverythingUnderAnIgnoredDirectoryIsIgnored() throws Exception {
+        write(".gitignore", "build/\n");
+        write("build/.gitignore", "!keep.txt\n");
+
+        // git does not look into an ignored directory, not even for its .gitignore
+        assertTrue(rules.isIgnored("build/keep.txt", false));
+        assertTrue(rules.isIgnored("build/classes/App.class", false));
+        assertTrue(rules.isIgnored("src/build/App.class", false));
+    }
+
+    @Test
+    public void testNearestGitIgnoreDecides() throws Exception {
+        write(".gitignore", "*.txt\n");
+        write("docs/.gitignore", "!readme.txt\n");
+
+        assertTrue(rules.isIgnored("notes.txt", false));
+        assertTrue(rules.isIgnored("docs/notes.txt", false));
+        assertFalse(rules.isIgnored("docs/readme.txt", false));
+        assertFalse(rules.isIgnored("docs/api/readme.txt", false));
+        assertTrue(rules.isIgnored("readme.txt", false));
+    }
+
+    @Test
+    public void testNegationInTheSameGitIgnore() throws Exception {
+        write(".gitignore", "*.txt\n!readme.txt\n");
+
+        assertTrue(rules.isIgnored("notes.txt", false));
+        assertFalse(rules.isIgnored("readme.txt", false));
+    }
+
+    @Test
+    public void testAnchoredRulesAreRelativeToTheirGitIgnore() throws Exception {
+        write("src/.gitignore", "/gen\n");
+
+        assertTrue(rules.isIgnored("src/gen", true));
+        assertTrue(rules.isIgnored("src/gen/R.java", false));
+        assertFalse(rules.isIgnored("gen", true));
+        assertFalse(rules.isIgnored("src/main/gen", true));
+    }
+
+    @Test
+    public void testInvalidate() throws Exception {
+        write(".gitignore", "out/\n");
+
+        assertTrue(rules.isIgnored("out/App.class", false));
+        assertFalse(rules.isIgnored("tmp/App.class", false));
+
+        write(".gitignore", "tmp/\n");
+
+        // cached until told
+        assertTrue(rules.isIgnored("out/App.class", false));
+
+        rules.invalidate(".gitignore");
+
+        assertFalse(rules.isIgnored("out/App.class", false));
+        assertTrue(rules.isIgnored("tmp/App.class", false));
+    }
+
+    @Test
+    public void testInvalidateNestedGitIgnore() throws Exception {
+        assertFalse(rules.isIgnored("src/gen/R.java", false));
+
+        write("src/.gitignore", "gen/\n");
+        rules.invalidate("src/.gitignore");
+
+        assertTrue(rules.isIgnored("src/gen/R.java", false));
+
+        Files.delete(workingDir.resolve("src/.gitignore"));
+        rules.invalidate("src/.gitignore");
+
+        assertFalse(rules.isIgnored("src/gen/R.java", false));
+    }
+
+    @Test
+    public void testIsGitIgnore() {
+        assertTrue(IgnoreRules.isGitIgnore(".gitignore"));
+        assertTrue(IgnoreRules.isGitIgnore("src/.gitignore"));
+        assertFalse(IgnoreRules.isGitIgnore("src/my.gitignore"));
+        assertFalse(IgnoreRules.isGitIgnore(".gitignore/file"));
+    }
+
+    private void write(String path, String content) throws Exception {
+        Path p = workingDir.resolve(path);
+
+        Files.createDirectories(p.getParent());
+        Files.write(p, content.getBytes());
+    }
+}
@@ -0,0 +1,231 @@
+/*
+ * Copyright (c) 2014-2016 CODING.
+ */
+
+package net.coding.ide.model;
+
+import com.google.common.collect.Lists;
+import net.coding.ide.model.exception.FileConflictException;
+import net.coding.ide.model.exception.WorkspaceIOException;
+import net.coding.ide.utils.WorkspaceHelper;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+public class WorkspaceTest {
+
+    private Workspace ws;
+
+    private Path workingDir;
+
+    private ForkJoinPool pool;
+
+    @Before
+    public void setUp() throws Exception {
+        ws = WorkspaceHelper.createWorkspace("workspace");
+        workingDir = ws.getWorkingDir().toPath();
+        pool = new ForkJoinPool(4);
+    }
+
+    @After
+    public void tearDown() {
+        pool.shutdownNow();
+    }
+
+    @Test
+    public void testSearchKeepsTheFirstPathsInOrder() throws Exception {
+        for (int i = 0; i < 50; i++) {
+            write(String.format("dir%02d/Service%02d.java", i % 7, i), "");
+        }
+        write("dir00/readme.md", "");
+
+        for (int run = 0; run < 5; run++) {
+            List<String> hits = ws.search("service", false, 3, pool);
+
+            assertEquals(Arrays.asList("/dir00/Service00.java", "/dir00/Service07.java", "/dir00/Service14.java"), hits);
+        }
+
+        assertEquals(50, ws.search("*.java", false, Integer.MAX_VALUE, pool).size());
+    }
+
+    @Test
+    public void testSearchPrunesByPathOrder() throws Exception {
+        write("a/b/Main.java", "");
+        write("a/Main.java", "");
+        write("a-b/Main.java", "");
+        write("a.b/c/d/Main.java", "");
+        write("b/Main.java", "");
+
+        for (int run = 0; run < 5; run++) {
+            // '-' and '.' sort before '/', their directories come first
+            assertEquals(Arrays.asList("/a-b/Main.java"), ws.search("main", false, 1, pool));
+            assertEquals(Arrays.asList("/a-b/Main.java", "/a.b/c/d/Main.java", "/a/Main.java"),
+                    ws.search("main", false, 3, pool));
+        }
+    }
+
+    @Test
+    public void testSearchAmongKnownFiles() throws Exception {
+        List<String> files = Arrays.asList("b/Main.java", "a/Main.java", ".git/Main.java", "c/Util.java", "Main.js");
+
+        assertEquals(Arrays.asList("/Main.js", "/a/Main.java", "/b/Main.java"),
+                ws.search("main", false, files, Integer.MAX_VALUE, pool));
+        assertEquals(Arrays.asList("/Main.js"), ws.search("main", false, files, 1, pool));
+    }
+
+    @Test
+    public void testSearchSkipsIgnoredAndGit() throws Exception {
+        write(".gitignore", "build/\n*.log\n");
+        write("build/Main.java", "");
+        write("src/Main.java", "");
+        write("src/main.log", "");
+        write(".git/main", "");
+
+        assertEquals(Arrays.asList("/src/Main.java"), ws.search("main", false, Integer.MAX_VALUE, pool));
+        assertEquals(Arrays.asList("/build/Main.java", "/src/Main.java", "/src/main.log"),
+                ws.search("main", true, Integer.MAX_VALUE, pool));
+    }
+
+    @Test
+    public void testPatchAppliesEditsByOffset() throws Exception {
+        write("a.txt", "hello world\nsecond line\n");
+
+        FileVersion version = ws.patch("a.txt", "UTF-8", ws.hash("a.txt"), Arrays.asList(
+                // given out of order, applied by offset
+                new TextEdit(12, 6, "2nd"),
+                new TextEdit(0, 5, "HELLO"),
+                new TextEdit(11, 0, "!")), FsyncPolicy.NONE);
+
+        assertEquals("HELLO world!\n2nd line\n", read("a.txt"));
+        assertEquals(ws.hash("a.txt"), version.getHash());
+        assertEquals(Files.size(workingDir.resolve("a.txt")), version.getSize());
+        assertEquals(1, listWorkingDir().size());
+    }
+
+    @Test
+    public void testPatchOffsetsCountUtf16Chars() throws Exception {
+        // the emoji is two chars and four bytes, the Chinese characters one char and three bytes each
+        write("a.txt", "\uD83D\uDE00\u4F60\u597D world");
+
+        ws.patch("a.txt", "UTF-8", ws.hash("a.txt"), Arrays.asList(
+                new TextEdit(2, 2, "hi"),
+                new TextEdit(5, 5, "there")), FsyncPolicy.NONE);
+
+        assertEquals("\uD83D\uDE00hi there", read("a.txt"));
+    }
+
+    @Test
+    public void testPatchOtherEncoding() throws Exception {
+        Files.write(workingDir.resolve("a.txt"), "\u4F60\u597D abc".getBytes("GBK"));
+
+        ws.patch("a.txt", "GBK", ws.hash("a.txt"), Arrays.asList(new TextEdit(3, 3, "\u4E16\u754C")), FsyncPolicy.NONE);
+
+        assertArrayEquals("\u4F60\u597D \u4E16\u754C".getBytes("GBK"), Files.readAllBytes(workingDir.resolve("a.txt")));
+    }
+
+    @Test
+    public void testPatchConflict() throws Exception {
+        write("a.txt", "version 1");
+        String baseHash = ws.hash("a.txt");
+        write("a.txt", "version 2");
+
+        try {
+            ws.patch("a.txt", "UTF-8", baseHash, Arrays.asList(new TextEdit(0, 7, "v")), FsyncPolicy.NONE);
+            fail();
+        } catch (FileConflictException e) {
+            // expected
+        }
+
+        assertEquals("version 2", read("a.txt"));
+        assertEquals(1, listWorkingDir().size());
+    }
+
+    @Test
+    public void testPatchInvalidEdits() throws Exception {
+        write("a.txt", "0123456789");
+        String baseHash = ws.hash("a.txt");
+
+        assertPatchFails(baseHash, new TextEdit(0, 5, "a"), new TextEdit(4, 2, "b"));
+        assertPatchFails(baseHash, new TextEdit(3, -1, "a"));
+        assertPatchFails(baseHash, new TextEdit(8, 5, "a"));
+        assertPatchFails(baseHash, new TextEdit(11, 0, "a"));
+
+        assertEquals("0123456789", read("a.txt"));
+        assertEquals(1, listWorkingDir().size());
+
+        // an edit right at the end is fine
+        ws.patch("a.txt", "UTF-8", baseHash, Arrays.asList(new TextEdit(10, 0, "!")), FsyncPolicy.NONE);
+
+        assertEquals("0123456789!", read("a.txt"));
+    }
+
+    @Test
+    public void testPatchUndecodableBytes() throws Exception {
+        byte[] content = {'a', 'b', (byte) 0xff, (byte) 0xfe, 'c'};
+
+        Files.write(workingDir.resolve("a.bin"), content);
+
+        try {
+            ws.patch("a.bin", "UTF-8", ws.hash("a.bin"), Arrays.asList(new TextEdit(0, 1, "x")), FsyncPolicy.NONE);
+            fail();
+        } catch (WorkspaceIOException e) {
+            // the bytes would not come back as they were
+        }
+
+        assertArrayEquals(content, Files.readAllBytes(workingDir.resolve("a.bin")));
+        assertEquals(1, listWorkingDir().size());
+    }
+
+    @Test
+    public void testPatchWithoutEdits() throws Exception {
+        write("a.txt", "same");
+
+        FileVersion version = ws.patch("a.txt", "UTF-8", ws.hash("a.txt"), Collections.emptyList(), FsyncPolicy.NONE);
+
+        assertEquals("same", read("a.txt"));
+        assertEquals(ws.hash("a.txt"), version.getHash());
+    }
+
+    private void assertPatchFails(String baseHash, TextEdit... edits) throws Exception {
+        try {
+            ws.patch("a.txt", "UTF-8", baseHash, Arrays.asList(edits), FsyncPolicy.NONE);
+            fail();
+        } catch (WorkspaceIOException e) {
+            // expected
+        }
+    }
+
+    private String read(String path) throws Exception {
+        return new String(Files.readAllBytes(workingDir.resolve(path)), UTF_8);
+    }
+
+    private List<Path> listWorkingDir() throws Exception {
+        List<Path> paths = Lists.newArrayList();
+
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(workingDir)) {
+            stream.forEach(paths::add);
+        }
+
+        return paths;
+    }
+
+    private void write(String path, String content) throws Exception {
+        Path p = workingDir.resolve(path);
+
+        Files.createDirectories(p.getParent());
+        Files.write(p, content.getBytes(UTF_8));
+    }
+}
@@ -0,0 +1,307 @@
+/*
+ * Copyright (c) 2014-2016 CODING.
+ */
+
+package net.coding.ide.service;
+
+import net.coding.ide.model.ArchiveFormat;
+import net.coding.ide.model.Workspace;
+import net.coding.ide.model.exception.WorkspaceIOException;
+import net.coding.ide.utils.FilesUtils;
+import net.coding.ide.utils.WorkspaceHelper;
+import org.apache.commons.compress.archivers.tar.TarArchiveEntry;
+import org.apache.commons.compress.archivers.tar.TarArchiveOutputStream;
+import org.apache.commons.compress.archivers.zip.ZipArchiveEntry;
+import org.apache.commons.compress.archivers.zip.ZipArchiveOutputStream;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.PosixFilePermission;
+import java.util.Arrays;
+import java.util.zip.GZIPOutputStream;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class ArchiveExtractorTest {
+
+    private Workspace ws;
+
+    private Path workingDir;
+
+    private Path outside;
+
+    @Before
+    public void setUp() throws Exception {
+        ws = WorkspaceHelper.createWorkspace("archive-extractor");
+        workingDir = ws.getWorkingDir().toPath();
+        Files.createDirectories(workingDir.resolve(".git"));
+
+        outside = FilesUtils.createTempDirectoryAndDeleteOnExit("archive-outside").toPath();
+    }
+
+    @Test
+    public void testTar() throws Exception {
+        TarBuilder tar = new TarBuilder()
+                .dir("./")
+                .dir("src/")
+                .file("src/App.java", "class App {}")
+                .file("bin/run.sh", "echo run", 0755, 1000000000000L)
+                .file("README", "readme");
+
+        ArchiveExtractor extractor = extract("/", tar.build(), ArchiveFormat.TAR);
+
+        assertEquals(3, extractor.getFiles());
+        assertEquals(0, extractor.getSkipped());
+        assertEquals("class App {}", read("src/App.java"));
+        assertEquals("readme", read("README"));
+        assertEquals(1000000000000L, Files.getLastModifiedTime(workingDir.resolve("bin/run.sh")).toMillis());
+        assertTrue(Files.getPosixFilePermissions(workingDir.resolve("bin/run.sh")).contains(PosixFilePermission.OWNER_EXECUTE));
+        assertFalse(Files.getPosixFilePermissions(workingDir.resolve("README")).contains(PosixFilePermission.OWNER_EXECUTE));
+    }
+
+    @Test
+    public void testTarGzIntoADirectory() throws Exception {
+        byte[] tar = new TarBuilder().file("a/b.txt", "b").build();
+        ByteArrayOutputStream gz = new ByteArrayOutputStream();
+
+        try (GZIPOutputStream out = new GZIPOutputStream(gz)) {
+            out.write(tar);
+        }
+
+        ArchiveExtractor extractor = extract("/lib/new", gz.toByteArray(), ArchiveFormat.TAR_GZ);
+
+        assertEquals(1, extractor.getFiles());
+        assertEquals("b", read("lib/new/a/b.txt"));
+    }
+
+    @Test
+    public void testTraversalIsSkipped() throws Exception {
+        TarBuilder tar = new TarBuilder()
+                .file("../evil.txt", "evil")
+                .file("/tmp/absolute.txt", "evil")
+                .file("a/../../evil2.txt", "evil")
+                .file("a/../ok.txt", "ok");
+
+        ArchiveExtractor extractor = extract("/sub", tar.build(), ArchiveFormat.TAR);
+
+        assertEquals(1, extractor.getFiles());
+        assertEquals(3, extractor.getSkipped());
+        assertEquals("ok", read("sub/ok.txt"));
+        assertFalse(Files.exists(workingDir.resolve("evil.txt")));
+        assertFalse(Files.exists(workingDir.resolve("evil2.txt")));
+    }
+
+    @Test
+    public void testZip() throws Exception {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+
+        try (ZipArchiveOutputStream zip = new ZipArchiveOutputStream(bytes)) {
+            zipFile(zip, "src/Main.java", "class Main {}");
+            zipFile(zip, "docs\\guide.md", "guide");
+            zipFile(zip, "..\\evil.txt", "evil");
+            zipFile(zip, "../evil2.txt", "evil");
+        }
+
+        ArchiveExtractor extractor = extract("/", bytes.toByteArray(), ArchiveFormat.ZIP);
+
+        assertEquals(2, extractor.getFiles());
+        // zip entry names are read with '/' as separator
+        assertEquals(Arrays.asList("../evil.txt", "../evil2.txt"), extractor.getSkippedNames());
+        assertEquals("class Main {}", read("src/Main.java"));
+        assertEquals("guide", read("docs/guide.md"));
+    }
+
+    @Test
+    public void testLinkEntriesAreSkipped() throws Exception {
+        TarArchiveEntry symlink = new TarArchiveEntry("passwd", TarArchiveEntry.LF_SYMLINK);
+        symlink.setLinkName("/etc/passwd");
+
+        TarArchiveEntry hardlink = new TarArchiveEntry("hard", TarArchiveEntry.LF_LINK);
+        hardlink.setLinkName("/etc/passwd");
+
+        TarBuilder tar = new TarBuilder()
+                .entry(symlink)
+                .entry(hardlink)
+                .file("passwd/next.txt", "next");
+
+        ArchiveExtractor extractor = extract("/", tar.build(), ArchiveFormat.TAR);
+
+        assertEquals(1, extractor.getFiles());
+        assertEquals(Arrays.asList("passwd", "hard"), extractor.getSkippedNames());
+        assertFalse(Files.isSymbolicLink(workingDir.resolve("passwd")));
+        assertFalse(Files.exists(workingDir.resolve("hard")));
+    }
+
+    @Test
+    public void testExistingLinksAreNotFollowed() throws Exception {
+        Files.createSymbolicLink(workingDir.resolve("out"), outside);
+        Files.write(outside.resolve("target.txt"), "outside".getBytes(UTF_8));
+        Files.createSymbolicLink(workingDir.resolve("link.txt"), outside.resolve("target.txt"));
+
+        TarBuilder tar = new TarBuilder()
+                .file("out/evil.txt", "evil")
+                .file("link.txt", "evil");
+
+        ArchiveExtractor extractor = extract("/", tar.build(), ArchiveFormat.TAR);
+
+        assertEquals(0, extractor.getFiles());
+        assertEquals(2, extractor.getSkipped());
+        assertFalse(Files.exists(outside.resolve("evil.txt")));
+        assertEquals("outside", new String(Files.readAllBytes(outside.resolve("target.txt")), UTF_8));
+    }
+
+    @Test
+    public void testNoDirectoryIsCreatedThroughALink() throws Exception {
+        Files.createSymbolicLink(workingDir.resolve("out"), outside);
+
+        TarBuilder tar = new TarBuilder()
+                .file("out/a/b/evil.txt", "evil")
+                .dir("out/c/");
+
+        ArchiveExtractor extractor = extract("/", tar.build(), ArchiveFormat.TAR);
+
+        assertEquals(0, extractor.getFiles());
+        assertEquals(2, extractor.getSkipped());
+        assertFalse(Files.exists(outside.resolve("a")));
+        assertFalse(Files.exists(outside.resolve("c")));
+    }
+
+    @Test
+    public void testGitIsLeftAlone() throws Exception {
+        TarBuilder tar = new TarBuilder()
+                .file(".git/config", "evil")
+                .file("./.git/hooks/pre-commit", "evil")
+                .file("a/../.git/HEAD", "evil")
+                .file(".gitignore", "target/");
+
+        ArchiveExtractor extractor = extract("/", tar.build(), ArchiveFormat.TAR);
+
+        assertEquals(1, extractor.getFiles());
+        assertEquals(3, extractor.getSkipped());
+        assertFalse(Files.exists(workingDir.resolve(".git/config")));
+        assertFalse(Files.exists(workingDir.resolve(".git/hooks")));
+        assertFalse(Files.exists(workingDir.resolve(".git/HEAD")));
+        assertEquals("target/", read(".gitignore"));
+    }
+
+    @Test
+    public void testIntoALinkInTheWorkspace() throws Exception {
+        Files.createDirectories(workingDir.resolve("real"));
+        Files.createSymbolicLink(workingDir.resolve("link"), workingDir.resolve("real"));
+
+        ArchiveExtractor extractor = extract("/link", new TarBuilder().file("a.txt", "a").build(), ArchiveFormat.TAR);
+
+        assertEquals(1, extractor.getFiles());
+        assertEquals("a", read("real/a.txt"));
+    }
+
+    @Test
+    public void testNotIntoGitNorOutOfTheWorkspace() throws Exception {
+        byte[] tar = new TarBuilder().file("a.txt", "a").build();
+
+        try {
+            extract("/.git/hooks", tar, ArchiveFormat.TAR);
+            fail();
+        } catch (WorkspaceIOException e) {
+            // expected
+        }
+
+        Files.createSymbolicLink(workingDir.resolve("out"), outside);
+
+        try {
+            extract("/out/sub", tar, ArchiveFormat.TAR);
+            fail();
+        } catch (WorkspaceIOException e) {
+            // expected
+        }
+
+        Files.createSymbolicLink(workingDir.resolve("git"), workingDir.resolve(".git"));
+
+        try {
+            extract("/git", tar, ArchiveFormat.TAR);
+            fail();
+        } catch (WorkspaceIOException e) {
+            // expected
+        }
+
+        assertFalse(Files.exists(outside.resolve("sub")));
+        assertFalse(Files.exists(workingDir.resolve(".git/a.txt")));
+    }
+
+    private ArchiveExtractor extract(String path, byte[] archive, ArchiveFormat format) throws IOException {
+        ArchiveExtractor extractor = new ArchiveExtractor(ws, workingDir.resolve(path.substring(1)).normalize());
+
+        extractor.extract(new ByteArrayInputStream(archive), format);
+
+        return extractor;
+    }
+
+    private String read(String path) throws IOException {
+        return new String(Files.readAllBytes(workingDir.resolve(path)), UTF_8);
+    }
+
+    private static void zipFile(ZipArchiveOutputStream zip, String name, String content) throws IOException {
+        zip.putArchiveEntry(new ZipArchiveEntry(name));
+        zip.write(content.getBytes(UTF_8));
+        zip.closeArchiveEntry();
+    }
+
+    private static class TarBuilder {
+
+        private final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+
+        private final TarArchiveOutputStream tar = new TarArchiveOutputStream(bytes);
+
+        TarBuilder() {
+            tar.setLongFileMode(TarArchiveOutputStream.LONGFILE_POSIX);
+        }
+
+        TarBuilder dir(String name) throws IOException {
+            return entry(new TarArchiveEntry(name));
+        }
+
+        TarBuilder file(String name, String content) throws IOException {
+            return file(name, content, 0644, 0);
+        }
+
+        TarBuilder file(String name, String content, int mode, long lastModified) throws IOException {
+            byte[] data = content.getBytes(UTF_8);
+            TarArchiveEntry entry = new TarArchiveEntry(name, true);
+
+            entry.setSize(data.length);
+            entry.setMode(TarArchiveEntry.DEFAULT_FILE_MODE & ~0777 | mode);
+
+            if (lastModified > 0) {
+                entry.setModTime(lastModified);
+            }
+
+            tar.putArchiveEntry(entry);
+            tar.write(data);
+            tar.closeArchiveEntry();
+
+            return this;
+        }
+
+        TarBuilder entry(TarArchiveEntry entry) throws IOException {
+            tar.putArchiveEntry(entry);
+            tar.closeArchiveEntry();
+
+            return this;
+        }
+
+        byte[] build() throws IOException {
+            tar.close();
+
+            return bytes.toByteArray();
+        }
+    }
+}
@@ -0,0 +1,147 @@
+/*
+ * Copyright (c) 2014-2016 CODING.
+ */
+
+package net.coding.ide.service;
+
+import com.google.common.collect.Lists;
+import net.coding.ide.model.ContentSearchResultEntry;
+import net.coding.ide.model.Workspace;
+import net.coding.ide.utils.WorkspaceHelper;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.regex.Pattern;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class ContentGrepTest {
+
+    private Workspace ws;
+
+    private Path workingDir;
+
+    private ForkJoinPool pool;
+
+    @Before
+    public void setUp() throws Exception {
+        ws = WorkspaceHelper.createWorkspace("content-grep");
+        workingDir = ws.getWorkingDir().toPath();
+        pool = new ForkJoinPool(4);
+    }
+
+    @After
+    public void tearDown() {
+        pool.shutdownNow();
+    }
+
+    @Test
+    public void testLinesAndColumns() throws Exception {
+        write("src/App.java", "class App {\r\n    void main() {}\n}");
+        write("src/last.txt", "no newline main");
+
+        List<ContentSearchResultEntry> found = grep("main", 100, 1000);
+
+        assertEquals(2, found.size());
+        assertEquals("/src/App.java", found.get(0).getPath());
+        assertEquals(2, found.get(0).getLine());
+        assertEquals(10, found.get(0).getColumn());
+        assertEquals("    void main() {}", found.get(0).getText());
+        assertEquals("/src/last.txt", found.get(1).getPath());
+        assertEquals(1, found.get(1).getLine());
+    }
+
+    @Test
+    public void testBinaryIgnoredAndGitAreSkipped() throws Exception {
+        write(".gitignore", "build/\n");
+        write("build/App.java", "main");
+        write(".git/config", "main");
+        Files.write(workingDir.resolve("app.bin"), new byte[]{'m', 'a', 'i', 'n', 0});
+        write("App.java", "main");
+
+        List<ContentSearchResultEntry> found = grep("main", 100, 1000);
+
+        assertEquals(1, found.size());
+        assertEquals("/App.java", found.get(0).getPath());
+    }
+
+    @Test
+    public void testMappedFile() throws Exception {
+        StringBuilder content = new StringBuilder();
+
+        for (int i = 1; i <= 20000; i++) {
+            content.append(i % 5000 == 0 ? "needle " : "hay ").append(i).append('\n');
+        }
+
+        write("large.txt", content.toString());
+
+        List<ContentSearchResultEntry> found = grep("needle", 100, 1000);
+
+        assertEquals(4, found.size());
+        assertEquals(5000, found.get(0).getLine());
+        assertEquals(20000, found.get(3).getLine());
+    }
+
+    @Test
+    public void testLimits() throws Exception {
+        for (int i = 0; i < 10; i++) {
+            write("dir" + i + "/file.txt", "x\nx\nx\n");
+        }
+
+        assertEquals(10, grep("x", 1, 1000).size());
+        assertEquals(30, grep("x", 100, 1000).size());
+        assertEquals(7, grep("x", 100, 7).size());
+    }
+
+    @Test
+    public void testCallbackFailureStopsTheSearch() throws Exception {
+        for (int i = 0; i < 50; i++) {
+            write("dir" + i + "/file.txt", "x\n");
+        }
+
+        RuntimeException gone = new RuntimeException("client went away");
+        AtomicInteger calls = new AtomicInteger();
+
+        try {
+            new ContentGrep(ws, Pattern.compile("x"), 100, 1000, entry -> {
+                calls.incrementAndGet();
+                throw gone;
+            }, pool).run(workingDir);
+
+            fail();
+        } catch (RuntimeException e) {
+            assertSame(gone, e);
+        }
+
+        assertEquals(1, calls.get());
+    }
+
+    private List<ContentSearchResultEntry> grep(String regex, int maxPerFile, int maxTotal) {
+        List<ContentSearchResultEntry> found = Lists.newArrayList();
+
+        new ContentGrep(ws, Pattern.compile(regex), maxPerFile, maxTotal, found::add, pool).run(workingDir);
+
+        Collections.sort(found, (a, b) -> a.getPath().equals(b.getPath())
+                ? Integer.compare(a.getLine(), b.getLine())
+                : a.getPath().compareTo(b.getPath()));
+
+        return found;
+    }
+
+    private void write(String path, String content) throws Exception {
+        Path p = workingDir.resolve(path);
+
+        Files.createDirectories(p.getParent());
+        Files.write(p, content.getBytes());
+    }
+}
@@ -0,0 +1,136 @@
+/*
+ * Copyright (c) 2014-2016 CODING.
+ */
+
+package net.coding.ide.service;
+
+import com.google.common.collect.Lists;
+import net.coding.ide.model.ContentSearchResultEntry;
+import net.coding.ide.model.Workspace;
+import net.coding.ide.utils.WorkspaceHelper;
+import org.junit.Test;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.regex.Pattern;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class ContentIndexTest {
+
+    @Test
+    public void testSearchKeepsTheFirstMatchesInOrder() throws Exception {
+        Workspace ws = WorkspaceHelper.createWorkspace("content-index");
+        Path workingDir = ws.getWorkingDir().toPath();
+
+        for (int i = 0; i < 40; i++) {
+            Files.write(workingDir.resolve(String.format("f%02d.txt", i)),
+                    (i % 3 == 0 ? "one needle\ntwo needles\n" : "hay\n").getBytes(UTF_8));
+        }
+
+        ContentIndex index = new ContentIndex(ws, Runnable::run);
+        index.build();
+
+        ForkJoinPool pool = new ForkJoinPool(2);
+
+        try {
+            for (int run = 0; run < 5; run++) {
+                assertEquals(Arrays.asList("/f00.txt:1", "/f00.txt:2", "/f03.txt:1", "/f03.txt:2", "/f06.txt:1"),
+                        describe(index.search(Pattern.compile("needle"), Arrays.asList("needle"), 5, pool)));
+            }
+
+            assertEquals(28, index.search(Pattern.compile("needle"), Arrays.asList("needle"), 100, pool).size());
+
+            // no trigram to narrow down the files, the disk is grepped
+            List<ContentSearchResultEntry> hay = index.search(Pattern.compile("h.y"), Collections.emptyList(), 100, pool);
+
+            assertEquals(26, hay.size());
+            assertEquals(3, index.search(Pattern.compile("h.y"), Collections.emptyList(), 3, pool).size());
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+
+    private static List<String> describe(List<ContentSearchResultEntry> entries) {
+        List<String> result = Lists.newArrayList();
+
+        for (ContentSearchResultEntry entry : entries) {
+            result.add(entry.getPath() + ":" + entry.getLine());
+        }
+
+        return result;
+    }
+
+    @Test
+    public void testPlainText() {
+        assertEquals(Arrays.asList("getFileInfo"), ContentIndex.requiredLiterals("getFileInfo"));
+    }
+
+    @Test
+    public void testShortRunsAreDropped() {
+        assertEquals(Arrays.asList("foo", "bar"), ContentIndex.requiredLiterals("foo.x.bar"));
+        assertEquals(Collections.emptyList(), ContentIndex.requiredLiterals("ab.cd"));
+    }
+
+    @Test
+    public void testQuantifiers() {
+        // the character before ?, * and {} may not be there, the one before + is
+        assertEquals(Arrays.asList("colo", "rful"), ContentIndex.requiredLiterals("colou?rful"));
+        assertEquals(Arrays.asList("abc", "def"), ContentIndex.requiredLiterals("abcx*def"));
+        assertEquals(Arrays.asList("abc", "def"), ContentIndex.requiredLiterals("abcx{0,2}def"));
+        assertEquals(Arrays.asList("abcx", "def"), ContentIndex.requiredLiterals("abcx+def"));
+    }
+
+    @Test
+    public void testGroupsAndClassesAreSkipped() {
+        assertEquals(Arrays.asList("public ", "void"), ContentIndex.requiredLiterals("public (static )?void"));
+        assertEquals(Arrays.asList("item", "list"), ContentIndex.requiredLiterals("item[0-9]list"));
+        assertEquals(Arrays.asList("foo", "bar"), ContentIndex.requiredLiterals("foo[]a]bar"));
+        assertEquals(Arrays.asList("foo", "bar"), ContentIndex.requiredLiterals("foo[^\\]]bar"));
+    }
+
+    @Test
+    public void testEscapes() {
+        assertEquals(Arrays.asList("a.b.c"), ContentIndex.requiredLiterals("a\\.b\\.c"));
+        assertEquals(Arrays.asList("int", "main"), ContentIndex.requiredLiterals("int\\s+main"));
+    }
+
+    @Test
+    public void testUnreadableRegexGivesNothing() {
+        assertEquals(Collections.emptyList(), ContentIndex.requiredLiterals("foo|bar"));
+        assertEquals(Collections.emptyList(), ContentIndex.requiredLiterals("\\Qfoo\\E"));
+        assertEquals(Collections.emptyList(), ContentIndex.requiredLiterals("\\x41bcd"));
+        assertEquals(Collections.emptyList(), ContentIndex.requiredLiterals("abcd\\"));
+    }
+
+    @Test
+    public void testLiteralsAreInEveryMatch() {
+        String[][] cases = {
+                {"colou?rful", "colorful", "colourful"},
+                {"public (static )?void", "public void", "public static void"},
+                {"abcx{0,2}def", "abcdef", "abcxxdef"},
+                {"item[0-9]list", "item7list"},
+                {"(?i)Hello World", "hello world"},
+        };
+
+        for (String[] c : cases) {
+            Pattern pattern = Pattern.compile(c[0]);
+            List<String> literals = ContentIndex.requiredLiterals(c[0]);
+
+            for (int i = 1; i < c.length; i++) {
+                assertTrue(c[0] + " should match " + c[i], pattern.matcher(c[i]).matches());
+
+                for (String literal : literals) {
+                    // the index folds ASCII case
+                    assertTrue(literal + " is not in " + c[i], c[i].toLowerCase().contains(literal.toLowerCase()));
+                }
+            }
+        }
+    }
+}
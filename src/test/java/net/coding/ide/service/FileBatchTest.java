@@ -0,0 +1,159 @@
+/*
+ * Copyright (c) 2014-2016 CODING.
+ */
+
+package net.coding.ide.service;
+
+import com.google.common.collect.Lists;
+import net.coding.ide.dto.FileOperationDTO;
+import net.coding.ide.dto.FileOperationResultDTO;
+import net.coding.ide.model.Workspace;
+import net.coding.ide.utils.WorkspaceHelper;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import static net.coding.ide.dto.FileOperationDTO.Type.COPY;
+import static net.coding.ide.dto.FileOperationDTO.Type.DELETE;
+import static net.coding.ide.dto.FileOperationDTO.Type.MKDIR;
+import static net.coding.ide.dto.FileOperationDTO.Type.MOVE;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+public class FileBatchTest {
+
+    private Workspace ws;
+
+    private Path workingDir;
+
+    private ExecutorService executor;
+
+    @Before
+    public void setUp() throws Exception {
+        ws = WorkspaceHelper.createWorkspace("file-batch");
+        workingDir = ws.getWorkingDir().toPath();
+        executor = Executors.newFixedThreadPool(8);
+    }
+
+    @After
+    public void tearDown() {
+        executor.shutdownNow();
+    }
+
+    @Test
+    public void testDependentOperationsRunInOrder() throws Exception {
+        write("src/a.txt", "a");
+
+        for (int run = 0; run < 20; run++) {
+            List<FileOperationResultDTO> results = new FileBatch(ws, Arrays.asList(
+                    operation(MKDIR, "/build", null),
+                    operation(MKDIR, "/build/out", null),
+                    operation(COPY, "/src/a.txt", "/build/out/a.txt"),
+                    operation(MOVE, "/build/out/a.txt", "/build/out/b.txt"),
+                    operation(COPY, "/build/out", "/dist"),
+                    operation(DELETE, "/build", null))).run(executor);
+
+            for (FileOperationResultDTO result : results) {
+                assertTrue(result.getPath() + ": " + result.getError(), result.isOk());
+            }
+
+            assertFalse(Files.exists(workingDir.resolve("build")));
+            assertEquals("a", read("dist/b.txt"));
+            assertTrue(Files.exists(workingDir.resolve("src/a.txt")));
+
+            ws.remove("/dist", true);
+        }
+    }
+
+    @Test
+    public void testIndependentOperationsDoNotWait() throws Exception {
+        List<FileOperationDTO> operations = Lists.newArrayList();
+
+        for (int i = 0; i < 50; i++) {
+            operations.add(operation(MKDIR, "/dir" + i, null));
+        }
+
+        List<FileOperationResultDTO> results = new FileBatch(ws, operations).run(executor);
+
+        assertEquals(50, results.size());
+
+        for (int i = 0; i < 50; i++) {
+            assertEquals("/dir" + i, results.get(i).getPath());
+            assertTrue(results.get(i).isOk());
+            assertTrue(Files.isDirectory(workingDir.resolve("dir" + i)));
+        }
+    }
+
+    @Test
+    public void testFailureOnlyFailsItsOperation() throws Exception {
+        write("a.txt", "a");
+
+        FileBatch batch = new FileBatch(ws, Arrays.asList(
+                operation(MOVE, "/missing.txt", "/a.txt"),
+                operation(MOVE, "/a.txt", "/b.txt"),
+                operation(null, "/a.txt", null),
+                operation(COPY, "/b.txt", null),
+                operation(COPY, "/b.txt", "/c.txt")));
+
+        List<FileOperationResultDTO> results = batch.run(executor);
+
+        assertFalse(results.get(0).isOk());
+        assertTrue(results.get(1).isOk());
+        assertFalse(results.get(2).isOk());
+        assertFalse(results.get(3).isOk());
+        assertTrue(results.get(4).isOk());
+        assertEquals(2, batch.getChanges());
+        assertEquals("a", read("c.txt"));
+    }
+
+    @Test
+    public void testRefusedOperationsFailWithoutThrowing() throws Exception {
+        executor.shutdown();
+
+        List<FileOperationResultDTO> results = new FileBatch(ws, Arrays.asList(
+                operation(MKDIR, "/a", null),
+                operation(MKDIR, "/a/b", null))).run(executor);
+
+        assertEquals(2, results.size());
+
+        for (FileOperationResultDTO result : results) {
+            assertFalse(result.isOk());
+            assertNotNull(result.getError());
+        }
+    }
+
+    @Test
+    public void testDir() throws Exception {
+        assertEquals(workingDir.resolve("a"), new FileBatch(ws, Arrays.asList(
+                operation(MKDIR, "/a/b/c", null),
+                operation(MOVE, "/a/b/d", "/a/e"))).getDir());
+
+        assertEquals(workingDir, new FileBatch(ws, Arrays.asList(
+                operation(MKDIR, "/a", null),
+                operation(MKDIR, "/b", null))).getDir());
+    }
+
+    private static FileOperationDTO operation(FileOperationDTO.Type type, String path, String to) {
+        return new FileOperationDTO(type, path, to, true, false);
+    }
+
+    private String read(String path) throws Exception {
+        return new String(Files.readAllBytes(workingDir.resolve(path)), "UTF-8");
+    }
+
+    private void write(String path, String content) throws Exception {
+        Path p = workingDir.resolve(path);
+
+        Files.createDirectories(p.getParent());
+        Files.write(p, content.getBytes("UTF-8"));
+    }
+}
@@ -0,0 +1,240 @@
+/*
+ * Copyright (c) 2014-2016 CODING.
+ */
+
+package net.coding.ide.service;
+
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
+import net.coding.ide.event.FileChangeBatchEvent;
+import net.coding.ide.event.FileChangeEvent;
+import net.coding.ide.event.FileCreateEvent;
+import net.coding.ide.event.FileDeleteEvent;
+import net.coding.ide.event.FileModifyEvent;
+import net.coding.ide.event.FileMoveEvent;
+import net.coding.ide.event.FileRefreshEvent;
+import net.coding.ide.model.FileInfo;
+import net.coding.ide.model.Workspace;
+import net.coding.ide.utils.WorkspaceHelper;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.context.ApplicationEventPublisher;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.mockito.Mockito.mock;
+
+public class FileChangeBatcherTest {
+
+    private ScheduledExecutorService scheduler;
+
+    /**
+     * the paths getFileInfos finds nothing at, e.g. deleted meanwhile
+     */
+    private final Set<String> missing = Sets.newConcurrentHashSet();
+
+    private final BlockingQueue<FileChangeBatchEvent> published = new LinkedBlockingQueue<>();
+
+    private FileChangeBatcher batcher;
+
+    @Before
+    public void setUp() throws Exception {
+        Workspace ws = WorkspaceHelper.createWorkspace("file-change-batcher");
+
+        // only getFileInfos and publishEvent are called
+        WorkspaceManager wsMgr = mock(WorkspaceManager.class, invocation -> {
+            @SuppressWarnings("unchecked")
+            Collection<String> paths = (Collection<String>) invocation.getArguments()[1];
+            Map<String, FileInfo> fileInfos = Maps.newHashMap();
+
+            for (String path : paths) {
+                if (!missing.contains(path)) {
+                    fileInfos.put(path, fileInfo(path));
+                }
+            }
+
+            return fileInfos;
+        });
+
+        ApplicationEventPublisher publisher = mock(ApplicationEventPublisher.class, invocation -> {
+            published.add((FileChangeBatchEvent) invocation.getArguments()[0]);
+            return null;
+        });
+
+        scheduler = Executors.newSingleThreadScheduledExecutor();
+        batcher = new FileChangeBatcher(ws, wsMgr, publisher, scheduler, Runnable::run);
+    }
+
+    @After
+    public void tearDown() {
+        scheduler.shutdownNow();
+    }
+
+    @Test
+    public void testCreatedThenModifiedIsACreate() throws Exception {
+        batcher.created("/a.txt");
+        batcher.modified("/a.txt");
+        batcher.modified("/a.txt");
+
+        assertEquals(Arrays.asList("create /a.txt"), nextBatch());
+    }
+
+    @Test
+    public void testCreatedThenDeletedIsLeftOut() throws Exception {
+        batcher.created("/a.txt");
+        batcher.modified("/b.txt");
+        batcher.deleted("/a.txt");
+
+        assertEquals(Arrays.asList("modify /b.txt"), nextBatch());
+    }
+
+    @Test
+    public void testModifiedThenDeletedIsADelete() throws Exception {
+        batcher.modified("/a.txt");
+        batcher.deleted("/a.txt");
+
+        assertEquals(Arrays.asList("delete /a.txt"), nextBatch());
+    }
+
+    @Test
+    public void testDeletedThenCreatedIsAModify() throws Exception {
+        // e.g. a file saved by writing a new file in its place
+        batcher.deleted("/a.txt");
+        batcher.created("/a.txt");
+
+        assertEquals(Arrays.asList("modify /a.txt"), nextBatch());
+    }
+
+    @Test
+    public void testCreatedThenMovedIsACreateOfTheNewPath() throws Exception {
+        batcher.created("/a.txt");
+        batcher.moved("/a.txt", "/b.txt");
+
+        assertEquals(Arrays.asList("create /b.txt"), nextBatch());
+    }
+
+    @Test
+    public void testMovesAreChained() throws Exception {
+        batcher.moved("/a.txt", "/b.txt");
+        batcher.moved("/b.txt", "/c.txt");
+        batcher.moved("/x.txt", "/y.txt");
+        batcher.moved("/y.txt", "/x.txt");
+
+        assertEquals(Arrays.asList("move /a.txt /c.txt", "modify /x.txt"), nextBatch());
+    }
+
+    @Test
+    public void testMovedThenDeletedIsADeleteOfTheOldPath() throws Exception {
+        batcher.moved("/a.txt", "/b.txt");
+        batcher.deleted("/b.txt");
+
+        assertEquals(Arrays.asList("delete /a.txt"), nextBatch());
+    }
+
+    @Test
+    public void testGoneMeanwhile() throws Exception {
+        missing.add("/a.txt");
+        missing.add("/c.txt");
+
+        batcher.created("/a.txt");
+        batcher.modified("/b.txt");
+        batcher.moved("/old.txt", "/c.txt");
+
+        // a create is left out for the delete to come, a move with nothing left is a delete
+        assertEquals(Arrays.asList("modify /b.txt", "delete /old.txt"), nextBatch());
+    }
+
+    @Test
+    public void testOneBatchInOrderWithTheReadyChangesLast() throws Exception {
+        FileInfo dir = fileInfo("/dir");
+        dir.setDir(true);
+
+        batcher.modified("/c.txt");
+        batcher.add(new FileRefreshEvent("test", dir, 3));
+        batcher.created("/a.txt");
+        batcher.deleted("/b.txt");
+
+        assertEquals(Arrays.asList("modify /c.txt", "create /a.txt", "delete /b.txt", "refresh /dir"), nextBatch());
+        assertNull(published.poll(300, TimeUnit.MILLISECONDS));
+    }
+
+    @Test
+    public void testFullBatchIsPublishedAtOnce() throws Exception {
+        for (int i = 0; i < 1500; i++) {
+            batcher.created("/" + i + ".txt");
+        }
+
+        List<String> first = nextBatch();
+        List<String> second = nextBatch();
+
+        assertEquals(1000, first.size());
+        assertEquals("create /0.txt", first.get(0));
+        assertEquals(500, second.size());
+        assertEquals("create /1000.txt", second.get(0));
+    }
+
+    @Test
+    public void testTerminateDropsThePendingChanges() throws Exception {
+        batcher.created("/a.txt");
+        batcher.terminate();
+        batcher.created("/b.txt");
+
+        assertNull(published.poll(300, TimeUnit.MILLISECONDS));
+    }
+
+    private List<String> nextBatch() throws InterruptedException {
+        FileChangeBatchEvent batch = published.poll(5, TimeUnit.SECONDS);
+
+        assertNotNull(batch);
+        assertEquals("test", batch.getSpaceKey());
+
+        List<String> changes = Lists.newArrayList();
+
+        for (FileChangeEvent event : batch.getChanges()) {
+            changes.add(describe(event));
+        }
+
+        return changes;
+    }
+
+    private static String describe(FileChangeEvent event) {
+        String path = event.getFileInfo().getPath();
+
+        if (event instanceof FileCreateEvent) {
+            return "create " + path;
+        } else if (event instanceof FileModifyEvent) {
+            return "modify " + path;
+        } else if (event instanceof FileDeleteEvent) {
+            return "delete " + path;
+        } else if (event instanceof FileMoveEvent) {
+            return "move " + ((FileMoveEvent) event).getOldPath() + " " + path;
+        } else if (event instanceof FileRefreshEvent) {
+            return "refresh " + path;
+        }
+
+        return event.toString();
+    }
+
+    private static FileInfo fileInfo(String path) {
+        FileInfo fileInfo = new FileInfo();
+
+        fileInfo.setName(path.substring(path.lastIndexOf('/') + 1));
+        fileInfo.setPath(path);
+
+        return fileInfo;
+    }
+}
@@ -0,0 +1,231 @@
+/*
+ * Copyright (c) 2014-2016 CODING.
+ */
+
+package net.coding.ide.service;
+
+import com.google.common.collect.Lists;
+import net.coding.ide.model.GitStatus;
+import net.coding.ide.utils.FilesUtils;
+import net.coding.ide.utils.RepositoryHelper;
+import org.eclipse.jgit.api.Git;
+import org.eclipse.jgit.api.Status;
+import org.eclipse.jgit.api.StatusCommand;
+import org.eclipse.jgit.lib.Constants;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.Repository;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class GitStatusCacheTest {
+
+    private File workingDir;
+
+    private Repository repository;
+
+    private Git git;
+
+    private final AtomicInteger statusCalls = new AtomicInteger();
+
+    private final AtomicInteger headCalls = new AtomicInteger();
+
+    /**
+     * the path of each status call, {@code null} for the whole working dir
+     */
+    private final List<String> statusPaths = Lists.newArrayList();
+
+    private GitStatusCache statusCache;
+
+    @Before
+    public void setUp() throws Exception {
+        workingDir = FilesUtils.createTempDirectoryAndDeleteOnExit("git-status-cache");
+        repository = RepositoryHelper.createRepository(workingDir);
+        git = new Git(repository);
+
+        Files.createDirectory(workingDir.toPath().resolve("dir"));
+        Files.write(workingDir.toPath().resolve("dir/a.txt"), "a".getBytes());
+
+        git.add().addFilepattern(".").call();
+        git.commit().setMessage("init").call();
+
+        statusCache = new GitStatusCache(workingDir, new GitStatusCache.Loader() {
+            @Override
+            public Status status(String path) throws Exception {
+                StatusCommand statusCommand = git.status();
+
+                statusPaths.add(path);
+
+                if (path != null) {
+                    statusCalls.incrementAndGet();
+                    statusCommand.addPath(path);
+                }
+
+                return statusCommand.call();
+            }
+
+            @Override
+            public ObjectId head() throws IOException {
+                headCalls.incrementAndGet();
+                return repository.resolve(Constants.HEAD);
+            }
+        });
+    }
+
+    @After
+    public void tearDown() {
+        git.close();
+    }
+
+    @Test
+    public void testNewFileIsPickedUpWithoutEvent() throws Exception {
+        assertEquals(GitStatus.CLEAN, statusCache.get("dir/a.txt"));
+
+        Files.write(workingDir.toPath().resolve("dir/b.txt"), "b".getBytes());
+
+        assertEquals(GitStatus.UNTRACKED, statusCache.get("dir/b.txt"));
+    }
+
+    @Test
+    public void testMissingPathIsRefreshedOnlyWhenItsDirectoryChanges() throws Exception {
+        Path dir = workingDir.toPath().resolve("dir");
+
+        assertEquals(GitStatus.CLEAN, statusCache.get("dir/a.txt"));
+
+        Files.delete(dir.resolve("a.txt"));
+
+        assertEquals(GitStatus.MISSING, statusCache.get("dir/a.txt"));
+
+        setBackInTime(dir);
+        statusCalls.set(0);
+
+        for (int i = 0; i < 3; i++) {
+            assertEquals(GitStatus.MISSING, statusCache.get("dir/a.txt"));
+        }
+
+        assertEquals(0, statusCalls.get());
+
+        Files.write(dir.resolve("a.txt"), "a".getBytes());
+
+        assertEquals(GitStatus.CLEAN, statusCache.get("dir/a.txt"));
+        assertEquals(1, statusCalls.get());
+    }
+
+    @Test
+    public void testMissingDirectoryFallsBackToItsParent() throws Exception {
+        Path dir = workingDir.toPath().resolve("dir");
+
+        Files.delete(dir.resolve("a.txt"));
+        Files.delete(dir);
+
+        assertEquals(GitStatus.MISSING, statusCache.get("dir/a.txt"));
+
+        setBackInTime(workingDir.toPath());
+        statusCalls.set(0);
+
+        assertEquals(GitStatus.MISSING, statusCache.get("dir/a.txt"));
+        assertEquals(0, statusCalls.get());
+    }
+
+    @Test
+    public void testInvalidatedDirectoryIsRefreshedAlone() throws Exception {
+        assertEquals(GitStatus.CLEAN, statusCache.get("dir/a.txt"));
+
+        Files.write(workingDir.toPath().resolve("dir/a.txt"), "changed".getBytes());
+        Files.write(workingDir.toPath().resolve("dir/b.txt"), "b".getBytes());
+        statusPaths.clear();
+
+        // e.g. a refresh of the directory, the rest of the snapshot is kept
+        statusCache.invalidate("dir");
+
+        assertEquals(GitStatus.MODIFIED, statusCache.get("dir/a.txt"));
+        assertEquals(GitStatus.UNTRACKED, statusCache.get("dir/b.txt"));
+        assertEquals("dir", statusPaths.get(0));
+        assertFalse(statusPaths.contains(null));
+    }
+
+    @Test
+    public void testDirtyPathsOfADirectoryAreRefreshedTogether() throws Exception {
+        assertEquals(GitStatus.CLEAN, statusCache.get("dir/a.txt"));
+
+        Files.write(workingDir.toPath().resolve("dir/b.txt"), "b".getBytes());
+        Files.write(workingDir.toPath().resolve("dir/c.txt"), "c".getBytes());
+        statusPaths.clear();
+
+        statusCache.invalidate("dir/b.txt");
+        statusCache.invalidate("dir/c.txt");
+
+        assertEquals(GitStatus.UNTRACKED, statusCache.get("dir/b.txt"));
+        assertEquals(GitStatus.UNTRACKED, statusCache.get("dir/c.txt"));
+
+        // the files are refreshed alone afterwards only as long as their change is racy
+        assertEquals("dir", statusPaths.get(0));
+        assertFalse(statusPaths.contains(null));
+    }
+
+    @Test
+    public void testTooManyDirtyPathsRenewTheSnapshot() throws Exception {
+        assertEquals(GitStatus.CLEAN, statusCache.get("dir/a.txt"));
+
+        Files.write(workingDir.toPath().resolve("dir/b.txt"), "b".getBytes());
+        statusPaths.clear();
+
+        // e.g. npm install
+        for (int i = 0; i < 1000; i++) {
+            statusCache.invalidate("node_modules/m" + i + "/index.js");
+        }
+
+        statusCache.invalidate("dir/b.txt");
+
+        assertEquals(GitStatus.UNTRACKED, statusCache.get("dir/b.txt"));
+        assertNull(statusPaths.get(0));
+
+        for (String path : statusPaths) {
+            assertTrue(path == null || !path.startsWith("node_modules"));
+        }
+    }
+
+    @Test
+    public void testHeadIsResolvedOncePerInterval() throws Exception {
+        for (int i = 0; i < 10; i++) {
+            statusCache.get("dir/a.txt");
+        }
+
+        assertEquals(1, headCalls.get());
+
+        statusCache.invalidateHead();
+        statusCache.get("dir/a.txt");
+
+        assertEquals(2, headCalls.get());
+    }
+
+    @Test
+    public void testCommitRenewsSnapshot() throws Exception {
+        Files.write(workingDir.toPath().resolve("dir/b.txt"), "b".getBytes());
+
+        assertEquals(GitStatus.UNTRACKED, statusCache.get("dir/b.txt"));
+
+        git.add().addFilepattern("dir/b.txt").call();
+        git.commit().setMessage("b").call();
+        statusCache.invalidateHead();
+
+        assertEquals(GitStatus.CLEAN, statusCache.get("dir/b.txt"));
+    }
+
+    private static void setBackInTime(Path p) throws IOException {
+        Files.setLastModifiedTime(p, FileTime.fromMillis(System.currentTimeMillis() - 60000));
+    }
+}
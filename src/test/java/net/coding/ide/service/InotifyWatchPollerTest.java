@@ -0,0 +1,275 @@
+/*
+ * Copyright (c) 2014-2016 CODING.
+ */
+
+package net.coding.ide.service;
+
+import com.google.common.collect.Lists;
+import net.coding.ide.model.Workspace;
+import net.coding.ide.utils.FilesUtils;
+import net.coding.ide.utils.WorkspaceHelper;
+import org.junit.After;
+import org.junit.Assume;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.WatchEvent;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static java.nio.file.StandardWatchEventKinds.ENTRY_CREATE;
+import static java.nio.file.StandardWatchEventKinds.ENTRY_DELETE;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.fail;
+
+public class InotifyWatchPollerTest {
+
+    private Path workingDir;
+
+    private Path outside;
+
+    private ScheduledExecutorService scheduler;
+
+    private InotifyWatchPoller poller;
+
+    private Thread thread;
+
+    private RecordingWatcher owner;
+
+    @Before
+    public void setUp() throws Exception {
+        try {
+            poller = new InotifyWatchPoller(64 * 1024);
+        } catch (IOException e) {
+            // not on linux
+            Assume.assumeNoException(e);
+        }
+
+        Workspace ws = WorkspaceHelper.createWorkspace("inotify-poller");
+        workingDir = ws.getWorkingDir().toPath().toRealPath();
+        outside = FilesUtils.createTempDirectoryAndDeleteOnExit("inotify-outside").toPath().toRealPath();
+
+        scheduler = Executors.newSingleThreadScheduledExecutor();
+        owner = new RecordingWatcher(ws, scheduler);
+
+        thread = new Thread(poller, "inotify-test");
+        thread.start();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        if (poller != null) {
+            poller.close();
+            thread.join(5000);
+            scheduler.shutdownNow();
+        }
+    }
+
+    @Test
+    public void testCreateModifyDelete() throws Exception {
+        watch(workingDir, "root");
+
+        Files.write(workingDir.resolve("a.txt"), "a".getBytes(UTF_8));
+        expect("create root/a.txt");
+        expect("modify root/a.txt");
+
+        Files.write(workingDir.resolve("a.txt"), "b".getBytes(UTF_8));
+        expect("modify root/a.txt");
+
+        Files.delete(workingDir.resolve("a.txt"));
+        expect("delete root/a.txt");
+
+        Files.createDirectory(workingDir.resolve("sub"));
+        expect("create root/sub");
+    }
+
+    @Test
+    public void testRenameIsAMove() throws Exception {
+        Files.write(workingDir.resolve("a.txt"), "a".getBytes(UTF_8));
+        watch(workingDir, "root");
+
+        Files.move(workingDir.resolve("a.txt"), workingDir.resolve("b.txt"));
+
+        expect("move root/a.txt root/b.txt");
+        assertNone("delete root/a.txt", "create root/b.txt");
+    }
+
+    @Test
+    public void testMoveBetweenWatchedDirectories() throws Exception {
+        Files.createDirectories(workingDir.resolve("x"));
+        Files.createDirectories(workingDir.resolve("y"));
+        Files.write(workingDir.resolve("x/a.txt"), "a".getBytes(UTF_8));
+
+        watch(workingDir.resolve("x"), "x");
+        watch(workingDir.resolve("y"), "y");
+
+        Files.move(workingDir.resolve("x/a.txt"), workingDir.resolve("y/a.txt"));
+
+        expect("move x/a.txt y/a.txt");
+    }
+
+    @Test
+    public void testMovedInFromOutsideIsACreate() throws Exception {
+        Files.write(outside.resolve("in.txt"), "in".getBytes(UTF_8));
+        watch(workingDir, "root");
+
+        Files.move(outside.resolve("in.txt"), workingDir.resolve("in.txt"));
+
+        expect("create root/in.txt");
+    }
+
+    @Test
+    public void testMovedOutIsADelete() throws Exception {
+        Files.createDirectories(workingDir.resolve("sub"));
+        Files.write(workingDir.resolve("a.txt"), "a".getBytes(UTF_8));
+        watch(workingDir, "root");
+
+        Files.move(workingDir.resolve("a.txt"), outside.resolve("a.txt"));
+        expect("delete root/a.txt");
+
+        // a directory moved out has its watches cancelled before it is deleted
+        Files.move(workingDir.resolve("sub"), outside.resolve("sub"));
+        expect("movedOut root/sub");
+        expect("delete root/sub");
+    }
+
+    @Test
+    public void testCancel() throws Exception {
+        Files.createDirectories(workingDir.resolve("sub"));
+
+        Object root = watch(workingDir, "root");
+        watch(workingDir.resolve("sub"), "sub");
+
+        assertEquals(2, poller.getWatchCount());
+
+        poller.cancel(root);
+        poller.cancel(root);
+
+        assertEquals(1, poller.getWatchCount());
+
+        Files.write(workingDir.resolve("a.txt"), "a".getBytes(UTF_8));
+        Files.write(workingDir.resolve("sub/b.txt"), "b".getBytes(UTF_8));
+
+        expect("create sub/b.txt");
+        assertNone("create root/a.txt");
+    }
+
+    @Test
+    public void testDirectoryGoneIsInvalidated() throws Exception {
+        Files.createDirectories(workingDir.resolve("sub"));
+        watch(workingDir.resolve("sub"), "sub");
+
+        Files.delete(workingDir.resolve("sub"));
+
+        expect("invalidate sub");
+        assertEquals(0, poller.getWatchCount());
+    }
+
+    @Test
+    public void testRegisterMissingDirectory() throws Exception {
+        try {
+            poller.register(workingDir.resolve("missing"), owner);
+            fail();
+        } catch (NoSuchFileException e) {
+            // expected
+        }
+
+        assertEquals(0, poller.getWatchCount());
+    }
+
+    private Object watch(Path dir, String name) throws IOException {
+        Object key = poller.register(dir, owner);
+
+        owner.names.put(key, name);
+
+        return key;
+    }
+
+    /**
+     * Wait for an event, skipping the others before it.
+     */
+    private void expect(String event) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 5000;
+        List<String> seen = Lists.newArrayList();
+
+        for (long wait; (wait = deadline - System.currentTimeMillis()) > 0; ) {
+            String next = owner.events.poll(wait, TimeUnit.MILLISECONDS);
+
+            if (event.equals(next)) {
+                return;
+            } else if (next != null) {
+                seen.add(next);
+            }
+        }
+
+        fail("no " + event + " in " + seen);
+    }
+
+    /**
+     * Check none of the events comes for a while.
+     */
+    private void assertNone(String... events) throws InterruptedException {
+        Thread.sleep(200);
+
+        List<String> seen = Lists.newArrayList();
+
+        owner.events.drainTo(seen);
+
+        for (String event : events) {
+            assertFalse(event + " in " + seen, seen.contains(event));
+        }
+    }
+
+    /**
+     * Records the changes handed over by the poller.
+     */
+    private static class RecordingWatcher extends WorkspaceWatcher {
+
+        private final Map<Object, String> names = new ConcurrentHashMap<>();
+
+        private final BlockingQueue<String> events = new LinkedBlockingQueue<>();
+
+        RecordingWatcher(Workspace ws, ScheduledExecutorService scheduler) {
+            super(null, ws, new WatchedPathStore(), Lists.newArrayList(), null, scheduler, Runnable::run);
+        }
+
+        @Override
+        void changed(Object key, WatchEvent.Kind<Path> kind, Path fileName) {
+            String kindName = kind == ENTRY_CREATE ? "create" : kind == ENTRY_DELETE ? "delete" : "modify";
+
+            events.add(kindName + " " + names.get(key) + "/" + fileName);
+        }
+
+        @Override
+        void moved(Object fromKey, Path fromName, Object toKey, Path toName) {
+            events.add("move " + names.get(fromKey) + "/" + fromName + " " + names.get(toKey) + "/" + toName);
+        }
+
+        @Override
+        synchronized void movedOut(Object key, Path dirName) {
+            events.add("movedOut " + names.get(key) + "/" + dirName);
+        }
+
+        @Override
+        void overflow(Object key) {
+            events.add("overflow");
+        }
+
+        @Override
+        synchronized void invalidate(Object key) {
+            events.add("invalidate " + names.get(key));
+        }
+    }
+}
@@ -0,0 +1,130 @@
+/*
+ * Copyright (c) 2014-2016 CODING.
+ */
+
+package net.coding.ide.service;
+
+import net.coding.ide.utils.FilesUtils;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.junit.Assert.assertEquals;
+
+public class LineIndexTest {
+
+    private Path dir;
+
+    @Before
+    public void setUp() throws Exception {
+        dir = FilesUtils.createTempDirectoryAndDeleteOnExit("line-index").toPath();
+    }
+
+    @Test
+    public void testWindows() throws Exception {
+        StringBuilder content = new StringBuilder();
+
+        for (int i = 0; i < 1000; i++) {
+            content.append("line ").append(i).append('\n');
+        }
+
+        LineIndex index = LineIndex.build(write("a.txt", content.toString()));
+
+        assertEquals(1000, index.getLineCount());
+        assertEquals(Arrays.asList("line 0", "line 1"), index.read(0, 2, UTF_8));
+
+        // around the lines whose start is kept
+        assertEquals(Arrays.asList("line 63", "line 64", "line 65"), index.read(63, 3, UTF_8));
+        assertEquals(Arrays.asList("line 127", "line 128"), index.read(127, 2, UTF_8));
+        assertEquals(Arrays.asList("line 500"), index.read(500, 1, UTF_8));
+
+        List<String> window = index.read(100, 300, UTF_8);
+
+        assertEquals(300, window.size());
+        assertEquals("line 100", window.get(0));
+        assertEquals("line 399", window.get(299));
+    }
+
+    @Test
+    public void testEndOfFile() throws Exception {
+        LineIndex index = LineIndex.build(write("a.txt", "a\nb\nc\n"));
+
+        // a newline at the end does not start another line
+        assertEquals(3, index.getLineCount());
+        assertEquals(Arrays.asList("b", "c"), index.read(1, 10, UTF_8));
+        assertEquals(Collections.emptyList(), index.read(3, 10, UTF_8));
+        assertEquals(Collections.emptyList(), index.read(0, 0, UTF_8));
+    }
+
+    @Test
+    public void testLastLineWithoutNewline() throws Exception {
+        LineIndex index = LineIndex.build(write("a.txt", "a\nb\nlast"));
+
+        assertEquals(3, index.getLineCount());
+        assertEquals(Arrays.asList("b", "last"), index.read(1, 10, UTF_8));
+        assertEquals(Arrays.asList("last"), index.read(2, 1, UTF_8));
+
+        StringBuilder content = new StringBuilder();
+
+        for (int i = 0; i < 128; i++) {
+            content.append(i).append('\n');
+        }
+
+        // the last line is the first of a sample
+        index = LineIndex.build(write("b.txt", content.append("last").toString()));
+
+        assertEquals(129, index.getLineCount());
+        assertEquals(Arrays.asList("127", "last"), index.read(127, 10, UTF_8));
+    }
+
+    @Test
+    public void testSingleLineWithoutNewline() throws Exception {
+        LineIndex index = LineIndex.build(write("a.txt", "only"));
+
+        assertEquals(1, index.getLineCount());
+        assertEquals(Arrays.asList("only"), index.read(0, 10, UTF_8));
+    }
+
+    @Test
+    public void testEmptyFile() throws Exception {
+        LineIndex index = LineIndex.build(write("a.txt", ""));
+
+        assertEquals(0, index.getLineCount());
+        assertEquals(Collections.emptyList(), index.read(0, 10, UTF_8));
+    }
+
+    @Test
+    public void testCrlfAndEmptyLines() throws Exception {
+        LineIndex index = LineIndex.build(write("a.txt", "a\r\n\r\n\nb\r\n"));
+
+        assertEquals(4, index.getLineCount());
+        assertEquals(Arrays.asList("a", "", "", "b"), index.read(0, 10, UTF_8));
+    }
+
+    @Test
+    public void testLinesAcrossReadBuffers() throws Exception {
+        char[] longLine = new char[100 * 1024];
+
+        Arrays.fill(longLine, '你');
+
+        String line = new String(longLine);
+        LineIndex index = LineIndex.build(write("a.txt", "first\n" + line + "\nlast\n"));
+
+        assertEquals(3, index.getLineCount());
+        assertEquals(Arrays.asList(line, "last"), index.read(1, 2, UTF_8));
+    }
+
+    private Path write(String name, String content) throws Exception {
+        Path p = dir.resolve(name);
+
+        Files.write(p, content.getBytes(UTF_8));
+
+        return p;
+    }
+}
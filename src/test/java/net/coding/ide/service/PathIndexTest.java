@@ -0,0 +1,162 @@
+/*
+ * Copyright (c) 2014-2016 CODING.
+ */
+
+package net.coding.ide.service;
+
+import net.coding.ide.model.Workspace;
+import net.coding.ide.utils.WorkspaceHelper;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Queue;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class PathIndexTest {
+
+    private Workspace ws;
+
+    private Path workingDir;
+
+    private PathIndex index;
+
+    @Before
+    public void setUp() throws Exception {
+        ws = WorkspaceHelper.createWorkspace("path-index");
+        workingDir = ws.getWorkingDir().toPath();
+
+        write(".gitignore", "target/\n");
+        write("src/main/java/net/coding/ide/service/WorkspaceManagerImpl.java");
+        write("src/main/java/net/coding/ide/service/WorkspaceManager.java");
+        write("src/main/java/net/coding/ide/model/Workspace.java");
+        write("src/main/resources/web/workspace.js");
+        write("docs/what_is_my_workspace.md");
+        write("target/classes/Workspace.class");
+        write(".git/config");
+
+        index = new PathIndex(ws, Runnable::run);
+        index.build();
+    }
+
+    @Test
+    public void testFileNameMatchesComeFirst() {
+        assertEquals(Arrays.asList(
+                "src/main/java/net/coding/ide/service/WorkspaceManager.java",
+                "src/main/java/net/coding/ide/service/WorkspaceManagerImpl.java",
+                // only through its directories
+                "src/main/java/net/coding/ide/model/Workspace.java"),
+                index.find("manager", false, 10));
+    }
+
+    @Test
+    public void testWholeWordsComeFirstThenShorterPaths() {
+        assertEquals(Arrays.asList(
+                "docs/what_is_my_workspace.md",
+                "src/main/resources/web/workspace.js",
+                "src/main/java/net/coding/ide/model/Workspace.java",
+                "src/main/java/net/coding/ide/service/WorkspaceManager.java",
+                "src/main/java/net/coding/ide/service/WorkspaceManagerImpl.java"),
+                index.find("workspace", false, 10));
+    }
+
+    @Test
+    public void testTiesGoToTheSmallerPath() throws Exception {
+        write("b/readme.txt");
+        write("a/readme.txt");
+        index.update("a");
+        index.update("b");
+
+        assertEquals(Arrays.asList("a/readme.txt", "b/readme.txt"), index.find("readme", false, 10));
+    }
+
+    @Test
+    public void testScatteredCharactersMatch() {
+        assertEquals(Arrays.asList("src/main/java/net/coding/ide/service/WorkspaceManagerImpl.java"),
+                index.find("wmi", false, 10));
+        assertEquals(0, index.find("zzz", true, 10).size());
+    }
+
+    @Test
+    public void testQueryCanSpanDirectories() {
+        assertEquals(Arrays.asList("src/main/java/net/coding/ide/model/Workspace.java"),
+                index.find("model/wo", false, 10));
+    }
+
+    @Test
+    public void testIgnoredAndGitAreLeftOut() {
+        assertTrue(!index.find("workspace.class", false, 10).contains("target/classes/Workspace.class"));
+        assertTrue(index.find("workspace.class", true, 10).contains("target/classes/Workspace.class"));
+        assertEquals(0, index.find("config", true, 10).size());
+    }
+
+    @Test
+    public void testLimitIsClamped() {
+        assertEquals(1, index.find("workspace", false, 1).size());
+        assertEquals(1, index.find("workspace", false, -1).size());
+        assertEquals(5, index.find("ws", false, Integer.MAX_VALUE).size());
+    }
+
+    @Test
+    public void testUpdate() throws Exception {
+        write("src/NewWorkspaceThing.java");
+        index.update("src/NewWorkspaceThing.java");
+
+        Files.delete(workingDir.resolve("docs/what_is_my_workspace.md"));
+        index.update("docs");
+
+        List<String> found = index.find("workspace", false, 10);
+
+        assertTrue(found.contains("src/NewWorkspaceThing.java"));
+        assertTrue(!found.contains("docs/what_is_my_workspace.md"));
+    }
+
+    @Test
+    public void testUpdateIsWalkedByTheExecutor() throws Exception {
+        Queue<Runnable> tasks = new ArrayDeque<>();
+
+        index = new PathIndex(ws, tasks::add);
+        // the working dir is watched, its changes come through updates only
+        index.watched("", true);
+        index.build();
+
+        write("lib/workspace-utils/index.js");
+        index.update("lib");
+        index.update("lib");
+
+        assertTrue(!index.find("workspace-utils", false, 10).contains("lib/workspace-utils/index.js"));
+        assertEquals(1, tasks.size());
+
+        tasks.poll().run();
+
+        assertEquals(Arrays.asList("lib/workspace-utils/index.js"), index.find("workspace-utils", false, 10));
+    }
+
+    @Test
+    public void testDirectoriesNotWatchedAreCheckedOnFind() throws Exception {
+        write("src/UnwatchedWorkspaceThing.java");
+        Files.delete(workingDir.resolve("docs/what_is_my_workspace.md"));
+
+        List<String> found = index.find("workspace", false, 10);
+
+        assertTrue(found.contains("src/UnwatchedWorkspaceThing.java"));
+        assertTrue(!found.contains("docs/what_is_my_workspace.md"));
+    }
+
+    private void write(String path) throws Exception {
+        write(path, path);
+    }
+
+    private void write(String path, String content) throws Exception {
+        Path p = workingDir.resolve(path);
+
+        Files.createDirectories(p.getParent());
+        Files.write(p, content.getBytes());
+    }
+}
@@ -0,0 +1,197 @@
+/*
+ * Copyright (c) 2014-2016 CODING.
+ */
+
+package net.coding.ide.service;
+
+import com.google.common.hash.Hashing;
+import net.coding.ide.dto.UploadDTO;
+import net.coding.ide.model.Workspace;
+import net.coding.ide.model.exception.NotFoundException;
+import net.coding.ide.model.exception.WorkspaceIOException;
+import net.coding.ide.utils.WorkspaceHelper;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.io.ByteArrayInputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import static org.mockito.Mockito.mock;
+
+public class UploadManagerImplTest {
+
+    private static final byte[] CONTENT = "0123456789abcdefghij".getBytes(UTF_8);
+
+    private Workspace ws;
+
+    private Path workingDir;
+
+    private Path uploadDir;
+
+    private UploadManagerImpl uploadMgr;
+
+    @Before
+    public void setUp() throws Exception {
+        ws = WorkspaceHelper.createWorkspace("upload");
+        workingDir = ws.getWorkingDir().toPath();
+        uploadDir = ws.getUploadDir().toPath();
+
+        uploadMgr = new UploadManagerImpl();
+        ReflectionTestUtils.setField(uploadMgr, "wsMgr", mock(WorkspaceManager.class));
+    }
+
+    @Test
+    public void testChunksInAnyOrder() throws Exception {
+        UploadDTO upload = uploadMgr.init(ws, "dir/a.bin", CONTENT.length);
+
+        chunk(upload, 15, 20);
+        chunk(upload, 0, 5);
+        upload = chunk(upload, 5, 10);
+
+        assertEquals(2, upload.getReceived().size());
+        assertArrayEquals(new long[]{0, 10}, upload.getReceived().get(0));
+        assertArrayEquals(new long[]{15, 20}, upload.getReceived().get(1));
+
+        try {
+            uploadMgr.complete(ws, upload.getId(), sha1(CONTENT));
+            fail();
+        } catch (WorkspaceIOException e) {
+            // 10 to 15 is missing, the upload is kept
+        }
+
+        // overlapping what has been received already
+        upload = chunk(upload, 8, 16);
+
+        assertEquals(1, upload.getReceived().size());
+        assertArrayEquals(new long[]{0, 20}, upload.getReceived().get(0));
+
+        uploadMgr.complete(ws, upload.getId(), sha1(CONTENT).toUpperCase());
+
+        assertArrayEquals(CONTENT, Files.readAllBytes(workingDir.resolve("dir/a.bin")));
+        assertFalse(Files.exists(uploadDir.resolve(upload.getId())));
+    }
+
+    @Test
+    public void testChunkOutOfTheUpload() throws Exception {
+        UploadDTO upload = uploadMgr.init(ws, "a.bin", CONTENT.length);
+
+        try {
+            uploadMgr.writeChunk(ws, upload.getId(), 15, new ByteArrayInputStream(new byte[10]));
+            fail();
+        } catch (WorkspaceIOException e) {
+            // expected
+        }
+
+        try {
+            uploadMgr.writeChunk(ws, upload.getId(), 21, new ByteArrayInputStream(new byte[1]));
+            fail();
+        } catch (WorkspaceIOException e) {
+            // expected
+        }
+
+        assertTrue(uploadMgr.get(ws, upload.getId()).getReceived().isEmpty());
+    }
+
+    @Test
+    public void testChecksumMismatchDropsTheUpload() throws Exception {
+        UploadDTO upload = uploadMgr.init(ws, "a.bin", CONTENT.length);
+
+        chunk(upload, 0, 20);
+
+        try {
+            uploadMgr.complete(ws, upload.getId(), sha1("something else".getBytes(UTF_8)));
+            fail();
+        } catch (WorkspaceIOException e) {
+            // expected
+        }
+
+        assertFalse(Files.exists(workingDir.resolve("a.bin")));
+        assertFalse(Files.exists(uploadDir.resolve(upload.getId())));
+        assertNotFound(upload.getId());
+    }
+
+    @Test
+    public void testAbort() throws Exception {
+        UploadDTO upload = uploadMgr.init(ws, "a.bin", CONTENT.length);
+
+        chunk(upload, 0, 10);
+        uploadMgr.abort(ws, upload.getId());
+
+        assertFalse(Files.exists(uploadDir.resolve(upload.getId())));
+        assertNotFound(upload.getId());
+
+        try {
+            uploadMgr.writeChunk(ws, upload.getId(), 10, new ByteArrayInputStream(CONTENT, 10, 10));
+            fail();
+        } catch (NotFoundException e) {
+            // expected
+        }
+    }
+
+    @Test
+    public void testEmptyUpload() throws Exception {
+        UploadDTO upload = uploadMgr.init(ws, "empty", 0);
+
+        uploadMgr.complete(ws, upload.getId(), sha1(new byte[0]));
+
+        assertEquals(0, Files.size(workingDir.resolve("empty")));
+    }
+
+    @Test
+    public void testCompleteReplacesTheTargetOfALink() throws Exception {
+        Files.write(workingDir.resolve("target.bin"), "old".getBytes(UTF_8));
+        Files.createSymbolicLink(workingDir.resolve("link.bin"), workingDir.resolve("target.bin"));
+
+        UploadDTO upload = uploadMgr.init(ws, "link.bin", CONTENT.length);
+
+        chunk(upload, 0, 20);
+        uploadMgr.complete(ws, upload.getId(), sha1(CONTENT));
+
+        assertTrue(Files.isSymbolicLink(workingDir.resolve("link.bin")));
+        assertArrayEquals(CONTENT, Files.readAllBytes(workingDir.resolve("target.bin")));
+    }
+
+    @Test
+    public void testOrphansAreSwept() throws Exception {
+        Files.createDirectories(uploadDir);
+        Files.write(uploadDir.resolve("0123456789abcdef"), CONTENT);
+
+        UploadDTO upload = uploadMgr.init(ws, "a.bin", CONTENT.length);
+
+        assertFalse(Files.exists(uploadDir.resolve("0123456789abcdef")));
+        assertTrue(Files.exists(uploadDir.resolve(upload.getId())));
+
+        // the uploads of this run are left alone
+        UploadDTO another = uploadMgr.init(ws, "b.bin", CONTENT.length);
+
+        assertTrue(Files.exists(uploadDir.resolve(upload.getId())));
+        assertTrue(Files.exists(uploadDir.resolve(another.getId())));
+    }
+
+    private UploadDTO chunk(UploadDTO upload, int from, int to) throws Exception {
+        return uploadMgr.writeChunk(ws, upload.getId(), from,
+                new ByteArrayInputStream(Arrays.copyOfRange(CONTENT, from, to)));
+    }
+
+    private void assertNotFound(String id) {
+        try {
+            uploadMgr.get(ws, id);
+            fail();
+        } catch (NotFoundException e) {
+            // expected
+        }
+    }
+
+    private static String sha1(byte[] content) {
+        return Hashing.sha1().hashBytes(content).toString();
+    }
+}
@@ -0,0 +1,142 @@
+/*
+ * Copyright (c) 2014-2016 CODING.
+ */
+
+package net.coding.ide.service;
+
+import com.google.common.collect.ImmutableSet;
+import net.coding.ide.utils.FilesUtils;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.List;
+import java.util.stream.Collectors;
+
+import static org.junit.Assert.*;
+
+public class WorkspaceTreeTest {
+
+    private Path workingDir;
+
+    private WorkspaceTree tree;
+
+    @Before
+    public void setUp() throws Exception {
+        workingDir = FilesUtils.createTempDirectoryAndDeleteOnExit("workspace-tree").toPath();
+
+        write("a.txt", "a");
+        write("src/Main.java", "class Main {}");
+        write("src/util/Util.java", "class Util {}");
+        write("node_modules/lib/index.js", "");
+
+        // out of the racy window, so that only what changes is scanned again
+        for (String dir : new String[]{"", "src", "src/util", "node_modules"}) {
+            Files.setLastModifiedTime(workingDir.resolve(dir), FileTime.fromMillis(System.currentTimeMillis() - 60000));
+        }
+
+        tree = new WorkspaceTree(workingDir, ImmutableSet.of("node_modules"));
+        tree.build();
+    }
+
+    @Test
+    public void testListIsSortedWithCounts() throws Exception {
+        List<WorkspaceTree.Entry> entries = tree.list("");
+
+        assertEquals("[a.txt, node_modules, src]", names(entries).toString());
+
+        WorkspaceTree.Entry src = tree.get("src");
+
+        assertEquals(Integer.valueOf(1), src.getDirectoriesCount());
+        assertEquals(Integer.valueOf(1), src.getFilesCount());
+    }
+
+    @Test
+    public void testUnscannedDirectoryIsKeptWithoutChildren() throws Exception {
+        WorkspaceTree.Entry nodeModules = tree.get("node_modules");
+
+        assertTrue(nodeModules.isDirectory());
+        assertNull(nodeModules.getFilesCount());
+        assertNull(tree.list("node_modules"));
+        assertNull(tree.get("node_modules/lib/index.js"));
+        assertEquals("[a.txt, src/Main.java, src/util/Util.java]", tree.filePaths().toString());
+    }
+
+    @Test
+    public void testInPlaceWriteIsSeenByList() throws Exception {
+        Path src = workingDir.resolve("src");
+        FileTime dirModified = Files.getLastModifiedTime(src);
+
+        write("src/Main.java", "class Main { int a; }");
+        // an in place write leaves the directory as it was
+        Files.setLastModifiedTime(src, dirModified);
+
+        WorkspaceTree.Entry main = tree.list("src").stream()
+                .filter(entry -> entry.getName().equals("Main.java"))
+                .findFirst()
+                .get();
+
+        assertEquals(Files.size(src.resolve("Main.java")), main.getSize());
+    }
+
+    @Test
+    public void testListPicksUpChangedChildDirectory() throws Exception {
+        write("src/util/More.java", "");
+
+        WorkspaceTree.Entry util = tree.list("src").stream()
+                .filter(entry -> entry.getName().equals("util"))
+                .findFirst()
+                .get();
+
+        assertEquals(Integer.valueOf(2), util.getFilesCount());
+    }
+
+    @Test
+    public void testWatchedDirectoryIsServedFromMemory() throws Exception {
+        tree.watched("src", true);
+        tree.list("src");
+
+        write("src/New.java", "");
+
+        // the watcher has not told about it yet
+        assertEquals("[Main.java, util]", names(tree.list("src")).toString());
+        assertEquals(Integer.valueOf(1), tree.get("src").getFilesCount());
+
+        tree.update("src/New.java");
+
+        assertEquals("[Main.java, New.java, util]", names(tree.list("src")).toString());
+    }
+
+    @Test
+    public void testUpdateMirrorsCreatesAndDeletes() throws Exception {
+        write("src/util/deep/New.java", "");
+        tree.update("src/util/deep");
+
+        Files.delete(workingDir.resolve("a.txt"));
+        tree.update("a.txt");
+
+        assertEquals("[src/Main.java, src/util/Util.java, src/util/deep/New.java]", tree.filePaths().toString());
+    }
+
+    @Test
+    public void testGetOfTypeChange() throws Exception {
+        Files.delete(workingDir.resolve("a.txt"));
+        Files.createDirectory(workingDir.resolve("a.txt"));
+
+        assertTrue(tree.get("a.txt").isDirectory());
+        assertNull(tree.get("missing"));
+    }
+
+    private static List<String> names(List<WorkspaceTree.Entry> entries) {
+        return entries.stream().map(WorkspaceTree.Entry::getName).collect(Collectors.toList());
+    }
+
+    private void write(String path, String content) throws Exception {
+        Path p = workingDir.resolve(path);
+
+        Files.createDirectories(p.getParent());
+        Files.write(p, content.getBytes());
+    }
+}
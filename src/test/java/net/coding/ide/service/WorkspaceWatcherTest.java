@@ -0,0 +1,295 @@
+/*
+ * Copyright (c) 2014-2016 CODING.
+ */
+
+package net.coding.ide.service;
+
+import com.google.common.collect.Lists;
+import com.google.common.collect.Sets;
+import net.coding.ide.model.Workspace;
+import net.coding.ide.utils.WorkspaceHelper;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayDeque;
+import java.util.Map;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static java.nio.file.StandardWatchEventKinds.ENTRY_CREATE;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class WorkspaceWatcherTest {
+
+    private static final long IDLE_TIMEOUT = TimeUnit.MINUTES.toMillis(30);
+
+    private Workspace ws;
+
+    private Path workingDir;
+
+    private ScheduledExecutorService scheduler;
+
+    private FakePoller poller;
+
+    private WorkspaceWatcher watcher;
+
+    /**
+     * what the listener is told
+     */
+    private final Set<String> told = Sets.newConcurrentHashSet();
+
+    @Before
+    public void setUp() throws Exception {
+        ws = WorkspaceHelper.createWorkspace("workspace-watcher");
+        workingDir = ws.getWorkingDir().toPath();
+
+        Files.createDirectories(workingDir.resolve(".git/objects/ab"));
+        Files.createDirectories(workingDir.resolve(".git/refs/heads"));
+        Files.createDirectories(workingDir.resolve("src/main/java"));
+        Files.createDirectories(workingDir.resolve("docs"));
+
+        scheduler = Executors.newSingleThreadScheduledExecutor();
+        poller = new FakePoller();
+        WorkspaceChangeListener listener = new WorkspaceChangeListener() {
+            @Override
+            public void open(Workspace ws) {
+            }
+
+            @Override
+            public void close(String spaceKey) {
+            }
+
+            @Override
+            public void update(Workspace ws, String path) {
+                told.add("update " + path);
+            }
+
+            @Override
+            public void watched(Workspace ws, String dir, boolean watched) {
+                told.add((watched ? "watched " : "unwatched ") + dir);
+            }
+
+            @Override
+            public void resync(Workspace ws, String dir) {
+                told.add("resync " + dir);
+            }
+        };
+
+        watcher = new WorkspaceWatcher(null, ws, new WatchedPathStore(), Lists.<WorkspaceChangeListener>newArrayList(listener),
+                null, scheduler, Runnable::run);
+        watcher.attach(poller, Runnable::run);
+    }
+
+    @After
+    public void tearDown() {
+        watcher.stop();
+        scheduler.shutdownNow();
+    }
+
+    @Test
+    public void testOnlyTheGitStateIsWatchedAtFirst() throws Exception {
+        watcher.start(IDLE_TIMEOUT);
+
+        assertEquals(Sets.newHashSet(workingDir, workingDir.resolve(".git"), workingDir.resolve(".git/refs/heads")),
+                poller.dirs.keySet());
+        assertEquals(3, watcher.getWatchCount());
+        assertEquals(Sets.newHashSet("watched ", "watched .git", "watched .git/refs/heads"), told);
+    }
+
+    @Test
+    public void testListedDirectoriesAreWatched() throws Exception {
+        watcher.start(IDLE_TIMEOUT);
+
+        long before = System.currentTimeMillis() - 1;
+
+        watcher.view(workingDir.resolve("src/main"));
+        watcher.view(workingDir.resolve(".git/objects/ab"));
+
+        assertTrue(poller.dirs.containsKey(workingDir.resolve("src/main")));
+        assertFalse(poller.dirs.containsKey(workingDir.resolve("src")));
+        assertFalse(poller.dirs.containsKey(workingDir.resolve(".git/objects/ab")));
+        assertTrue(told.contains("watched src/main"));
+
+        // the deletions in a directory are only known from the time it is watched
+        assertTrue(watcher.isWatchedSince(workingDir.resolve("src/main"), System.currentTimeMillis()));
+        assertFalse(watcher.isWatchedSince(workingDir.resolve("src/main"), before));
+        assertFalse(watcher.isWatchedSince(workingDir.resolve("src"), System.currentTimeMillis()));
+    }
+
+    @Test
+    public void testNewDirectoriesAreWatchedOnceListed() throws Exception {
+        watcher.start(IDLE_TIMEOUT);
+
+        Files.createDirectories(workingDir.resolve("lib/v1"));
+        watcher.changed(poller.dirs.get(workingDir), ENTRY_CREATE, Paths.get("lib"));
+
+        assertFalse(poller.dirs.containsKey(workingDir.resolve("lib")));
+
+        watcher.view(workingDir.resolve("lib"));
+
+        assertTrue(poller.dirs.containsKey(workingDir.resolve("lib")));
+        assertFalse(poller.dirs.containsKey(workingDir.resolve("lib/v1")));
+    }
+
+    @Test
+    public void testNewBranchDirectoriesAreWatched() throws Exception {
+        watcher.start(IDLE_TIMEOUT);
+
+        Files.createDirectories(workingDir.resolve(".git/refs/heads/feature"));
+        watcher.changed(poller.dirs.get(workingDir.resolve(".git/refs/heads")), ENTRY_CREATE, Paths.get("feature"));
+
+        assertTrue(poller.dirs.containsKey(workingDir.resolve(".git/refs/heads/feature")));
+    }
+
+    @Test
+    public void testDirectoryWhichCanNotBeWatched() throws Exception {
+        watcher.start(IDLE_TIMEOUT);
+        poller.refused.add(workingDir.resolve("docs"));
+
+        try {
+            watcher.view(workingDir.resolve("docs"));
+            fail();
+        } catch (IOException e) {
+            // expected
+        }
+
+        assertFalse(watcher.isWatchedSince(workingDir.resolve("docs"), System.currentTimeMillis()));
+        assertFalse(told.contains("watched docs"));
+    }
+
+    @Test
+    public void testChangesAreHandledOffThePoller() throws Exception {
+        Queue<Runnable> tasks = new ArrayDeque<>();
+
+        watcher.attach(poller, tasks::add);
+        watcher.start(IDLE_TIMEOUT);
+
+        Files.createDirectories(workingDir.resolve(".git/refs/heads/feature"));
+        watcher.changed(poller.dirs.get(workingDir.resolve(".git/refs/heads")), ENTRY_CREATE, Paths.get("feature"));
+
+        assertFalse(poller.dirs.containsKey(workingDir.resolve(".git/refs/heads/feature")));
+
+        for (Runnable task; (task = tasks.poll()) != null; ) {
+            task.run();
+        }
+
+        assertTrue(poller.dirs.containsKey(workingDir.resolve(".git/refs/heads/feature")));
+    }
+
+    @Test
+    public void testIdleDirectoriesAreReleased() throws Exception {
+        watcher.start(50);
+        watcher.view(workingDir.resolve("docs"));
+
+        assertTrue(poller.dirs.containsKey(workingDir.resolve("docs")));
+
+        for (long deadline = System.currentTimeMillis() + 5000; System.currentTimeMillis() < deadline; ) {
+            if (!poller.dirs.containsKey(workingDir.resolve("docs"))) {
+                break;
+            }
+            Thread.sleep(10);
+        }
+
+        assertFalse(poller.dirs.containsKey(workingDir.resolve("docs")));
+        assertTrue(told.contains("unwatched docs"));
+
+        // the git state stays
+        assertTrue(poller.dirs.containsKey(workingDir));
+        assertTrue(poller.dirs.containsKey(workingDir.resolve(".git/refs/heads")));
+    }
+
+    @Test
+    public void testFewDirectoriesOverflowedAreScannedAgain() throws Exception {
+        watcher.start(IDLE_TIMEOUT);
+        watcher.view(workingDir.resolve("docs"));
+
+        Files.createFile(workingDir.resolve("docs/a.txt"));
+        watcher.overflow(poller.dirs.get(workingDir.resolve("docs")));
+
+        assertTrue(told.contains("update docs/a.txt"));
+        assertFalse(told.contains("resync "));
+        assertFalse(told.contains("resync docs"));
+    }
+
+    @Test
+    public void testManyDirectoriesOverflowedAreReadAgainAsAWhole() throws Exception {
+        watcher.start(IDLE_TIMEOUT);
+
+        for (int i = 0; i <= WorkspaceWatcher.MAX_RESCAN_DIRS; i++) {
+            Path dir = Files.createDirectories(workingDir.resolve("docs/" + i));
+
+            watcher.view(dir);
+        }
+
+        long before = System.currentTimeMillis();
+
+        Thread.sleep(10);
+
+        watcher.overflow(null);
+
+        assertTrue(told.contains("resync "));
+        assertFalse(told.contains("resync docs/0"));
+        assertFalse(watcher.isWatchedSince(workingDir.resolve("docs/0"), before));
+    }
+
+    /**
+     * Registers the directories without watching them, refuses some.
+     */
+    private static class FakePoller implements WatchPoller {
+
+        private final AtomicInteger next = new AtomicInteger();
+
+        private final Map<Path, Object> dirs = new ConcurrentHashMap<>();
+
+        private final Set<Path> refused = Sets.newConcurrentHashSet();
+
+        @Override
+        public Object register(Path dir, WorkspaceWatcher owner) throws IOException {
+            if (refused.contains(dir)) {
+                throw new IOException("no inotify watch left for " + dir);
+            }
+
+            Object key = next.incrementAndGet();
+
+            dirs.put(dir, key);
+
+            return key;
+        }
+
+        @Override
+        public void cancel(Object key) {
+            dirs.values().remove(key);
+        }
+
+        @Override
+        public int getWatchCount() {
+            return dirs.size();
+        }
+
+        @Override
+        public int getThreadCount() {
+            return 0;
+        }
+
+        @Override
+        public void close() {
+        }
+
+        @Override
+        public void run() {
+        }
+    }
+}
@@ -0,0 +1,135 @@
+/*
+ * Copyright (c) 2014-2016 CODING.
+ */
+
+package net.coding.ide.utils;
+
+import com.google.common.io.ByteStreams;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Random;
+import java.util.zip.GZIPInputStream;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class ParallelGzipOutputStreamTest {
+
+    @Test
+    public void testEmpty() throws Exception {
+        assertArrayEquals(new byte[0], roundTrip(new byte[0], 1024));
+    }
+
+    @Test
+    public void testSmallerThanABlock() throws Exception {
+        byte[] data = "hello, hello, hello".getBytes(UTF_8);
+
+        assertArrayEquals(data, roundTrip(data, 1024));
+    }
+
+    @Test
+    public void testManyBlocks() throws Exception {
+        // text repeating across block boundaries, where the dictionary of a block matters
+        StringBuilder text = new StringBuilder();
+
+        for (int i = 0; text.length() < 3 * 1024 * 1024; i++) {
+            text.append("line ").append(i % 1000).append(" of some source file\n");
+        }
+
+        byte[] data = text.toString().getBytes(UTF_8);
+        ByteArrayOutputStream compressed = new ByteArrayOutputStream();
+
+        try (ParallelGzipOutputStream out = new ParallelGzipOutputStream(compressed)) {
+            out.write(data);
+        }
+
+        assertArrayEquals(data, gunzip(compressed.toByteArray()));
+        assertTrue(compressed.size() < data.length / 10);
+    }
+
+    @Test
+    public void testRandomDataInOddWrites() throws Exception {
+        byte[] data = new byte[1024 * 1024 + 7];
+
+        new Random(42).nextBytes(data);
+
+        // writes of one byte, and of sizes which do not line up with the blocks
+        assertArrayEquals(data, roundTrip(data, 1));
+        assertArrayEquals(data, roundTrip(data, 3001));
+        assertArrayEquals(data, roundTrip(data, 200 * 1024));
+    }
+
+    @Test
+    public void testFlushInTheMiddle() throws Exception {
+        byte[] data = new byte[512 * 1024];
+
+        new Random(7).nextBytes(data);
+
+        ByteArrayOutputStream compressed = new ByteArrayOutputStream();
+
+        try (ParallelGzipOutputStream out = new ParallelGzipOutputStream(compressed)) {
+            out.write(data, 0, 300 * 1024);
+            out.flush();
+            out.write(data, 300 * 1024, data.length - 300 * 1024);
+        }
+
+        assertArrayEquals(data, gunzip(compressed.toByteArray()));
+    }
+
+    @Test
+    public void testFinishLeavesTheOutputOpen() throws Exception {
+        byte[] data = "finished".getBytes(UTF_8);
+        boolean[] closed = {false};
+        ByteArrayOutputStream compressed = new ByteArrayOutputStream() {
+            @Override
+            public void close() {
+                closed[0] = true;
+            }
+        };
+        ParallelGzipOutputStream out = new ParallelGzipOutputStream(compressed);
+
+        out.write(data);
+        out.finish();
+
+        assertFalse(closed[0]);
+        assertArrayEquals(data, gunzip(compressed.toByteArray()));
+
+        int size = compressed.size();
+
+        // closing after finishing writes nothing more
+        out.close();
+
+        assertTrue(closed[0]);
+        assertEquals(size, compressed.size());
+    }
+
+    private static byte[] roundTrip(byte[] data, int writeSize) throws IOException {
+        ByteArrayOutputStream compressed = new ByteArrayOutputStream();
+
+        try (ParallelGzipOutputStream out = new ParallelGzipOutputStream(compressed)) {
+            for (int off = 0; off < data.length; off += writeSize) {
+                int len = Math.min(writeSize, data.length - off);
+
+                if (len == 1) {
+                    out.write(data[off]);
+                } else {
+                    out.write(data, off, len);
+                }
+            }
+        }
+
+        return gunzip(compressed.toByteArray());
+    }
+
+    private static byte[] gunzip(byte[] compressed) throws IOException {
+        try (GZIPInputStream in = new GZIPInputStream(new ByteArrayInputStream(compressed))) {
+            return ByteStreams.toByteArray(in);
+        }
+    }
+}
@@ -0,0 +1,27 @@
+/*
+ * Copyright (c) 2014-2016 CODING.
+ */
+
+package net.coding.ide.utils;
+
+import net.coding.ide.entity.ProjectEntity;
+import net.coding.ide.entity.WorkspaceEntity;
+import net.coding.ide.model.Workspace;
+
+public class WorkspaceHelper {
+
+    /**
+     * @param prefix the prefix of the name of the working dir
+     * @return a workspace "test" of a new temporary working dir, deleted on exit
+     */
+    public static Workspace createWorkspace(String prefix) {
+        ProjectEntity project = new ProjectEntity();
+        project.setUrl("git@coding.net:test/test.git");
+
+        WorkspaceEntity wsEntity = new WorkspaceEntity();
+        wsEntity.setSpaceKey("test");
+        wsEntity.setProject(project);
+
+        return new Workspace(wsEntity, FilesUtils.createTempDirectoryAndDeleteOnExit(prefix));
+    }
+}